@@ -1,6 +1,7 @@
 package com.crossover.trial.weather;
 
 import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.loader.AirportFileParser;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
@@ -31,21 +32,7 @@ public class AirportLoader {
     }
 
     public void upload(InputStream airportDataStream) throws IOException{
-        BufferedReader reader = new BufferedReader(new InputStreamReader(airportDataStream));
-        String l = null;
-        while ((l = reader.readLine()) != null) {
-            String[] split = l.split(",");
-            AirportData ad = new AirportData();
-            ad.setName(split[0].replace("\"", ""));
-            ad.setCity(split[1].replace("\"", ""));
-            ad.setCountry(split[2].replace("\"", ""));
-            ad.setIata(split[3].replace("\"", ""));
-            ad.setIcao(split[4].replace("\"", ""));
-            ad.setLatitude(Double.valueOf(split[5]));
-            ad.setLongitude(Double.valueOf(split[6]));
-            ad.setFeet(Integer.valueOf(split[7]));
-            ad.setTimezone(Double.valueOf(split[8]));
-            ad.setDst(split[9].replace("\"", ""));
+        for (AirportData ad : AirportFileParser.parse(airportDataStream)) {
             Response post = makeRequest(ad);
         }
     }
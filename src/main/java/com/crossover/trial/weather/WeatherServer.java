@@ -1,8 +1,22 @@
 package com.crossover.trial.weather;
 
+import com.crossover.trial.weather.binary.BinaryQueryServer;
+import com.crossover.trial.weather.history.HistoryStore;
+import com.crossover.trial.weather.provider.AdmissionFilter;
+import com.crossover.trial.weather.provider.BulkheadHandler;
+import com.crossover.trial.weather.provider.CompressionInterceptor;
+import com.crossover.trial.weather.provider.ForwardedHeaderFilter;
+import com.crossover.trial.weather.provider.RequestTracer;
+import com.crossover.trial.weather.provider.SmileMessageBodyWriter;
+import com.crossover.trial.weather.provider.TrafficCaptureFilter;
+import com.crossover.trial.weather.service.ReplicaFollower;
+import com.crossover.trial.weather.service.RestAdminEndpoint;
+import com.crossover.trial.weather.service.RestReplicationEndpoint;
 import com.crossover.trial.weather.service.RestWeatherQueryEndpoint;
 import com.crossover.trial.weather.service.RestWeatherCollectorEndpoint;
 import org.glassfish.grizzly.Connection;
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpHandlerRegistration;
 import org.glassfish.grizzly.http.server.HttpServer;
 import org.glassfish.grizzly.http.server.HttpServerFilter;
 import org.glassfish.grizzly.http.server.HttpServerProbe;
@@ -12,6 +26,8 @@ import org.glassfish.jersey.server.ResourceConfig;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,7 +41,8 @@ import static java.lang.String.*;
  */
 public class WeatherServer {
 
-    private static final String BASE_URL = "http://localhost:8080/";
+    /** where to listen, set <code>weather.baseUrl</code> to run several servers side by side */
+    private static final String BASE_URL = System.getProperty("weather.baseUrl", "http://localhost:8080/");
 
     public static void main(String[] args) {
         try {
@@ -33,14 +50,44 @@ public class WeatherServer {
             System.out.println("Not for production use");
 
             final ResourceConfig resourceConfig = new ResourceConfig();
-            resourceConfig.register(RestWeatherCollectorEndpoint.class);
+            // a single collector instance, so the airport catalog is loaded once at startup
+            RestWeatherCollectorEndpoint collector = new RestWeatherCollectorEndpoint();
+            resourceConfig.register(collector);
             resourceConfig.register(RestWeatherQueryEndpoint.class);
+            resourceConfig.register(RestReplicationEndpoint.class);
+            resourceConfig.register(RestAdminEndpoint.class);
+            resourceConfig.register(ForwardedHeaderFilter.class);
+            resourceConfig.register(AdmissionFilter.class);
+            resourceConfig.register(RequestTracer.class);
+            resourceConfig.register(CompressionInterceptor.class);
+            resourceConfig.register(SmileMessageBodyWriter.class);
+            if (TrafficCaptureFilter.isEnabled()) {
+                resourceConfig.register(TrafficCaptureFilter.class);
+            }
             final HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URL), resourceConfig, false);
+            // queries and collector requests each run on a pool of their own
+            Map<HttpHandler, HttpHandlerRegistration[]> handlers =
+                    new HashMap<>(server.getServerConfiguration().getHttpHandlersWithMapping());
+            for (Map.Entry<HttpHandler, HttpHandlerRegistration[]> e : handlers.entrySet()) {
+                server.getServerConfiguration().removeHttpHandler(e.getKey());
+                server.getServerConfiguration().addHttpHandler(
+                        new BulkheadHandler(e.getKey(), URI.create(BASE_URL).getPath()), e.getValue());
+            }
 
             Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
                 @Override
                 public void run() {
                     server.shutdownNow();
+                    TrafficCaptureFilter.close();
+                    HistoryStore history = new RestWeatherQueryEndpoint().getHistoryStore();
+                    if (history != null) {
+                        try {
+                            history.close();
+                        } catch (IOException e) {
+                            Logger.getLogger(WeatherServer.class.getName()).log(Level.SEVERE,
+                                    "Could not flush the history", e);
+                        }
+                    }
                 }
             }));
 
@@ -53,6 +100,17 @@ public class WeatherServer {
             server.getServerConfiguration().getMonitoringConfig().getWebServerConfig().addProbes(probe);
             System.out.println(format("Weather Server started.\n url=%s\n", BASE_URL));
             server.start();
+            ReplicaFollower.startIfReplica(collector);
+            final BinaryQueryServer binary = BinaryQueryServer.startIfEnabled();
+            if (binary != null) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        binary.close();
+                    } catch (IOException e) {
+                        // exiting anyway
+                    }
+                }));
+            }
 
             Thread.currentThread().join();
         } catch (IOException | InterruptedException ex) {
@@ -0,0 +1,39 @@
+package com.crossover.trial.weather.binary;
+
+import com.crossover.trial.weather.util.AirportCodes;
+
+/**
+ * The framing of the binary query protocol. All values are big endian; airport codes travel packed as by
+ * {@link AirportCodes}.
+ *
+ * <pre>
+ * request   int op ({@link #OP_WEATHER}) | int iata | float radius km                       12 bytes
+ * response  int status | int record count                                                   8 bytes
+ *   record  int iata | int slot | long lastUpdateTime | double mean | int first | int second
+ *           | int third | int count                                                          40 bytes each
+ * </pre>
+ *
+ * One record is sent per data point held, the slot is the storage slot of its point type in the
+ * {@link com.crossover.trial.weather.domain.DataPointTypeRegistry}, so both ends must run the same point type
+ * configuration. Responses come back in request order, a client may send any number of requests before reading.
+ */
+public final class BinaryProtocol {
+
+    public static final int REQUEST_SIZE = 12;
+
+    public static final int HEADER_SIZE = 8;
+
+    public static final int RECORD_SIZE = 40;
+
+    /** weather of an airport and the airports within a radius, as GET /query/weather */
+    public static final int OP_WEATHER = 1;
+
+    public static final int STATUS_OK = 0;
+
+    public static final int STATUS_UNKNOWN_AIRPORT = 1;
+
+    public static final int STATUS_BAD_REQUEST = 2;
+
+    private BinaryProtocol() {
+    }
+}
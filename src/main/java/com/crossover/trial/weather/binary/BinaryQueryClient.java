@@ -0,0 +1,160 @@
+package com.crossover.trial.weather.binary;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.util.AirportCodes;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.crossover.trial.weather.binary.BinaryProtocol.*;
+
+/**
+ * A blocking client of the {@link BinaryQueryServer}, one connection, not thread safe. Requests may be pipelined:
+ * {@link #send(String, double)} any number of them, {@link #flush()}, then {@link #receive()} the answers in the
+ * same order. The server stops reading from a connection whose answers pile up unread, so receive before sending
+ * more than a few thousand requests.
+ */
+public class BinaryQueryClient implements AutoCloseable {
+
+    private final SocketChannel channel;
+
+    private final ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+
+    private final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+
+    public BinaryQueryClient(String host, int port) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        in.flip();
+    }
+
+    /**
+     * Send a request and read its answer.
+     *
+     * @return as {@link #receive()}
+     */
+    public List<Record> query(String iata, double radius) throws IOException {
+        send(iata, radius);
+        flush();
+        return receive();
+    }
+
+    /**
+     * Queue a weather request, written once the buffer fills or on {@link #flush()}.
+     */
+    public void send(String iata, double radius) throws IOException {
+        if (out.remaining() < REQUEST_SIZE) {
+            flush();
+        }
+        out.putInt(OP_WEATHER);
+        out.putInt(AirportCodes.pack(iata));
+        out.putFloat((float) radius);
+    }
+
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Read the answer to the oldest request not yet received.
+     *
+     * @return the data points of the airport and those within the radius, null if the airport is unknown
+     * @throws IOException if the server rejected the request or the connection failed
+     */
+    public List<Record> receive() throws IOException {
+        fill(HEADER_SIZE);
+        int status = in.getInt();
+        int count = in.getInt();
+        if (status == STATUS_UNKNOWN_AIRPORT) {
+            return null;
+        } else if (status != STATUS_OK) {
+            throw new IOException("Bad request, status " + status);
+        }
+        List<Record> retval = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fill(RECORD_SIZE);
+            String iata = AirportCodes.unpack(in.getInt());
+            String pointType = DataPointTypeRegistry.get(in.getInt()).getName();
+            long lastUpdateTime = in.getLong();
+            double mean = in.getDouble();
+            int first = in.getInt();
+            int second = in.getInt();
+            int third = in.getInt();
+            DataPoint dp = new DataPoint(first, second, 0, third, in.getInt());
+            dp.setMean(mean);
+            retval.add(new Record(iata, pointType, lastUpdateTime, dp));
+        }
+        return retval;
+    }
+
+    private void fill(int size) throws IOException {
+        if (in.remaining() >= size) {
+            return;
+        }
+        in.compact();
+        while (in.position() < size) {
+            if (channel.read(in) < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+        }
+        in.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * A data point of an airport, as answered.
+     */
+    public static final class Record {
+
+        private final String iata;
+
+        private final String pointType;
+
+        private final long lastUpdateTime;
+
+        private final DataPoint dataPoint;
+
+        Record(String iata, String pointType, long lastUpdateTime, DataPoint dataPoint) {
+            this.iata = iata;
+            this.pointType = pointType;
+            this.lastUpdateTime = lastUpdateTime;
+            this.dataPoint = dataPoint;
+        }
+
+        public String getIata() {
+            return iata;
+        }
+
+        public String getPointType() {
+            return pointType;
+        }
+
+        public long getLastUpdateTime() {
+            return lastUpdateTime;
+        }
+
+        public DataPoint getDataPoint() {
+            return dataPoint;
+        }
+
+        @Override
+        public String toString() {
+            return iata + " " + pointType + " " + dataPoint;
+        }
+    }
+}
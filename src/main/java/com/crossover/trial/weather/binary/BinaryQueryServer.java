@@ -0,0 +1,219 @@
+package com.crossover.trial.weather.binary;
+
+import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.service.RestWeatherQueryEndpoint;
+import com.crossover.trial.weather.util.AirportCodes;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.crossover.trial.weather.binary.BinaryProtocol.*;
+
+/**
+ * Serves the {@link BinaryProtocol} from the same in-memory store as the query endpoint, for internal consumers
+ * that read weather in a tight loop. One selector thread runs all connections: it reads whatever requests have
+ * arrived, answers them in order into the connection's output buffer and writes as much as the socket takes.
+ * While a connection has more than {@value #MAX_PENDING_OUTPUT} bytes of answers unsent, its requests are left
+ * unread, so a client that pipelines without reading can not grow the buffer without bound; the requests already
+ * read are answered once the client has taken some of the output.
+ *
+ * Enabled by setting <code>weather.binary.port</code>. Queries are not counted in the request frequencies, and on a
+ * sharded cluster only this node's airports are answered.
+ */
+public class BinaryQueryServer implements Runnable, AutoCloseable {
+
+    public final static Logger LOGGER = Logger.getLogger(BinaryQueryServer.class.getName());
+
+    private static final int INPUT_BUFFER = 16 * 1024;
+
+    private static final int OUTPUT_BUFFER = 64 * 1024;
+
+    private static final int MAX_PENDING_OUTPUT = 1024 * 1024;
+
+    private final RestWeatherQueryEndpoint store = new RestWeatherQueryEndpoint();
+
+    private final Selector selector;
+
+    private final ServerSocketChannel server;
+
+    private final Thread thread;
+
+    /**
+     * @param address where to listen, port 0 for any free port
+     */
+    public BinaryQueryServer(InetSocketAddress address) throws IOException {
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this, "weather-binary-query");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * @return a started server if <code>weather.binary.port</code> is set, otherwise null
+     */
+    public static BinaryQueryServer startIfEnabled() throws IOException {
+        Integer port = Integer.getInteger("weather.binary.port");
+        if (port == null) {
+            return null;
+        }
+        BinaryQueryServer server = new BinaryQueryServer(new InetSocketAddress(port));
+        server.start();
+        LOGGER.log(Level.INFO, "Binary query listener on port {0}", server.getPort());
+        return server;
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        selector.close();
+        server.close();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            serve(key);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.log(Level.FINE, "Closing binary query connection", e);
+                        key.cancel();
+                        key.channel().close();
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // closed
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Binary query listener failed", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.register(selector, SelectionKey.OP_READ, new Connection());
+        }
+    }
+
+    private void serve(SelectionKey key) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        if (key.isReadable() && channel.read(connection.in) < 0) {
+            key.cancel();
+            channel.close();
+            return;
+        }
+        connection.in.flip();
+        while (connection.in.remaining() >= REQUEST_SIZE && connection.out.position() < MAX_PENDING_OUTPUT) {
+            answer(connection, connection.in.getInt(), connection.in.getInt(), connection.in.getFloat());
+        }
+        connection.in.compact();
+
+        connection.out.flip();
+        channel.write(connection.out);
+        connection.out.compact();
+        if (connection.out.position() == 0 && connection.out.capacity() > OUTPUT_BUFFER) {
+            connection.out = ByteBuffer.allocate(OUTPUT_BUFFER);
+        }
+        // requests already read and left unanswered are not announced by the socket, come back for them as soon
+        // as it takes more output
+        int ops = connection.out.position() > 0 || connection.in.position() >= REQUEST_SIZE
+                ? SelectionKey.OP_WRITE : 0;
+        if (connection.out.position() < MAX_PENDING_OUTPUT) {
+            ops |= SelectionKey.OP_READ;
+        }
+        key.interestOps(ops);
+    }
+
+    private void answer(Connection connection, int op, int iata, float radius) {
+        int header = connection.reserve(HEADER_SIZE);
+        int status;
+        if (op != OP_WEATHER || !(radius >= 0) || iata == 0) {
+            status = STATUS_BAD_REQUEST;
+        } else {
+            boolean known = store.visitNearby(AirportCodes.unpack(iata), radius,
+                    (ad, ai) -> connection.write(ad, ai));
+            status = known ? STATUS_OK : STATUS_UNKNOWN_AIRPORT;
+        }
+        connection.out.putInt(header, status);
+        connection.out.putInt(header + 4, (connection.out.position() - header - HEADER_SIZE) / RECORD_SIZE);
+    }
+
+    private static final class Connection {
+
+        final ByteBuffer in = ByteBuffer.allocate(INPUT_BUFFER);
+
+        /** answers not yet written, in write mode */
+        ByteBuffer out = ByteBuffer.allocate(OUTPUT_BUFFER);
+
+        /**
+         * @return the position of the reserved bytes
+         */
+        int reserve(int size) {
+            if (out.remaining() < size) {
+                ByteBuffer grown = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + size));
+                out.flip();
+                grown.put(out);
+                out = grown;
+            }
+            int retval = out.position();
+            out.position(retval + size);
+            return retval;
+        }
+
+        void write(AirportData ad, AtmosphericInformation ai) {
+            synchronized (ai) {
+                for (DataPointTypeRegistry.Descriptor type : DataPointTypeRegistry.all()) {
+                    DataPoint dp = ai.getDataPoint(type.getSlot());
+                    if (dp == null) {
+                        continue;
+                    }
+                    int at = reserve(RECORD_SIZE);
+                    out.putInt(at, ad.getPackedIata());
+                    out.putInt(at + 4, type.getSlot());
+                    out.putLong(at + 8, ai.getUpdateTime(type.getSlot()));
+                    out.putDouble(at + 16, dp.getMean());
+                    out.putInt(at + 24, dp.getFirst());
+                    out.putInt(at + 28, dp.getSecond());
+                    out.putInt(at + 32, dp.getThird());
+                    out.putInt(at + 36, dp.getCount());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.crossover.trial.weather.capture;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a capture file written by {@link CaptureWriter}, one request at a time.
+ */
+public class CaptureReader implements Closeable {
+
+    private final DataInputStream in;
+
+    private final long startMillis;
+
+    private long micros;
+
+    /**
+     * @param file a capture file
+     * @throws IOException if the file can not be read or is not a capture
+     */
+    public CaptureReader(Path file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file)),
+                1 << 16));
+        try {
+            if (in.readInt() != CaptureWriter.MAGIC || in.readInt() != CaptureWriter.VERSION) {
+                throw new IOException("Not a capture: " + file);
+            }
+            startMillis = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return when the capture started, in milliseconds since UTC epoch
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return the next request, null at the end of the capture, or where a capture cut short ends
+     */
+    public CapturedRequest next() throws IOException {
+        try {
+            micros += readVarint();
+            int method = in.readUnsignedByte();
+            String uri = new String(readBytes(), StandardCharsets.UTF_8);
+            int accept = in.readUnsignedByte();
+            byte[] body = readBytes();
+            if (method >= CaptureWriter.METHODS.length || accept >= CaptureWriter.ACCEPTS.length) {
+                throw new IOException("Corrupt capture record at " + micros + "us");
+            }
+            return new CapturedRequest(TimeUnit.MICROSECONDS.toNanos(micros), CaptureWriter.METHODS[method], uri,
+                    CaptureWriter.ACCEPTS[accept], body);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private byte[] readBytes() throws IOException {
+        long length = readVarint();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt capture record at " + micros + "us");
+        }
+        byte[] retval = new byte[(int) length];
+        in.readFully(retval);
+        return retval;
+    }
+
+    private long readVarint() throws IOException {
+        long retval = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            retval |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return retval;
+            }
+        }
+        throw new IOException("Corrupt capture record at " + micros + "us");
+    }
+}
@@ -0,0 +1,315 @@
+package com.crossover.trial.weather.capture;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends requests to a capture file, for {@link TrafficReplay}. The file is gzipped, and holds
+ *
+ * <pre>
+ * header  int magic | int version | long capture start in milliseconds since UTC epoch
+ * record  varint microseconds since the previous record | byte method | varint length | path, UTF-8
+ *         | byte accept | varint length | body
+ * </pre>
+ *
+ * in the order the records were appended. Varints are unsigned, seven bits a byte, low bits first. The method and
+ * the accepted media type are indexes into {@link #METHODS} and {@link #ACCEPTS}. The file is flushed at most
+ * once a second, a capture cut short by a crash loses the last second and reads up to there.
+ *
+ * Requests are encoded and compressed on a writer thread of its own, the request threads only queue them; a
+ * request arriving with the queue full is dropped rather than held up.
+ */
+public class CaptureWriter implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(CaptureWriter.class.getName());
+
+    static final int MAGIC = 0x57484331;
+
+    static final int VERSION = 1;
+
+    static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+
+    /** null for any, or a media type the capture does not tell apart */
+    static final String[] ACCEPTS = {null, "application/json", "application/x-jackson-smile"};
+
+    private static final long FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** the default number of requests waiting to be written before more are dropped */
+    public static final int DEFAULT_QUEUE = 4096;
+
+    /** the header, before compression */
+    private static final int HEADER_BYTES = 16;
+
+    /** tells the writer thread the capture is closed, once the requests ahead of it are written */
+    private static final Record CLOSE = new Record(0, 0, new byte[0], 0, new byte[0]);
+
+    private final DataOutputStream out;
+
+    private final long startNanos;
+
+    /** the bytes written before compression past which requests are no longer captured */
+    private final long maxBytes;
+
+    /** the requests appended and not yet written */
+    private final BlockingQueue<Record> queue;
+
+    private final Thread thread;
+
+    /** the bytes written before compression, a long as the capture may well pass 2GB */
+    private long written = HEADER_BYTES;
+
+    private long lastMicros;
+
+    private long lastFlush;
+
+    /** set once the capture is full or failed, the requests still queued are discarded */
+    private boolean stopped;
+
+    private volatile long captured;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * @param file the capture file, replaced if it exists
+     * @param maxBytes the most bytes of records to write, before compression
+     */
+    public CaptureWriter(Path file, long maxBytes) throws IOException {
+        this(file, maxBytes, DEFAULT_QUEUE);
+    }
+
+    /**
+     * @param file the capture file, replaced if it exists
+     * @param maxBytes the most bytes of records to write, before compression
+     * @param queueCapacity the most requests waiting to be written, more are dropped
+     */
+    public CaptureWriter(Path file, long maxBytes, int queueCapacity) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(file), 1 << 16, true), 1 << 16));
+        this.maxBytes = maxBytes;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.startNanos = System.nanoTime();
+        this.lastFlush = startNanos;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        this.thread = new Thread(this::run, "weather-capture");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return a writer to the file named by <code>weather.capture.file</code>, capturing up to
+     * <code>weather.capture.maxBytes</code> (default 1GB) with up to <code>weather.capture.queue</code> requests
+     * (default {@value #DEFAULT_QUEUE}) waiting to be written; null if the property is not set or the file can not
+     * be created
+     */
+    public static CaptureWriter fromSystemProperties() {
+        String file = System.getProperty("weather.capture.file");
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        try {
+            CaptureWriter retval = new CaptureWriter(Paths.get(file),
+                    Long.getLong("weather.capture.maxBytes", 1L << 30),
+                    Integer.getInteger("weather.capture.queue", DEFAULT_QUEUE));
+            LOGGER.info("Capturing requests to " + file);
+            return retval;
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Can not capture requests to " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Queue a request for the writer thread, without waiting for it: the request is dropped, and counted in
+     * {@link #getDropped()}, if the writer has fallen a whole queue behind.
+     *
+     * @param arrival the {@link System#nanoTime()} the request arrived
+     * @param method the http method
+     * @param uri the path relative to the application root, with the query string if any
+     * @param accept the accept header, null if there is none
+     * @param body the entity, empty if there is none
+     * @return false if the request will not be captured: the method is not captured, the queue is full, the
+     * capture is closed, or was found full or failed
+     */
+    public boolean append(long arrival, String method, String uri, String accept, byte[] body) {
+        int methodIndex = Arrays.asList(METHODS).indexOf(method);
+        if (closed || methodIndex < 0) {
+            return false;
+        }
+        if (!queue.offer(new Record(arrival, methodIndex, uri.getBytes(StandardCharsets.UTF_8),
+                acceptIndex(accept), body))) {
+            dropped.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of requests captured
+     */
+    public long getCaptured() {
+        return captured;
+    }
+
+    /**
+     * @return the number of requests dropped as the writer fell behind
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Stop capturing, and write the requests already queued before closing the file.
+     */
+    @Override
+    public void close() {
+        synchronized (queue) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            queue.put(CLOSE);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Record record = queue.poll(FLUSH_NANOS, TimeUnit.NANOSECONDS);
+                if (record == CLOSE) {
+                    break;
+                }
+                if (!stopped) {
+                    write(record);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        long lost = dropped.sum();
+        if (lost > 0) {
+            LOGGER.warning("Capture dropped " + lost + " requests the writer could not keep up with");
+        }
+        stop();
+    }
+
+    /**
+     * @param record the request to write, null to flush if a flush is due
+     */
+    private void write(Record record) {
+        try {
+            if (record != null) {
+                if (written + record.path.length + record.body.length + 32 > maxBytes) {
+                    LOGGER.warning("Capture full after " + captured + " requests, no longer capturing");
+                    stop();
+                    return;
+                }
+                // requests are appended in about the order they arrived, a late one is put at the time of the one
+                // before
+                long micros = Math.max(lastMicros, TimeUnit.NANOSECONDS.toMicros(record.arrival - startNanos));
+                int bytes = writeVarint(micros - lastMicros);
+                out.writeByte(record.method);
+                bytes += writeVarint(record.path.length);
+                out.write(record.path);
+                out.writeByte(record.accept);
+                bytes += writeVarint(record.body.length);
+                out.write(record.body);
+                written += bytes + 2 + record.path.length + record.body.length;
+                lastMicros = micros;
+                captured++;
+            }
+            long now = System.nanoTime();
+            if (now - lastFlush > FLUSH_NANOS) {
+                out.flush();
+                lastFlush = now;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Capture failed after " + captured + " requests, no longer capturing", e);
+            stop();
+        }
+    }
+
+    /**
+     * Close the file, appends are refused from here on and requests still queued are discarded.
+     */
+    private void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        closed = true;
+        try {
+            out.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not close the capture", e);
+        }
+    }
+
+    private static int acceptIndex(String accept) {
+        if (accept == null) {
+            return 0;
+        }
+        if (accept.contains(ACCEPTS[2])) {
+            return 2;
+        }
+        return accept.contains(ACCEPTS[1]) ? 1 : 0;
+    }
+
+    /**
+     * @return the number of bytes written
+     */
+    private int writeVarint(long value) throws IOException {
+        int retval = 1;
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+            retval++;
+        }
+        out.writeByte((int) value);
+        return retval;
+    }
+
+    /** a request waiting to be written */
+    private static final class Record {
+
+        final long arrival;
+
+        final int method;
+
+        final byte[] path;
+
+        final int accept;
+
+        final byte[] body;
+
+        Record(long arrival, int method, byte[] path, int accept, byte[] body) {
+            this.arrival = arrival;
+            this.method = method;
+            this.path = path;
+            this.accept = accept;
+            this.body = body;
+        }
+    }
+}
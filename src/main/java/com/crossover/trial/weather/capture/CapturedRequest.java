@@ -0,0 +1,63 @@
+package com.crossover.trial.weather.capture;
+
+/**
+ * A request as captured by {@link CaptureWriter}: what is needed to send it again, and when it arrived.
+ */
+public class CapturedRequest {
+
+    /** when the request arrived, in nanoseconds since the capture started */
+    private final long offsetNanos;
+
+    private final String method;
+
+    /** the path relative to the application root, with the query string if any, e.g. query/weather/BOS/0 */
+    private final String uri;
+
+    /** the media type the client accepted, null for any */
+    private final String accept;
+
+    /** the entity, empty for requests without one */
+    private final byte[] body;
+
+    public CapturedRequest(long offsetNanos, String method, String uri, String accept, byte[] body) {
+        this.offsetNanos = offsetNanos;
+        this.method = method;
+        this.uri = uri;
+        this.accept = accept;
+        this.body = body;
+    }
+
+    public long getOffsetNanos() {
+        return offsetNanos;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public String getAccept() {
+        return accept;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return the method and the path with every segment after the resource replaced by *, e.g.
+     * GET query/weather/&#42;/&#42;, to group requests by endpoint
+     */
+    public String getEndpoint() {
+        int query = uri.indexOf('?');
+        String[] segments = (query < 0 ? uri : uri.substring(0, query)).split("/");
+        StringBuilder retval = new StringBuilder(method).append(' ');
+        for (int i = 0; i < segments.length; i++) {
+            retval.append(i == 0 ? "" : "/").append(i < 2 ? segments[i] : "*");
+        }
+        return retval.toString();
+    }
+}
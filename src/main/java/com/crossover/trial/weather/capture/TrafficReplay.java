@@ -0,0 +1,290 @@
+package com.crossover.trial.weather.capture;
+
+import org.glassfish.jersey.client.ClientProperties;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.String.format;
+
+/**
+ * Plays a capture written by {@link CaptureWriter} against a server, and reports throughput and latency per
+ * endpoint.
+ *
+ * <ul>
+ * <li>At a speed of 1 requests are sent at the times they arrived in the capture, at 10 ten times as fast. The
+ * schedule does not wait for the server: a request is sent on time, by the next free thread, however many are
+ * still waiting for an answer, and its latency is counted from when it was due to be sent, so a server falling
+ * behind shows in the latencies instead of slowing the replay down.</li>
+ * <li>At a speed of 0 requests are sent as fast as the server answers them, with at most <code>threads</code> in
+ * flight, to find the throughput the server can sustain for the captured mix.</li>
+ * </ul>
+ *
+ * Requests are sent in capture order. With one thread every request is answered before the next is sent, so the
+ * collector updates are applied in the order they were captured and a replay against the same starting data ends
+ * in the same state. Latencies are kept exactly, 8 bytes a request.
+ *
+ * The main method takes the capture, the server, the speed, the threads and the number of passes; the capture is
+ * played that many times and the last pass reported, so both the client and a fresh server are warmed up first.
+ */
+public class TrafficReplay {
+
+    private final Client client;
+
+    private final String baseUrl;
+
+    private final double speed;
+
+    private final int threads;
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /** the latest a request was sent after it was due, in nanoseconds */
+    private volatile long maxLagNanos;
+
+    private long elapsedNanos;
+
+    /**
+     * @param baseUrl the server, e.g. <code>http://localhost:8080/</code>
+     * @param speed how many times as fast as captured to send the requests, 0 for as fast as they are answered
+     * @param threads the most requests in flight
+     */
+    public TrafficReplay(String baseUrl, double speed, int threads) {
+        if (speed < 0 || threads < 1) {
+            throw new IllegalArgumentException("Bad speed " + speed + " or threads " + threads);
+        }
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(threads));
+        }
+        this.client = ClientBuilder.newClient()
+                .property(ClientProperties.CONNECT_TIMEOUT, 5000)
+                .property(ClientProperties.READ_TIMEOUT, 60000);
+        this.baseUrl = baseUrl;
+        this.speed = speed;
+        this.threads = threads;
+    }
+
+    /**
+     * Send every request of a capture and wait for the answers.
+     *
+     * @param file the capture
+     * @return the number of requests sent
+     * @throws IOException if the capture can not be read
+     */
+    public long replay(Path file) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads);
+        long sent = 0;
+        long start = System.nanoTime();
+        try (CaptureReader reader = new CaptureReader(file)) {
+            CapturedRequest request;
+            // the schedule starts at the first request, not when the capture did
+            long first = -1;
+            while ((request = reader.next()) != null) {
+                if (first < 0) {
+                    first = request.getOffsetNanos();
+                }
+                final long due;
+                if (speed > 0) {
+                    due = start + (long) ((request.getOffsetNanos() - first) / speed);
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                } else {
+                    inFlight.acquire();
+                    due = System.nanoTime();
+                }
+                final CapturedRequest r = request;
+                pool.execute(() -> {
+                    try {
+                        send(r, due);
+                    } finally {
+                        if (speed == 0) {
+                            inFlight.release();
+                        }
+                    }
+                });
+                sent++;
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.HOURS);
+            elapsedNanos = System.nanoTime() - start;
+        }
+        return sent;
+    }
+
+    /**
+     * @return per endpoint, sorted, then for all requests: count, requests per second, the 50th, 90th, 99th and
+     * 99.9th percentile and maximum latency in milliseconds, 4xx answers and errors (5xx answers and failures)
+     */
+    public Map<String, Map<String, Object>> getReport() {
+        Map<String, Map<String, Object>> retval = new LinkedHashMap<>();
+        Endpoint all = new Endpoint();
+        for (Map.Entry<String, Endpoint> e : new TreeMap<>(endpoints).entrySet()) {
+            retval.put(e.getKey(), e.getValue().report(elapsedNanos));
+            all.add(e.getValue());
+        }
+        retval.put("all", all.report(elapsedNanos));
+        return retval;
+    }
+
+    /**
+     * @return the latest a request was sent after it was due, in milliseconds; at a speed the replay can not keep
+     * up with this grows with the capture
+     */
+    public double getMaxLagMillis() {
+        return maxLagNanos / 1e6;
+    }
+
+    /**
+     * Forget the answers so far, to report a later pass on its own.
+     */
+    public void reset() {
+        endpoints.clear();
+        maxLagNanos = 0;
+        elapsedNanos = 0;
+    }
+
+    public void close() {
+        client.close();
+    }
+
+    private void send(CapturedRequest request, long due) {
+        long lag = System.nanoTime() - due;
+        if (lag > maxLagNanos) {
+            maxLagNanos = lag;
+        }
+        String uri = request.getUri();
+        int query = uri.indexOf('?');
+        UriBuilder target = UriBuilder.fromUri(baseUrl).path(query < 0 ? uri : uri.substring(0, query));
+        if (query >= 0) {
+            target.replaceQuery(uri.substring(query + 1));
+        }
+        Invocation.Builder builder = client.target(target).request();
+        if (request.getAccept() != null) {
+            builder.accept(request.getAccept());
+        }
+        int status;
+        try {
+            Response response = request.getBody().length == 0 ? builder.method(request.getMethod())
+                    : builder.method(request.getMethod(),
+                    Entity.entity(request.getBody(), MediaType.APPLICATION_JSON_TYPE));
+            status = response.getStatus();
+            // read the answer through, the time to the last byte is the latency
+            response.readEntity(byte[].class);
+        } catch (RuntimeException e) {
+            status = 0;
+        }
+        long latency = System.nanoTime() - due;
+        Endpoint endpoint = endpoints.get(request.getEndpoint());
+        if (endpoint == null) {
+            endpoint = endpoints.computeIfAbsent(request.getEndpoint(), k -> new Endpoint());
+        }
+        endpoint.record(latency, status);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("usage: TrafficReplay <capture> [baseUrl=http://localhost:8080/] "
+                    + "[speed=1, 0 for unlimited] [threads=32] [passes=1]");
+            System.exit(1);
+        }
+        TrafficReplay replay = new TrafficReplay(args.length > 1 ? args[1] : "http://localhost:8080/",
+                args.length > 2 ? Double.parseDouble(args[2]) : 1, args.length > 3 ? Integer.parseInt(args[3]) : 32);
+        int passes = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+        for (int pass = 1; pass <= passes; pass++) {
+            if (pass > 1) {
+                replay.reset();
+            }
+            long sent = replay.replay(Paths.get(args[0]));
+            System.out.println(format("pass %d: %d requests in %.1fs, sent up to %.1fms late", pass, sent,
+                    replay.elapsedNanos / 1e9, replay.getMaxLagMillis()));
+        }
+        System.out.println(format("%-36s %9s %9s %8s %8s %8s %8s %8s %7s %7s", "endpoint", "count", "req/s",
+                "p50 ms", "p90", "p99", "p99.9", "max", "4xx", "errors"));
+        for (Map.Entry<String, Map<String, Object>> e : replay.getReport().entrySet()) {
+            Map<String, Object> s = e.getValue();
+            System.out.println(format("%-36s %9d %9.1f %8.2f %8.2f %8.2f %8.2f %8.2f %7d %7d", e.getKey(),
+                    s.get("count"), s.get("rps"), s.get("p50_ms"), s.get("p90_ms"), s.get("p99_ms"),
+                    s.get("p999_ms"), s.get("max_ms"), s.get("client_errors"), s.get("errors")));
+        }
+        replay.close();
+        System.exit(0);
+    }
+
+    /**
+     * The answers of one endpoint.
+     */
+    private static final class Endpoint {
+
+        private long[] latencies = new long[1024];
+
+        private int count;
+
+        private long clientErrors;
+
+        private long errors;
+
+        synchronized void record(long latencyNanos, int status) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = latencyNanos;
+            if (status >= 400 && status < 500) {
+                clientErrors++;
+            } else if (status == 0 || status >= 500) {
+                errors++;
+            }
+        }
+
+        synchronized void add(Endpoint other) {
+            synchronized (other) {
+                for (int i = 0; i < other.count; i++) {
+                    record(other.latencies[i], 200);
+                }
+                clientErrors += other.clientErrors;
+                errors += other.errors;
+            }
+        }
+
+        synchronized Map<String, Object> report(long elapsedNanos) {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            Map<String, Object> retval = new LinkedHashMap<>();
+            retval.put("count", (long) count);
+            retval.put("rps", elapsedNanos > 0 ? count * 1e9 / elapsedNanos : 0.0);
+            retval.put("p50_ms", percentile(sorted, 0.5));
+            retval.put("p90_ms", percentile(sorted, 0.9));
+            retval.put("p99_ms", percentile(sorted, 0.99));
+            retval.put("p999_ms", percentile(sorted, 0.999));
+            retval.put("max_ms", count == 0 ? 0.0 : sorted[count - 1] / 1e6);
+            retval.put("client_errors", clientErrors);
+            retval.put("errors", errors);
+            return retval;
+        }
+
+        private static double percentile(long[] sorted, double q) {
+            return sorted.length == 0 ? 0.0 : sorted[(int) Math.min(sorted.length - 1, (long) (q * sorted.length))]
+                    / 1e6;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.crossover.trial.weather.client;
+
+import com.crossover.trial.weather.util.KllSketch;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counts and latencies of a {@link WeatherServiceClient}, per operation. Latency is measured from the call to
+ * the completion of its future, retries and batching delay included, and kept in a {@link KllSketch}, so memory
+ * stays bounded however long the client runs.
+ */
+public class ClientMetrics {
+
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+
+    void record(String operation, long startNanos, boolean success) {
+        Operation op = operation(operation);
+        op.calls.increment();
+        if (!success) {
+            op.errors.increment();
+        }
+        float millis = (System.nanoTime() - startNanos) / (float) TimeUnit.MILLISECONDS.toNanos(1);
+        synchronized (op.latency) {
+            op.latency.update(millis);
+        }
+    }
+
+    void retry(String operation) {
+        operation(operation).retries.increment();
+    }
+
+    private Operation operation(String name) {
+        Operation op = operations.get(name);
+        return op != null ? op : operations.computeIfAbsent(name, k -> new Operation());
+    }
+
+    /**
+     * @return per operation: calls, errors, retries and the 50th, 99th percentile and maximum latency in
+     * milliseconds
+     */
+    public Map<String, Map<String, Object>> getSnapshot() {
+        Map<String, Map<String, Object>> retval = new LinkedHashMap<>();
+        for (Map.Entry<String, Operation> e : operations.entrySet()) {
+            Operation op = e.getValue();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("calls", op.calls.sum());
+            stats.put("errors", op.errors.sum());
+            stats.put("retries", op.retries.sum());
+            synchronized (op.latency) {
+                if (op.latency.getCount() > 0) {
+                    stats.put("p50_ms", op.latency.quantile(0.5));
+                    stats.put("p99_ms", op.latency.quantile(0.99));
+                    stats.put("max_ms", op.latency.getMax());
+                }
+            }
+            retval.put(e.getKey(), stats);
+        }
+        return retval;
+    }
+
+    @Override
+    public String toString() {
+        return getSnapshot().toString();
+    }
+
+    private static final class Operation {
+        final LongAdder calls = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder retries = new LongAdder();
+        final KllSketch latency = new KllSketch(128);
+    }
+}
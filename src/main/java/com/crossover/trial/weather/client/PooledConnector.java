@@ -0,0 +1,343 @@
+package com.crossover.trial.weather.client;
+
+import org.glassfish.jersey.client.ClientRequest;
+import org.glassfish.jersey.client.ClientResponse;
+import org.glassfish.jersey.client.spi.AsyncConnectorCallback;
+import org.glassfish.jersey.client.spi.Connector;
+import org.glassfish.jersey.message.internal.Statuses;
+
+import javax.ws.rs.ProcessingException;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+
+/**
+ * The http/1.1 connector of a {@link WeatherServiceClient}, keeping up to <code>maxIdle</code> keep-alive
+ * connections per host for reuse. The JDK connector shares one keep-alive cache across the whole JVM, sized by the
+ * <code>http.maxConnections</code> system property; this one leaves the JVM alone and pools per client.
+ * <p>
+ * A response is read whole before it is handed over, so its connection goes back to the pool at once, whether or
+ * not the caller closes the response. A request failing on a pooled connection before any answer, as when the
+ * server closed it while it was idle, is sent again once on a new connection. Only plain http is supported.
+ */
+final class PooledConnector implements Connector {
+
+    /** longest status or header line read */
+    private static final int MAX_LINE = 8192;
+
+    private final int maxIdle;
+
+    private final int connectTimeoutMillis;
+
+    private final int readTimeoutMillis;
+
+    /** idle connections per host:port, most recently used last, guarded by itself */
+    private final Map<String, Deque<Connection>> idle = new HashMap<>();
+
+    /** guarded by idle */
+    private boolean closed;
+
+    PooledConnector(int maxIdle, int connectTimeoutMillis, int readTimeoutMillis) {
+        this.maxIdle = maxIdle;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public ClientResponse apply(ClientRequest request) {
+        URI uri = request.getUri();
+        if (!"http".equalsIgnoreCase(uri.getScheme())) {
+            throw new ProcessingException("Only http is supported, not " + uri);
+        }
+        try {
+            byte[] body = request.hasEntity() ? entity(request) : null;
+            byte[] head = head(request, body);
+            int port = uri.getPort() < 0 ? 80 : uri.getPort();
+            String host = uri.getHost() + ":" + port;
+            Connection connection = take(host);
+            if (connection != null) {
+                try {
+                    return exchange(connection, host, request, head, body);
+                } catch (IOException e) {
+                    if (connection.answered) {
+                        throw e;
+                    }
+                    // the server dropped the idle connection, send it again on a new one
+                }
+            }
+            return exchange(connect(uri.getHost(), port), host, request, head, body);
+        } catch (IOException | NumberFormatException e) {
+            throw new ProcessingException(e);
+        }
+    }
+
+    /**
+     * Run the request on the calling thread, the client's async executor.
+     */
+    @Override
+    public Future<?> apply(ClientRequest request, AsyncConnectorCallback callback) {
+        try {
+            callback.response(apply(request));
+        } catch (ProcessingException e) {
+            callback.failure(e);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public String getName() {
+        return "weather-client-pooled";
+    }
+
+    /**
+     * Close the idle connections; those in use are closed once their response is read.
+     */
+    @Override
+    public void close() {
+        List<Connection> connections = new ArrayList<>();
+        synchronized (idle) {
+            closed = true;
+            for (Deque<Connection> host : idle.values()) {
+                connections.addAll(host);
+            }
+            idle.clear();
+        }
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    private ClientResponse exchange(Connection connection, String host, ClientRequest request, byte[] head,
+                                    byte[] body) throws IOException {
+        boolean reusable = false;
+        try {
+            connection.answered = false;
+            connection.out.write(head);
+            if (body != null) {
+                connection.out.write(body);
+            }
+            connection.out.flush();
+
+            String statusLine = readLine(connection.in);
+            connection.answered = true;
+            String[] status = statusLine.split(" ", 3);
+            if (status.length < 2 || !status[0].startsWith("HTTP/")) {
+                throw new IOException("Not an http status line: " + statusLine);
+            }
+            int code = Integer.parseInt(status[1]);
+            ClientResponse response = new ClientResponse(Statuses.from(code, status.length > 2 ? status[2] : ""),
+                    request);
+            long length = -1;
+            boolean chunked = false;
+            boolean keepAlive = "HTTP/1.1".equals(status[0]);
+            for (String line = readLine(connection.in); !line.isEmpty(); line = readLine(connection.in)) {
+                int colon = line.indexOf(':');
+                if (colon <= 0) {
+                    throw new IOException("Not an http header: " + line);
+                }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                response.header(name, value);
+                String lower = name.toLowerCase(Locale.ROOT);
+                if (lower.equals("content-length")) {
+                    length = Long.parseLong(value);
+                } else if (lower.equals("transfer-encoding")) {
+                    chunked = value.toLowerCase(Locale.ROOT).contains("chunked");
+                } else if (lower.equals("connection")) {
+                    keepAlive = keepAlive && !value.equalsIgnoreCase("close");
+                }
+            }
+
+            byte[] entity;
+            if (request.getMethod().equals("HEAD") || code / 100 == 1 || code == 204 || code == 304) {
+                entity = new byte[0];
+            } else if (chunked) {
+                entity = readChunked(connection.in);
+            } else if (length >= 0) {
+                entity = readExactly(connection.in, length);
+            } else {
+                // delimited by the end of the connection
+                entity = readToEnd(connection.in);
+                keepAlive = false;
+            }
+            response.setEntityStream(new ByteArrayInputStream(entity));
+            reusable = keepAlive;
+            return response;
+        } finally {
+            if (reusable) {
+                release(host, connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * @return the request line and headers, the latter fixed once the entity is serialised
+     */
+    private static byte[] head(ClientRequest request, byte[] body) {
+        URI uri = request.getUri();
+        StringBuilder head = new StringBuilder(256);
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        head.append(request.getMethod()).append(' ').append(path);
+        if (uri.getRawQuery() != null) {
+            head.append('?').append(uri.getRawQuery());
+        }
+        head.append(" HTTP/1.1\r\nHost: ").append(uri.getHost());
+        if (uri.getPort() >= 0) {
+            head.append(':').append(uri.getPort());
+        }
+        head.append("\r\n");
+        for (Map.Entry<String, List<String>> header : request.getStringHeaders().entrySet()) {
+            if (header.getKey().equalsIgnoreCase("Host") || header.getKey().equalsIgnoreCase("Content-Length")) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                head.append(header.getKey()).append(": ").append(value).append("\r\n");
+            }
+        }
+        if (body != null) {
+            head.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        head.append("\r\n");
+        return head.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] entity(ClientRequest request) throws IOException {
+        ByteArrayOutputStream entity = new ByteArrayOutputStream();
+        request.setStreamProvider(contentLength -> entity);
+        request.writeEntity();
+        return entity.toByteArray();
+    }
+
+    private Connection connect(String hostName, int port) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(hostName, port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private Connection take(String host) {
+        synchronized (idle) {
+            Deque<Connection> connections = idle.get(host);
+            return connections == null ? null : connections.pollLast();
+        }
+    }
+
+    private void release(String host, Connection connection) {
+        synchronized (idle) {
+            Deque<Connection> connections = idle.computeIfAbsent(host, h -> new ArrayDeque<>());
+            if (!closed && connections.size() < maxIdle) {
+                connections.addLast(connection);
+                return;
+            }
+        }
+        connection.close();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed after " + line.length() + " bytes of a line");
+            } else if (b == '\n') {
+                int end = line.length();
+                return line.substring(0, end > 0 && line.charAt(end - 1) == '\r' ? end - 1 : end);
+            } else if (line.length() >= MAX_LINE) {
+                throw new IOException("Line longer than " + MAX_LINE + " bytes");
+            }
+            line.append((char) b);
+        }
+    }
+
+    private static byte[] readChunked(InputStream in) throws IOException {
+        ByteArrayOutputStream entity = new ByteArrayOutputStream();
+        while (true) {
+            String size = readLine(in);
+            int extension = size.indexOf(';');
+            long length = Long.parseLong((extension < 0 ? size : size.substring(0, extension)).trim(), 16);
+            if (length == 0) {
+                String trailer;
+                do {
+                    trailer = readLine(in);
+                } while (!trailer.isEmpty());
+                return entity.toByteArray();
+            }
+            entity.write(readExactly(in, length));
+            readLine(in);
+        }
+    }
+
+    private static byte[] readExactly(InputStream in, long length) throws IOException {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Entity of " + length + " bytes");
+        }
+        byte[] retval = new byte[(int) length];
+        int read = 0;
+        while (read < retval.length) {
+            int n = in.read(retval, read, retval.length - read);
+            if (n < 0) {
+                throw new EOFException("Connection closed after " + read + " of " + length + " bytes");
+            }
+            read += n;
+        }
+        return retval;
+    }
+
+    private static byte[] readToEnd(InputStream in) throws IOException {
+        ByteArrayOutputStream entity = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) >= 0) {
+            entity.write(chunk, 0, n);
+        }
+        return entity.toByteArray();
+    }
+
+    private static final class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        /** the current request got at least a status line */
+        boolean answered;
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+}
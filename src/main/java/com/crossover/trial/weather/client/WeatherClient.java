@@ -10,7 +10,7 @@ import javax.ws.rs.core.Response;
 /**
  * A reference implementation for the weather client. Consumers of the REST API can look at WeatherClient
  * to understand API semantics. This existing client populates the REST endpoint with dummy data useful for
- * testing.
+ * testing. Integrators calling the service at volume should use {@link WeatherServiceClient}.
  *
  * @author code test administrator
  */
@@ -18,6 +18,7 @@ import javax.ws.rs.core.Response;
 public class WeatherClient {
 
     private static final String BASE_URI = "http://localhost:8080";
+
     /** end point for read queries */
     private WebTarget query;
 
@@ -25,9 +26,16 @@ public class WeatherClient {
     private WebTarget collect;
 
     public WeatherClient() {
+        this(BASE_URI);
+    }
+
+    /**
+     * @param baseUri the service to talk to, e.g. http://localhost:8080
+     */
+    public WeatherClient(String baseUri) {
         Client client = ClientBuilder.newClient();
-        query = client.target(BASE_URI + "/query");
-        collect = client.target("http://localhost:8080/collect");
+        query = client.target(baseUri + "/query");
+        collect = client.target(baseUri + "/collect");
     }
 
     public void pingCollect() {
@@ -57,7 +65,7 @@ public class WeatherClient {
     }
 
     public static void main(String[] args) {
-        WeatherClient wc = new WeatherClient();
+        WeatherClient wc = args.length > 0 ? new WeatherClient(args[0]) : new WeatherClient();
         wc.pingCollect();
         wc.populate();
         wc.query();
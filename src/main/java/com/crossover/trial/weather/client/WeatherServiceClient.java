@@ -0,0 +1,482 @@
+package com.crossover.trial.weather.client;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.WeatherSummary;
+import com.crossover.trial.weather.domain.WeatherUpdate;
+import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.provider.SmileMessageBodyWriter;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.gson.Gson;
+import org.glassfish.jersey.client.ClientAsyncExecutor;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.AsyncInvoker;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * A client library for the weather service, for integrators that call it at volume.
+ *
+ * <ul>
+ * <li>Every call is asynchronous and returns a {@link CompletableFuture}; at most <code>maxConnections</code>
+ * requests are in flight, over keep-alive connections that are reused between calls.</li>
+ * <li>{@link #updateWeather} calls are collected for up to <code>batchWindowMillis</code>, or until
+ * <code>maxBatch</code> are pending, and sent as one batched request.</li>
+ * <li>Requests answered 429 or 503, and requests that fail to connect, are retried up to <code>maxRetries</code>
+ * times with exponential backoff and jitter, honouring Retry-After. So is every entry of a batch the server
+ * throttled.</li>
+ * <li>{@link #getMetrics()} reports calls, errors, retries and latency percentiles per operation.</li>
+ * </ul>
+ *
+ * Create one client per service and share it, it is thread safe. It keeps up to <code>maxConnections</code> idle
+ * keep-alive connections in a pool of its own, see {@link PooledConnector}, and leaves the JVM wide http settings
+ * alone.
+ */
+public class WeatherServiceClient implements AutoCloseable {
+
+    /** request bodies are sent as json, as the service parses them */
+    private static final Gson gson = new Gson();
+
+    /** query answers are read as smile, which is smaller and faster to parse */
+    private static final ObjectMapper SMILE = new ObjectMapper(new SmileFactory())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    /** longest pause between two attempts */
+    private static final long MAX_BACKOFF_MILLIS = 2000;
+
+    private final Client client;
+
+    private final WebTarget query;
+
+    private final WebTarget collect;
+
+    private final int maxRetries;
+
+    private final long backoffMillis;
+
+    private final long batchWindowMillis;
+
+    private final int maxBatch;
+
+    /** runs the requests, one connection each; jersey's own pool outlives the client */
+    private final ExecutorService requests;
+
+    /** runs batch flushes and retries */
+    private final ScheduledExecutorService scheduler;
+
+    private final ClientMetrics metrics = new ClientMetrics();
+
+    /** updates waiting for the next batch, guarded by this */
+    private List<PendingUpdate> batch = new ArrayList<>();
+
+    /** a flush of the current batch is scheduled, guarded by this */
+    private boolean flushScheduled;
+
+    private WeatherServiceClient(Builder builder) {
+        this.requests = Executors.newFixedThreadPool(builder.maxConnections, r -> {
+            Thread t = new Thread(r, "weather-client-request");
+            t.setDaemon(true);
+            return t;
+        });
+        ClientConfig config = new ClientConfig()
+                .connectorProvider((client, configuration) -> new PooledConnector(builder.maxConnections,
+                        builder.connectTimeoutMillis, builder.readTimeoutMillis))
+                .register(new RequestExecutorProvider(requests));
+        this.client = ClientBuilder.newClient(config);
+        WebTarget base = client.target(builder.baseUrl);
+        this.query = base.path("query");
+        this.collect = base.path("collect");
+        this.maxRetries = builder.maxRetries;
+        this.backoffMillis = builder.backoffMillis;
+        this.batchWindowMillis = builder.batchWindowMillis;
+        this.maxBatch = builder.maxBatch;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "weather-client-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @param baseUrl the base url of the service, e.g. <code>http://localhost:8080/</code>
+     * @return a builder with the default settings
+     */
+    public static Builder builder(String baseUrl) {
+        return new Builder(baseUrl);
+    }
+
+    /**
+     * @return the atmospheric information of the airport and of the airports within the radius that have data
+     */
+    public CompletableFuture<List<AtmosphericInformation>> query(String iata, double radius) {
+        WebTarget target = query.path("weather").path(iata).path(Double.toString(radius));
+        return call("query", invoker(target, SmileMessageBodyWriter.APPLICATION_SMILE), AsyncInvoker::get,
+                response -> Arrays.asList(readSmile(response, AtmosphericInformation[].class)));
+    }
+
+    /**
+     * @return statistics per point type over the airport and the airports within the radius
+     */
+    public CompletableFuture<WeatherSummary> aggregate(String iata, double radius) {
+        WebTarget target = query.path("aggregate").path(iata).path(Double.toString(radius));
+        return call("aggregate", invoker(target, SmileMessageBodyWriter.APPLICATION_SMILE), AsyncInvoker::get,
+                response -> readSmile(response, WeatherSummary.class));
+    }
+
+    /**
+     * @return the query health information as json
+     */
+    public CompletableFuture<String> ping() {
+        return call("ping", invoker(query.path("ping"), MediaType.APPLICATION_JSON), AsyncInvoker::get,
+                response -> response.readEntity(String.class));
+    }
+
+    /**
+     * Queue a data point for the next batch.
+     *
+     * @return completes once the service accepted the data point, exceptionally with a {@link WeatherException}
+     * naming the status if it refused it
+     */
+    public CompletableFuture<Void> updateWeather(String iata, String pointType, DataPoint dp) {
+        PendingUpdate update = new PendingUpdate(new WeatherUpdate(iata, pointType, dp));
+        enqueue(update);
+        return update.result;
+    }
+
+    /**
+     * Send the updates queued so far without waiting for the batch window to close.
+     */
+    public void flush() {
+        List<PendingUpdate> updates;
+        synchronized (this) {
+            if (batch.isEmpty()) {
+                return;
+            }
+            updates = batch;
+            batch = new ArrayList<>();
+        }
+        send(updates);
+    }
+
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Send what is queued and release the connections. Calls still in flight may fail, so do calls made
+     * afterwards and retries that come due afterwards: their futures complete exceptionally.
+     */
+    @Override
+    public void close() {
+        flush();
+        scheduler.shutdown();
+        client.close();
+        requests.shutdown();
+    }
+
+    private void enqueue(PendingUpdate update) {
+        List<PendingUpdate> full = null;
+        RejectedExecutionException closed = null;
+        synchronized (this) {
+            batch.add(update);
+            if (batch.size() >= maxBatch) {
+                full = batch;
+                batch = new ArrayList<>();
+            } else if (!flushScheduled) {
+                try {
+                    scheduler.schedule(() -> {
+                        synchronized (this) {
+                            flushScheduled = false;
+                        }
+                        flush();
+                    }, batchWindowMillis, TimeUnit.MILLISECONDS);
+                    flushScheduled = true;
+                } catch (RejectedExecutionException e) {
+                    // closed, nothing would send the batch
+                    closed = e;
+                    full = batch;
+                    batch = new ArrayList<>();
+                }
+            }
+        }
+        if (closed != null) {
+            for (PendingUpdate pending : full) {
+                complete(pending, closed, 0);
+            }
+        } else if (full != null) {
+            send(full);
+        }
+    }
+
+    private void send(List<PendingUpdate> updates) {
+        List<WeatherUpdate> body = new ArrayList<>(updates.size());
+        for (PendingUpdate update : updates) {
+            body.add(update.update);
+        }
+        Entity<String> entity = Entity.entity(gson.toJson(body), MediaType.APPLICATION_JSON_TYPE);
+        CompletableFuture<int[]> statuses;
+        try {
+            statuses = call("updateWeather.batch", invoker(collect.path("weather"), MediaType.APPLICATION_JSON),
+                    (invoker, callback) -> invoker.post(entity, callback),
+                    response -> gson.fromJson(response.readEntity(String.class), int[].class));
+        } catch (IllegalStateException e) {
+            // the client was closed
+            statuses = new CompletableFuture<>();
+            statuses.completeExceptionally(e);
+        }
+        statuses.whenComplete((answer, error) -> {
+            for (int i = 0; i < updates.size(); i++) {
+                complete(updates.get(i), error, answer == null || i >= answer.length ? 0 : answer[i]);
+            }
+        });
+    }
+
+    private void complete(PendingUpdate update, Throwable error, int status) {
+        if (error == null && status == Response.Status.OK.getStatusCode()) {
+            metrics.record("updateWeather", update.start, true);
+            update.result.complete(null);
+        } else if (error == null && status == 429 && update.attempts < maxRetries) {
+            metrics.retry("updateWeather");
+            try {
+                scheduler.schedule(() -> enqueue(update), backoff(update.attempts++, null), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                metrics.record("updateWeather", update.start, false);
+                update.result.completeExceptionally(e);
+            }
+        } else {
+            metrics.record("updateWeather", update.start, false);
+            update.result.completeExceptionally(error != null ? error : new WeatherException(
+                    "update " + update.update.getIata() + "/" + update.update.getPointType() + " answered " + status));
+        }
+    }
+
+    private static <T> T readSmile(Response response, Class<T> type) {
+        try {
+            return SMILE.readValue(response.readEntity(byte[].class), type);
+        } catch (IOException e) {
+            throw new ProcessingException("Could not read " + type.getSimpleName(), e);
+        }
+    }
+
+    private AsyncInvoker invoker(WebTarget target, String accept) {
+        return target.request(accept).async();
+    }
+
+    /**
+     * Run a request, retrying it while it is throttled or can not connect.
+     *
+     * @param operation the metrics name
+     * @param invoker the request
+     * @param method starts the request on the invoker with the given callback
+     * @param reader turns a successful response into the result
+     */
+    private <T> CompletableFuture<T> call(String operation, AsyncInvoker invoker, Method method,
+                                          Function<Response, T> reader) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(operation, invoker, method, reader, result, 0, System.nanoTime());
+        return result;
+    }
+
+    private <T> void attempt(String operation, AsyncInvoker invoker, Method method, Function<Response, T> reader,
+                             CompletableFuture<T> result, int attempt, long start) {
+        Consumer<String> retry = retryAfter -> {
+            metrics.retry(operation);
+            try {
+                scheduler.schedule(() -> attempt(operation, invoker, method, reader, result, attempt + 1, start),
+                        backoff(attempt, retryAfter), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed while the request was out
+                metrics.record(operation, start, false);
+                result.completeExceptionally(e);
+            }
+        };
+        InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+            @Override
+            public void completed(Response response) {
+                try {
+                    int status = response.getStatus();
+                    if ((status == 429 || status == 503) && attempt < maxRetries) {
+                        retry.accept(response.getHeaderString(HttpHeaders.RETRY_AFTER));
+                    } else if (status != Response.Status.OK.getStatusCode()) {
+                        metrics.record(operation, start, false);
+                        result.completeExceptionally(new WeatherException(operation + " answered " + status));
+                    } else {
+                        T value = reader.apply(response);
+                        metrics.record(operation, start, true);
+                        result.complete(value);
+                    }
+                } catch (RuntimeException e) {
+                    metrics.record(operation, start, false);
+                    result.completeExceptionally(e);
+                } finally {
+                    // a fully read and closed response hands its connection back for reuse
+                    response.close();
+                }
+            }
+
+            @Override
+            public void failed(Throwable throwable) {
+                if (attempt < maxRetries) {
+                    retry.accept(null);
+                } else {
+                    metrics.record(operation, start, false);
+                    result.completeExceptionally(throwable);
+                }
+            }
+        };
+        try {
+            method.invoke(invoker, callback);
+        } catch (IllegalStateException e) {
+            // a retry that came due after the client was closed
+            metrics.record(operation, start, false);
+            result.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return the pause before the next attempt: exponential with full jitter, anywhere from 0 to the doubled
+     * backoff, and at least what the server asked for
+     */
+    private long backoff(int attempt, String retryAfter) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt, 20));
+        long retval = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        if (retryAfter != null) {
+            try {
+                retval = Math.max(retval, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException e) {
+                // an http date, keep our own pause
+            }
+        }
+        return retval;
+    }
+
+    @ClientAsyncExecutor
+    private static final class RequestExecutorProvider implements ExecutorServiceProvider {
+        private final ExecutorService executor;
+
+        RequestExecutorProvider(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public ExecutorService getExecutorService() {
+            return executor;
+        }
+
+        @Override
+        public void dispose(ExecutorService executorService) {
+            executorService.shutdown();
+        }
+    }
+
+    /** starts a request on an invoker */
+    @FunctionalInterface
+    private interface Method {
+        void invoke(AsyncInvoker invoker, InvocationCallback<Response> callback);
+    }
+
+    private static final class PendingUpdate {
+        final WeatherUpdate update;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        int attempts;
+
+        PendingUpdate(WeatherUpdate update) {
+            this.update = update;
+        }
+    }
+
+    /**
+     * Settings of a {@link WeatherServiceClient}.
+     */
+    public static class Builder {
+
+        private final String baseUrl;
+
+        private int maxConnections = 16;
+
+        private int connectTimeoutMillis = 1000;
+
+        private int readTimeoutMillis = 5000;
+
+        private int maxRetries = 3;
+
+        private long backoffMillis = 50;
+
+        private long batchWindowMillis = 5;
+
+        private int maxBatch = 256;
+
+        private Builder(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        /** requests in flight, and idle connections kept, at most; default 16 */
+        public Builder withMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        public Builder withConnectTimeout(int millis) {
+            this.connectTimeoutMillis = millis;
+            return this;
+        }
+
+        public Builder withReadTimeout(int millis) {
+            this.readTimeoutMillis = millis;
+            return this;
+        }
+
+        /** retries of a throttled or failed request, default 3, 0 to fail at once */
+        public Builder withMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /** the pause before the first retry, doubled for every further one, default 50 ms */
+        public Builder withBackoff(long millis) {
+            this.backoffMillis = millis;
+            return this;
+        }
+
+        /** how long an update waits for others to share its request, default 5 ms */
+        public Builder withBatchWindow(long millis) {
+            this.batchWindowMillis = millis;
+            return this;
+        }
+
+        /** updates per batched request at most, default 256 */
+        public Builder withMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+            return this;
+        }
+
+        public WeatherServiceClient build() {
+            return new WeatherServiceClient(this);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package com.crossover.trial.weather.cluster;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.provider.SmileMessageBodyWriter;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.glassfish.jersey.client.ClientProperties;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Partitions the weather state over several nodes. Each airport is owned by one node, chosen by a
+ * {@link ShardRing} over its IATA code: collector updates are forwarded to the owner, radius queries are sent to
+ * the owners of the airports in range and their answers merged. The airport catalog itself is small and kept on
+ * every node, so any node can resolve the centre of a radius query and tell which shards hold airports in range.
+ *
+ * Sharding is enabled by listing the base urls of all nodes in <code>weather.cluster.nodes</code>, comma
+ * separated and in the same order on every node. A node finds itself by <code>weather.cluster.self</code>, which
+ * defaults to <code>weather.baseUrl</code>. Remote shards get <code>weather.cluster.budgetMillis</code> (default
+ * 250) to answer a query; the answer is returned without the late shards, named in the
+ * {@value #MISSING_SHARDS} header.
+ *
+ * Requests between nodes carry the {@value #FORWARDED} header, a node receiving one serves it from its own shard.
+ * The header is only believed from another node, see {@link #isTrusted(String, String)}: with
+ * <code>weather.cluster.secret</code> set it must carry that secret, otherwise the request must come from the
+ * address of one of the nodes.
+ */
+public class ShardCluster {
+
+    public final static Logger LOGGER = Logger.getLogger(ShardCluster.class.getName());
+
+    /** marks a request sent by another node */
+    public static final String FORWARDED = "X-Weather-Forwarded";
+
+    /** lists the shards that did not answer a query in time */
+    public static final String MISSING_SHARDS = "X-Weather-Missing-Shards";
+
+    private static final ShardCluster INSTANCE = fromSystemProperties();
+
+    /** shard answers travel as smile */
+    private static final ObjectMapper SMILE = new ObjectMapper(new SmileFactory())
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY);
+
+    private final ShardRing ring;
+
+    private final int self;
+
+    private final long budgetMillis;
+
+    private final Client client;
+
+    /** the value of the {@value #FORWARDED} header shared by all nodes, null to trust the node addresses */
+    private final String secret;
+
+    /** the addresses the nodes resolved to at startup */
+    private final Set<InetAddress> addresses = new HashSet<>();
+
+    /**
+     * @param nodes the base urls of all nodes
+     * @param self the base url of this node, one of nodes
+     * @param budgetMillis how long a query waits for remote shards
+     */
+    public ShardCluster(List<String> nodes, String self, long budgetMillis) {
+        this(nodes, self, budgetMillis, null);
+    }
+
+    /**
+     * @param nodes the base urls of all nodes
+     * @param self the base url of this node, one of nodes
+     * @param budgetMillis how long a query waits for remote shards
+     * @param secret the value of the {@value #FORWARDED} header shared by all nodes, null to trust requests from
+     *               the node addresses instead
+     */
+    public ShardCluster(List<String> nodes, String self, long budgetMillis, String secret) {
+        this.ring = new ShardRing(nodes);
+        this.self = nodes.indexOf(self);
+        if (this.self < 0) {
+            throw new IllegalArgumentException(self + " is not one of the cluster nodes " + nodes);
+        }
+        this.budgetMillis = budgetMillis;
+        this.secret = secret == null || secret.isEmpty() ? null : secret;
+        for (String node : nodes) {
+            String host = URI.create(node).getHost();
+            try {
+                addresses.addAll(Arrays.asList(InetAddress.getAllByName(host)));
+            } catch (UnknownHostException e) {
+                LOGGER.log(Level.WARNING, "Can not resolve cluster node {0}, its requests will be refused", node);
+            }
+        }
+        this.client = ClientBuilder.newClient()
+                .property(ClientProperties.CONNECT_TIMEOUT, (int) Math.max(1000, budgetMillis))
+                .property(ClientProperties.READ_TIMEOUT, (int) Math.max(5000, 4 * budgetMillis));
+    }
+
+    /**
+     * @return the cluster this node belongs to, or null when it runs alone
+     */
+    public static ShardCluster get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param headers the headers of the current request, null outside a request
+     * @return true if the request was sent by another node and must be served locally
+     */
+    public static boolean isForwarded(HttpHeaders headers) {
+        return headers != null && headers.getHeaderString(FORWARDED) != null;
+    }
+
+    /**
+     * @param forwarded the value of the {@value #FORWARDED} header of a request, null for none
+     * @param peerAddress the address the request came from
+     * @return true if the request was sent by another node of the cluster, false for any request when this node
+     * runs alone
+     */
+    public static boolean isTrusted(String forwarded, String peerAddress) {
+        return forwarded != null && INSTANCE != null && INSTANCE.trusts(forwarded, peerAddress);
+    }
+
+    private static ShardCluster fromSystemProperties() {
+        String nodes = System.getProperty("weather.cluster.nodes");
+        if (nodes == null || nodes.trim().isEmpty()) {
+            return null;
+        }
+        List<String> urls = Arrays.stream(nodes.split(","))
+                .map(String::trim).filter(s -> !s.isEmpty()).map(ShardCluster::normalize)
+                .collect(Collectors.toList());
+        String self = normalize(System.getProperty("weather.cluster.self",
+                System.getProperty("weather.baseUrl", "http://localhost:8080/")));
+        ShardCluster cluster = new ShardCluster(urls, self, Long.getLong("weather.cluster.budgetMillis", 250),
+                System.getProperty("weather.cluster.secret"));
+        LOGGER.log(Level.INFO, "Shard {0} of {1}", new Object[]{self, urls});
+        return cluster;
+    }
+
+    private static String normalize(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    /**
+     * @param forwarded the value of the {@value #FORWARDED} header of a request
+     * @param peerAddress the literal address the request came from, null if unknown
+     * @return true if the header carries the cluster secret, or there is none and the request came from a node
+     */
+    public boolean trusts(String forwarded, String peerAddress) {
+        if (secret != null) {
+            return MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                    forwarded.getBytes(StandardCharsets.UTF_8));
+        }
+        if (peerAddress == null) {
+            return false;
+        }
+        try {
+            return addresses.contains(InetAddress.getByName(peerAddress));
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param iataCode an airport code
+     * @return true if this node owns the airport
+     */
+    public boolean owns(String iataCode) {
+        return ring.ownerIndex(iataCode) == self;
+    }
+
+    /**
+     * @param iataCode an airport code
+     * @return the base url of the owning node
+     */
+    public String owner(String iataCode) {
+        return ring.owner(iataCode);
+    }
+
+    public String getSelf() {
+        return ring.getNodes().get(self);
+    }
+
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    /**
+     * Send a collector update to the node owning its airport and relay the answer.
+     *
+     * @param node the owning node
+     * @param path the request path relative to the base url
+     * @param body the json request body
+     * @return the owner's response status and entity, 503 if it could not be reached
+     */
+    public Response forward(String node, String path, String body) {
+        try {
+            Response response = request(node, path).post(Entity.entity(body, MediaType.APPLICATION_JSON));
+            byte[] entity = response.readEntity(byte[].class);
+            return Response.status(response.getStatus())
+                    .entity(entity == null || entity.length == 0 ? null : entity).type(response.getMediaType()).build();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not forward " + path + " to " + node, e);
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    /**
+     * Apply a catalog change on every other node, so all of them keep the full catalog.
+     *
+     * @param method POST or DELETE
+     * @param path the request path relative to the base url
+     * @param body the json request body, null for none
+     * @return the nodes that did not acknowledge the change
+     */
+    public List<String> broadcast(String method, String path, String body) {
+        Map<String, Future<Response>> pending = new LinkedHashMap<>();
+        for (String node : ring.getNodes()) {
+            if (!node.equals(getSelf())) {
+                pending.put(node, body == null
+                        ? request(node, path).async().method(method)
+                        : request(node, path).async().method(method, Entity.entity(body, MediaType.APPLICATION_JSON)));
+            }
+        }
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<String, Future<Response>> e : pending.entrySet()) {
+            try {
+                Response response = e.getValue().get();
+                response.close();
+                if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                    failed.add(e.getKey());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failed.add(e.getKey());
+            } catch (ExecutionException ex) {
+                LOGGER.log(Level.WARNING, "Could not apply " + method + " " + path + " on " + e.getKey(), ex);
+                failed.add(e.getKey());
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Run a query on the given shards in parallel and merge what arrives within the latency budget.
+     *
+     * @param nodes the shards to ask
+     * @param path the query path relative to the base url
+     * @param missing collects the shards that failed or did not answer in time
+     * @return the atmospheric information returned by the shards
+     */
+    public List<AtmosphericInformation> gather(Collection<String> nodes, String path, List<String> missing) {
+        return gather(nodes, path, AtmosphericInformation[].class, missing);
+    }
+
+    /**
+     * Run a query on the given shards in parallel and collect what arrives within the latency budget.
+     *
+     * @param nodes the shards to ask
+     * @param path the query path relative to the base url
+     * @param type the array type the shards answer with, a single answer is read as an array of one
+     * @param missing collects the shards that failed or did not answer in time
+     * @return the elements returned by the shards
+     */
+    public <T> List<T> gather(Collection<String> nodes, String path, Class<T[]> type, List<String> missing) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        Map<String, Future<Response>> pending = new LinkedHashMap<>();
+        for (String node : nodes) {
+            pending.put(node, request(node, path).accept(SmileMessageBodyWriter.APPLICATION_SMILE).async().get());
+        }
+        List<T> retval = new ArrayList<>();
+        for (Map.Entry<String, Future<Response>> e : pending.entrySet()) {
+            try {
+                Response response = e.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                byte[] body = response.readEntity(byte[].class);
+                if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+                    missing.add(e.getKey());
+                    continue;
+                }
+                retval.addAll(Arrays.asList(SMILE.readValue(body, type)));
+            } catch (TimeoutException ex) {
+                e.getValue().cancel(true);
+                missing.add(e.getKey());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                missing.add(e.getKey());
+            } catch (ExecutionException | IOException | RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Shard " + e.getKey() + " failed to answer " + path, ex);
+                missing.add(e.getKey());
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @param node the base url of the node
+     * @param path the path relative to the base url, with a query string if any
+     */
+    private Invocation.Builder request(String node, String path) {
+        int query = path.indexOf('?');
+        UriBuilder uri = UriBuilder.fromUri(node).path(query < 0 ? path : path.substring(0, query));
+        if (query >= 0) {
+            uri.replaceQuery(path.substring(query + 1));
+        }
+        return client.target(uri).request().header(FORWARDED, secret == null ? getSelf() : secret);
+    }
+}
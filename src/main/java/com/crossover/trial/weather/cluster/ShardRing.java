@@ -0,0 +1,95 @@
+package com.crossover.trial.weather.cluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A consistent hash ring assigning airports to nodes by IATA code. Every node is placed on the ring many times
+ * (virtual nodes) so the airports spread evenly, and adding or removing a node only moves the airports of its
+ * ring segments.
+ *
+ * Hashes only depend on the IATA code and the node names, so every process configured with the same node list
+ * agrees on the owner of every airport. Immutable.
+ */
+public class ShardRing {
+
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+
+    /** ring positions, sorted */
+    private final long[] positions;
+
+    /** the node index for each ring position */
+    private final int[] owners;
+
+    /**
+     * @param nodes the node names, typically base urls, at least one
+     * @param virtualNodes how often each node is placed on the ring
+     */
+    public ShardRing(List<String> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("a ring needs at least one node");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        int size = nodes.size() * virtualNodes;
+        long[] unsorted = new long[size];
+        Integer[] order = new Integer[size];
+        for (int n = 0; n < nodes.size(); n++) {
+            long base = nodes.get(n).hashCode();
+            for (int v = 0; v < virtualNodes; v++) {
+                unsorted[n * virtualNodes + v] = mix(base * 31 + v);
+                order[n * virtualNodes + v] = n * virtualNodes + v;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(unsorted[a], unsorted[b]));
+        this.positions = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = unsorted[order[i]];
+            owners[i] = order[i] / virtualNodes;
+        }
+    }
+
+    public ShardRing(List<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * @param iataCode an airport code
+     * @return the index of the owning node in {@link #getNodes()}
+     */
+    public int ownerIndex(String iataCode) {
+        long hash = mix(iataCode.hashCode());
+        int i = Arrays.binarySearch(positions, hash);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        // the first position clockwise, wrapping around
+        return owners[i == positions.length ? 0 : i];
+    }
+
+    /**
+     * @param iataCode an airport code
+     * @return the owning node
+     */
+    public String owner(String iataCode) {
+        return nodes.get(ownerIndex(iataCode));
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /** murmur3 finalizer, spreads similar codes over the whole ring */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,577 @@
+package com.crossover.trial.weather.codec;
+
+import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.exception.MalformedPayloadException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decodes the json wire formats of {@link DataPoint} and {@link AirportData} straight from a request body. The
+ * body is read into a buffer owned by the calling thread and decoded in place: field names are matched as bytes
+ * and numbers converted without an intermediate string, so decoding a data point allocates nothing but the data
+ * point itself.
+ *
+ * The accepted documents are those the Gson binding accepts: fields in any order, unknown fields skipped, null
+ * leaving a field at its default, and numbers also as strings. Anything else is rejected with a
+ * {@link MalformedPayloadException} naming the offset of the problem.
+ */
+public final class WireDecoder {
+
+    /** bodies beyond this are rejected rather than buffered */
+    public static final int MAX_PAYLOAD = 64 * 1024;
+
+    private static final ThreadLocal<WireDecoder> DECODERS = ThreadLocal.withInitial(WireDecoder::new);
+
+    /** powers of ten exactly representable as doubles */
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private static final byte[] MEAN = ascii("mean");
+    private static final byte[] FIRST = ascii("first");
+    private static final byte[] SECOND = ascii("second");
+    private static final byte[] THIRD = ascii("third");
+    private static final byte[] COUNT = ascii("count");
+    private static final byte[] IATA = ascii("iata");
+    private static final byte[] ICAO = ascii("icao");
+    private static final byte[] FEET = ascii("feet");
+    private static final byte[] LATITUDE = ascii("latitude");
+    private static final byte[] LONGITUDE = ascii("longitude");
+    private static final byte[] NAME = ascii("name");
+    private static final byte[] CITY = ascii("city");
+    private static final byte[] COUNTRY = ascii("country");
+    private static final byte[] TIMEZONE = ascii("timezone");
+    private static final byte[] DST = ascii("dst");
+
+    private byte[] buf = new byte[1024];
+
+    private int length;
+
+    private int pos;
+
+    /** start and end of the last field name or string value, escapes already resolved in place */
+    private int tokenStart;
+
+    private int tokenEnd;
+
+    /** no field of the current object has been read yet */
+    private boolean firstField;
+
+    private WireDecoder() { }
+
+    /**
+     * @param in a request body holding a data point
+     * @return the data point, null for a json null
+     * @throws MalformedPayloadException if the body is not a data point
+     * @throws IOException if the body can not be read
+     */
+    public static DataPoint decodeDataPoint(InputStream in) throws MalformedPayloadException, IOException {
+        WireDecoder decoder = DECODERS.get();
+        decoder.fill(in);
+        return decoder.dataPoint();
+    }
+
+    /**
+     * @param json a data point document
+     * @return the data point, null for a json null
+     * @throws MalformedPayloadException if the document is not a data point
+     */
+    public static DataPoint decodeDataPoint(String json) throws MalformedPayloadException {
+        WireDecoder decoder = DECODERS.get();
+        decoder.fill(json);
+        return decoder.dataPoint();
+    }
+
+    /**
+     * @param in a request body holding an airport
+     * @return the airport, null for a json null
+     * @throws MalformedPayloadException if the body is not an airport
+     * @throws IOException if the body can not be read
+     */
+    public static AirportData decodeAirport(InputStream in) throws MalformedPayloadException, IOException {
+        WireDecoder decoder = DECODERS.get();
+        decoder.fill(in);
+        return decoder.airport();
+    }
+
+    /**
+     * @param json an airport document
+     * @return the airport, null for a json null
+     * @throws MalformedPayloadException if the document is not an airport
+     */
+    public static AirportData decodeAirport(String json) throws MalformedPayloadException {
+        WireDecoder decoder = DECODERS.get();
+        decoder.fill(json);
+        return decoder.airport();
+    }
+
+    /**
+     * Read a body into the calling thread's buffer, for callers that need its text after all.
+     *
+     * @param in a request body
+     * @return the body as a string
+     * @throws MalformedPayloadException if the body is too large
+     * @throws IOException if the body can not be read
+     */
+    public static String readString(InputStream in) throws MalformedPayloadException, IOException {
+        WireDecoder decoder = DECODERS.get();
+        decoder.fill(in);
+        return new String(decoder.buf, 0, decoder.length, StandardCharsets.UTF_8);
+    }
+
+    private void fill(InputStream in) throws MalformedPayloadException, IOException {
+        length = 0;
+        pos = 0;
+        int n;
+        while ((n = in.read(buf, length, buf.length - length)) >= 0) {
+            length += n;
+            if (length == buf.length) {
+                if (buf.length >= MAX_PAYLOAD) {
+                    throw new MalformedPayloadException("payload larger than " + MAX_PAYLOAD + " bytes", length);
+                }
+                buf = Arrays.copyOf(buf, Math.min(MAX_PAYLOAD, buf.length * 2));
+            }
+        }
+    }
+
+    private void fill(String json) throws MalformedPayloadException {
+        byte[] bytes = json == null ? new byte[0] : json.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_PAYLOAD) {
+            throw new MalformedPayloadException("payload larger than " + MAX_PAYLOAD + " bytes", MAX_PAYLOAD);
+        }
+        if (bytes.length > buf.length) {
+            buf = new byte[bytes.length];
+        }
+        System.arraycopy(bytes, 0, buf, 0, bytes.length);
+        length = bytes.length;
+        pos = 0;
+    }
+
+    private DataPoint dataPoint() throws MalformedPayloadException {
+        if (beginObject()) {
+            return null;
+        }
+        double mean = 0;
+        int first = 0;
+        int second = 0;
+        int third = 0;
+        int count = 0;
+        while (nextField()) {
+            if (isNull()) {
+                continue;
+            }
+            if (nameIs(MEAN)) {
+                mean = number();
+            } else if (nameIs(FIRST)) {
+                first = integer();
+            } else if (nameIs(SECOND)) {
+                second = integer();
+            } else if (nameIs(THIRD)) {
+                third = integer();
+            } else if (nameIs(COUNT)) {
+                count = integer();
+            } else {
+                skipValue(0);
+            }
+        }
+        endDocument();
+        DataPoint dp = new DataPoint(first, second, 0, third, count);
+        dp.setMean(mean);
+        return dp;
+    }
+
+    private AirportData airport() throws MalformedPayloadException {
+        if (beginObject()) {
+            return null;
+        }
+        AirportData ad = new AirportData();
+        while (nextField()) {
+            if (isNull()) {
+                continue;
+            }
+            if (nameIs(IATA)) {
+                ad.setIata(code());
+            } else if (nameIs(ICAO)) {
+                ad.setIcao(code());
+            } else if (nameIs(FEET)) {
+                ad.setFeet(integer());
+            } else if (nameIs(LATITUDE)) {
+                ad.setLatitude(number());
+            } else if (nameIs(LONGITUDE)) {
+                ad.setLongitude(number());
+            } else if (nameIs(NAME)) {
+                ad.setName(string());
+            } else if (nameIs(CITY)) {
+                ad.setCity(string());
+            } else if (nameIs(COUNTRY)) {
+                ad.setCountry(string());
+            } else if (nameIs(TIMEZONE)) {
+                ad.setTimezone(number());
+            } else if (nameIs(DST)) {
+                ad.setDst(string());
+            } else {
+                skipValue(0);
+            }
+        }
+        endDocument();
+        return ad;
+    }
+
+    //
+    // Structure
+    //
+
+    /**
+     * @return true if the document is a json null rather than an object
+     */
+    private boolean beginObject() throws MalformedPayloadException {
+        skipWhitespace();
+        if (pos == length) {
+            throw error("empty payload");
+        }
+        if (isNull()) {
+            endDocument();
+            return true;
+        }
+        expect('{', "'{'");
+        firstField = true;
+        return false;
+    }
+
+    /**
+     * Move to the next field of the object and read its name.
+     *
+     * @return false at the end of the object
+     */
+    private boolean nextField() throws MalformedPayloadException {
+        skipWhitespace();
+        if (pos == length) {
+            throw error("unterminated object");
+        }
+        byte c = buf[pos++];
+        if (c == '}') {
+            return false;
+        }
+        if (firstField) {
+            firstField = false;
+            pos--;
+        } else if (c != ',') {
+            throw error("expected ',' or '}'", pos - 1);
+        } else {
+            skipWhitespace();
+        }
+        if (pos == length || buf[pos] != '"') {
+            throw error("expected a field name");
+        }
+        pos++;
+        readString();
+        skipWhitespace();
+        expect(':', "':' after field name");
+        skipWhitespace();
+        if (pos == length) {
+            throw error("expected a value");
+        }
+        return true;
+    }
+
+    private void endDocument() throws MalformedPayloadException {
+        skipWhitespace();
+        if (pos != length) {
+            throw error("unexpected data after the document");
+        }
+    }
+
+    private boolean isNull() throws MalformedPayloadException {
+        if (pos < length && buf[pos] == 'n') {
+            literal("null");
+            return true;
+        }
+        return false;
+    }
+
+    private void skipValue(int depth) throws MalformedPayloadException {
+        if (depth > 64) {
+            throw error("nesting too deep");
+        }
+        skipWhitespace();
+        if (pos == length) {
+            throw error("expected a value");
+        }
+        byte c = buf[pos];
+        switch (c) {
+            case '"':
+                pos++;
+                readString();
+                return;
+            case '{':
+            case '[':
+                byte close = c == '{' ? (byte) '}' : (byte) ']';
+                pos++;
+                skipWhitespace();
+                if (pos < length && buf[pos] == close) {
+                    pos++;
+                    return;
+                }
+                while (true) {
+                    if (c == '{') {
+                        skipWhitespace();
+                        if (pos == length || buf[pos] != '"') {
+                            throw error("expected a field name");
+                        }
+                        pos++;
+                        readString();
+                        skipWhitespace();
+                        expect(':', "':' after field name");
+                    }
+                    skipValue(depth + 1);
+                    skipWhitespace();
+                    if (pos == length) {
+                        throw error("unterminated " + (c == '{' ? "object" : "array"));
+                    }
+                    byte next = buf[pos++];
+                    if (next == close) {
+                        return;
+                    }
+                    if (next != ',') {
+                        throw error("expected ',' or '" + (char) close + "'", pos - 1);
+                    }
+                }
+            case 't':
+                literal("true");
+                return;
+            case 'f':
+                literal("false");
+                return;
+            case 'n':
+                literal("null");
+                return;
+            default:
+                number();
+        }
+    }
+
+    //
+    // Values
+    //
+
+    private double number() throws MalformedPayloadException {
+        boolean quoted = buf[pos] == '"';
+        if (quoted) {
+            pos++;
+        }
+        int start = pos;
+        boolean negative = false;
+        if (pos < length && buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significant = 0;
+        int scale = -1;
+        boolean exponent = false;
+        for (; pos < length; pos++) {
+            byte c = buf[pos];
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (mantissa != 0) {
+                    significant++;
+                }
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0 && !exponent) {
+                scale = 0;
+            } else if ((c == 'e' || c == 'E') && digits > 0 && !exponent) {
+                exponent = true;
+                if (pos + 1 < length && (buf[pos + 1] == '+' || buf[pos + 1] == '-')) {
+                    pos++;
+                }
+            } else {
+                break;
+            }
+        }
+        int end = pos;
+        if (digits == 0 || scale == 0) {
+            throw error("expected a number", start);
+        }
+        if (quoted) {
+            expect('"', "closing '\"' of number");
+        }
+        if (!exponent && significant <= 15 && scale < POW10.length) {
+            double value = scale > 0 ? mantissa / POW10[scale] : mantissa;
+            return negative ? -value : value;
+        }
+        try {
+            return Double.parseDouble(new String(buf, start, end - start, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw error("expected a number", start);
+        }
+    }
+
+    private int integer() throws MalformedPayloadException {
+        int start = pos;
+        double value = number();
+        if (value != (int) value) {
+            throw error("expected an integer", start);
+        }
+        return (int) value;
+    }
+
+    private String string() throws MalformedPayloadException {
+        if (buf[pos] != '"') {
+            throw error("expected a string");
+        }
+        pos++;
+        readString();
+        return new String(buf, tokenStart, tokenEnd - tokenStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return an airport code of at most four ISO-8859-1 characters
+     */
+    private String code() throws MalformedPayloadException {
+        int start = pos;
+        String code = string();
+        if (code.length() > 4) {
+            throw error("airport code longer than 4 characters", start);
+        }
+        for (int i = 0; i < code.length(); i++) {
+            if (code.charAt(i) == 0 || code.charAt(i) > 0xFF) {
+                throw error("invalid character in airport code", start);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Read a string whose opening quote has been consumed. Escapes are resolved by rewriting the buffer in place,
+     * the result is left between {@link #tokenStart} and {@link #tokenEnd}.
+     */
+    private void readString() throws MalformedPayloadException {
+        tokenStart = pos;
+        int out = pos;
+        while (pos < length) {
+            byte c = buf[pos++];
+            if (c == '"') {
+                tokenEnd = out;
+                return;
+            }
+            if (c == '\\') {
+                if (pos == length) {
+                    break;
+                }
+                byte e = buf[pos++];
+                switch (e) {
+                    case '"': case '\\': case '/': buf[out++] = e; break;
+                    case 'b': buf[out++] = '\b'; break;
+                    case 'f': buf[out++] = '\f'; break;
+                    case 'n': buf[out++] = '\n'; break;
+                    case 'r': buf[out++] = '\r'; break;
+                    case 't': buf[out++] = '\t'; break;
+                    case 'u':
+                        out = unicodeEscape(out);
+                        break;
+                    default:
+                        throw error("invalid escape '\\" + (char) e + "'", pos - 2);
+                }
+            } else if ((c & 0xFF) < 0x20) {
+                throw error("control character in string", pos - 1);
+            } else {
+                buf[out++] = c;
+            }
+        }
+        throw error("unterminated string", tokenStart - 1);
+    }
+
+    /**
+     * Decode the four hex digits of a \\u escape and write the character back as UTF-8. A \\u escape is six bytes
+     * long and UTF-8 needs at most three per char, so the output never overtakes the input.
+     */
+    private int unicodeEscape(int out) throws MalformedPayloadException {
+        if (pos + 4 > length) {
+            throw error("truncated \\u escape", pos - 2);
+        }
+        int ch = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(buf[pos++], 16);
+            if (digit < 0) {
+                throw error("invalid \\u escape", pos - 1);
+            }
+            ch = ch << 4 | digit;
+        }
+        if (ch < 0x80) {
+            buf[out++] = (byte) ch;
+        } else if (ch < 0x800) {
+            buf[out++] = (byte) (0xC0 | ch >> 6);
+            buf[out++] = (byte) (0x80 | ch & 0x3F);
+        } else {
+            // surrogates are written one by one, the String decoder replaces unpaired ones
+            buf[out++] = (byte) (0xE0 | ch >> 12);
+            buf[out++] = (byte) (0x80 | ch >> 6 & 0x3F);
+            buf[out++] = (byte) (0x80 | ch & 0x3F);
+        }
+        return out;
+    }
+
+    private boolean nameIs(byte[] name) {
+        int n = tokenEnd - tokenStart;
+        if (n != name.length) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (buf[tokenStart + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void literal(String word) throws MalformedPayloadException {
+        for (int i = 0; i < word.length(); i++) {
+            if (pos + i >= length || buf[pos + i] != word.charAt(i)) {
+                throw error("expected " + word);
+            }
+        }
+        pos += word.length();
+    }
+
+    private void expect(char c, String what) throws MalformedPayloadException {
+        if (pos == length || buf[pos] != c) {
+            throw error("expected " + what);
+        }
+        pos++;
+    }
+
+    private void skipWhitespace() {
+        while (pos < length) {
+            byte c = buf[pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private MalformedPayloadException error(String message) {
+        return error(message, pos);
+    }
+
+    private MalformedPayloadException error(String message, int offset) {
+        return new MalformedPayloadException(message, offset);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
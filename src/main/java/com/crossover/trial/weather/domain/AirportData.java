@@ -1,17 +1,32 @@
 package com.crossover.trial.weather.domain;
 
-import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import com.crossover.trial.weather.util.AirportCodes;
+import com.crossover.trial.weather.util.InternTable;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
+import java.io.IOException;
+
 /**
  * Basic airport information.
+ *
+ * The representation is kept compact for world wide catalogs: IATA and ICAO codes are packed into ints, the
+ * repeated city, country and DST strings are shared through the {@link InternTable}. The bean accessors and the
+ * JSON form are unchanged; equality and hashing use the packed IATA code only.
+ *
  * @author code test administrator
  */
-
+@JsonAdapter(AirportData.GsonAdapter.class)
 public class AirportData {
 
-    /** the three letter IATA code */
-    private String iata;
+    /** the three letter IATA code, see {@link AirportCodes} */
+    private int iata;
 
     private int feet;
 
@@ -20,27 +35,48 @@ public class AirportData {
 
     /** longitude value in degrees */
     private double longitude;
-    
+
     private String name;
-    
+
+    /** interned */
     private String city;
-    
+
+    /** interned */
     private String country;
-    
-    private String icao;
-    
-    private double timezone;
-    
+
+    /** the four letter ICAO code, see {@link AirportCodes} */
+    private int icao;
+
+    /** hours offset from UTC, quarter hours are exact in a float */
+    private float timezone;
+
+    /** interned */
     private String dst;
 
     public AirportData() { }
 
     public String getIata() {
-        return iata;
+        return AirportCodes.unpack(iata);
     }
 
     public void setIata(String iata) {
-        this.iata = iata;
+        this.iata = AirportCodes.pack(iata);
+    }
+
+    /**
+     * @return the IATA code packed by {@link AirportCodes#pack(String)}, for binary encodings
+     */
+    @JsonIgnore
+    public int getPackedIata() {
+        return iata;
+    }
+
+    /**
+     * @param iataCode an IATA code
+     * @return true if this airport has the given IATA code, without allocating
+     */
+    public boolean hasIata(String iataCode) {
+        return AirportCodes.matches(iata, iataCode);
     }
 
     public double getLatitude() {
@@ -58,7 +94,7 @@ public class AirportData {
     public void setLongitude(double longitude) {
         this.longitude = longitude;
     }
-    
+
     public String getName() {
         return name;
     }
@@ -72,7 +108,7 @@ public class AirportData {
     }
 
     public void setCity(String city) {
-        this.city = city;
+        this.city = InternTable.intern(city);
     }
 
     public String getCountry() {
@@ -80,15 +116,15 @@ public class AirportData {
     }
 
     public void setCountry(String country) {
-        this.country = country;
+        this.country = InternTable.intern(country);
     }
 
     public String getIcao() {
-        return icao;
+        return AirportCodes.unpack(icao);
     }
 
     public void setIcao(String icao) {
-        this.icao = icao;
+        this.icao = AirportCodes.pack(icao);
     }
 
     public double getTimezone() {
@@ -96,7 +132,7 @@ public class AirportData {
     }
 
     public void setTimezone(double timezone) {
-        this.timezone = timezone;
+        this.timezone = (float) timezone;
     }
 
     public String getDst() {
@@ -104,9 +140,9 @@ public class AirportData {
     }
 
     public void setDst(String dst) {
-        this.dst = dst;
+        this.dst = InternTable.intern(dst);
     }
-    
+
     public int getFeet() {
         return feet;
     }
@@ -117,15 +153,96 @@ public class AirportData {
 
     @Override
     public String toString() {
-        return ReflectionToStringBuilder.toString(this, ToStringStyle.NO_CLASS_NAME_STYLE);
+        return new ToStringBuilder(this, ToStringStyle.NO_CLASS_NAME_STYLE)
+                .append("iata", getIata())
+                .append("feet", feet)
+                .append("latitude", latitude)
+                .append("longitude", longitude)
+                .append("name", name)
+                .append("city", city)
+                .append("country", country)
+                .append("icao", getIcao())
+                .append("timezone", getTimezone())
+                .append("dst", dst)
+                .toString();
     }
 
     @Override
     public boolean equals(Object other) {
         if (other instanceof AirportData) {
-            return ((AirportData)other).getIata().equals(this.getIata());
+            return ((AirportData)other).iata == this.iata;
         }
 
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        // spread the packed characters over the whole int
+        return iata * 0x9E3779B9;
+    }
+
+    /**
+     * Reads and writes the same JSON as reflection did on the original String fields.
+     */
+    public static class GsonAdapter extends TypeAdapter<AirportData> {
+
+        @Override
+        public void write(JsonWriter out, AirportData ad) throws IOException {
+            if (ad == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "iata", ad.getIata());
+            out.name("feet").value(ad.feet);
+            out.name("latitude").value(ad.latitude);
+            out.name("longitude").value(ad.longitude);
+            writeString(out, "name", ad.name);
+            writeString(out, "city", ad.city);
+            writeString(out, "country", ad.country);
+            writeString(out, "icao", ad.getIcao());
+            out.name("timezone").value(ad.getTimezone());
+            writeString(out, "dst", ad.dst);
+            out.endObject();
+        }
+
+        @Override
+        public AirportData read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            AirportData ad = new AirportData();
+            in.beginObject();
+            while (in.hasNext()) {
+                String field = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                switch (field) {
+                    case "iata": ad.setIata(in.nextString()); break;
+                    case "feet": ad.setFeet(in.nextInt()); break;
+                    case "latitude": ad.setLatitude(in.nextDouble()); break;
+                    case "longitude": ad.setLongitude(in.nextDouble()); break;
+                    case "name": ad.setName(in.nextString()); break;
+                    case "city": ad.setCity(in.nextString()); break;
+                    case "country": ad.setCountry(in.nextString()); break;
+                    case "icao": ad.setIcao(in.nextString()); break;
+                    case "timezone": ad.setTimezone(in.nextDouble()); break;
+                    case "dst": ad.setDst(in.nextString()); break;
+                    default: in.skipValue(); break;
+                }
+            }
+            in.endObject();
+            return ad;
+        }
+
+        private static void writeString(JsonWriter out, String name, String value) throws IOException {
+            if (value != null) {
+                out.name(name).value(value);
+            }
+        }
+    }
 }
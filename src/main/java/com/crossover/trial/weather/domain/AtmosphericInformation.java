@@ -1,81 +1,95 @@
 package com.crossover.trial.weather.domain;
 
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.crossover.trial.weather.domain.DataPointType.*;
+
 /**
  * encapsulates sensor information for a particular location
+ *
+ * Data points are held in an array indexed by the storage slot of their point type, see
+ * {@link DataPointTypeRegistry}. Configured point types beyond the built in ones are serialized as additional
+ * properties named after the type. The airports of the store keep theirs in a {@link WeatherTable} instead.
  */
 //CR: This class should be in another package with all entities
+@JsonPropertyOrder({"temperature", "wind", "humidity", "precipitation", "pressure", "cloudCover", "lastUpdateTime"})
 public class AtmosphericInformation {
 
-    /** temperature in degrees celsius */
-    private DataPoint temperature;
-
-    /** wind speed in km/h */
-    private DataPoint wind;
+    /** the update time of an empty slot, see {@link #getUpdateTime(int)} */
+    public static final long NO_UPDATE = Long.MIN_VALUE;
 
-    /** humidity in percent */
-    private DataPoint humidity;
+    /** data points by slot: temperature in degrees celsius, wind speed in km/h, humidity in percent, ... */
+    private final DataPoint[] points;
 
-    /** precipitation in cm */
-    private DataPoint precipitation;
-
-    /** pressure in mmHg */
-    private DataPoint pressure;
-
-    /** cloud cover percent from 0 - 100 (integer) */
-    private DataPoint cloudCover;
+    /** the time each data point was written with, allocated by the first {@link #update(int, DataPoint, long)} */
+    private transient long[] updateTimes;
 
     /** the last time this data was updated, in milliseconds since UTC epoch */
     private long lastUpdateTime;
 
     public AtmosphericInformation() {
+        this(new DataPoint[DataPointTypeRegistry.size()]);
+    }
 
+    /**
+     * @param points the array to hold the data points in, null for subclasses keeping them elsewhere
+     */
+    protected AtmosphericInformation(DataPoint[] points) {
+        this.points = points;
     }
 
     public AtmosphericInformation(DataPoint temperature, DataPoint wind, DataPoint humidity, DataPoint percipitation, DataPoint pressure, DataPoint cloudCover) {
-        this.temperature = temperature;
-        this.wind = wind;
-        this.humidity = humidity;
-        this.precipitation = percipitation;
-        this.pressure = pressure;
-        this.cloudCover = cloudCover;
+        this();
+        setTemperature(temperature);
+        setWind(wind);
+        setHumidity(humidity);
+        setPrecipitation(percipitation);
+        setPressure(pressure);
+        setCloudCover(cloudCover);
         this.lastUpdateTime = System.currentTimeMillis();
     }
 
     public DataPoint getTemperature() {
-        return temperature;
+        return getDataPoint(TEMPERATURE.ordinal());
     }
     public void setTemperature(DataPoint temperature) {
-        this.temperature = temperature;
+        setDataPoint(TEMPERATURE.ordinal(), temperature);
     }
     public DataPoint getWind() {
-        return wind;
+        return getDataPoint(WIND.ordinal());
     }
     public void setWind(DataPoint wind) {
-        this.wind = wind;
+        setDataPoint(WIND.ordinal(), wind);
     }
     public DataPoint getHumidity() {
-        return humidity;
+        return getDataPoint(HUMIDTY.ordinal());
     }
     public void setHumidity(DataPoint humidity) {
-        this.humidity = humidity;
+        setDataPoint(HUMIDTY.ordinal(), humidity);
     }
     public DataPoint getPrecipitation() {
-        return precipitation;
+        return getDataPoint(PRECIPITATION.ordinal());
     }
     public void setPrecipitation(DataPoint precipitation) {
-        this.precipitation = precipitation;
+        setDataPoint(PRECIPITATION.ordinal(), precipitation);
     }
     public DataPoint getPressure() {
-        return pressure;
+        return getDataPoint(PRESSURE.ordinal());
     }
     public void setPressure(DataPoint pressure) {
-        this.pressure = pressure;
+        setDataPoint(PRESSURE.ordinal(), pressure);
     }
     public DataPoint getCloudCover() {
-        return cloudCover;
+        return getDataPoint(CLOUDCOVER.ordinal());
     }
     public void setCloudCover(DataPoint cloudCover) {
-        this.cloudCover = cloudCover;
+        setDataPoint(CLOUDCOVER.ordinal(), cloudCover);
     }
     public long getLastUpdateTime() {
         return this.lastUpdateTime;
@@ -83,4 +97,121 @@ public class AtmosphericInformation {
     public void setLastUpdateTime(long lastUpdateTime) {
         this.lastUpdateTime = lastUpdateTime;
     }
+
+    /**
+     * @param type the point type
+     * @return the data point currently held for the given type, or null
+     */
+    public DataPoint getDataPoint(DataPointType type) {
+        return getDataPoint(type.ordinal());
+    }
+
+    /**
+     * @param slot the storage slot of a registered point type
+     * @return the data point currently held in the slot, or null
+     */
+    public DataPoint getDataPoint(int slot) {
+        return points[slot];
+    }
+
+    /**
+     * @param slot the storage slot of a registered point type
+     * @param dp the new data point, null to clear it
+     */
+    public void setDataPoint(int slot, DataPoint dp) {
+        points[slot] = dp;
+        if (updateTimes != null) {
+            updateTimes[slot] = lastUpdateTime;
+        }
+    }
+
+    /**
+     * Write a data point and the update time, the way the collector does.
+     *
+     * @param slot the storage slot of a registered point type
+     * @param dp the new data point, null to clear it
+     * @param time the time of the update in milliseconds since UTC epoch
+     */
+    public void update(int slot, DataPoint dp, long time) {
+        if (updateTimes == null) {
+            updateTimes = new long[points.length];
+        }
+        setLastUpdateTime(time);
+        setDataPoint(slot, dp);
+    }
+
+    /**
+     * @param slot the storage slot of a registered point type
+     * @return the time the data point held in the slot was written with, the last update time for one set
+     * without, or {@link #NO_UPDATE} if the slot is empty
+     */
+    public long getUpdateTime(int slot) {
+        if (points[slot] == null) {
+            return NO_UPDATE;
+        }
+        return updateTimes == null ? lastUpdateTime : updateTimes[slot];
+    }
+
+    /**
+     * @return a detached copy holding the current data points, for answering with while writers go on
+     */
+    public synchronized AtmosphericInformation copy() {
+        AtmosphericInformation retval = new AtmosphericInformation();
+        for (int slot = 0; slot < retval.points.length; slot++) {
+            retval.points[slot] = getDataPoint(slot);
+        }
+        retval.lastUpdateTime = getLastUpdateTime();
+        return retval;
+    }
+
+    /**
+     * @return true if at least one data point is held
+     */
+    public boolean hasData() {
+        for (DataPoint dp : points) {
+            if (dp != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true once the airport was removed, so writes still queued for it are to be dropped; read it under
+     * the lock of this object
+     */
+    @JsonIgnore
+    public boolean isRemoved() {
+        return false;
+    }
+
+    /**
+     * @return the data points of configured point types, by type name
+     */
+    @JsonAnyGetter
+    public Map<String, DataPoint> getAdditionalDataPoints() {
+        Map<String, DataPoint> retval = new LinkedHashMap<>();
+        for (int slot = DataPointType.values().length; slot < DataPointTypeRegistry.size(); slot++) {
+            DataPoint dp = getDataPoint(slot);
+            if (dp != null) {
+                retval.put(DataPointTypeRegistry.get(slot).getName(), dp);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Set the data point of a configured point type by name, the counterpart of
+     * {@link #getAdditionalDataPoints()} when reading atmospheric information back.
+     *
+     * @param name the point type name, unknown types are ignored
+     * @param dp the data point
+     */
+    @JsonAnySetter
+    public void setAdditionalDataPoint(String name, DataPoint dp) {
+        DataPointTypeRegistry.Descriptor type = DataPointTypeRegistry.lookup(name);
+        if (type != null) {
+            setDataPoint(type.getSlot(), dp);
+        }
+    }
 }
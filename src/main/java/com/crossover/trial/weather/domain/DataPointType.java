@@ -1,16 +1,44 @@
 package com.crossover.trial.weather.domain;
 
 /**
- * The various types of data points we can collect.
+ * The various types of data points we can collect, with the range of accepted means and the unit. The ordinal is
+ * the storage slot in {@link AtmosphericInformation}; further types can be configured through
+ * {@link DataPointTypeRegistry}.
  *
  * @author code test administrator
  */
 //CR: This class should be in another package with all Enums
 public enum DataPointType {
-    WIND,
-    TEMPERATURE,
-    HUMIDTY,
-    PRESSURE,
-    CLOUDCOVER,
-    PRECIPITATION
+    WIND(0, Double.POSITIVE_INFINITY, "km/h"),
+    TEMPERATURE(-50, 100, "C"),
+    HUMIDTY(0, 100, "%"),
+    PRESSURE(650, 800, "mmHg"),
+    CLOUDCOVER(0, 100, "%"),
+    PRECIPITATION(0, 100, "cm");
+
+    /** lowest accepted mean, inclusive */
+    private final double min;
+
+    /** highest accepted mean, exclusive */
+    private final double max;
+
+    private final String unit;
+
+    DataPointType(double min, double max, String unit) {
+        this.min = min;
+        this.max = max;
+        this.unit = unit;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
 }
@@ -0,0 +1,203 @@
+package com.crossover.trial.weather.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * All point types known to the service, each with its validation range, unit and storage slot in
+ * {@link AtmosphericInformation}. The built in {@link DataPointType}s take the first slots; further types such as
+ * visibility or dew point are configured with the <code>weather.pointtypes</code> system property as a comma
+ * separated list of <code>name:min:max:unit</code>, for example <code>visibility:0:100:km,dewpoint:-50:50:C</code>.
+ *
+ * The registry is fixed once the class is initialized, lookups are a single hash map read.
+ */
+public final class DataPointTypeRegistry {
+
+    public final static Logger LOGGER = Logger.getLogger(DataPointTypeRegistry.class.getName());
+
+    private static final Descriptor[] BY_SLOT;
+
+    private static final Map<String, Descriptor> BY_NAME = new HashMap<>();
+
+    /** updates naming a point type nobody knows about */
+    private static final LongAdder unknown = new LongAdder();
+
+    static {
+        List<Descriptor> descriptors = new ArrayList<>();
+        for (DataPointType type : DataPointType.values()) {
+            descriptors.add(new Descriptor(type.name().toLowerCase(Locale.ROOT), type.ordinal(), type.getMin(),
+                    type.getMax(), type.getUnit()));
+        }
+        String configured = System.getProperty("weather.pointtypes", "");
+        for (String spec : configured.split(",")) {
+            if (spec.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = spec.trim().split(":");
+            try {
+                String name = parts[0].trim().toLowerCase(Locale.ROOT);
+                if (name.isEmpty() || parts.length != 4) {
+                    throw new IllegalArgumentException("expected name:min:max:unit");
+                }
+                descriptors.add(new Descriptor(name, descriptors.size(), Double.parseDouble(parts[1]),
+                        Double.parseDouble(parts[2]), parts[3].trim()));
+            } catch (IllegalArgumentException e) {
+                LOGGER.warning("Ignoring point type '" + spec + "': " + e.getMessage());
+            }
+        }
+        BY_SLOT = descriptors.toArray(new Descriptor[descriptors.size()]);
+        for (Descriptor d : BY_SLOT) {
+            BY_NAME.putIfAbsent(d.getName(), d);
+        }
+        // the enum constant carries a typo clients have been coding against, accept both spellings
+        BY_NAME.put("humidity", BY_SLOT[DataPointType.HUMIDTY.ordinal()]);
+    }
+
+    private DataPointTypeRegistry() { }
+
+    /**
+     * @param name a point type name, case insensitive
+     * @return the descriptor, or null if the type is unknown
+     */
+    public static Descriptor lookup(String name) {
+        if (name == null) {
+            return null;
+        }
+        Descriptor d = BY_NAME.get(name);
+        if (d == null) {
+            d = BY_NAME.get(name.toLowerCase(Locale.ROOT));
+        }
+        return d;
+    }
+
+    /**
+     * @param type a built in point type
+     * @return its descriptor
+     */
+    public static Descriptor get(DataPointType type) {
+        return BY_SLOT[type.ordinal()];
+    }
+
+    /**
+     * @param slot a storage slot
+     * @return the descriptor occupying it
+     */
+    public static Descriptor get(int slot) {
+        return BY_SLOT[slot];
+    }
+
+    /**
+     * @return the number of point types, and so of storage slots
+     */
+    public static int size() {
+        return BY_SLOT.length;
+    }
+
+    /**
+     * @return all descriptors in slot order
+     */
+    public static List<Descriptor> all() {
+        return Collections.unmodifiableList(Arrays.asList(BY_SLOT));
+    }
+
+    /**
+     * Count an update for a point type that is not registered.
+     */
+    public static void rejectUnknown() {
+        unknown.increment();
+    }
+
+    /**
+     * @return rejected updates per point type name, plus "unknown" for unregistered types
+     */
+    public static Map<String, Long> getRejectedCounts() {
+        Map<String, Long> retval = new LinkedHashMap<>();
+        for (Descriptor d : BY_SLOT) {
+            retval.put(d.getName(), d.rejected.sum());
+        }
+        retval.put("unknown", unknown.sum());
+        return retval;
+    }
+
+    /**
+     * A registered point type.
+     */
+    public static final class Descriptor {
+
+        private final String name;
+
+        private final int slot;
+
+        private final double min;
+
+        private final double max;
+
+        private final String unit;
+
+        private final LongAdder rejected = new LongAdder();
+
+        Descriptor(String name, int slot, double min, double max, String unit) {
+            this.name = name;
+            this.slot = slot;
+            this.min = min;
+            this.max = max;
+            this.unit = unit;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public String getUnit() {
+            return unit;
+        }
+
+        /**
+         * @param dp a collected data point
+         * @return true if its mean lies within [min, max)
+         */
+        public boolean accepts(DataPoint dp) {
+            return dp != null && accepts(dp.getMean());
+        }
+
+        /**
+         * @param value a single observation
+         * @return true if it lies within [min, max)
+         */
+        public boolean accepts(double value) {
+            return value >= min && value < max;
+        }
+
+        /**
+         * Count an update that failed validation.
+         */
+        public void reject() {
+            rejected.increment();
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.crossover.trial.weather.domain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The weather interpolated at a point from the airports around it, one {@link GridValue} per point type reported
+ * by at least one of them. The values are those of the grid cell holding the point, computed for its centre.
+ */
+public class GridWeather {
+
+    /** the centre of the grid cell, in degrees */
+    private double latitude;
+
+    private double longitude;
+
+    private Map<String, GridValue> points = new LinkedHashMap<>();
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    public Map<String, GridValue> getPoints() {
+        return points;
+    }
+
+    public void setPoints(Map<String, GridValue> points) {
+        this.points = points;
+    }
+
+    /**
+     * Add the value another shard interpolated for the same cell from its own airports.
+     */
+    public void merge(GridWeather other) {
+        for (Map.Entry<String, GridValue> e : other.getPoints().entrySet()) {
+            GridValue value = points.get(e.getKey());
+            if (value == null) {
+                points.put(e.getKey(), e.getValue());
+            } else {
+                value.merge(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * The inverse distance weighted mean of one point type.
+     */
+    public static class GridValue {
+
+        private double mean;
+
+        /** the sum of the weights of the airports, to combine values interpolated from different airports */
+        private double weight;
+
+        /** airports within reach reporting the point type */
+        private int airports;
+
+        public GridValue() { }
+
+        public GridValue(double mean, double weight, int airports) {
+            this.mean = mean;
+            this.weight = weight;
+            this.airports = airports;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public void setMean(double mean) {
+            this.mean = mean;
+        }
+
+        public double getWeight() {
+            return weight;
+        }
+
+        public void setWeight(double weight) {
+            this.weight = weight;
+        }
+
+        public int getAirports() {
+            return airports;
+        }
+
+        public void setAirports(int airports) {
+            this.airports = airports;
+        }
+
+        void merge(GridValue other) {
+            double total = weight + other.weight;
+            mean = (mean * weight + other.mean * other.weight) / total;
+            weight = total;
+            airports += other.airports;
+        }
+    }
+}
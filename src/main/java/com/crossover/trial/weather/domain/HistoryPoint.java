@@ -0,0 +1,41 @@
+package com.crossover.trial.weather.domain;
+
+/**
+ * A data point of an airport's history with the time it was taken. Older points are rollups of the readings
+ * of an interval, stamped with its start.
+ */
+public class HistoryPoint {
+
+    /** milliseconds since UTC epoch */
+    private long time;
+
+    private DataPoint dataPoint;
+
+    public HistoryPoint() { }
+
+    public HistoryPoint(long time, DataPoint dataPoint) {
+        this.time = time;
+        this.dataPoint = dataPoint;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public DataPoint getDataPoint() {
+        return dataPoint;
+    }
+
+    public void setDataPoint(DataPoint dataPoint) {
+        this.dataPoint = dataPoint;
+    }
+
+    @Override
+    public String toString() {
+        return time + " " + dataPoint;
+    }
+}
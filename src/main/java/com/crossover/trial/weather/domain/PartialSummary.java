@@ -0,0 +1,111 @@
+package com.crossover.trial.weather.domain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A shard's share of a {@link WeatherSummary}, for the node answering the aggregate to merge: one
+ * {@link PointSketch} per point type reported by at least one of the shard's matched airports. Like the summary its
+ * size depends on the number of point types, and the sketch accuracy, not on the number of airports.
+ */
+public class PartialSummary {
+
+    private Map<String, PointSketch> points = new LinkedHashMap<>();
+
+    public Map<String, PointSketch> getPoints() {
+        return points;
+    }
+
+    public void setPoints(Map<String, PointSketch> points) {
+        this.points = points;
+    }
+
+    /**
+     * The state of the quantile sketch over the means of one point type, see
+     * {@link com.crossover.trial.weather.util.KllSketch#restore}, and the observations behind them.
+     */
+    public static class PointSketch {
+
+        /** observations behind the data points */
+        private long readings;
+
+        private int k;
+
+        /** airports reporting the point type */
+        private long count;
+
+        private double sum;
+
+        private float min;
+
+        private float max;
+
+        private float[] values;
+
+        private int[] levelSizes;
+
+        public long getReadings() {
+            return readings;
+        }
+
+        public void setReadings(long readings) {
+            this.readings = readings;
+        }
+
+        public int getK() {
+            return k;
+        }
+
+        public void setK(int k) {
+            this.k = k;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public double getSum() {
+            return sum;
+        }
+
+        public void setSum(double sum) {
+            this.sum = sum;
+        }
+
+        public float getMin() {
+            return min;
+        }
+
+        public void setMin(float min) {
+            this.min = min;
+        }
+
+        public float getMax() {
+            return max;
+        }
+
+        public void setMax(float max) {
+            this.max = max;
+        }
+
+        public float[] getValues() {
+            return values;
+        }
+
+        public void setValues(float[] values) {
+            this.values = values;
+        }
+
+        public int[] getLevelSizes() {
+            return levelSizes;
+        }
+
+        public void setLevelSizes(int[] levelSizes) {
+            this.levelSizes = levelSizes;
+        }
+    }
+}
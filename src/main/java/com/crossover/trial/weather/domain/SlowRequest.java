@@ -0,0 +1,85 @@
+package com.crossover.trial.weather.domain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A request that took longer than the slow request threshold, with the time it spent in each phase.
+ */
+public class SlowRequest {
+
+    /** when the request finished, in milliseconds since UTC epoch */
+    private long time;
+
+    private String method;
+
+    /** the path and query string */
+    private String uri;
+
+    private int status;
+
+    /** the thread that served it */
+    private String thread;
+
+    /** from arrival to the last byte written, in milliseconds */
+    private double millis;
+
+    /** milliseconds per phase, in the order first timed */
+    private Map<String, Double> phases = new LinkedHashMap<>();
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public void setUri(String uri) {
+        this.uri = uri;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getThread() {
+        return thread;
+    }
+
+    public void setThread(String thread) {
+        this.thread = thread;
+    }
+
+    public double getMillis() {
+        return millis;
+    }
+
+    public void setMillis(double millis) {
+        this.millis = millis;
+    }
+
+    public Map<String, Double> getPhases() {
+        return phases;
+    }
+
+    public void setPhases(Map<String, Double> phases) {
+        this.phases = phases;
+    }
+}
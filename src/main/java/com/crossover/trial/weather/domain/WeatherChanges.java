@@ -0,0 +1,88 @@
+package com.crossover.trial.weather.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the change feed: the airports changed after a sequence number with their current state, the airports
+ * deleted, and the sequence number to ask from next time. An airport changed several times is listed once.
+ */
+public class WeatherChanges {
+
+    /** the sequence number to poll from next */
+    private long sequence;
+
+    /** true if more changes are waiting, poll again straight away */
+    private boolean more;
+
+    private List<AirportWeather> updated = new ArrayList<>();
+
+    /** IATA codes of the deleted airports */
+    private List<String> deleted = new ArrayList<>();
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public boolean isMore() {
+        return more;
+    }
+
+    public void setMore(boolean more) {
+        this.more = more;
+    }
+
+    public List<AirportWeather> getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(List<AirportWeather> updated) {
+        this.updated = updated;
+    }
+
+    public List<String> getDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(List<String> deleted) {
+        this.deleted = deleted;
+    }
+
+    /**
+     * An airport and its current weather.
+     */
+    public static class AirportWeather {
+
+        private String iata;
+
+        private AtmosphericInformation weather;
+
+        public AirportWeather() {
+        }
+
+        public AirportWeather(String iata, AtmosphericInformation weather) {
+            this.iata = iata;
+            this.weather = weather;
+        }
+
+        public String getIata() {
+            return iata;
+        }
+
+        public void setIata(String iata) {
+            this.iata = iata;
+        }
+
+        public AtmosphericInformation getWeather() {
+            return weather;
+        }
+
+        public void setWeather(AtmosphericInformation weather) {
+            this.weather = weather;
+        }
+    }
+}
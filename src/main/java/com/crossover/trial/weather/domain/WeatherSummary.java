@@ -0,0 +1,123 @@
+package com.crossover.trial.weather.domain;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Statistics over the data points of a set of airports, one {@link PointSummary} per point type reported by at
+ * least one of them. Its size depends on the number of point types only, not on the number of airports.
+ */
+public class WeatherSummary {
+
+    /** the number of airports matched */
+    private int airports;
+
+    private Map<String, PointSummary> points = new LinkedHashMap<>();
+
+    public int getAirports() {
+        return airports;
+    }
+
+    public void setAirports(int airports) {
+        this.airports = airports;
+    }
+
+    public Map<String, PointSummary> getPoints() {
+        return points;
+    }
+
+    public void setPoints(Map<String, PointSummary> points) {
+        this.points = points;
+    }
+
+    /**
+     * Statistics over the means of one point type across airports.
+     */
+    public static class PointSummary {
+
+        /** airports reporting the point type */
+        private long count;
+
+        /** observations behind their data points */
+        private long readings;
+
+        private double mean;
+
+        private double min;
+
+        private double max;
+
+        /** 1st quartile estimate */
+        private double first;
+
+        /** median estimate */
+        private double second;
+
+        /** 3rd quartile estimate */
+        private double third;
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+
+        public long getReadings() {
+            return readings;
+        }
+
+        public void setReadings(long readings) {
+            this.readings = readings;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public void setMean(double mean) {
+            this.mean = mean;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public void setMin(double min) {
+            this.min = min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public void setMax(double max) {
+            this.max = max;
+        }
+
+        public double getFirst() {
+            return first;
+        }
+
+        public void setFirst(double first) {
+            this.first = first;
+        }
+
+        public double getSecond() {
+            return second;
+        }
+
+        public void setSecond(double second) {
+            this.second = second;
+        }
+
+        public double getThird() {
+            return third;
+        }
+
+        public void setThird(double third) {
+            this.third = third;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.crossover.trial.weather.domain;
+
+import com.crossover.trial.weather.util.HeapSize;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The current weather of every airport packed into primitive words instead of an object per data point. Each
+ * airport has a row, and each point type slot of a row four words: the time the point was written, its mean and
+ * its four ints, two to a word. Rows are kept in chunks of {@value #CHUNK_ROWS}, long arrays on the heap or,
+ * with <code>weather.store.offHeap</code>, direct buffers off it; either way a large catalog gives the garbage
+ * collector one small handle per airport to trace rather than up to eight objects.
+ *
+ * The rows are handed out as {@link Row}s, atmospheric information reading and writing its data points in the
+ * table. A data point read from a row is a fresh copy, made when the weather is answered or serialized. A row is
+ * locked like any atmospheric information, by synchronizing on it; the table does not lock rows otherwise.
+ */
+public class WeatherTable {
+
+    /** rows per chunk, a power of two */
+    static final int CHUNK_ROWS = 1024;
+
+    private static final int CHUNK_SHIFT = Integer.numberOfTrailingZeros(CHUNK_ROWS);
+
+    /** words per point type slot */
+    private static final int SLOT_WORDS = 4;
+
+    private static final int TIME = 0;
+
+    private static final int MEAN = 1;
+
+    /** first and second quartile */
+    private static final int FIRST_SECOND = 2;
+
+    /** third quartile and count */
+    private static final int THIRD_COUNT = 3;
+
+    /** the time word of an empty slot */
+    private static final long EMPTY = AtmosphericInformation.NO_UPDATE;
+
+    private final boolean offHeap;
+
+    /** words per row */
+    private final int rowWords = DataPointTypeRegistry.size() * SLOT_WORDS;
+
+    /** replaced when the table grows, the rows in existing chunks never move */
+    private volatile Chunk[] chunks = new Chunk[0];
+
+    /** rows handed out, freed ones included */
+    private int rows;
+
+    /** freed rows, reused before the table grows */
+    private int[] free = new int[16];
+
+    private int freeCount;
+
+    /**
+     * @param offHeap true to keep the rows in direct buffers
+     */
+    public WeatherTable(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return a table off the heap if <code>weather.store.offHeap</code> is set
+     */
+    public static WeatherTable fromSystemProperties() {
+        return new WeatherTable(Boolean.getBoolean("weather.store.offHeap"));
+    }
+
+    /**
+     * @param airport the airport the row is for
+     * @return an empty row for a new airport
+     */
+    public synchronized Row allocate(AirportData airport) {
+        int row;
+        if (freeCount > 0) {
+            row = free[--freeCount];
+        } else {
+            row = rows++;
+            if (row >>> CHUNK_SHIFT == chunks.length) {
+                Chunk[] grown = Arrays.copyOf(chunks, chunks.length + 1);
+                grown[grown.length - 1] = offHeap ? new DirectChunk(CHUNK_ROWS * rowWords)
+                        : new HeapChunk(CHUNK_ROWS * rowWords);
+                chunks = grown;
+            }
+        }
+        Row retval = new Row(row, airport);
+        retval.clearAll();
+        return retval;
+    }
+
+    /**
+     * Give the row of a removed airport back. The row reads empty from now on and writes to it are ignored, so
+     * writes still queued for the airport can not reach the airport the row is handed to next.
+     */
+    public void free(Row row) {
+        synchronized (row) {
+            if (row.freed) {
+                return;
+            }
+            row.clearAll();
+            row.freed = true;
+        }
+        synchronized (this) {
+            if (freeCount == free.length) {
+                free = Arrays.copyOf(free, free.length * 2);
+            }
+            free[freeCount++] = row.row;
+        }
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return the heap taken by the table and its chunks, row handles not included
+     */
+    public synchronized long heapBytes() {
+        Chunk[] current = chunks;
+        long retval = HeapSize.object(13, 2) + HeapSize.array(current.length, HeapSize.REFERENCE)
+                + HeapSize.array(free.length, 4);
+        for (Chunk chunk : current) {
+            retval += chunk.heapBytes();
+        }
+        return retval;
+    }
+
+    /**
+     * @return the memory taken by the chunks off the heap
+     */
+    public long offHeapBytes() {
+        return offHeap ? (long) chunks.length * CHUNK_ROWS * rowWords * 8 : 0;
+    }
+
+    /**
+     * @return the size of a row handle
+     */
+    public static long handleBytes() {
+        return HeapSize.object(8 + 4 + 1, 4);
+    }
+
+    /**
+     * @return the size of a row in the table, on or off the heap
+     */
+    public static long rowBytes() {
+        return (long) DataPointTypeRegistry.size() * SLOT_WORDS * 8;
+    }
+
+    private long get(int row, int word) {
+        return chunks[row >>> CHUNK_SHIFT].get((row & (CHUNK_ROWS - 1)) * rowWords + word);
+    }
+
+    private void set(int row, int word, long value) {
+        chunks[row >>> CHUNK_SHIFT].set((row & (CHUNK_ROWS - 1)) * rowWords + word, value);
+    }
+
+    /**
+     * The atmospheric information of one airport, held in a row of the table. The last update time stays in the
+     * handle.
+     */
+    public final class Row extends AtmosphericInformation {
+
+        private final int row;
+
+        private final AirportData airport;
+
+        /** set under the lock of the row once it is given back */
+        private boolean freed;
+
+        private Row(int row, AirportData airport) {
+            super(null);
+            this.row = row;
+            this.airport = airport;
+        }
+
+        /**
+         * @return the airport the row was allocated for
+         */
+        @JsonIgnore
+        public AirportData getAirport() {
+            return airport;
+        }
+
+        @Override
+        public DataPoint getDataPoint(int slot) {
+            int base = slot * SLOT_WORDS;
+            if (freed || get(row, base + TIME) == EMPTY) {
+                return null;
+            }
+            long firstSecond = get(row, base + FIRST_SECOND);
+            long thirdCount = get(row, base + THIRD_COUNT);
+            DataPoint retval = new DataPoint((int) (firstSecond >> 32), (int) firstSecond, 0,
+                    (int) (thirdCount >> 32), (int) thirdCount);
+            retval.setMean(Double.longBitsToDouble(get(row, base + MEAN)));
+            return retval;
+        }
+
+        @Override
+        public void setDataPoint(int slot, DataPoint dp) {
+            write(slot, dp, getLastUpdateTime());
+        }
+
+        @Override
+        public void update(int slot, DataPoint dp, long time) {
+            write(slot, dp, time);
+            setLastUpdateTime(time);
+        }
+
+        @Override
+        public long getUpdateTime(int slot) {
+            // an empty slot's time word is EMPTY, which is NO_UPDATE
+            return freed ? NO_UPDATE : get(row, slot * SLOT_WORDS + TIME);
+        }
+
+        @Override
+        public boolean isRemoved() {
+            return freed;
+        }
+
+        @Override
+        public boolean hasData() {
+            if (freed) {
+                return false;
+            }
+            for (int base = 0; base < rowWords; base += SLOT_WORDS) {
+                if (get(row, base + TIME) != EMPTY) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void write(int slot, DataPoint dp, long time) {
+            if (freed) {
+                return;
+            }
+            int base = slot * SLOT_WORDS;
+            if (dp == null) {
+                set(row, base + TIME, EMPTY);
+                return;
+            }
+            set(row, base + TIME, time == EMPTY ? EMPTY + 1 : time);
+            set(row, base + MEAN, Double.doubleToRawLongBits(dp.getMean()));
+            set(row, base + FIRST_SECOND, (long) dp.getFirst() << 32 | dp.getSecond() & 0xFFFFFFFFL);
+            set(row, base + THIRD_COUNT, (long) dp.getThird() << 32 | dp.getCount() & 0xFFFFFFFFL);
+        }
+
+        private void clearAll() {
+            for (int base = 0; base < rowWords; base += SLOT_WORDS) {
+                set(row, base + TIME, EMPTY);
+            }
+            setLastUpdateTime(0);
+        }
+    }
+
+    private interface Chunk {
+
+        long get(int index);
+
+        void set(int index, long value);
+
+        long heapBytes();
+    }
+
+    private static final class HeapChunk implements Chunk {
+
+        private final long[] words;
+
+        HeapChunk(int length) {
+            words = new long[length];
+        }
+
+        @Override
+        public long get(int index) {
+            return words[index];
+        }
+
+        @Override
+        public void set(int index, long value) {
+            words[index] = value;
+        }
+
+        @Override
+        public long heapBytes() {
+            return HeapSize.object(0, 1) + HeapSize.array(words.length, 8);
+        }
+    }
+
+    private static final class DirectChunk implements Chunk {
+
+        private final ByteBuffer words;
+
+        DirectChunk(int length) {
+            words = ByteBuffer.allocateDirect(length * 8).order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public long get(int index) {
+            return words.getLong(index << 3);
+        }
+
+        @Override
+        public void set(int index, long value) {
+            words.putLong(index << 3, value);
+        }
+
+        @Override
+        public long heapBytes() {
+            // the buffer object and its cleaner
+            return HeapSize.object(0, 1) + HeapSize.object(30, 6) + HeapSize.object(0, 4);
+        }
+    }
+}
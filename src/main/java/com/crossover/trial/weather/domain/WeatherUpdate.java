@@ -0,0 +1,45 @@
+package com.crossover.trial.weather.domain;
+
+/**
+ * One data point for one airport, an entry of a batched collector update.
+ */
+public class WeatherUpdate {
+
+    private String iata;
+
+    private String pointType;
+
+    private DataPoint dataPoint;
+
+    public WeatherUpdate() { }
+
+    public WeatherUpdate(String iata, String pointType, DataPoint dataPoint) {
+        this.iata = iata;
+        this.pointType = pointType;
+        this.dataPoint = dataPoint;
+    }
+
+    public String getIata() {
+        return iata;
+    }
+
+    public void setIata(String iata) {
+        this.iata = iata;
+    }
+
+    public String getPointType() {
+        return pointType;
+    }
+
+    public void setPointType(String pointType) {
+        this.pointType = pointType;
+    }
+
+    public DataPoint getDataPoint() {
+        return dataPoint;
+    }
+
+    public void setDataPoint(DataPoint dataPoint) {
+        this.dataPoint = dataPoint;
+    }
+}
@@ -0,0 +1,24 @@
+package com.crossover.trial.weather.exception;
+
+/**
+ * A request body that is not valid json for the expected wire format. The message names what was expected and
+ * the byte offset where decoding stopped.
+ */
+public class MalformedPayloadException extends WeatherException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int offset;
+
+    public MalformedPayloadException(String message, int offset) {
+        super(message + " at offset " + offset);
+        this.offset = offset;
+    }
+
+    /**
+     * @return the byte offset in the body where decoding stopped
+     */
+    public int getOffset() {
+        return offset;
+    }
+}
@@ -0,0 +1,14 @@
+package com.crossover.trial.weather.exception;
+
+/**
+ * An airport refused because the store is at its memory budget, see
+ * {@link com.crossover.trial.weather.service.MemoryBudget}.
+ */
+public class MemoryBudgetExceededException extends WeatherException {
+
+    private static final long serialVersionUID = 1L;
+
+    public MemoryBudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -5,6 +5,10 @@ package com.crossover.trial.weather.exception;
  */
 public class WeatherException extends Exception {
     
+    public WeatherException(String message) {
+        super(message);
+    }
+
     public WeatherException(String message, Throwable cause) {
         super(message, cause);
     }
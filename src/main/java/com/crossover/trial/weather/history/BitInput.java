@@ -0,0 +1,42 @@
+package com.crossover.trial.weather.history;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a bit string written by {@link BitOutput} from a region of a buffer, with absolute reads only, so several
+ * readers may share one buffer.
+ */
+final class BitInput {
+
+    private final ByteBuffer buffer;
+
+    private final int offset;
+
+    private long position;
+
+    BitInput(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        this.offset = offset;
+    }
+
+    /**
+     * @param n the number of bits, 0 to 64
+     * @return the bits in the lowest n bits
+     */
+    long read(int n) {
+        long retval = 0;
+        while (n > 0) {
+            int current = buffer.get(offset + (int) (position >>> 3)) & 0xFF;
+            int available = 8 - (int) (position & 7);
+            int take = Math.min(available, n);
+            retval = (retval << take) | ((current >>> (available - take)) & ((1 << take) - 1));
+            position += take;
+            n -= take;
+        }
+        return retval;
+    }
+
+    boolean readBit() {
+        return read(1) != 0;
+    }
+}
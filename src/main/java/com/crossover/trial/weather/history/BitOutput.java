@@ -0,0 +1,46 @@
+package com.crossover.trial.weather.history;
+
+import java.util.Arrays;
+
+/**
+ * A growable bit string, written most significant bit first.
+ */
+final class BitOutput {
+
+    private byte[] buffer = new byte[32];
+
+    private long bits;
+
+    /**
+     * @param value holds the bits in its lowest n bits
+     * @param n the number of bits, 0 to 64
+     */
+    void write(long value, int n) {
+        if (bits + n > (long) buffer.length * 8) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, (int) ((bits + n + 7) / 8)));
+        }
+        while (n > 0) {
+            int free = 8 - (int) (bits & 7);
+            int take = Math.min(free, n);
+            int chunk = (int) (value >>> (n - take)) & ((1 << take) - 1);
+            buffer[(int) (bits >>> 3)] |= chunk << (free - take);
+            bits += take;
+            n -= take;
+        }
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * @return the bytes written so far, the last one padded with zero bits
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, (int) ((bits + 7) / 8));
+    }
+
+    int capacity() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,118 @@
+package com.crossover.trial.weather.history;
+
+import com.crossover.trial.weather.domain.DataPoint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads back the points written by a {@link GorillaEncoder}, in the order they were appended.
+ *
+ * Not thread safe, but any number of decoders may read the same buffer.
+ */
+public final class GorillaDecoder {
+
+    private final BitInput in;
+
+    private final int count;
+
+    private int read;
+
+    private long time;
+
+    private long delta;
+
+    private final long[] values = new long[GorillaEncoder.COLUMNS];
+
+    private final int[] leading = new int[GorillaEncoder.COLUMNS];
+
+    private final int[] trailing = new int[GorillaEncoder.COLUMNS];
+
+    /**
+     * @param buffer holds the encoded points
+     * @param offset where they start
+     * @param count the number of points encoded
+     */
+    public GorillaDecoder(ByteBuffer buffer, int offset, int count) {
+        this.in = new BitInput(buffer, offset);
+        this.count = count;
+    }
+
+    public GorillaDecoder(byte[] encoded, int count) {
+        this(ByteBuffer.wrap(encoded), 0, count);
+    }
+
+    /**
+     * @return false once all points are read, otherwise the next point is current
+     */
+    public boolean next() {
+        if (read == count) {
+            return false;
+        }
+        if (read == 0) {
+            time = in.read(64);
+        } else {
+            delta += readDeltaOfDelta();
+            time += delta;
+        }
+        for (int column = 0; column < values.length; column++) {
+            readValue(column);
+        }
+        read++;
+        return true;
+    }
+
+    private long readDeltaOfDelta() {
+        if (!in.readBit()) {
+            return 0;
+        } else if (!in.readBit()) {
+            return signed(in.read(7), 7);
+        } else if (!in.readBit()) {
+            return signed(in.read(9), 9);
+        } else if (!in.readBit()) {
+            return signed(in.read(12), 12);
+        }
+        return in.read(64);
+    }
+
+    /**
+     * The ranges are shifted by one against two's complement, -63 to 64 for 7 bits and so on.
+     */
+    private static long signed(long value, int bits) {
+        return value > (1L << (bits - 1)) ? value - (1L << bits) : value;
+    }
+
+    private void readValue(int column) {
+        if (read == 0) {
+            values[column] = in.read(64);
+        } else if (in.readBit()) {
+            if (in.readBit()) {
+                leading[column] = (int) in.read(5);
+                int meaningful = (int) in.read(6) + 1;
+                trailing[column] = 64 - leading[column] - meaningful;
+            }
+            int meaningful = 64 - leading[column] - trailing[column];
+            values[column] ^= in.read(meaningful) << trailing[column];
+        }
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public double getMean() {
+        return value(0);
+    }
+
+    /**
+     * @return the current point as a data point
+     */
+    public DataPoint getDataPoint() {
+        DataPoint retval = new DataPoint((int) value(1), (int) value(2), 0, (int) value(3), (int) value(4));
+        retval.setMean(value(0));
+        return retval;
+    }
+
+    double value(int column) {
+        return Double.longBitsToDouble(values[column]);
+    }
+}
@@ -0,0 +1,148 @@
+package com.crossover.trial.weather.history;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.util.HeapSize;
+
+/**
+ * Compresses a series of data points with the scheme of Facebook's Gorilla (Pelkonen et al., VLDB 2015).
+ * Timestamps are stored as the difference between consecutive deltas, which is zero for regular readings and
+ * takes a single bit then. The mean, quartiles and count of a data point are five columns of doubles, each stored
+ * as the XOR with its previous value: an unchanged value takes one bit, a changed one only its meaningful bits,
+ * reusing the previous leading and trailing zero counts when they still fit.
+ *
+ * <pre>
+ * time   first: 64 bits, then delta of delta d:
+ *        0                          d = 0
+ *        10   + 7 bits              -63 &lt;= d &lt;= 64
+ *        110  + 9 bits              -255 &lt;= d &lt;= 256
+ *        1110 + 12 bits             -2047 &lt;= d &lt;= 2048
+ *        1111 + 64 bits             otherwise
+ * value  first: 64 bits, then x = value XOR previous:
+ *        0                          x = 0
+ *        10 + meaningful bits       within the previous leading and trailing zeros
+ *        11 + 5 bits leading zeros + 6 bits length - 1 + meaningful bits
+ * </pre>
+ *
+ * Not thread safe.
+ */
+public final class GorillaEncoder {
+
+    /** mean, first, second, third and count */
+    static final int COLUMNS = 5;
+
+    private final BitOutput out = new BitOutput();
+
+    private int count;
+
+    private long previousTime;
+
+    private long previousDelta;
+
+    private final long[] previousValues = new long[COLUMNS];
+
+    private final int[] leading = new int[COLUMNS];
+
+    private final int[] trailing = new int[COLUMNS];
+
+    private long minTime = Long.MAX_VALUE;
+
+    private long maxTime = Long.MIN_VALUE;
+
+    public void append(long time, DataPoint dp) {
+        append(time, dp.getMean(), dp.getFirst(), dp.getSecond(), dp.getThird(), dp.getCount());
+    }
+
+    void append(long time, double mean, double first, double second, double third, double pointCount) {
+        if (count == 0) {
+            out.write(time, 64);
+        } else {
+            long delta = time - previousTime;
+            writeDeltaOfDelta(delta - previousDelta);
+            previousDelta = delta;
+        }
+        previousTime = time;
+        writeValue(0, mean);
+        writeValue(1, first);
+        writeValue(2, second);
+        writeValue(3, third);
+        writeValue(4, pointCount);
+        minTime = Math.min(minTime, time);
+        maxTime = Math.max(maxTime, time);
+        count++;
+    }
+
+    private void writeDeltaOfDelta(long d) {
+        if (d == 0) {
+            out.write(0, 1);
+        } else if (d >= -63 && d <= 64) {
+            out.write(0b10, 2);
+            out.write(d, 7);
+        } else if (d >= -255 && d <= 256) {
+            out.write(0b110, 3);
+            out.write(d, 9);
+        } else if (d >= -2047 && d <= 2048) {
+            out.write(0b1110, 4);
+            out.write(d, 12);
+        } else {
+            out.write(0b1111, 4);
+            out.write(d, 64);
+        }
+    }
+
+    private void writeValue(int column, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            out.write(bits, 64);
+            previousValues[column] = bits;
+            leading[column] = -1;
+            return;
+        }
+        long xor = bits ^ previousValues[column];
+        previousValues[column] = bits;
+        if (xor == 0) {
+            out.write(0, 1);
+            return;
+        }
+        int lead = Math.min(31, Long.numberOfLeadingZeros(xor));
+        int trail = Long.numberOfTrailingZeros(xor);
+        if (leading[column] >= 0 && lead >= leading[column] && trail >= trailing[column]) {
+            out.write(0b10, 2);
+            out.write(xor >>> trailing[column], 64 - leading[column] - trailing[column]);
+        } else {
+            int meaningful = 64 - lead - trail;
+            out.write(0b11, 2);
+            out.write(lead, 5);
+            out.write(meaningful - 1, 6);
+            out.write(xor >>> trail, meaningful);
+            leading[column] = lead;
+            trailing[column] = trail;
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getMinTime() {
+        return minTime;
+    }
+
+    public long getMaxTime() {
+        return maxTime;
+    }
+
+    /**
+     * @return the encoded points, decode with {@link GorillaDecoder} and the count
+     */
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the estimated heap taken by the encoder, see {@link HeapSize}
+     */
+    long estimateBytes() {
+        return HeapSize.object(36, 4) + HeapSize.object(8, 1) + HeapSize.array(out.capacity(), 1)
+                + HeapSize.array(COLUMNS, 8) + 2 * HeapSize.array(COLUMNS, 4);
+    }
+}
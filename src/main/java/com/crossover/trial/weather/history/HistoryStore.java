@@ -0,0 +1,659 @@
+package com.crossover.trial.weather.history;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.HistoryPoint;
+import com.crossover.trial.weather.util.AirportCodes;
+import com.crossover.trial.weather.util.HeapSize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps every data point of every airport on disk, for queries over a time range. New points are appended to an
+ * in memory head per airport and point type, Gorilla encoded; a background thread flushes the heads into a new
+ * {@link Segment} file every <code>weather.history.flushMillis</code> (default ten minutes) and then maintains the
+ * segments:
+ *
+ * <ul>
+ * <li>segments holding nothing younger than <code>weather.history.retentionMillis</code> (default a year) are
+ * deleted;</li>
+ * <li>segments are compacted in tiers: once <code>weather.history.fanIn</code> (default 4) segments of a level
+ * exist the oldest are merged into one of the next level, up to level {@link #MAX_LEVEL}, unless together they
+ * hold more than <code>weather.history.maxSegmentBytes</code> (default 1 GB), as a segment is mapped as one
+ * buffer and can not reach 2 GB;</li>
+ * <li>points older than <code>weather.history.rawRetentionMillis</code> (default 30 days) are rolled up into one
+ * point per <code>weather.history.rollupMillis</code> (default an hour), averaging the mean and the quartiles
+ * weighted by the count and adding up the counts.</li>
+ * </ul>
+ *
+ * The store is enabled by setting <code>weather.history.dir</code> to the directory of the segments; the segments
+ * found there are read back at startup. A compaction names its segment after the range of flushes it holds, so a
+ * segment left behind by a compaction cut short is recognized and deleted. Expiry, compaction and rollup run as
+ * separate steps, so one failing, say for lack of disk space, does not keep the others from running.
+ */
+public class HistoryStore implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(HistoryStore.class.getName());
+
+    /** segments of this level are not compacted any further */
+    public static final int MAX_LEVEL = 6;
+
+    /** the largest segment a compaction writes by default */
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 1L << 30;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("seg-(\\d+)-(\\d+)-(\\d+)\\.whs");
+
+    private final Path dir;
+
+    private final long retentionMillis;
+
+    private final long rawRetentionMillis;
+
+    private final long rollupMillis;
+
+    private final int fanIn;
+
+    private final long maxSegmentBytes;
+
+    /** taken shared to append to the heads, exclusive to swap them out */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /** the points not flushed yet by series key, each encoder guarded by itself */
+    private Map<Long, GorillaEncoder> heads = new ConcurrentHashMap<>();
+
+    /** the heads being flushed, readable until their segment is in place */
+    private Map<Long, GorillaEncoder> sealed = Collections.emptyMap();
+
+    /** the segments by the first flush they hold; replaced, never changed */
+    private volatile List<Segment> segments;
+
+    private long nextId;
+
+    private final AtomicLong compactions = new AtomicLong();
+
+    private final AtomicLong rollups = new AtomicLong();
+
+    private final AtomicLong expired = new AtomicLong();
+
+    private final ScheduledExecutorService maintainer;
+
+    /**
+     * @param dir the directory of the segments, created if missing
+     * @param flushMillis how often to flush and maintain the segments, 0 to leave it to the caller
+     * @param retentionMillis how long to keep points
+     * @param rawRetentionMillis how long to keep points before they are rolled up
+     * @param rollupMillis the interval a rollup covers
+     * @param fanIn the number of segments compacted into one
+     * @throws IOException if the directory or a segment in it cannot be read
+     */
+    public HistoryStore(Path dir, long flushMillis, long retentionMillis, long rawRetentionMillis, long rollupMillis,
+                        int fanIn) throws IOException {
+        this(dir, flushMillis, retentionMillis, rawRetentionMillis, rollupMillis, fanIn, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    /**
+     * @param dir the directory of the segments, created if missing
+     * @param flushMillis how often to flush and maintain the segments, 0 to leave it to the caller
+     * @param retentionMillis how long to keep points
+     * @param rawRetentionMillis how long to keep points before they are rolled up
+     * @param rollupMillis the interval a rollup covers
+     * @param fanIn the number of segments compacted into one
+     * @param maxSegmentBytes segments together larger than this are not compacted, at most
+     *                        {@link Segment#MAX_BYTES}
+     * @throws IOException if the directory or a segment in it cannot be read
+     */
+    public HistoryStore(Path dir, long flushMillis, long retentionMillis, long rawRetentionMillis, long rollupMillis,
+                        int fanIn, long maxSegmentBytes) throws IOException {
+        if (rollupMillis <= 0 || fanIn < 2) {
+            throw new IllegalArgumentException("rollup interval must be positive and fan in at least 2");
+        }
+        if (maxSegmentBytes <= 0 || maxSegmentBytes > Segment.MAX_BYTES) {
+            throw new IllegalArgumentException("segment size must be positive and at most " + Segment.MAX_BYTES);
+        }
+        this.dir = Files.createDirectories(dir);
+        this.retentionMillis = retentionMillis;
+        this.rawRetentionMillis = rawRetentionMillis;
+        this.rollupMillis = rollupMillis;
+        this.fanIn = fanIn;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.segments = recover();
+        this.nextId = segments.stream().mapToLong(Segment::getLastId).max().orElse(0) + 1;
+        if (flushMillis > 0) {
+            maintainer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "weather-history");
+                t.setDaemon(true);
+                return t;
+            });
+            maintainer.scheduleWithFixedDelay(this::maintain, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        } else {
+            maintainer = null;
+        }
+    }
+
+    /**
+     * @return the store configured by the <code>weather.history.*</code> system properties, or null unless
+     * <code>weather.history.dir</code> is set
+     */
+    public static HistoryStore fromSystemProperties() {
+        String dir = System.getProperty("weather.history.dir");
+        if (dir == null || dir.isEmpty()) {
+            return null;
+        }
+        try {
+            return new HistoryStore(Paths.get(dir),
+                    Long.getLong("weather.history.flushMillis", TimeUnit.MINUTES.toMillis(10)),
+                    Long.getLong("weather.history.retentionMillis", TimeUnit.DAYS.toMillis(365)),
+                    Long.getLong("weather.history.rawRetentionMillis", TimeUnit.DAYS.toMillis(30)),
+                    Long.getLong("weather.history.rollupMillis", TimeUnit.HOURS.toMillis(1)),
+                    Integer.getInteger("weather.history.fanIn", 4),
+                    Long.getLong("weather.history.maxSegmentBytes", DEFAULT_MAX_SEGMENT_BYTES));
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not open the history in " + dir + ", history is disabled", e);
+            return null;
+        }
+    }
+
+    /**
+     * Open the segments in the directory, dropping the ones a later compaction already merged and the temporary
+     * files of writes cut short.
+     */
+    private List<Segment> recover() throws IOException {
+        List<Segment> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Matcher m = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    found.add(Segment.open(file, Long.parseLong(m.group(2)), Long.parseLong(m.group(3))));
+                } else if (file.getFileName().toString().endsWith(".whs.tmp")) {
+                    Files.delete(file);
+                }
+            }
+        }
+        List<Segment> retval = new ArrayList<>();
+        for (Segment segment : found) {
+            if (found.stream().anyMatch(other -> other.supersedes(segment))) {
+                LOGGER.log(Level.INFO, "Deleting history segment {0}, it was compacted", segment);
+                segment.delete();
+            } else {
+                retval.add(segment);
+            }
+        }
+        retval.sort(Comparator.comparingLong(Segment::getFirstId));
+        return Collections.unmodifiableList(retval);
+    }
+
+    /**
+     * Append a data point to the history of an airport. The points of a series are expected roughly in order.
+     *
+     * @param iataCode the airport
+     * @param slot the slot of the data point type
+     * @param time when the point was taken, in milliseconds since UTC epoch
+     * @param dp the point
+     */
+    public void record(String iataCode, int slot, long time, DataPoint dp) {
+        long key = key(iataCode, slot);
+        lock.readLock().lock();
+        try {
+            GorillaEncoder head = heads.computeIfAbsent(key, k -> new GorillaEncoder());
+            synchronized (head) {
+                head.append(time, dp);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param iataCode the airport
+     * @param slot the slot of the data point type
+     * @param from the first time wanted, inclusive
+     * @param to the last time wanted, inclusive
+     * @return the points of the series in the range, by time
+     */
+    public List<HistoryPoint> history(String iataCode, int slot, long from, long to) {
+        long key = key(iataCode, slot);
+        List<Segment> current;
+        GorillaEncoder flushing;
+        GorillaEncoder head;
+        lock.readLock().lock();
+        try {
+            current = segments;
+            flushing = sealed.get(key);
+            head = heads.get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Row> raw = new ArrayList<>();
+        List<Row> rolledUp = new ArrayList<>();
+        for (Segment segment : current) {
+            if (segment.overlaps(from, to)) {
+                collect(segment.read(key, from, to), from, to, segment.getMinRawTime(), raw, rolledUp);
+            }
+        }
+        for (GorillaEncoder encoder : new GorillaEncoder[]{flushing, head}) {
+            if (encoder != null) {
+                byte[] encoded;
+                int count;
+                synchronized (encoder) {
+                    encoded = encoder.toByteArray();
+                    count = encoder.getCount();
+                }
+                collect(new GorillaDecoder(encoded, count), from, to, Long.MIN_VALUE, raw, rolledUp);
+            }
+        }
+        // a rollup split over two segments is read as one
+        rolledUp.sort(Comparator.comparingLong(row -> row.time));
+        List<HistoryPoint> retval = new ArrayList<>(raw.size() + rolledUp.size());
+        Row rollup = null;
+        for (Row row : rolledUp) {
+            if (rollup != null && rollup.time == row.time) {
+                rollup.add(row);
+            } else {
+                if (rollup != null) {
+                    retval.add(rollup.toHistoryPoint());
+                }
+                rollup = row;
+            }
+        }
+        if (rollup != null) {
+            retval.add(rollup.toHistoryPoint());
+        }
+        for (Row row : raw) {
+            retval.add(row.toHistoryPoint());
+        }
+        retval.sort(Comparator.comparingLong(HistoryPoint::getTime));
+        return retval;
+    }
+
+    /**
+     * @param rollupBefore points before this time are rollups
+     */
+    private static void collect(GorillaDecoder decoder, long from, long to, long rollupBefore, List<Row> raw,
+                                List<Row> rolledUp) {
+        if (decoder == null) {
+            return;
+        }
+        while (decoder.next()) {
+            if (decoder.getTime() >= from && decoder.getTime() <= to) {
+                (decoder.getTime() < rollupBefore ? rolledUp : raw).add(new Row(decoder));
+            }
+        }
+    }
+
+    private static long key(String iataCode, int slot) {
+        return ((long) AirportCodes.pack(iataCode) << 32) | (slot & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Write the heads into a new segment of level 0. If the write fails the heads stay readable and are written by
+     * the next flush.
+     */
+    public synchronized void flush() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (sealed.isEmpty()) {
+                if (heads.isEmpty()) {
+                    return;
+                }
+                sealed = heads;
+                heads = new ConcurrentHashMap<>();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long id = nextId++;
+        long minTime = Long.MAX_VALUE;
+        for (GorillaEncoder encoder : sealed.values()) {
+            minTime = Math.min(minTime, encoder.getMinTime());
+        }
+        Segment segment = Segment.write(path(0, id, id), id, id, 0, new TreeMap<>(sealed), minTime);
+        lock.writeLock().lock();
+        try {
+            List<Segment> next = new ArrayList<>(segments);
+            next.add(segment);
+            segments = Collections.unmodifiableList(next);
+            sealed = Collections.emptyMap();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void maintain() {
+        try {
+            maintain(System.currentTimeMillis());
+        } catch (IOException | RuntimeException e) {
+            // never let the scheduled task die
+            LOGGER.log(Level.SEVERE, "Error maintaining the weather history", e);
+        }
+    }
+
+    /**
+     * Flush the heads, then delete, compact and roll up the segments as of the given time. Every step runs even if
+     * an earlier one failed.
+     *
+     * @param now the current time in milliseconds since UTC epoch
+     * @throws IOException the failure of the first step that failed, with those of later steps suppressed
+     */
+    public synchronized void maintain(long now) throws IOException {
+        long expireBefore = now - retentionMillis;
+        long rawCutoff = Math.floorDiv(now - rawRetentionMillis, rollupMillis) * rollupMillis;
+        IOException failure = null;
+        failure = step(failure, this::flush);
+        failure = step(failure, () -> expire(expireBefore));
+        failure = step(failure, () -> compact(expireBefore, rawCutoff));
+        failure = step(failure, () -> rollup(expireBefore, rawCutoff));
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Run a maintenance step, keeping its failure for the caller.
+     *
+     * @param failure the failure of the steps so far, null for none
+     * @return the failure of the steps so far and this one
+     */
+    private static IOException step(IOException failure, Step step) {
+        try {
+            step.run();
+            return failure;
+        } catch (IOException | RuntimeException e) {
+            IOException retval = failure != null ? failure
+                    : e instanceof IOException ? (IOException) e : new IOException(e);
+            if (retval != e) {
+                retval.addSuppressed(e);
+            }
+            return retval;
+        }
+    }
+
+    private void expire(long expireBefore) throws IOException {
+        for (Segment segment : segments) {
+            if (segment.getMaxTime() < expireBefore) {
+                replace(Collections.singletonList(segment), null);
+                expired.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Merge every fanIn segments of a level into one of the next, leaving groups that would make a segment over
+     * the size limit where they are.
+     */
+    private void compact(long expireBefore, long rawCutoff) throws IOException {
+        for (int level = 0; level < MAX_LEVEL; level++) {
+            List<Segment> tier = new ArrayList<>();
+            for (Segment segment : segments) {
+                if (segment.getLevel() == level) {
+                    tier.add(segment);
+                }
+            }
+            for (int i = 0; i + fanIn <= tier.size(); i += fanIn) {
+                List<Segment> inputs = tier.subList(i, i + fanIn);
+                long bytes = 0;
+                for (Segment segment : inputs) {
+                    bytes += segment.getBytes();
+                }
+                // a merge drops and rolls up points but never adds any, it comes out about as large at most
+                if (bytes <= maxSegmentBytes) {
+                    replace(inputs, merge(inputs, level + 1, expireBefore, rawCutoff));
+                    compactions.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private void rollup(long expireBefore, long rawCutoff) throws IOException {
+        for (Segment segment : segments) {
+            if (segment.getMinRawTime() < rawCutoff) {
+                // rewritten in place under the same name
+                replace(Collections.singletonList(segment),
+                        merge(Collections.singletonList(segment), segment.getLevel(), expireBefore, rawCutoff));
+                rollups.incrementAndGet();
+            }
+        }
+    }
+
+    /** a step of {@link #maintain(long)} */
+    @FunctionalInterface
+    private interface Step {
+        void run() throws IOException;
+    }
+
+    /**
+     * Swap segments for the one merged from them and delete their files, unless the merged segment took their
+     * place.
+     */
+    private void replace(List<Segment> inputs, Segment merged) throws IOException {
+        List<Segment> next = new ArrayList<>(segments);
+        next.removeAll(inputs);
+        if (merged != null) {
+            next.add(merged);
+            next.sort(Comparator.comparingLong(Segment::getFirstId));
+        }
+        segments = Collections.unmodifiableList(next);
+        for (Segment input : inputs) {
+            if (merged == null || !input.getPath().equals(merged.getPath())) {
+                input.delete();
+            }
+        }
+    }
+
+    /**
+     * Merge the series of the segments into a new segment, dropping expired points and rolling up old ones.
+     *
+     * @return the new segment, null if no point is left
+     */
+    private Segment merge(List<Segment> inputs, int level, long expireBefore, long rawCutoff) throws IOException {
+        SortedSet<Long> keys = new TreeSet<>();
+        for (Segment segment : inputs) {
+            for (long key : segment.getKeys()) {
+                keys.add(key);
+            }
+        }
+        SortedMap<Long, GorillaEncoder> series = new TreeMap<>();
+        long minRawTime = Long.MAX_VALUE;
+        for (long key : keys) {
+            List<Row> rows = new ArrayList<>();
+            for (Segment segment : inputs) {
+                GorillaDecoder decoder = segment.read(key, expireBefore, Long.MAX_VALUE);
+                while (decoder != null && decoder.next()) {
+                    if (decoder.getTime() >= expireBefore) {
+                        rows.add(new Row(decoder));
+                    }
+                }
+            }
+            rows.sort(Comparator.comparingLong(row -> row.time));
+            GorillaEncoder encoder = new GorillaEncoder();
+            Row rollup = null;
+            for (Row row : rows) {
+                if (row.time < rawCutoff) {
+                    long start = row.time - Math.floorMod(row.time, rollupMillis);
+                    if (rollup != null && rollup.time == start) {
+                        rollup.add(row);
+                        continue;
+                    }
+                    if (rollup != null) {
+                        rollup.appendTo(encoder);
+                    }
+                    rollup = row;
+                    rollup.time = start;
+                } else {
+                    if (rollup != null) {
+                        rollup.appendTo(encoder);
+                        rollup = null;
+                    }
+                    row.appendTo(encoder);
+                    minRawTime = Math.min(minRawTime, row.time);
+                }
+            }
+            if (rollup != null) {
+                rollup.appendTo(encoder);
+            }
+            if (encoder.getCount() > 0) {
+                series.put(key, encoder);
+            }
+        }
+        if (series.isEmpty()) {
+            return null;
+        }
+        long firstId = inputs.get(0).getFirstId();
+        long lastId = inputs.get(inputs.size() - 1).getLastId();
+        return Segment.write(path(level, firstId, lastId), firstId, lastId, level, series, minRawTime);
+    }
+
+    private Path path(int level, long firstId, long lastId) {
+        return dir.resolve(String.format("seg-%d-%012d-%012d.whs", level, firstId, lastId));
+    }
+
+    /**
+     * @return the number of segments per level, the points and bytes on disk, the points in memory and the counts
+     * of compactions, rollup rewrites and expired segments
+     */
+    public Map<String, Object> getStats() {
+        List<Segment> current = segments;
+        Map<Integer, Integer> levels = new TreeMap<>();
+        long points = 0;
+        long bytes = 0;
+        for (Segment segment : current) {
+            levels.merge(segment.getLevel(), 1, Integer::sum);
+            points += segment.getPoints();
+            bytes += segment.getBytes();
+        }
+        long headPoints = 0;
+        lock.readLock().lock();
+        try {
+            for (GorillaEncoder head : heads.values()) {
+                synchronized (head) {
+                    headPoints += head.getCount();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("segments", current.size());
+        retval.put("levels", levels);
+        retval.put("points", points);
+        retval.put("bytes", bytes);
+        retval.put("head_points", headPoints);
+        retval.put("compactions", compactions.get());
+        retval.put("rollups", rollups.get());
+        retval.put("expired", expired.get());
+        return retval;
+    }
+
+    /**
+     * @return the estimated heap taken by the heads, see {@link HeapSize}; segments are mapped, not on the heap
+     */
+    public long estimateHeadBytes() {
+        lock.readLock().lock();
+        try {
+            long retval = HeapSize.hashMap(heads.size()) + HeapSize.hashMap(sealed.size());
+            for (Map<Long, GorillaEncoder> map : Arrays.asList(heads, sealed)) {
+                for (GorillaEncoder head : map.values()) {
+                    synchronized (head) {
+                        retval += HeapSize.object(8, 0) + head.estimateBytes();
+                    }
+                }
+            }
+            return retval;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stop the background thread and flush the heads.
+     */
+    @Override
+    public void close() throws IOException {
+        if (maintainer != null) {
+            maintainer.shutdown();
+            try {
+                maintainer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * A point being merged; the five columns as the encoder takes them.
+     */
+    private static final class Row {
+
+        long time;
+
+        double mean;
+
+        double first;
+
+        double second;
+
+        double third;
+
+        double count;
+
+        Row(GorillaDecoder decoder) {
+            time = decoder.getTime();
+            mean = decoder.value(0);
+            first = decoder.value(1);
+            second = decoder.value(2);
+            third = decoder.value(3);
+            count = decoder.value(4);
+        }
+
+        /**
+         * Fold another point into this rollup, weighting both by their count, a point without a count as one.
+         */
+        void add(Row other) {
+            double weight = Math.max(count, 1);
+            double otherWeight = Math.max(other.count, 1);
+            double total = weight + otherWeight;
+            mean = (mean * weight + other.mean * otherWeight) / total;
+            first = (first * weight + other.first * otherWeight) / total;
+            second = (second * weight + other.second * otherWeight) / total;
+            third = (third * weight + other.third * otherWeight) / total;
+            count = Math.max(count, 1) + Math.max(other.count, 1);
+        }
+
+        void appendTo(GorillaEncoder encoder) {
+            encoder.append(time, mean, first, second, third, count);
+        }
+
+        HistoryPoint toHistoryPoint() {
+            DataPoint dp = new DataPoint((int) Math.round(first), (int) Math.round(second), 0,
+                    (int) Math.round(third), (int) Math.round(count));
+            dp.setMean(mean);
+            return new HistoryPoint(time, dp);
+        }
+    }
+}
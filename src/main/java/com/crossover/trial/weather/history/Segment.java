@@ -0,0 +1,262 @@
+package com.crossover.trial.weather.history;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * An immutable history file: one block of Gorilla encoded points per series, followed by an index of the blocks
+ * and a fixed size footer. Segments are written once, to a temporary file moved into place, and read through a
+ * read only memory mapping, so reads do not copy the file onto the heap and any number of threads may read at once.
+ *
+ * <pre>
+ * header  int magic | int version | int level
+ * blocks  Gorilla encoded points, see {@link GorillaEncoder}
+ * index   per series, by key: long key | int count | long minTime | long maxTime | int offset | int length
+ * footer  int series | int index offset | long minTime | long maxTime | long minRawTime | int magic
+ * </pre>
+ *
+ * The series key is the packed IATA code in the upper and the point type slot in the lower 32 bits. Points before
+ * minRawTime are downsampled, see {@link HistoryStore}.
+ */
+final class Segment {
+
+    private static final int MAGIC = 0x57485331;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER = 12;
+
+    private static final int INDEX_ENTRY = 36;
+
+    private static final int FOOTER = 36;
+
+    /** a segment is mapped as one buffer with int offsets */
+    static final long MAX_BYTES = Integer.MAX_VALUE;
+
+    private final Path path;
+
+    private final long firstId;
+
+    private final long lastId;
+
+    private final int level;
+
+    private final MappedByteBuffer buffer;
+
+    private final long[] keys;
+
+    private final int[] counts;
+
+    private final long[] minTimes;
+
+    private final long[] maxTimes;
+
+    private final int[] offsets;
+
+    private final long minTime;
+
+    private final long maxTime;
+
+    private final long minRawTime;
+
+    private final long points;
+
+    private Segment(Path path, long firstId, long lastId, MappedByteBuffer buffer) throws IOException {
+        this.path = path;
+        this.firstId = firstId;
+        this.lastId = lastId;
+        this.buffer = buffer;
+        int size = buffer.capacity();
+        if (size < HEADER + FOOTER || buffer.getInt(0) != MAGIC || buffer.getInt(size - 4) != MAGIC) {
+            throw new IOException("Not a history segment: " + path);
+        }
+        this.level = buffer.getInt(8);
+        int footer = size - FOOTER;
+        int series = buffer.getInt(footer);
+        int index = buffer.getInt(footer + 4);
+        this.minTime = buffer.getLong(footer + 8);
+        this.maxTime = buffer.getLong(footer + 16);
+        this.minRawTime = buffer.getLong(footer + 24);
+        this.keys = new long[series];
+        this.counts = new int[series];
+        this.minTimes = new long[series];
+        this.maxTimes = new long[series];
+        this.offsets = new int[series];
+        long total = 0;
+        for (int i = 0; i < series; i++) {
+            int entry = index + i * INDEX_ENTRY;
+            keys[i] = buffer.getLong(entry);
+            counts[i] = buffer.getInt(entry + 8);
+            minTimes[i] = buffer.getLong(entry + 12);
+            maxTimes[i] = buffer.getLong(entry + 20);
+            offsets[i] = buffer.getInt(entry + 28);
+            total += counts[i];
+        }
+        this.points = total;
+    }
+
+    /**
+     * @param path a segment file
+     * @param firstId the number of the first flush the segment holds, later flushes have higher numbers
+     * @param lastId the number of the last flush it holds
+     */
+    static Segment open(Path path, long firstId, long lastId) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Segment(path, firstId, lastId, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Write the series into a new segment file.
+     *
+     * @param path the file to create, an existing file is replaced atomically
+     * @param firstId the number of the first flush the segment holds
+     * @param lastId the number of the last flush it holds
+     * @param level its compaction level
+     * @param series the encoded points by series key
+     * @param minRawTime the time of the oldest point not downsampled, {@link Long#MAX_VALUE} for none
+     * @throws IOException if the file can not be written, or would be larger than {@link #MAX_BYTES}
+     */
+    static Segment write(Path path, long firstId, long lastId, int level, SortedMap<Long, GorillaEncoder> series,
+                         long minRawTime) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        try (OutputStream file = Files.newOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(level);
+            int[] offsets = new int[series.size()];
+            int[] lengths = new int[series.size()];
+            int i = 0;
+            long size = HEADER + (long) series.size() * INDEX_ENTRY + FOOTER;
+            for (GorillaEncoder encoder : series.values()) {
+                byte[] block = encoder.toByteArray();
+                size += block.length;
+                if (size > MAX_BYTES) {
+                    throw new IOException("Segment " + path + " would be larger than " + MAX_BYTES + " bytes");
+                }
+                offsets[i] = out.size();
+                lengths[i++] = block.length;
+                out.write(block);
+                minTime = Math.min(minTime, encoder.getMinTime());
+                maxTime = Math.max(maxTime, encoder.getMaxTime());
+            }
+            int index = out.size();
+            i = 0;
+            for (Map.Entry<Long, GorillaEncoder> e : series.entrySet()) {
+                out.writeLong(e.getKey());
+                out.writeInt(e.getValue().getCount());
+                out.writeLong(e.getValue().getMinTime());
+                out.writeLong(e.getValue().getMaxTime());
+                out.writeInt(offsets[i]);
+                out.writeInt(lengths[i++]);
+            }
+            out.writeInt(series.size());
+            out.writeInt(index);
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            out.writeLong(minRawTime);
+            out.writeInt(MAGIC);
+            out.flush();
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return open(path, firstId, lastId);
+    }
+
+    /**
+     * @param key the series key
+     * @param from the first time wanted
+     * @param to the last time wanted
+     * @return a decoder of the series, or null if the segment holds no points of the series in the range
+     */
+    GorillaDecoder read(long key, long from, long to) {
+        int i = Arrays.binarySearch(keys, key);
+        if (i < 0 || maxTimes[i] < from || minTimes[i] > to) {
+            return null;
+        }
+        return new GorillaDecoder(buffer, offsets[i], counts[i]);
+    }
+
+    /**
+     * @return the series keys held, ascending
+     */
+    long[] getKeys() {
+        return keys;
+    }
+
+    boolean overlaps(long from, long to) {
+        return maxTime >= from && minTime <= to;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getFirstId() {
+        return firstId;
+    }
+
+    long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * @return true if this segment was compacted from the flushes of the other one, among others
+     */
+    boolean supersedes(Segment other) {
+        return level > other.level && firstId <= other.firstId && lastId >= other.lastId;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    long getMinTime() {
+        return minTime;
+    }
+
+    long getMaxTime() {
+        return maxTime;
+    }
+
+    long getMinRawTime() {
+        return minRawTime;
+    }
+
+    long getPoints() {
+        return points;
+    }
+
+    long getBytes() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Remove the file. The mapping stays readable until it is collected, so readers still holding the segment
+     * finish their read.
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName().toString();
+    }
+}
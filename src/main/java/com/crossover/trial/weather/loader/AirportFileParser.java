@@ -0,0 +1,301 @@
+package com.crossover.trial.weather.loader;
+
+import com.crossover.trial.weather.domain.AirportData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Streaming parser for airport catalogs. Two layouts are understood, told apart by the number of fields:
+ * <ul>
+ *     <li>the short form of airports.dat: <code>IATA,latitude,longitude</code></li>
+ *     <li>the OpenFlights form of airports.txt: <code>id,"name","city","country","IATA","ICAO",latitude,longitude,
+ *     altitude,timezone,"DST"</code>, trailing OpenFlights columns are ignored</li>
+ * </ul>
+ * Fields may be quoted, quotes inside quoted fields are doubled and <code>\N</code> stands for a missing value.
+ *
+ * Files are memory mapped and scanned byte by byte, numbers are parsed in place; only text fields are turned into
+ * strings. Inputs larger than <code>weather.airports.parallelThreshold</code> bytes (1MB by default) are cut at line
+ * boundaries and the pieces parsed in parallel.
+ */
+public class AirportFileParser {
+
+    public final static Logger LOGGER = Logger.getLogger(AirportFileParser.class.getName());
+
+    static final int PARALLEL_THRESHOLD = Integer.getInteger("weather.airports.parallelThreshold", 1 << 20);
+
+    private static final int MAX_FIELDS = 16;
+
+    /** powers of ten exactly representable as doubles */
+    private static final double[] POW10 = new double[23];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private AirportFileParser() { }
+
+    /**
+     * Parse a catalog file through a read only memory mapping.
+     *
+     * @param file the catalog
+     * @return the airports in file order
+     * @throws IOException if the file can not be read
+     */
+    public static List<AirportData> parse(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("airport file too large: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return parse(buffer);
+        }
+    }
+
+    /**
+     * Parse a catalog from a stream, for class path resources that can not be mapped.
+     *
+     * @param is the catalog
+     * @return the airports in stream order
+     * @throws IOException if the stream can not be read
+     */
+    public static List<AirportData> parse(InputStream is) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * 1024);
+        byte[] chunk = new byte[64 * 1024];
+        int n;
+        while ((n = is.read(chunk)) > 0) {
+            bytes.write(chunk, 0, n);
+        }
+        return parse(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    /**
+     * @param buffer the catalog bytes between position and limit, UTF-8 encoded
+     * @return the airports in buffer order
+     */
+    public static List<AirportData> parse(ByteBuffer buffer) {
+        return parse(buffer, PARALLEL_THRESHOLD);
+    }
+
+    static List<AirportData> parse(ByteBuffer buffer, int parallelThreshold) {
+        final int start = buffer.position();
+        final int end = buffer.limit();
+        if (end - start < parallelThreshold) {
+            return parseRange(buffer, start, end);
+        }
+
+        int pieces = Math.max(2, Runtime.getRuntime().availableProcessors() * 4);
+        final int[] bounds = new int[pieces + 1];
+        bounds[0] = start;
+        bounds[pieces] = end;
+        for (int i = 1; i < pieces; i++) {
+            int pos = Math.max(bounds[i - 1], start + (int) ((long) (end - start) * i / pieces));
+            while (pos < end && buffer.get(pos) != '\n') {
+                pos++;
+            }
+            bounds[i] = Math.min(end, pos + 1);
+        }
+
+        List<List<AirportData>> parts = IntStream.range(0, pieces).parallel()
+                .mapToObj(i -> parseRange(buffer.duplicate(), bounds[i], bounds[i + 1]))
+                .collect(Collectors.toList());
+        int total = 0;
+        for (List<AirportData> part : parts) {
+            total += part.size();
+        }
+        List<AirportData> retval = new ArrayList<>(total);
+        for (List<AirportData> part : parts) {
+            retval.addAll(part);
+        }
+        return retval;
+    }
+
+    private static List<AirportData> parseRange(ByteBuffer buf, int from, int to) {
+        List<AirportData> retval = new ArrayList<>(Math.max(16, (to - from) / 100));
+        int[] starts = new int[MAX_FIELDS];
+        int[] ends = new int[MAX_FIELDS];
+        boolean[] escaped = new boolean[MAX_FIELDS];
+
+        int lineStart = from;
+        while (lineStart < to) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && buf.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && buf.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+
+            if (lineEnd > lineStart) {
+                int fields = splitFields(buf, lineStart, lineEnd, starts, ends, escaped);
+                AirportData ad = null;
+                try {
+                    ad = toAirport(buf, fields, starts, ends, escaped);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning("Skipping airport record at byte " + lineStart + ": " + e.getMessage());
+                }
+                if (ad != null) {
+                    retval.add(ad);
+                } else if (fields != 3 && fields < 11) {
+                    LOGGER.warning("Skipping airport record at byte " + lineStart + ": " + fields + " fields");
+                }
+            }
+            lineStart = next;
+        }
+        return retval;
+    }
+
+    /**
+     * Record the content range of every field of one line.
+     *
+     * @return the number of fields found
+     */
+    private static int splitFields(ByteBuffer buf, int pos, int lineEnd, int[] starts, int[] ends,
+                                   boolean[] escaped) {
+        int field = 0;
+        while (field < MAX_FIELDS) {
+            escaped[field] = false;
+            if (pos < lineEnd && buf.get(pos) == '"') {
+                pos++;
+                starts[field] = pos;
+                ends[field] = lineEnd;
+                while (pos < lineEnd) {
+                    if (buf.get(pos) == '"') {
+                        if (pos + 1 < lineEnd && buf.get(pos + 1) == '"') {
+                            escaped[field] = true;
+                            pos += 2;
+                            continue;
+                        }
+                        ends[field] = pos++;
+                        break;
+                    }
+                    pos++;
+                }
+                while (pos < lineEnd && buf.get(pos) != ',') {
+                    pos++;
+                }
+            } else {
+                starts[field] = pos;
+                while (pos < lineEnd && buf.get(pos) != ',') {
+                    pos++;
+                }
+                ends[field] = pos;
+            }
+            field++;
+            if (pos >= lineEnd) {
+                break;
+            }
+            pos++; // the comma
+        }
+        return field;
+    }
+
+    private static AirportData toAirport(ByteBuffer buf, int fields, int[] s, int[] e, boolean[] esc) {
+        AirportData ad = new AirportData();
+        if (fields == 3) {
+            ad.setIata(text(buf, s[0], e[0], esc[0]));
+            ad.setLatitude(number(buf, s[1], e[1]));
+            ad.setLongitude(number(buf, s[2], e[2]));
+            return ad;
+        }
+        if (fields < 11) {
+            return null;
+        }
+        ad.setName(text(buf, s[1], e[1], esc[1]));
+        ad.setCity(text(buf, s[2], e[2], esc[2]));
+        ad.setCountry(text(buf, s[3], e[3], esc[3]));
+        ad.setIata(text(buf, s[4], e[4], esc[4]));
+        ad.setIcao(text(buf, s[5], e[5], esc[5]));
+        ad.setLatitude(number(buf, s[6], e[6]));
+        ad.setLongitude(number(buf, s[7], e[7]));
+        ad.setFeet((int) number(buf, s[8], e[8]));
+        ad.setTimezone(number(buf, s[9], e[9]));
+        ad.setDst(text(buf, s[10], e[10], esc[10]));
+        return ad;
+    }
+
+    private static boolean isNull(ByteBuffer buf, int start, int end) {
+        return start == end || (end - start == 2 && buf.get(start) == '\\' && buf.get(start + 1) == 'N');
+    }
+
+    private static String text(ByteBuffer buf, int start, int end, boolean escaped) {
+        if (isNull(buf, start, end)) {
+            return null;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        String value = new String(bytes, StandardCharsets.UTF_8);
+        return escaped ? value.replace("\"\"", "\"") : value;
+    }
+
+    /**
+     * Parse a decimal number in place. Plain decimals with up to 15 significant digits, which covers every
+     * coordinate, altitude and timezone in the OpenFlights data, are converted exactly without an intermediate
+     * string; anything else falls back to {@link Double#parseDouble(String)}.
+     */
+    static double number(ByteBuffer buf, int start, int end) {
+        if (isNull(buf, start, end)) {
+            return 0;
+        }
+        int pos = start;
+        boolean negative = false;
+        byte c = buf.get(pos);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+        long mantissa = 0;
+        boolean sawDigit = false;
+        int digits = 0;
+        int scale = -1;
+        for (; pos < end; pos++) {
+            c = buf.get(pos);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                sawDigit = true;
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else if (c == '.' && scale < 0) {
+                scale = 0;
+            } else {
+                break;
+            }
+        }
+        if (pos == end && sawDigit && digits <= 15 && scale < POW10.length) {
+            double value = scale > 0 ? mantissa / POW10[scale] : mantissa;
+            return negative ? -value : value;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        try {
+            return Double.parseDouble(new String(bytes, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("not a number: " + new String(bytes, StandardCharsets.US_ASCII), ex);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.crossover.trial.weather.provider;
+
+import com.crossover.trial.weather.cluster.ShardCluster;
+import com.crossover.trial.weather.util.RateLimiter;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Admission control in front of the resources, so a flood from one collector site can not take the query side
+ * down with it.
+ *
+ * Collector readings (POST to /collect/weather and /collect/observation) are rate limited per source address and
+ * per airport, see {@link RateLimiter}; a request over its quota is answered 429 with a Retry-After header. A
+ * batched update counts once against its source, each of its entries against their airport, see
+ * {@link #overIataQuota(String)}. Catalog
+ * changes are not limited, so a bulk airport load is never throttled. Quotas are set with
+ * <code>weather.limit.source.rate</code> / <code>weather.limit.source.burst</code> (default 50/s, burst 100) and
+ * <code>weather.limit.iata.rate</code> / <code>weather.limit.iata.burst</code> (default 20/s, burst 40); a rate of
+ * 0 turns a limit off. Settings that no limiter accepts, such as a burst of 0, stop the server from starting.
+ *
+ * Only airports in the catalog, see {@link #setAirportCatalog}, get a limiter of their own; updates for any other
+ * code are answered 404 anyway and count against their source only. Each map holds at most 100000 limiters. Once
+ * it is full, the idle ones are dropped at most once a second, and a key that still finds no room shares a single
+ * overflow limiter with the other latecomers, so a flood of new keys costs neither a scan per request nor memory.
+ *
+ * Every request except the pings and replication then needs one of <code>weather.admission.maxInFlight</code>
+ * (default 64) slots. At most <code>weather.admission.maxQueue</code> (default 256) requests wait for a slot, each for at most
+ * <code>weather.admission.maxWaitMillis</code> (default 100); requests beyond the queue or past their deadline are
+ * shed with 503, so an overloaded node fails fast instead of queueing without bound. Queries and collector
+ * requests have slots and queues of their own, see {@link BulkheadHandler#bulkhead(String)}, so neither side can
+ * use up the other's. Replicas long poll the change log and would hold a slot for the whole poll; they are bounded
+ * by the threads of their own bulkhead instead.
+ *
+ * Requests forwarded by another shard were admitted by the node that received them and pass straight through,
+ * provided the cluster trusts them, see {@link ShardCluster#isTrusted(String, String)}; a client setting the
+ * header itself is limited and admitted like any other.
+ */
+@Provider
+@Priority(Priorities.AUTHORIZATION)
+public class AdmissionFilter implements ContainerRequestFilter, ApplicationEventListener {
+
+    private static final double SOURCE_RATE = Double.parseDouble(System.getProperty("weather.limit.source.rate", "50"));
+
+    private static final int SOURCE_BURST = Integer.getInteger("weather.limit.source.burst", 100);
+
+    private static final double IATA_RATE = Double.parseDouble(System.getProperty("weather.limit.iata.rate", "20"));
+
+    private static final int IATA_BURST = Integer.getInteger("weather.limit.iata.burst", 40);
+
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("weather.admission.maxInFlight", 64);
+
+    private static final int MAX_QUEUE = Integer.getInteger("weather.admission.maxQueue", 256);
+
+    private static final long MAX_WAIT_MILLIS = Long.getLong("weather.admission.maxWaitMillis", 100);
+
+    /** idle limiters are dropped once a map grows past this, a dropped limiter is recreated at full burst */
+    private static final int MAX_KEYS = 100000;
+
+    /** the least time between two sweeps of a full map */
+    private static final long SWEEP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /** request property holding the slots a request took one of */
+    private static final String ADMITTED_PROPERTY = AdmissionFilter.class.getName() + ".admitted";
+
+    private static final Limiters sourceLimiters =
+            new Limiters("weather.limit.source", SOURCE_RATE, SOURCE_BURST, MAX_KEYS);
+
+    private static final Limiters iataLimiters = new Limiters("weather.limit.iata", IATA_RATE, IATA_BURST, MAX_KEYS);
+
+    /** whether an airport code is in the catalog, only those are limited per airport */
+    private static volatile Predicate<String> knownAirport = iata -> true;
+
+    private static final Slots querySlots = new Slots();
+
+    private static final Slots collectSlots = new Slots();
+
+    private static final LongAdder throttledBySource = new LongAdder();
+
+    private static final LongAdder throttledByIata = new LongAdder();
+
+    private static final LongAdder shedQueueFull = new LongAdder();
+
+    private static final LongAdder shedDeadline = new LongAdder();
+
+    /** frees the slot once a request is finished, whichever way it finished */
+    private static final RequestEventListener RELEASE = event -> {
+        Object slots = event.getType() == RequestEvent.Type.FINISHED
+                ? event.getContainerRequest().getProperty(ADMITTED_PROPERTY) : null;
+        if (slots != null) {
+            event.getContainerRequest().removeProperty(ADMITTED_PROPERTY);
+            ((Slots) slots).permits.release();
+        }
+    };
+
+    /** the underlying grizzly request, for the peer address */
+    @Inject
+    private javax.inject.Provider<Request> grizzlyRequest;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        String path = request.getUriInfo().getPath();
+        if (path.endsWith("/ping")
+                || ShardCluster.isTrusted(request.getHeaderString(ShardCluster.FORWARDED), peer())) {
+            return;
+        }
+        if (HttpMethod.POST.equals(request.getMethod())
+                && (path.startsWith("collect/weather") || path.startsWith("collect/observation/"))) {
+            long now = System.nanoTime();
+            long wait = sourceLimiters.acquire(source(), now);
+            if (wait > 0) {
+                throttledBySource.increment();
+                request.abortWith(tooManyRequests(wait));
+                return;
+            }
+            String iata = request.getUriInfo().getPathParameters().getFirst("iata");
+            wait = iata == null || !knownAirport.test(iata) ? 0 : iataLimiters.acquire(iata, now);
+            if (wait > 0) {
+                throttledByIata.increment();
+                request.abortWith(tooManyRequests(wait));
+                return;
+            }
+        }
+        String bulkhead = BulkheadHandler.bulkhead(path);
+        if (!BulkheadHandler.REPLICATION.equals(bulkhead)) {
+            admit(request, BulkheadHandler.QUERY.equals(bulkhead) ? querySlots : collectSlots);
+        }
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return RELEASE;
+    }
+
+    /**
+     * @param known tells whether an airport code is in the catalog; until it is set every code is taken for one
+     */
+    public static void setAirportCatalog(Predicate<String> known) {
+        knownAirport = known;
+    }
+
+    /**
+     * Charge one update against the quota of an airport, for updates that do not name it in the path.
+     *
+     * @param iata the airport code
+     * @return true if the airport is over its quota and the update is to be refused, false for an airport that
+     * is not in the catalog
+     */
+    public static boolean overIataQuota(String iata) {
+        if (knownAirport.test(iata) && iataLimiters.acquire(iata, System.nanoTime()) > 0) {
+            throttledByIata.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return throttle and shed counts and the current load, for the query ping
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("throttled_source", throttledBySource.sum());
+        retval.put("throttled_iata", throttledByIata.sum());
+        retval.put("shed_queue_full", shedQueueFull.sum());
+        retval.put("shed_deadline", shedDeadline.sum());
+        retval.put("in_flight_query", MAX_IN_FLIGHT - querySlots.permits.availablePermits());
+        retval.put("in_flight_collect", MAX_IN_FLIGHT - collectSlots.permits.availablePermits());
+        retval.put("queued_query", querySlots.queued.get());
+        retval.put("queued_collect", collectSlots.queued.get());
+        return retval;
+    }
+
+    private void admit(ContainerRequestContext request, Slots slots) {
+        if (!slots.permits.tryAcquire()) {
+            if (slots.queued.incrementAndGet() > MAX_QUEUE) {
+                slots.queued.decrementAndGet();
+                shedQueueFull.increment();
+                request.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+                return;
+            }
+            try {
+                if (!slots.permits.tryAcquire(MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    shedDeadline.increment();
+                    request.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                request.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+                return;
+            } finally {
+                slots.queued.decrementAndGet();
+            }
+        }
+        request.setProperty(ADMITTED_PROPERTY, slots);
+    }
+
+    private String source() {
+        String address = peer();
+        return address == null ? "unknown" : address;
+    }
+
+    private String peer() {
+        Request r = grizzlyRequest == null ? null : grizzlyRequest.get();
+        return r == null ? null : r.getRemoteAddr();
+    }
+
+    private static Response tooManyRequests(long waitNanos) {
+        long seconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        return Response.status(429).header(HttpHeaders.RETRY_AFTER, seconds).build();
+    }
+
+    /**
+     * The rate limiters of one kind of key, at most <code>maxKeys</code> of them.
+     */
+    static final class Limiters {
+
+        private final double rate;
+
+        private final int burst;
+
+        private final int maxKeys;
+
+        private final Map<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+
+        /** shared by the keys that find the map full, null if the limit is off */
+        private final RateLimiter overflow;
+
+        /** when a full map may be swept next */
+        private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+
+        /**
+         * @param property the prefix of the system properties the settings come from, for the error message
+         * @throws IllegalArgumentException if the rate is negative, or positive with a burst below 1
+         */
+        Limiters(String property, double rate, int burst, int maxKeys) {
+            if (!(rate >= 0) || rate > 0 && burst < 1) {
+                throw new IllegalArgumentException(property + ".rate must be 0 to turn the limit off or positive with "
+                        + property + ".burst at least 1, not " + rate + " and " + burst);
+            }
+            this.rate = rate;
+            this.burst = burst;
+            this.maxKeys = maxKeys;
+            this.overflow = rate > 0 ? new RateLimiter(rate, burst) : null;
+        }
+
+        /**
+         * @return 0 if admitted, otherwise the nanoseconds until the key has quota again
+         */
+        long acquire(String key, long now) {
+            if (overflow == null) {
+                return 0;
+            }
+            RateLimiter limiter = limiters.get(key);
+            if (limiter == null) {
+                if (limiters.size() >= maxKeys && !sweep(now)) {
+                    return overflow.tryAcquire(now);
+                }
+                limiter = limiters.computeIfAbsent(key, k -> new RateLimiter(rate, burst));
+            }
+            return limiter.tryAcquire(now);
+        }
+
+        int size() {
+            return limiters.size();
+        }
+
+        /**
+         * Drop the idle limiters of a full map, unless another caller did less than a sweep interval ago.
+         *
+         * @return true if there is room for another key
+         */
+        private boolean sweep(long now) {
+            long due = nextSweep.get();
+            if (now - due >= 0 && nextSweep.compareAndSet(due, now + SWEEP_NANOS)) {
+                limiters.values().removeIf(l -> l.isIdle(now));
+            }
+            return limiters.size() < maxKeys;
+        }
+    }
+
+    /**
+     * The in-flight slots of one bulkhead and the requests waiting for one.
+     */
+    private static class Slots {
+
+        final Semaphore permits = new Semaphore(MAX_IN_FLIGHT);
+
+        final AtomicInteger queued = new AtomicInteger();
+    }
+}
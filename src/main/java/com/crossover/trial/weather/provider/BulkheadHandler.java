@@ -0,0 +1,216 @@
+package com.crossover.trial.weather.provider;
+
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.RequestExecutorProvider;
+import org.glassfish.grizzly.http.server.Response;
+import org.glassfish.grizzly.http.util.HttpStatus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulkheads between the query and the collector side: the resources run on one bounded pool per side instead of
+ * on grizzly's shared worker pool, so a burst of collector updates or a slow airport import queues behind itself
+ * while queries keep their threads, and the reverse.
+ *
+ * Requests under /query run on the query pool, requests under /replication on the replication pool and everything
+ * else on the collect pool. A replica long polls /replication/log, holding its thread for up to the wait it asked
+ * for, so replicas get a pool of their own rather than pinning the few collector threads. The pools are sized with
+ * <code>weather.bulkhead.query.threads</code> / <code>weather.bulkhead.query.queue</code> (default twice the
+ * cores but at least 4 / 256), <code>weather.bulkhead.collect.threads</code> /
+ * <code>weather.bulkhead.collect.queue</code> (default the cores but at least 2 / 256) and
+ * <code>weather.bulkhead.replication.threads</code> / <code>weather.bulkhead.replication.queue</code> (default 8 /
+ * 0, one thread per replica and no waiting behind another's poll); 0 threads runs that side on the grizzly worker
+ * as before. A request finding the queue of its pool full is answered 503 at once.
+ *
+ * Grizzly still parses the request on its worker and hands it over, see
+ * {@link HttpHandler#getRequestExecutorProvider()}.
+ */
+public class BulkheadHandler extends HttpHandler {
+
+    public static final String QUERY = "query";
+
+    public static final String COLLECT = "collect";
+
+    public static final String REPLICATION = "replication";
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private static final Bulkhead QUERY_POOL = Bulkhead.fromSystemProperties(QUERY, Math.max(4, 2 * CORES), 256);
+
+    private static final Bulkhead COLLECT_POOL = Bulkhead.fromSystemProperties(COLLECT, Math.max(2, CORES), 256);
+
+    private static final Bulkhead REPLICATION_POOL = Bulkhead.fromSystemProperties(REPLICATION, 8, 0);
+
+    /** request attribute holding the {@link System#nanoTime()} a request was handed to its pool */
+    public static final String QUEUED_ATTRIBUTE = BulkheadHandler.class.getName() + ".queued";
+
+    /** request attribute set on a request its pool had no room for */
+    private static final String REJECTED_ATTRIBUTE = BulkheadHandler.class.getName() + ".rejected";
+
+    /** the jersey container */
+    private final HttpHandler resources;
+
+    /** the path the resources are deployed under, without the trailing slash */
+    private final String contextPath;
+
+    private final Bulkhead queryPool;
+
+    private final Bulkhead collectPool;
+
+    private final Bulkhead replicationPool;
+
+    /**
+     * @param resources the handler running the resources
+     * @param contextPath the path the resources are deployed under
+     */
+    public BulkheadHandler(HttpHandler resources, String contextPath) {
+        this(resources, contextPath, QUERY_POOL, COLLECT_POOL, REPLICATION_POOL);
+    }
+
+    BulkheadHandler(HttpHandler resources, String contextPath, Bulkhead queryPool, Bulkhead collectPool,
+                    Bulkhead replicationPool) {
+        super(resources.getName());
+        this.resources = resources;
+        this.contextPath = contextPath.endsWith("/")
+                ? contextPath.substring(0, contextPath.length() - 1) : contextPath;
+        this.queryPool = queryPool;
+        this.collectPool = collectPool;
+        this.replicationPool = replicationPool;
+    }
+
+    /**
+     * @param path a request path relative to the application, as the resources see it
+     * @return the name of the bulkhead serving it
+     */
+    public static String bulkhead(String path) {
+        String p = path.startsWith("/") ? path.substring(1) : path;
+        if (p.equals(QUERY) || p.startsWith(QUERY + "/")) {
+            return QUERY;
+        }
+        return p.equals(REPLICATION) || p.startsWith(REPLICATION + "/") ? REPLICATION : COLLECT;
+    }
+
+    /**
+     * @return the saturation of each pool, for the query ping
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put(QUERY, QUERY_POOL.getStats());
+        retval.put(COLLECT, COLLECT_POOL.getStats());
+        retval.put(REPLICATION, REPLICATION_POOL.getStats());
+        return retval;
+    }
+
+    @Override
+    public RequestExecutorProvider getRequestExecutorProvider() {
+        return this::executor;
+    }
+
+    @Override
+    public void service(Request request, Response response) throws Exception {
+        if (request.getAttribute(REJECTED_ATTRIBUTE) != null) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE_503);
+            return;
+        }
+        resources.service(request, response);
+    }
+
+    @Override
+    public void start() {
+        resources.start();
+    }
+
+    @Override
+    public void destroy() {
+        resources.destroy();
+    }
+
+    /**
+     * @return the executor of the pool serving the request, null to serve it on the calling grizzly worker
+     */
+    private Executor executor(Request request) {
+        String uri = request.getRequestURI();
+        String path = uri.startsWith(contextPath) ? uri.substring(contextPath.length()) : uri;
+        String name = bulkhead(path);
+        Bulkhead pool = QUERY.equals(name) ? queryPool : REPLICATION.equals(name) ? replicationPool : collectPool;
+        if (pool.executor == null) {
+            return null;
+        }
+        return command -> {
+            request.setAttribute(QUEUED_ATTRIBUTE, System.nanoTime());
+            try {
+                pool.executor.execute(command);
+            } catch (RejectedExecutionException e) {
+                // answered right here, service() sees the mark and only sets the status
+                pool.rejected.increment();
+                request.setAttribute(REJECTED_ATTRIBUTE, Boolean.TRUE);
+                command.run();
+            }
+        };
+    }
+
+    /**
+     * One bounded pool of named daemon threads.
+     */
+    static class Bulkhead {
+
+        private final ThreadPoolExecutor executor;
+
+        private final int queueCapacity;
+
+        private final LongAdder rejected = new LongAdder();
+
+        /**
+         * @param name names the threads
+         * @param threads the pool size, 0 to run on the grizzly worker
+         * @param queueCapacity the requests waiting for a thread at most
+         */
+        Bulkhead(String name, int threads, int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            if (threads <= 0) {
+                executor = null;
+                return;
+            }
+            BlockingQueue<Runnable> queue = queueCapacity > 0
+                    ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>();
+            AtomicInteger count = new AtomicInteger();
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, queue, r -> {
+                Thread t = new Thread(r, "weather-" + name + "-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        static Bulkhead fromSystemProperties(String name, int defaultThreads, int defaultQueue) {
+            return new Bulkhead(name, Integer.getInteger("weather.bulkhead." + name + ".threads", defaultThreads),
+                    Integer.getInteger("weather.bulkhead." + name + ".queue", defaultQueue));
+        }
+
+        Map<String, Object> getStats() {
+            Map<String, Object> retval = new LinkedHashMap<>();
+            if (executor == null) {
+                retval.put("threads", 0);
+                return retval;
+            }
+            retval.put("threads", executor.getMaximumPoolSize());
+            retval.put("active", executor.getActiveCount());
+            retval.put("queued", executor.getQueue().size());
+            retval.put("queue_capacity", queueCapacity);
+            retval.put("completed", executor.getCompletedTaskCount());
+            retval.put("rejected", rejected.sum());
+            return retval;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.crossover.trial.weather.provider;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiates gzip or deflate content encoding for response entities. Small responses (a single airport, a ping)
+ * are cheaper to send as they are, so the entity is buffered up to a threshold and only compressed once it grows
+ * past it. The threshold in bytes is read from the <code>weather.compression.minSize</code> system property.
+ */
+@Provider
+public class CompressionInterceptor implements ContainerResponseFilter, WriterInterceptor {
+
+    public static final String GZIP = "gzip";
+
+    public static final String DEFLATE = "deflate";
+
+    /** request property holding the encoding chosen for this response */
+    private static final String ENCODING_PROPERTY = CompressionInterceptor.class.getName() + ".encoding";
+
+    /** entities smaller than this are sent uncompressed */
+    private static final int MIN_SIZE = Integer.getInteger("weather.compression.minSize", 1024);
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        if (!response.hasEntity() || response.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            return;
+        }
+        response.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        String encoding = selectEncoding(request.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != null) {
+            request.setProperty(ENCODING_PROPERTY, encoding);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        String encoding = (String) context.getProperty(ENCODING_PROPERTY);
+        if (encoding == null) {
+            context.proceed();
+            return;
+        }
+        ThresholdOutputStream out = new ThresholdOutputStream(context.getOutputStream(), context.getHeaders(),
+                encoding, MIN_SIZE);
+        context.setOutputStream(out);
+        try {
+            context.proceed();
+        } catch (IOException | RuntimeException e) {
+            out.abort();
+            throw e;
+        }
+        out.finish();
+    }
+
+    /**
+     * Picks the preferred supported coding from an Accept-Encoding header, gzip winning ties.
+     *
+     * @param acceptEncoding the raw header value, may be null
+     * @return {@link #GZIP}, {@link #DEFLATE} or null if neither is acceptable
+     */
+    static String selectEncoding(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        double gzip = 0, deflate = 0;
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim();
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+                gzip = q;
+            } else if (DEFLATE.equalsIgnoreCase(coding)) {
+                deflate = q;
+            } else if ("*".equals(coding) && gzip == 0) {
+                gzip = q;
+            }
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Holds back the first bytes of the entity until either the threshold is crossed, at which point the
+     * Content-Encoding header is set and everything is compressed, or the entity ends and is written as is.
+     */
+    static class ThresholdOutputStream extends OutputStream {
+
+        private final OutputStream target;
+
+        /** the target as the compressor sees it, closing the compressor releases its zlib memory but not the target */
+        private final Uncloseable sink;
+
+        private final MultivaluedMap<String, Object> headers;
+
+        private final String encoding;
+
+        private final int threshold;
+
+        private ByteArrayOutputStream pending;
+
+        private OutputStream compressed;
+
+        ThresholdOutputStream(OutputStream target, MultivaluedMap<String, Object> headers, String encoding,
+                              int threshold) {
+            this.target = target;
+            this.sink = new Uncloseable(target);
+            this.headers = headers;
+            this.encoding = encoding;
+            this.threshold = threshold;
+            this.pending = new ByteArrayOutputStream(Math.min(threshold, 8192));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (compressed != null) {
+                compressed.write(b, off, len);
+                return;
+            }
+            pending.write(b, off, len);
+            if (pending.size() >= threshold) {
+                // headers are still uncommitted, nothing has reached the target stream yet
+                headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+                headers.remove(HttpHeaders.CONTENT_LENGTH);
+                compressed = GZIP.equals(encoding) ? new GZIPOutputStream(sink, 8192) : new DeflaterOutputStream(sink);
+                pending.writeTo(compressed);
+                pending = null;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (compressed != null) {
+                compressed.flush();
+            }
+        }
+
+        /**
+         * Completes the entity without closing the container's stream.
+         */
+        void finish() throws IOException {
+            if (compressed != null) {
+                OutputStream done = compressed;
+                compressed = null;
+                done.close();
+            } else if (pending != null) {
+                pending.writeTo(target);
+                pending = null;
+            }
+        }
+
+        /**
+         * Drops whatever is not written yet and releases the compressor, for an entity that failed to write.
+         */
+        void abort() {
+            pending = null;
+            if (compressed != null) {
+                sink.discard = true;
+                try {
+                    compressed.close();
+                } catch (IOException e) {
+                    // nothing reaches the target
+                }
+                compressed = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+            target.close();
+        }
+    }
+
+    /**
+     * Passes writes through to the container's stream but never closes it, or drops them once discarding.
+     */
+    private static class Uncloseable extends FilterOutputStream {
+
+        private boolean discard;
+
+        Uncloseable(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!discard) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!discard) {
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!discard) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
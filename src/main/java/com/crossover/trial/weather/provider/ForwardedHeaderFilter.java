@@ -0,0 +1,46 @@
+package com.crossover.trial.weather.provider;
+
+import com.crossover.trial.weather.cluster.ShardCluster;
+import org.glassfish.grizzly.http.server.Request;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.ext.Provider;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Drops the {@value ShardCluster#FORWARDED} header from requests that were not sent by another node of the
+ * cluster, see {@link ShardCluster#isTrusted(String, String)}, before any other filter or resource looks at it. A
+ * client setting the header itself is then served, limited and admitted like any other client, instead of
+ * skipping admission control or having a node store an update for an airport it does not own.
+ */
+@Provider
+@PreMatching
+@Priority(Priorities.AUTHENTICATION)
+public class ForwardedHeaderFilter implements ContainerRequestFilter {
+
+    public final static Logger LOGGER = Logger.getLogger(ForwardedHeaderFilter.class.getName());
+
+    /** the underlying grizzly request, for the peer address */
+    @Inject
+    private javax.inject.Provider<Request> grizzlyRequest;
+
+    @Override
+    public void filter(ContainerRequestContext request) {
+        String forwarded = request.getHeaderString(ShardCluster.FORWARDED);
+        if (forwarded == null) {
+            return;
+        }
+        Request r = grizzlyRequest == null ? null : grizzlyRequest.get();
+        String peer = r == null ? null : r.getRemoteAddr();
+        if (!ShardCluster.isTrusted(forwarded, peer)) {
+            LOGGER.log(Level.FINE, "Ignoring {0} header from {1}", new Object[]{ShardCluster.FORWARDED, peer});
+            request.getHeaders().remove(ShardCluster.FORWARDED);
+        }
+    }
+}
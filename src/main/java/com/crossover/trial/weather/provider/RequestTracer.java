@@ -0,0 +1,173 @@
+package com.crossover.trial.weather.provider;
+
+import com.crossover.trial.weather.domain.SlowRequest;
+import com.crossover.trial.weather.util.RequestTrace;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.ws.rs.ext.Provider;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the phases of every request and keeps the slow ones. Each request gets a {@link RequestTrace}, bound to
+ * its thread while it is served, holding
+ * <ul>
+ *     <li><code>queue</code>: waiting for a thread of its bulkhead, see {@link BulkheadHandler}</li>
+ *     <li><code>routing</code>: jersey matching the request to a resource method</li>
+ *     <li><code>filters</code>: the request filters, admission control waiting for a slot included</li>
+ *     <li><code>resource</code>: the resource method, with the steps it times itself, such as
+ *     <code>lookup</code>, <code>scan</code> or <code>serialize</code>, listed after it</li>
+ *     <li><code>write</code>: the response filters and writing the entity, a streamed answer's scan included</li>
+ * </ul>
+ *
+ * A request taking <code>weather.trace.slowMillis</code> (default 1000) or more from arrival to its last byte is
+ * kept with its phases in a ring of the last <code>weather.trace.slowRequests</code> (default 100) slow requests,
+ * listed at /admin/slow. A negative threshold turns tracing off.
+ */
+@Provider
+public class RequestTracer implements ApplicationEventListener {
+
+    private static final long SLOW_MILLIS = Long.getLong("weather.trace.slowMillis", 1000);
+
+    private static final long SLOW_NANOS = TimeUnit.MILLISECONDS.toNanos(SLOW_MILLIS);
+
+    private static final int RING_SIZE = Math.max(1, Integer.getInteger("weather.trace.slowRequests", 100));
+
+    private static final AtomicReferenceArray<SlowRequest> slowRequests = new AtomicReferenceArray<>(RING_SIZE);
+
+    /** the number of slow requests recorded, the next goes to this index modulo the ring size */
+    private static final AtomicLong recorded = new AtomicLong();
+
+    private static final LongAdder traced = new LongAdder();
+
+    /**
+     * @return the slow requests kept, latest first
+     */
+    public static List<SlowRequest> getSlowRequests() {
+        List<SlowRequest> retval = new ArrayList<>();
+        long last = recorded.get();
+        for (long i = last - 1; i >= 0 && i >= last - RING_SIZE; i--) {
+            SlowRequest request = slowRequests.get((int) (i % RING_SIZE));
+            if (request != null) {
+                retval.add(request);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @return the threshold and the number of requests traced and found slow, for the query ping
+     */
+    public static Map<String, Object> getStats() {
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("slow_millis", SLOW_MILLIS);
+        retval.put("traced", traced.sum());
+        retval.put("slow", recorded.get());
+        return retval;
+    }
+
+    /**
+     * @return the threshold in milliseconds, negative if tracing is off
+     */
+    public static long getSlowMillis() {
+        return SLOW_MILLIS;
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return SLOW_MILLIS < 0 ? null : new Trace(requestEvent.getContainerRequest());
+    }
+
+    private static void record(ContainerRequest request, int status, RequestTrace trace, long nanos) {
+        SlowRequest retval = new SlowRequest();
+        retval.setTime(System.currentTimeMillis());
+        retval.setMethod(request.getMethod());
+        URI uri = request.getRequestUri();
+        retval.setUri(uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery());
+        retval.setStatus(status);
+        retval.setThread(Thread.currentThread().getName());
+        retval.setMillis(nanos / 1e6);
+        retval.setPhases(trace.getPhases());
+        slowRequests.set((int) (recorded.getAndIncrement() % RING_SIZE), retval);
+    }
+
+    /**
+     * The events of one request, turned into phases.
+     */
+    private static class Trace implements RequestEventListener {
+
+        private final RequestTrace trace = new RequestTrace();
+
+        /** when the request was handed to its bulkhead, or reached jersey without one */
+        private final long arrival;
+
+        private final long start;
+
+        private long matched;
+
+        private long methodStart;
+
+        private long methodEnd;
+
+        Trace(ContainerRequest request) {
+            start = System.nanoTime();
+            Object queued = request.getProperty(BulkheadHandler.QUEUED_ATTRIBUTE);
+            arrival = queued instanceof Long ? (Long) queued : start;
+            if (queued != null) {
+                trace.add("queue", start - arrival);
+            }
+            trace.bind();
+        }
+
+        @Override
+        public void onEvent(RequestEvent event) {
+            long now = System.nanoTime();
+            switch (event.getType()) {
+                case REQUEST_MATCHED:
+                    matched = now;
+                    trace.add("routing", now - start);
+                    break;
+                case REQUEST_FILTERED:
+                    trace.add("filters", now - matched);
+                    break;
+                case RESOURCE_METHOD_START:
+                    methodStart = now;
+                    // listed ahead of the steps of the method
+                    trace.add("resource", 0);
+                    break;
+                case RESOURCE_METHOD_FINISHED:
+                    methodEnd = now;
+                    trace.add("resource", now - methodStart);
+                    break;
+                case FINISHED:
+                    if (methodEnd > 0) {
+                        trace.add("write", now - methodEnd);
+                    }
+                    trace.unbind();
+                    traced.increment();
+                    if (now - arrival >= SLOW_NANOS) {
+                        record(event.getContainerRequest(), event.getContainerResponse() == null ? 500
+                                : event.getContainerResponse().getStatus(), trace, now - arrival);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.crossover.trial.weather.provider;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Writes response entities as Smile, Jackson's binary JSON, for internal consumers that send
+ * <code>Accept: application/x-jackson-smile</code>. The document has the same shape as the JSON response,
+ * field names and repeated values are back-referenced rather than repeated.
+ */
+@Provider
+@Produces(SmileMessageBodyWriter.APPLICATION_SMILE)
+public class SmileMessageBodyWriter implements MessageBodyWriter<Object> {
+
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+    public static final MediaType APPLICATION_SMILE_TYPE = MediaType.valueOf(APPLICATION_SMILE);
+
+    /** shared, thread safe once configured; the container owns and closes the entity stream */
+    private static final ObjectMapper MAPPER = new ObjectMapper(
+            new SmileFactory().disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return APPLICATION_SMILE_TYPE.isCompatible(mediaType);
+    }
+
+    @Override
+    public long getSize(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    public void writeTo(Object o, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        MAPPER.writeValue(entityStream, o);
+    }
+
+    /**
+     * @return the entity as written to a response, for entities serialized ahead of the response
+     */
+    public static byte[] toBytes(Object o) throws IOException {
+        return MAPPER.writeValueAsBytes(o);
+    }
+
+    /**
+     * @return a writer for entities streamed in pieces rather than written whole
+     */
+    public static ObjectWriter writer() {
+        return MAPPER.writer();
+    }
+}
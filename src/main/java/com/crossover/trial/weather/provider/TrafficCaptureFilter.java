@@ -0,0 +1,88 @@
+package com.crossover.trial.weather.provider;
+
+import com.crossover.trial.weather.capture.CaptureWriter;
+import com.crossover.trial.weather.cluster.ShardCluster;
+import com.crossover.trial.weather.codec.WireDecoder;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.ext.Provider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+
+/**
+ * Records the query and collector requests to <code>weather.capture.file</code>, for
+ * {@link com.crossover.trial.weather.capture.TrafficReplay} to play back. Requests are recorded as they arrive,
+ * ahead of admission control, so a capture holds the load offered to the node, throttled and shed requests
+ * included. Requests forwarded by another shard are left to the node that received them. See
+ * {@link CaptureWriter} for the format and <code>weather.capture.maxBytes</code>.
+ * <p>
+ * A body is buffered up to one byte beyond {@link WireDecoder#MAX_PAYLOAD}. A larger one is recorded cut there,
+ * which replays to the same rejection, and the endpoint reads the rest straight from the connection.
+ *
+ * Capture is off unless the property is set.
+ */
+@Provider
+@PreMatching
+public class TrafficCaptureFilter implements ContainerRequestFilter {
+
+    private static final CaptureWriter WRITER = CaptureWriter.fromSystemProperties();
+
+    /**
+     * @return true if requests are being captured
+     */
+    public static boolean isEnabled() {
+        return WRITER != null;
+    }
+
+    /**
+     * Flush and close the capture, for shutdown.
+     */
+    public static void close() {
+        if (WRITER != null) {
+            WRITER.close();
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext request) throws IOException {
+        if (WRITER == null || request.getHeaderString(ShardCluster.FORWARDED) != null) {
+            return;
+        }
+        String uri = request.getUriInfo().getBaseUri().relativize(request.getUriInfo().getRequestUri()).toString();
+        if (!uri.startsWith("query/") && !uri.startsWith("collect/")) {
+            return;
+        }
+        Object queued = request.getProperty(BulkheadHandler.QUEUED_ATTRIBUTE);
+        long arrival = queued instanceof Long ? (Long) queued : System.nanoTime();
+        byte[] body = new byte[0];
+        if (request.hasEntity()) {
+            InputStream entity = request.getEntityStream();
+            body = readAtMost(entity, WireDecoder.MAX_PAYLOAD + 1);
+            request.setEntityStream(body.length > WireDecoder.MAX_PAYLOAD
+                    ? new SequenceInputStream(new ByteArrayInputStream(body), entity)
+                    : new ByteArrayInputStream(body));
+        }
+        WRITER.append(arrival, request.getMethod(), uri, request.getHeaderString(HttpHeaders.ACCEPT), body);
+    }
+
+    /**
+     * @param is the stream to read
+     * @param limit the most bytes to read
+     * @return the stream's bytes up to its end or limit, whichever comes first; the rest is left unread
+     */
+    static byte[] readAtMost(InputStream is, int limit) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        byte[] chunk = new byte[8192];
+        int n;
+        while (bytes.size() < limit && (n = is.read(chunk, 0, Math.min(chunk.length, limit - bytes.size()))) >= 0) {
+            bytes.write(chunk, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
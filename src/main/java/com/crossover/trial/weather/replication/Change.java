@@ -0,0 +1,73 @@
+package com.crossover.trial.weather.replication;
+
+/**
+ * One entry of the {@link ChangeLog}: a catalog change or a stored data point, in the json the collector
+ * endpoint accepts for it.
+ */
+public class Change {
+
+    public enum Op {
+        /** body is the airport json */
+        ADD_AIRPORT,
+        /** no body */
+        DELETE_AIRPORT,
+        /** body is the data point json, pointType names its type */
+        WEATHER
+    }
+
+    private long seq;
+
+    private long time;
+
+    private Op op;
+
+    private String iata;
+
+    private String pointType;
+
+    private String body;
+
+    /** for json binding */
+    private Change() { }
+
+    /**
+     * @param seq position in the log, 0 for snapshot entries
+     * @param time when the change was made in milliseconds since UTC epoch
+     * @param op what changed
+     * @param iata the airport
+     * @param pointType the point type of a WEATHER change, otherwise null
+     * @param body the json payload, null for deletes
+     */
+    public Change(long seq, long time, Op op, String iata, String pointType, String body) {
+        this.seq = seq;
+        this.time = time;
+        this.op = op;
+        this.iata = iata;
+        this.pointType = pointType;
+        this.body = body;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    public String getIata() {
+        return iata;
+    }
+
+    public String getPointType() {
+        return pointType;
+    }
+
+    public String getBody() {
+        return body;
+    }
+}
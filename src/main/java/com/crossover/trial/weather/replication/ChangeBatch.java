@@ -0,0 +1,30 @@
+package com.crossover.trial.weather.replication;
+
+import java.util.List;
+
+/**
+ * A slice of the change log, or a snapshot, as sent to replicas.
+ */
+public class ChangeBatch {
+
+    /** the last sequence number the primary has assigned */
+    private long head;
+
+    private List<Change> changes;
+
+    /** for json binding */
+    private ChangeBatch() { }
+
+    public ChangeBatch(long head, List<Change> changes) {
+        this.head = head;
+        this.changes = changes;
+    }
+
+    public long getHead() {
+        return head;
+    }
+
+    public List<Change> getChanges() {
+        return changes;
+    }
+}
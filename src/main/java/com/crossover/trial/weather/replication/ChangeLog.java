@@ -0,0 +1,100 @@
+package com.crossover.trial.weather.replication;
+
+import com.crossover.trial.weather.util.HeapSize;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ordered log of changes a primary publishes to its replicas. Entries are numbered from 1 and kept in a ring
+ * of fixed size; a replica that falls further behind than the ring reaches has to start over from a snapshot.
+ *
+ * Thread safe. Readers may wait for entries that have not been written yet, which lets replicas long poll.
+ */
+public class ChangeLog {
+
+    private final Change[] ring;
+
+    /** the last sequence number assigned, 0 while the log is empty */
+    private long head;
+
+    /** estimated heap taken by the entries held, see {@link HeapSize} */
+    private long bytes;
+
+    /**
+     * @param capacity the number of entries kept
+     */
+    public ChangeLog(int capacity) {
+        this.ring = new Change[capacity];
+    }
+
+    /**
+     * @return a new log if this node is configured as a primary, <code>weather.replication.role=primary</code>,
+     * of <code>weather.replication.logSize</code> entries (default 65536); null otherwise
+     */
+    public static ChangeLog fromSystemProperties() {
+        if (!"primary".equals(System.getProperty("weather.replication.role"))) {
+            return null;
+        }
+        return new ChangeLog(Integer.getInteger("weather.replication.logSize", 65536));
+    }
+
+    /**
+     * @return the sequence number assigned to the change
+     */
+    public synchronized long append(long time, Change.Op op, String iata, String pointType, String body) {
+        head++;
+        int slot = (int) (head % ring.length);
+        Change change = new Change(head, time, op, iata, pointType, body);
+        bytes += estimateBytes(change) - estimateBytes(ring[slot]);
+        ring[slot] = change;
+        notifyAll();
+        return head;
+    }
+
+    public synchronized long getHead() {
+        return head;
+    }
+
+    /**
+     * @return the estimated heap taken by the log, see {@link HeapSize}
+     */
+    public synchronized long estimateBytes() {
+        return HeapSize.object(8, 1) + HeapSize.array(ring.length, HeapSize.REFERENCE) + bytes;
+    }
+
+    private static long estimateBytes(Change change) {
+        if (change == null) {
+            return 0;
+        }
+        // point type names are shared constants
+        return HeapSize.object(16, 4) + HeapSize.string(change.getIata()) + HeapSize.string(change.getBody());
+    }
+
+    /**
+     * @param from the first sequence number wanted
+     * @param max the most entries to return
+     * @param waitMillis how long to wait for an entry if there is none yet
+     * @return the entries from <code>from</code> on, empty if none arrived in time, null if <code>from</code> has
+     * already been overwritten
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized List<Change> read(long from, int max, long waitMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        while (from > head) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return new ArrayList<>();
+            }
+            wait(remaining);
+        }
+        if (from < Math.max(1, head - ring.length + 1)) {
+            return null;
+        }
+        List<Change> retval = new ArrayList<>();
+        for (long seq = from; seq <= head && retval.size() < max; seq++) {
+            retval.add(ring[(int) (seq % ring.length)]);
+        }
+        return retval;
+    }
+}
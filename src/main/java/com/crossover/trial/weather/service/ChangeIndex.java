@@ -0,0 +1,174 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.util.HeapSize;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Orders the airports of the store by the sequence number of their latest change, for the change feed. Every
+ * change to an airport, its weather or the airport itself, takes the next number of a global sequence and moves the
+ * airport to the end of the index, so the index holds one entry per airport and the changes after a sequence
+ * number are a tail of it: a delta costs time in the number of airports changed, not in the catalog size.
+ *
+ * Deleted airports stay in the index as tombstones, at most <code>weather.changes.tombstones</code> of them (default
+ * 65536). Once the oldest tombstone is dropped, a reader whose sequence number is older than it may have missed a
+ * deletion and has to start over, see {@link #getHorizon()}.
+ *
+ * Thread safe. Changes are numbered and indexed under one lock, readers do not lock.
+ */
+public class ChangeIndex {
+
+    private final int maxTombstones;
+
+    private final ConcurrentSkipListMap<Long, Entry> bySequence = new ConcurrentSkipListMap<>();
+
+    /** the sequence number of the latest change per airport, guarded by this */
+    private final Map<String, Long> latest = new HashMap<>();
+
+    /** sequence numbers of the tombstones, guarded by this */
+    private final TreeSet<Long> tombstones = new TreeSet<>();
+
+    /** the last sequence number assigned, guarded by this */
+    private long sequence;
+
+    /** readers behind this sequence number may have missed changes */
+    private volatile long horizon;
+
+    public ChangeIndex() {
+        this(Integer.getInteger("weather.changes.tombstones", 65536));
+    }
+
+    /**
+     * @param maxTombstones the most deleted airports remembered
+     */
+    public ChangeIndex(int maxTombstones) {
+        this.maxTombstones = maxTombstones;
+    }
+
+    /**
+     * Record a change to an airport or its weather.
+     *
+     * @return the sequence number of the change
+     */
+    public synchronized long touch(String iataCode) {
+        return stamp(iataCode, false);
+    }
+
+    /**
+     * Record the deletion of an airport.
+     *
+     * @return the sequence number of the change
+     */
+    public synchronized long delete(String iataCode) {
+        long retval = stamp(iataCode, true);
+        while (tombstones.size() > maxTombstones) {
+            long oldest = tombstones.pollFirst();
+            latest.remove(bySequence.remove(oldest).getIata());
+            horizon = Math.max(horizon, oldest);
+        }
+        return retval;
+    }
+
+    private long stamp(String iataCode, boolean deleted) {
+        long retval = ++sequence;
+        Long previous = latest.put(iataCode, retval);
+        if (previous != null) {
+            bySequence.remove(previous);
+            tombstones.remove(previous);
+        }
+        bySequence.put(retval, new Entry(iataCode, retval, deleted));
+        if (deleted) {
+            tombstones.add(retval);
+        }
+        return retval;
+    }
+
+    /**
+     * Forget all airports, every reader has to start over.
+     */
+    public synchronized void clear() {
+        bySequence.clear();
+        latest.clear();
+        tombstones.clear();
+        horizon = sequence;
+    }
+
+    /**
+     * @return the last sequence number assigned, all changes up to it are in the index
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the oldest sequence number a reader may continue from, other than 0 for everything
+     */
+    public long getHorizon() {
+        return horizon;
+    }
+
+    /**
+     * @param since the sequence number of the last change seen, 0 for all airports
+     * @param upTo the last sequence number wanted, {@link #getSequence()} when the read started
+     * @param limit the most entries returned
+     * @return the latest change of every airport changed after <code>since</code>, oldest first
+     */
+    public List<Entry> changes(long since, long upTo, int limit) {
+        List<Entry> retval = new ArrayList<>();
+        ConcurrentNavigableMap<Long, Entry> tail = bySequence.subMap(since, false, upTo, true);
+        for (Entry e : tail.values()) {
+            if (retval.size() >= limit) {
+                break;
+            }
+            retval.add(e);
+        }
+        return retval;
+    }
+
+    /**
+     * @return the estimated heap taken by the index, see {@link HeapSize}
+     */
+    public synchronized long estimateBytes() {
+        // a skip list node and about one index node in two per entry, boxed keys shared by both maps
+        long perEntry = HeapSize.object(0, 3) + HeapSize.object(0, 3) / 2 + HeapSize.object(8, 0)
+                + HeapSize.object(9, 1);
+        return bySequence.size() * perEntry + HeapSize.hashMap(latest.size())
+                + tombstones.size() * HeapSize.object(1, 4);
+    }
+
+    /**
+     * The latest change of an airport.
+     */
+    public static final class Entry {
+
+        private final String iata;
+
+        private final long sequence;
+
+        private final boolean deleted;
+
+        Entry(String iata, long sequence, boolean deleted) {
+            this.iata = iata;
+            this.sequence = sequence;
+            this.deleted = deleted;
+        }
+
+        public String getIata() {
+            return iata;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+    }
+}
@@ -24,16 +24,31 @@ public interface IWeatherCollector {
      * json formatted data point information.
      *
      * @param iataCode the 3 letter airport code
-     * @param pointType the point type, {@link DataPointType} for a complete list
+     * @param pointType the point type, {@link DataPointTypeRegistry} for a complete list
      * @param datapointJson a json dict containing mean, first, second, thrid and count keys
      *
-     * @return HTTP Response code
+     * @return HTTP Response code, 404 for an unknown airport and 400 for a malformed or rejected data point
      */
   
     public Response updateWeather(@PathParam("iata") String iataCode,
                            @PathParam("pointType") String pointType,
                            String datapointJson);
 
+    /**
+     * Record raw readings for a particular pointType. The service keeps a sliding window of them and derives the
+     * mean, quartiles and count of the airport's data point, so the collection site does not have to.
+     *
+     * @param iataCode the 3 letter airport code
+     * @param pointType the point type, {@link DataPointTypeRegistry} for a complete list
+     * @param observationsJson a single json number or a json list of numbers
+     *
+     * @return HTTP Response code, 404 for an unknown airport and 400 for a malformed body, an unknown point type or
+     * no reading in range
+     */
+    public Response recordObservations(@PathParam("iata") String iataCode,
+                                       @PathParam("pointType") String pointType,
+                                       String observationsJson);
+
     /**
      * Return a list of known airports as a json formatted list
      *
@@ -30,6 +30,17 @@ public interface IWeatherQueryEndpoint {
      * airports in the given radius
      */
     public Response get(String iata, String radiusString);
+
+    /**
+     * Summarize the atmospheric information of the given airport and the airports in the given radius per point
+     * type, without shipping it.
+     *
+     * @param iata the three letter airport code
+     * @param radiusString the radius, in km
+     *
+     * @return an HTTP Response and a {@link com.crossover.trial.weather.domain.WeatherSummary}
+     */
+    public Response aggregate(String iata, String radiusString);
     
     public AtmosphericInformation getAtmosphericInformation(String iataCode);
 }
@@ -0,0 +1,310 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands validated data points from the collector threads to a fixed set of writer threads. Airports are spread over
+ * the writers by IATA code, so every airport has a single writer and collector threads never contend on a hot
+ * airport.
+ *
+ * Each writer drains its own preallocated ring of update slots. Collector threads claim a slot with one atomic
+ * increment, fill it in place and publish it; the writer takes whatever has been published since its last pass as
+ * one batch. Within a batch only the last update per airport and point type is applied, the ones it overwrites
+ * would never have been seen by a reader anyway; they are handed to {@link Sink#superseded} instead. A full ring
+ * makes collectors wait, so a slow writer pushes back instead of buffering without bound.
+ *
+ * {@link #submit} returns once the update is queued; {@link #await} waits until the writer has applied it, for
+ * callers that need to read their own write.
+ *
+ * The number of writers is set with <code>weather.ingest.writers</code> (default the number of processors, at most
+ * 4; 0 applies updates on the collector thread) and the ring size per writer with
+ * <code>weather.ingest.ringSize</code> (default 4096, rounded up to a power of two).
+ */
+public class IngestPipeline {
+
+    public final static Logger LOGGER = Logger.getLogger(IngestPipeline.class.getName());
+
+    /** most updates a writer takes in one pass, bounds the time before its first update is applied */
+    private static final int MAX_BATCH = 256;
+
+    /** writer passes that find nothing before it parks */
+    private static final int SPINS = 100;
+
+    /**
+     * Stores a data point, called on the writer thread.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void apply(AtmosphericInformation ai, String iataCode, Descriptor type, DataPoint dp, long time);
+
+        /**
+         * Called on the writer thread, ahead of the update that supersedes it, for an update dropped in favour of
+         * a later one in the same batch; for sinks that keep every update, such as the history.
+         */
+        default void superseded(AtmosphericInformation ai, String iataCode, Descriptor type, DataPoint dp,
+                                long time) {
+        }
+    }
+
+    private final Sink sink;
+
+    private final Writer[] writers;
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * @param writers the number of writer threads, 0 to apply updates on the submitting thread
+     * @param ringSize the slots per writer
+     * @param sink stores the updates
+     */
+    public IngestPipeline(int writers, int ringSize, Sink sink) {
+        this.sink = sink;
+        this.writers = new Writer[writers];
+        int size = Integer.highestOneBit(Math.max(2, ringSize - 1)) << 1;
+        for (int i = 0; i < writers; i++) {
+            this.writers[i] = new Writer(i, size);
+            this.writers[i].thread.start();
+        }
+    }
+
+    public static IngestPipeline fromSystemProperties(Sink sink) {
+        int writers = Integer.getInteger("weather.ingest.writers", Math.min(4, Runtime.getRuntime().availableProcessors()));
+        return new IngestPipeline(Math.max(0, writers), Integer.getInteger("weather.ingest.ringSize", 4096), sink);
+    }
+
+    /**
+     * Queue a data point for its airport's writer.
+     *
+     * @param ai the atmospheric information to update
+     * @param iataCode the airport it belongs to
+     * @param type the validated point type
+     * @param dp the validated data point
+     * @param time the time of the update in milliseconds since UTC epoch
+     * @return a ticket for {@link #await}
+     */
+    public long submit(AtmosphericInformation ai, String iataCode, Descriptor type, DataPoint dp, long time) {
+        submitted.increment();
+        if (writers.length == 0) {
+            sink.apply(ai, iataCode, type, dp, time);
+            return -1;
+        }
+        Writer writer = writers[(iataCode.hashCode() & Integer.MAX_VALUE) % writers.length];
+        long seq = writer.publish(ai, iataCode, type, dp, time);
+        return seq * writers.length + writer.index;
+    }
+
+    /**
+     * Wait until a submitted update has been applied, or superseded by a later one.
+     *
+     * @param ticket as returned by {@link #submit}
+     */
+    public void await(long ticket) {
+        if (ticket >= 0) {
+            writers[(int) (ticket % writers.length)].await(ticket / writers.length);
+        }
+    }
+
+    /**
+     * @return counts of the updates submitted, those dropped in favour of a later one in the same batch and the
+     * batches applied, plus what is currently queued
+     */
+    public Map<String, Object> getStats() {
+        long queued = 0;
+        for (Writer writer : writers) {
+            queued += writer.claimed.get() - 1 - writer.applied;
+        }
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("writers", writers.length);
+        retval.put("submitted", submitted.sum());
+        retval.put("coalesced", coalesced.sum());
+        retval.put("batches", batches.sum());
+        retval.put("queued", queued);
+        return retval;
+    }
+
+    /** an update slot, reused as the ring wraps */
+    private static final class Slot {
+        AtmosphericInformation ai;
+        String iataCode;
+        Descriptor type;
+        DataPoint dp;
+        long time;
+        boolean superseded;
+    }
+
+    private final class Writer implements Runnable {
+
+        final int index;
+
+        final Thread thread;
+
+        final int mask;
+
+        final Slot[] slots;
+
+        /** the sequence published into each slot, a slot is ready once it holds the sequence being read */
+        final AtomicLongArray published;
+
+        /** the next sequence to hand out */
+        final AtomicLong claimed = new AtomicLong();
+
+        /** the last sequence applied, its slot and all before it may be reused */
+        volatile long applied = -1;
+
+        /** set while the writer is parked for want of updates */
+        volatile boolean sleeping;
+
+        /** collector threads waiting in {@link #await} */
+        final AtomicInteger waiters = new AtomicInteger();
+
+        /** open addressing table of the airport and point type seen in the current batch, by slot index */
+        final int[] seen;
+
+        final int[] seenUsed = new int[MAX_BATCH];
+
+        Writer(int index, int size) {
+            this.index = index;
+            this.mask = size - 1;
+            this.slots = new Slot[size];
+            this.published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot();
+                published.set(i, -1);
+            }
+            this.seen = new int[MAX_BATCH * 4];
+            Arrays.fill(seen, -1);
+            this.thread = new Thread(this, "weather-ingest-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        long publish(AtmosphericInformation ai, String iataCode, Descriptor type, DataPoint dp, long time) {
+            long seq = claimed.getAndIncrement();
+            while (seq - slots.length > applied) {
+                // ring full, wait for the writer to catch up
+                LockSupport.parkNanos(10000);
+            }
+            Slot slot = slots[(int) seq & mask];
+            slot.ai = ai;
+            slot.iataCode = iataCode;
+            slot.type = type;
+            slot.dp = dp;
+            slot.time = time;
+            slot.superseded = false;
+            // a full fence: were the store ordered after the read of sleeping, the writer could check the slot,
+            // then park without being woken
+            published.set((int) seq & mask, seq);
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+            return seq;
+        }
+
+        void await(long seq) {
+            if (applied >= seq) {
+                return;
+            }
+            waiters.incrementAndGet();
+            try {
+                synchronized (this) {
+                    while (applied < seq) {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (true) {
+                long first = applied + 1;
+                long last = first - 1;
+                while (last - first + 1 < MAX_BATCH && published.get((int) (last + 1) & mask) == last + 1) {
+                    last++;
+                }
+                if (last < first) {
+                    if (++idle < SPINS) {
+                        Thread.yield();
+                    } else {
+                        sleeping = true;
+                        if (published.get((int) first & mask) != first) {
+                            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                        }
+                        sleeping = false;
+                    }
+                    continue;
+                }
+                idle = 0;
+                applyBatch(first, last);
+                applied = last;
+                batches.increment();
+                if (waiters.get() > 0) {
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                }
+            }
+        }
+
+        private void applyBatch(long first, long last) {
+            int used = 0;
+            for (long seq = first; seq <= last; seq++) {
+                Slot slot = slots[(int) seq & mask];
+                int h = (System.identityHashCode(slot.ai) * 31 + slot.type.getSlot()) & (seen.length - 1);
+                while (seen[h] >= 0) {
+                    Slot other = slots[seen[h]];
+                    if (other.ai == slot.ai && other.type == slot.type) {
+                        other.superseded = true;
+                        coalesced.increment();
+                        break;
+                    }
+                    h = (h + 1) & (seen.length - 1);
+                }
+                if (seen[h] < 0) {
+                    seenUsed[used++] = h;
+                }
+                seen[h] = (int) seq & mask;
+            }
+            for (int i = 0; i < used; i++) {
+                seen[seenUsed[i]] = -1;
+            }
+            for (long seq = first; seq <= last; seq++) {
+                Slot slot = slots[(int) seq & mask];
+                try {
+                    if (slot.superseded) {
+                        sink.superseded(slot.ai, slot.iataCode, slot.type, slot.dp, slot.time);
+                    } else {
+                        sink.apply(slot.ai, slot.iataCode, slot.type, slot.dp, slot.time);
+                    }
+                } catch (RuntimeException e) {
+                    // never let the writer die
+                    LOGGER.log(Level.SEVERE, "Error applying " + slot.type.getName() + " for " + slot.iataCode, e);
+                }
+                slot.ai = null;
+                slot.dp = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.WeatherTable;
+import com.crossover.trial.weather.util.HeapSize;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accounts for the heap taken by the airport store and caps it. Every airport reserves its footprint when it is
+ * added, as if all its data points were held, and releases it when removed; once the reservations would pass
+ * <code>weather.memory.storeBytes</code> new airports are refused, so a catalog import can not grow the store
+ * until the JVM runs out of heap. The history kept for airports has its own budget, see {@link ObservationService}.
+ *
+ * The sizes are estimates, see {@link HeapSize}. Strings shared through the intern table are not counted; the
+ * table holds them weakly, so they go with the last airport using them. The row of an airport in the
+ * {@link WeatherTable} counts whether it is kept on or off the heap.
+ */
+public class MemoryBudget {
+
+    /** the most heap airports may reserve, 0 for no limit */
+    private final long storeBytes;
+
+    private final AtomicLong reserved = new AtomicLong();
+
+    private final LongAdder refused = new LongAdder();
+
+    public MemoryBudget() {
+        this(Long.getLong("weather.memory.storeBytes", 0));
+    }
+
+    /**
+     * @param storeBytes the most heap airports may reserve, 0 for no limit
+     */
+    public MemoryBudget(long storeBytes) {
+        this.storeBytes = storeBytes;
+    }
+
+    /**
+     * Reserve the footprint of a new airport.
+     *
+     * @return false if the airport does not fit into the budget
+     */
+    public boolean reserve(AirportData ad) {
+        long bytes = reservation(ad);
+        long current;
+        do {
+            current = reserved.get();
+            if (storeBytes > 0 && current + bytes > storeBytes) {
+                refused.increment();
+                return false;
+            }
+        } while (!reserved.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Release the footprint of a removed airport.
+     */
+    public void release(AirportData ad) {
+        reserved.addAndGet(-reservation(ad));
+    }
+
+    public void reset() {
+        reserved.set(0);
+    }
+
+    public long getStoreBytes() {
+        return storeBytes;
+    }
+
+    public long getReservedBytes() {
+        return reserved.get();
+    }
+
+    /**
+     * @return the number of airports refused for lack of budget
+     */
+    public long getRefusedCount() {
+        return refused.sum();
+    }
+
+    /**
+     * @return the footprint of an airport with its weather row, its share of the map table included
+     */
+    static long reservation(AirportData ad) {
+        return airportBytes(ad) + HeapSize.object(4, 3) + 2 * HeapSize.REFERENCE
+                + WeatherTable.handleBytes() + WeatherTable.rowBytes();
+    }
+
+    /**
+     * @return the heap taken by the airport itself, its interned strings excluded
+     */
+    static long airportBytes(AirportData ad) {
+        return HeapSize.object(32, 4) + HeapSize.string(ad.getName());
+    }
+}
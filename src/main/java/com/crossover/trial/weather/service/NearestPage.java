@@ -0,0 +1,143 @@
+package com.crossover.trial.weather.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * One page of the airports around a centre, nearest first, picked from the airports offered in any order. Only the
+ * page is kept, the nearest <code>limit</code> seen so far, so the memory is in the page size, not the number of
+ * airports offered. Airports are ordered by distance, then IATA code, which makes the order total.
+ *
+ * A page ends at a cursor, the distance and code of its last airport, and the next page starts after it. The cursor
+ * is not a snapshot: airports added or updated between pages show up on the page their distance puts them on.
+ *
+ * @param <T> what is listed for an airport
+ */
+class NearestPage<T> {
+
+    private static final Comparator<Entry<?>> NEAREST = Comparator.<Entry<?>>comparingDouble(e -> e.distance)
+            .thenComparing(e -> e.iata);
+
+    private final int limit;
+
+    /** the position the page starts after, null for the first page */
+    private final Entry<T> after;
+
+    /** the page so far, farthest first */
+    private final PriorityQueue<Entry<T>> nearest;
+
+    /** airports offered after the cursor, listed or not */
+    private int offered;
+
+    /**
+     * @param limit the most airports on the page
+     * @param cursor the cursor of the previous page, null for the first one
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    NearestPage(int limit, String cursor) {
+        this.limit = limit;
+        this.after = cursor == null ? null : parse(cursor);
+        this.nearest = new PriorityQueue<>(Math.min(limit, 1024) + 1, NEAREST.reversed());
+    }
+
+    /**
+     * @param distance the distance from the centre in km
+     * @param iata the code of the airport
+     * @param item what to list for it
+     */
+    void offer(double distance, String iata, T item) {
+        Entry<T> e = new Entry<>(distance, iata, item);
+        if (after != null && NEAREST.compare(e, after) <= 0) {
+            return;
+        }
+        offered++;
+        if (nearest.size() < limit) {
+            nearest.add(e);
+        } else if (NEAREST.compare(e, nearest.peek()) < 0) {
+            nearest.poll();
+            nearest.add(e);
+        }
+    }
+
+    /**
+     * @return true if airports were offered past the end of the page
+     */
+    boolean isMore() {
+        return offered > limit;
+    }
+
+    /**
+     * @return the page, nearest first
+     */
+    List<T> getItems() {
+        List<T> retval = new ArrayList<>(nearest.size());
+        for (Entry<T> e : sorted()) {
+            retval.add(e.item);
+        }
+        return retval;
+    }
+
+    /**
+     * @return the cursor the next page starts after, null if the page is empty
+     */
+    String getCursor() {
+        List<Entry<T>> page = sorted();
+        if (page.isEmpty()) {
+            return null;
+        }
+        Entry<T> last = page.get(page.size() - 1);
+        return last.distance + "_" + last.iata;
+    }
+
+    /**
+     * Check a cursor without starting a page.
+     *
+     * @param cursor the cursor of a previous page
+     * @throws IllegalArgumentException if the cursor is malformed
+     */
+    static void checkCursor(String cursor) {
+        parse(cursor);
+    }
+
+    private List<Entry<T>> sorted() {
+        List<Entry<T>> retval = new ArrayList<>(nearest);
+        Collections.sort(retval, NEAREST);
+        return retval;
+    }
+
+    private static <T> Entry<T> parse(String cursor) {
+        // a distance never holds an underscore, an airport code may
+        int split = cursor.indexOf('_');
+        if (split <= 0 || split == cursor.length() - 1) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        double distance;
+        try {
+            distance = Double.parseDouble(cursor.substring(0, split));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor, e);
+        }
+        if (!(distance >= 0)) {
+            throw new IllegalArgumentException("Malformed cursor " + cursor);
+        }
+        return new Entry<>(distance, cursor.substring(split + 1), null);
+    }
+
+    private static final class Entry<T> {
+
+        final double distance;
+
+        final String iata;
+
+        final T item;
+
+        Entry(double distance, String iata, T item) {
+            this.distance = distance;
+            this.iata = iata;
+            this.item = item;
+        }
+    }
+}
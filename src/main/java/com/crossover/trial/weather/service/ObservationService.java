@@ -0,0 +1,348 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+import com.crossover.trial.weather.util.HeapSize;
+import com.crossover.trial.weather.util.KllSketch;
+import com.crossover.trial.weather.util.WindowedSketch;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Turns raw readings into data points for stations too small to compute quartiles themselves. Readings feed a
+ * {@link WindowedSketch} per airport and point type, and the mean, quartiles and count of a data point are derived
+ * from the readings inside the sliding window. Sketches merge, so a region can be summarized with {@link #rollup}.
+ *
+ * A derived data point is published at most once per <code>weather.observations.publishMillis</code> (default 1000)
+ * per airport and point type, by whichever writer finds it due. Readings that arrive while the last data point is
+ * still recent are published by a background flusher once it is due, every <code>publishMillis</code>, so the
+ * last readings of a burst are not left out of the store until the next one. The window is
+ * <code>weather.observations.windowMillis</code> long (default one hour) in <code>weather.observations.buckets</code>
+ * buckets (default 12), and <code>weather.observations.k</code> (default 64) trades sketch size for accuracy.
+ *
+ * The sketches are the history of the store. With <code>weather.memory.historyBytes</code> set, their estimated
+ * size is checked at most every <code>weather.memory.checkMillis</code> (default 1000) by the writer that finds the
+ * check due, and while it is over the budget the airports that have gone longest without a reading lose theirs.
+ */
+public class ObservationService {
+
+    public final static Logger LOGGER = Logger.getLogger(ObservationService.class.getName());
+
+    private static final int K = Integer.getInteger("weather.observations.k", 64);
+
+    private static final long WINDOW_MILLIS = Long.getLong("weather.observations.windowMillis", 3600000);
+
+    private static final int BUCKETS = Integer.getInteger("weather.observations.buckets", 12);
+
+    private static final long PUBLISH_MILLIS = Long.getLong("weather.observations.publishMillis", 1000);
+
+    private final Map<String, Station> stations = new ConcurrentHashMap<>();
+
+    /** the most heap the sketches may take, 0 for no limit */
+    private final long historyBytes;
+
+    private final long checkMillis;
+
+    /** when the history budget is checked next */
+    private final AtomicLong nextCheck = new AtomicLong();
+
+    private final LongAdder evicted = new LongAdder();
+
+    /** publishes the data points the flusher derives, null to leave readings unpublished until the next is due */
+    private final Publisher publisher;
+
+    /** the airports with readings not yet in a published data point */
+    private final Set<String> unpublished = ConcurrentHashMap.newKeySet();
+
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * @param publisher stores the data points the flusher derives
+     */
+    public ObservationService(Publisher publisher) {
+        this(Long.getLong("weather.memory.historyBytes", 0), Long.getLong("weather.memory.checkMillis", 1000),
+                publisher, true);
+    }
+
+    /**
+     * @param historyBytes the most heap the sketches may take, 0 for no limit
+     * @param checkMillis the least time between two checks of the budget
+     */
+    public ObservationService(long historyBytes, long checkMillis) {
+        this(historyBytes, checkMillis, null, false);
+    }
+
+    /**
+     * @param flushing false to leave calling {@link #flush(long)} to the caller instead of a background thread
+     */
+    ObservationService(long historyBytes, long checkMillis, Publisher publisher, boolean flushing) {
+        this.historyBytes = historyBytes;
+        this.checkMillis = checkMillis;
+        this.publisher = publisher;
+        if (publisher == null || !flushing) {
+            flusher = null;
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "weather-observations");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, PUBLISH_MILLIS, PUBLISH_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Record readings and derive a data point from the window if one is due.
+     *
+     * @param iataCode the airport the readings were taken at
+     * @param type the point type, the readings must already be validated against it
+     * @param values the readings
+     * @param count the number of readings to take from values
+     * @param nowMillis the time of the readings
+     * @return the data point to publish, or null if the last one is recent enough, the flusher then publishes
+     * the readings once it is due
+     */
+    public DataPoint record(String iataCode, Descriptor type, float[] values, int count, long nowMillis) {
+        Station station = stations.computeIfAbsent(iataCode, k -> new Station());
+        station.lastRecorded = nowMillis;
+        int slot = type.getSlot();
+        WindowedSketch window = station.window(slot);
+        DataPoint retval = null;
+        synchronized (window) {
+            for (int i = 0; i < count; i++) {
+                window.update(values[i], nowMillis);
+            }
+            if (nowMillis - station.published[slot] >= PUBLISH_MILLIS) {
+                station.published[slot] = nowMillis;
+                station.pending[slot] = false;
+                retval = toDataPoint(window.snapshot(nowMillis));
+            } else {
+                station.pending[slot] = true;
+            }
+        }
+        if (retval == null && publisher != null) {
+            unpublished.add(iataCode);
+        }
+        if (historyBytes > 0) {
+            enforceBudget(nowMillis);
+        }
+        return retval;
+    }
+
+    void flush() {
+        try {
+            flush(System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            // never let the scheduled task die
+            LOGGER.log(Level.SEVERE, "Error publishing observations", e);
+        }
+    }
+
+    /**
+     * Publish a data point for every airport and point type with readings recorded since its last one, if that is
+     * at least <code>publishMillis</code> old.
+     *
+     * @return the number of data points published
+     */
+    int flush(long nowMillis) {
+        int retval = 0;
+        for (String iataCode : unpublished) {
+            // taken out first, a reading recorded during the scan puts it back
+            unpublished.remove(iataCode);
+            Station station = stations.get(iataCode);
+            if (station == null) {
+                continue;
+            }
+            boolean waiting = false;
+            for (Descriptor type : DataPointTypeRegistry.all()) {
+                WindowedSketch window = station.windows[type.getSlot()];
+                if (window == null) {
+                    continue;
+                }
+                DataPoint dp = null;
+                synchronized (window) {
+                    if (!station.pending[type.getSlot()]) {
+                        continue;
+                    } else if (nowMillis - station.published[type.getSlot()] >= PUBLISH_MILLIS) {
+                        station.published[type.getSlot()] = nowMillis;
+                        station.pending[type.getSlot()] = false;
+                        dp = toDataPoint(window.snapshot(nowMillis));
+                    } else {
+                        waiting = true;
+                    }
+                }
+                if (dp != null) {
+                    publisher.publish(iataCode, type, dp);
+                    retval++;
+                }
+            }
+            if (waiting) {
+                unpublished.add(iataCode);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * Drop the sketches of the coldest airports if the history is over budget, down to 90% of it so that the next
+     * check does not have to evict again straight away.
+     */
+    private void enforceBudget(long nowMillis) {
+        long due = nextCheck.get();
+        if (nowMillis < due || !nextCheck.compareAndSet(due, nowMillis + checkMillis)) {
+            return;
+        }
+        long bytes = estimateBytes();
+        if (bytes <= historyBytes) {
+            return;
+        }
+        List<Map.Entry<String, Station>> coldest = new ArrayList<>(stations.entrySet());
+        coldest.sort(Comparator.comparingLong(e -> e.getValue().lastRecorded));
+        long target = historyBytes - historyBytes / 10;
+        int dropped = 0;
+        for (Map.Entry<String, Station> e : coldest) {
+            if (bytes <= target) {
+                break;
+            }
+            if (stations.remove(e.getKey(), e.getValue())) {
+                bytes -= e.getValue().estimateBytes(e.getKey());
+                dropped++;
+            }
+        }
+        evicted.add(dropped);
+        LOGGER.log(Level.INFO, "History over its budget of {0} bytes, dropped the sketches of {1} airports",
+                new Object[]{historyBytes, dropped});
+    }
+
+    /**
+     * @return the estimated heap taken by the sketches, see {@link HeapSize}
+     */
+    public long estimateBytes() {
+        long retval = HeapSize.hashMap(stations.size());
+        for (Map.Entry<String, Station> e : stations.entrySet()) {
+            retval += e.getValue().estimateBytes(e.getKey());
+        }
+        return retval;
+    }
+
+    /**
+     * @return the most heap the sketches may take, 0 for no limit
+     */
+    public long getHistoryBudget() {
+        return historyBytes;
+    }
+
+    /**
+     * @return the number of airports whose sketches were dropped to keep the history within its budget
+     */
+    public long getEvictedCount() {
+        return evicted.sum();
+    }
+
+    /**
+     * Merge the windows of several airports, for regional summaries.
+     *
+     * @param iataCodes the airports to include, unknown ones and ones without readings are skipped
+     * @param type the point type
+     * @param nowMillis the end of the window
+     * @return a sketch over the readings of all given airports
+     */
+    public KllSketch rollup(Collection<String> iataCodes, Descriptor type, long nowMillis) {
+        KllSketch retval = new KllSketch(K);
+        for (String iataCode : iataCodes) {
+            Station station = stations.get(iataCode);
+            WindowedSketch window = station == null ? null : station.windows[type.getSlot()];
+            if (window != null) {
+                window.mergeInto(retval, nowMillis);
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @param sketch a sketch of readings
+     * @return a data point summarizing them, or null if the sketch is empty
+     */
+    public static DataPoint toDataPoint(KllSketch sketch) {
+        if (sketch.getCount() == 0) {
+            return null;
+        }
+        DataPoint dp = new DataPoint(Math.round(sketch.quantile(0.25)), Math.round(sketch.quantile(0.5)), 0,
+                Math.round(sketch.quantile(0.75)), (int) Math.min(Integer.MAX_VALUE, sketch.getCount()));
+        dp.setMean(sketch.getSum() / sketch.getCount());
+        return dp;
+    }
+
+    /**
+     * @param iataCode an airport that is no longer served
+     */
+    public void remove(String iataCode) {
+        stations.remove(iataCode);
+        unpublished.remove(iataCode);
+    }
+
+    public void clear() {
+        stations.clear();
+        unpublished.clear();
+    }
+
+    /**
+     * Stores the data points derived from readings that were recorded while the last one was still recent.
+     */
+    @FunctionalInterface
+    public interface Publisher {
+        void publish(String iataCode, Descriptor type, DataPoint dp);
+    }
+
+    private static final class Station {
+        final WindowedSketch[] windows = new WindowedSketch[DataPointTypeRegistry.size()];
+
+        /** when a data point was last published per slot, guarded by the slot's window */
+        final long[] published = new long[DataPointTypeRegistry.size()];
+
+        /** readings were recorded since, per slot, guarded by the slot's window */
+        final boolean[] pending = new boolean[DataPointTypeRegistry.size()];
+
+        /** the time of the latest reading, how cold the airport is */
+        volatile long lastRecorded;
+
+        long estimateBytes(String iataCode) {
+            long retval = HeapSize.object(8, 3) + HeapSize.array(windows.length, HeapSize.REFERENCE)
+                    + HeapSize.array(published.length, 8) + HeapSize.array(pending.length, 1)
+                    + HeapSize.string(iataCode);
+            for (WindowedSketch window : windows) {
+                if (window != null) {
+                    retval += window.estimateBytes();
+                }
+            }
+            return retval;
+        }
+
+        WindowedSketch window(int slot) {
+            WindowedSketch window = windows[slot];
+            if (window == null) {
+                synchronized (this) {
+                    window = windows[slot];
+                    if (window == null) {
+                        window = windows[slot] = new WindowedSketch(K, WINDOW_MILLIS, BUCKETS);
+                    }
+                }
+            }
+            return window;
+        }
+    }
+}
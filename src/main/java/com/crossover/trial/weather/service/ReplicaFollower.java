@@ -0,0 +1,156 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.replication.Change;
+import com.crossover.trial.weather.replication.ChangeBatch;
+import org.glassfish.jersey.client.ClientProperties;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps a read only replica in step with its primary. The follower loads a snapshot of the primary's store, then
+ * long polls the change log from the snapshot's position on and applies the changes in batches, in order. If it
+ * falls behind further than the primary's log reaches it starts over from a new snapshot.
+ *
+ * A node becomes a replica with <code>weather.replication.role=replica</code> and
+ * <code>weather.replication.primary</code> set to the primary's base url. Its collector endpoint then refuses
+ * updates; writes go to the primary.
+ */
+public class ReplicaFollower implements Runnable {
+
+    public final static Logger LOGGER = Logger.getLogger(ReplicaFollower.class.getName());
+
+    private static final int BATCH_SIZE = Integer.getInteger("weather.replication.batchSize", 1000);
+
+    private static final long WAIT_MILLIS = 1000;
+
+    private static volatile ReplicaFollower instance;
+
+    private final WebTarget primary;
+
+    private final RestWeatherCollectorEndpoint collector;
+
+    /** the next sequence number to apply */
+    private volatile long next;
+
+    /** the primary's head as of the last batch */
+    private volatile long head;
+
+    /** when the primary made the last change applied */
+    private volatile long appliedTime;
+
+    private volatile long snapshots;
+
+    ReplicaFollower(String primaryUrl, RestWeatherCollectorEndpoint collector) {
+        Client client = ClientBuilder.newClient()
+                .property(ClientProperties.CONNECT_TIMEOUT, 5000)
+                .property(ClientProperties.READ_TIMEOUT, (int) (WAIT_MILLIS + 30000));
+        this.primary = client.target(primaryUrl).path("replication");
+        this.collector = collector;
+    }
+
+    /**
+     * Start following the primary if this node is configured as a replica.
+     *
+     * @param collector the collector endpoint changes are applied through
+     * @return the follower, or null if this node is not a replica
+     */
+    public static synchronized ReplicaFollower startIfReplica(RestWeatherCollectorEndpoint collector) {
+        if (instance != null || !"replica".equals(System.getProperty("weather.replication.role"))) {
+            return instance;
+        }
+        String primaryUrl = System.getProperty("weather.replication.primary");
+        if (primaryUrl == null) {
+            throw new IllegalStateException("weather.replication.primary is not set");
+        }
+        instance = new ReplicaFollower(primaryUrl, collector);
+        Thread t = new Thread(instance, "weather-replica");
+        t.setDaemon(true);
+        t.start();
+        return instance;
+    }
+
+    /**
+     * @return the running follower, null unless this node is a replica
+     */
+    public static ReplicaFollower get() {
+        return instance;
+    }
+
+    /**
+     * @return how far this replica is behind, for the query ping
+     */
+    public Map<String, Object> getStatus() {
+        long applied = next - 1;
+        Map<String, Object> retval = new LinkedHashMap<>();
+        retval.put("applied", applied);
+        retval.put("lag", Math.max(0, head - applied));
+        retval.put("lagMillis", head > applied ? System.currentTimeMillis() - appliedTime : 0);
+        retval.put("snapshots", snapshots);
+        return retval;
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (next == 0) {
+                    bootstrap();
+                } else {
+                    poll();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Replication from " + primary.getUri() + " failed, retrying", e);
+                try {
+                    Thread.sleep(WAIT_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void bootstrap() {
+        ChangeBatch snapshot = RestWeatherQueryEndpoint.gson.fromJson(
+                primary.path("snapshot").request().get(String.class), ChangeBatch.class);
+        collector.clearForSnapshot();
+        for (Change change : snapshot.getChanges()) {
+            collector.applyChange(change);
+        }
+        head = snapshot.getHead();
+        appliedTime = System.currentTimeMillis();
+        next = snapshot.getHead() + 1;
+        snapshots++;
+        LOGGER.log(Level.INFO, "Loaded snapshot at {0} with {1} entries",
+                new Object[]{snapshot.getHead(), snapshot.getChanges().size()});
+    }
+
+    private void poll() {
+        Response response = primary.path("log").queryParam("from", next).queryParam("max", BATCH_SIZE)
+                .queryParam("waitMillis", WAIT_MILLIS).request().get();
+        if (response.getStatus() == Response.Status.GONE.getStatusCode()) {
+            response.close();
+            LOGGER.warning("Fell behind the change log, loading a new snapshot");
+            next = 0;
+            return;
+        }
+        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+            response.close();
+            throw new IllegalStateException("change log request answered " + response.getStatus());
+        }
+        ChangeBatch batch = RestWeatherQueryEndpoint.gson.fromJson(response.readEntity(String.class),
+                ChangeBatch.class);
+        for (Change change : batch.getChanges()) {
+            collector.applyChange(change);
+            appliedTime = change.getTime();
+            next = change.getSeq() + 1;
+        }
+        head = batch.getHead();
+    }
+}
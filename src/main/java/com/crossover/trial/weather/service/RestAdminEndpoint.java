@@ -0,0 +1,30 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.provider.RequestTracer;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Diagnostics for operators. Like the collector endpoint it is meant for the internal network only.
+ */
+@Path("/admin")
+public class RestAdminEndpoint {
+
+    /**
+     * @return the last slow requests with the time they spent in each phase, latest first, see
+     * {@link RequestTracer}; 404 if tracing is off
+     */
+    @GET
+    @Path("/slow")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response slowRequests() {
+        if (RequestTracer.getSlowMillis() < 0) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.status(Response.Status.OK).entity(RequestTracer.getSlowRequests()).build();
+    }
+}
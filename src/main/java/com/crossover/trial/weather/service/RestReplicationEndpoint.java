@@ -0,0 +1,74 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.replication.ChangeBatch;
+import com.crossover.trial.weather.replication.ChangeLog;
+import com.crossover.trial.weather.replication.Change;
+
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+
+/**
+ * Serves the change log of a replication primary to its replicas, see {@link ReplicaFollower}. Like the
+ * collector endpoint it is meant for the internal network only. On a node that is not a primary every request
+ * answers 404.
+ */
+@Path("/replication")
+public class RestReplicationEndpoint {
+
+    /** the longest a log request is held open waiting for new changes */
+    private static final long MAX_WAIT_MILLIS = 30000;
+
+    private final RestWeatherQueryEndpoint weatherQueryEndpoint = new RestWeatherQueryEndpoint();
+
+    /**
+     * @return the whole store as change entries, and the change log position it corresponds to
+     */
+    @GET
+    @Path("/snapshot")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response snapshot() {
+        ChangeBatch snapshot = weatherQueryEndpoint.snapshot();
+        if (snapshot == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.status(Response.Status.OK).entity(RestWeatherQueryEndpoint.gson.toJson(snapshot)).build();
+    }
+
+    /**
+     * Long poll the change log.
+     *
+     * @param from the first sequence number wanted
+     * @param max the most changes to return
+     * @param waitMillis how long to wait if there are no changes from <code>from</code> on yet
+     * @return the changes, 410 if <code>from</code> is no longer in the log and the replica must start over
+     */
+    @GET
+    @Path("/log")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response log(@QueryParam("from") @DefaultValue("1") long from,
+                        @QueryParam("max") @DefaultValue("1000") int max,
+                        @QueryParam("waitMillis") @DefaultValue("0") long waitMillis) {
+        ChangeLog changeLog = weatherQueryEndpoint.getChangeLog();
+        if (changeLog == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        List<Change> changes;
+        try {
+            changes = changeLog.read(from, max, Math.min(waitMillis, MAX_WAIT_MILLIS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+        if (changes == null) {
+            return Response.status(Response.Status.GONE).build();
+        }
+        ChangeBatch batch = new ChangeBatch(changeLog.getHead(), changes);
+        return Response.status(Response.Status.OK).entity(RestWeatherQueryEndpoint.gson.toJson(batch)).build();
+    }
+}
@@ -1,19 +1,36 @@
 package com.crossover.trial.weather.service;
 
-import com.crossover.trial.weather.domain.DataPointType;
+import com.crossover.trial.weather.cluster.ShardCluster;
+import com.crossover.trial.weather.codec.WireDecoder;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+import com.crossover.trial.weather.exception.MalformedPayloadException;
+import com.crossover.trial.weather.exception.MemoryBudgetExceededException;
 import com.crossover.trial.weather.exception.WeatherException;
 import com.crossover.trial.weather.domain.AtmosphericInformation;
 import com.crossover.trial.weather.domain.AirportData;
 import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.WeatherUpdate;
+import com.crossover.trial.weather.loader.AirportFileParser;
+import com.crossover.trial.weather.provider.AdmissionFilter;
+import com.crossover.trial.weather.replication.Change;
+import com.crossover.trial.weather.replication.ChangeLog;
+import com.crossover.trial.weather.util.RequestTrace;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -32,10 +49,46 @@ public class RestWeatherCollectorEndpoint implements IWeatherCollector {
     /** shared gson json to object factory */
     public final static Gson gson = new Gson();
     
-    private final RestWeatherQueryEndpoint weatherQueryEndpoint = new RestWeatherQueryEndpoint();
+    private final static RestWeatherQueryEndpoint weatherQueryEndpoint = new RestWeatherQueryEndpoint();
+
+    /** single writer per airport for data points, see {@link IngestPipeline} */
+    private final static IngestPipeline pipeline = IngestPipeline.fromSystemProperties(new IngestPipeline.Sink() {
+        @Override
+        public void apply(AtmosphericInformation ai, String iataCode, Descriptor type, DataPoint dp, long time) {
+            RestWeatherCollectorEndpoint.apply(ai, iataCode, type, dp, time);
+        }
+
+        @Override
+        public void superseded(AtmosphericInformation ai, String iataCode, Descriptor type, DataPoint dp,
+                               long time) {
+            synchronized (ai) {
+                // never stored, but a reading all the same, unless the airport is gone
+                if (!ai.isRemoved()) {
+                    recordHistory(iataCode, type, dp, time);
+                }
+            }
+        }
+    });
     
     private final static String AIRPORT_FILE = "airports.dat"; 
 
+    /** a replica takes its changes from the primary only, see {@link ReplicaFollower} */
+    private final static boolean READ_ONLY = "replica".equals(System.getProperty("weather.replication.role"));
+
+    /** {@link #submit} result for a data point that is not stored */
+    private final static long REJECTED = -2;
+
+    /** the status of an airport refused for lack of memory budget, not in {@link Response.Status} */
+    private final static int INSUFFICIENT_STORAGE = 507;
+
+    /** headers of the current request, null when the endpoint is used directly */
+    @Context
+    private HttpHeaders headers;
+
+    static {
+        AdmissionFilter.setAirportCatalog(iata -> weatherQueryEndpoint.findAirportData(iata) != null);
+    }
+
     public RestWeatherCollectorEndpoint(){
         init();
     }
@@ -47,17 +100,200 @@ public class RestWeatherCollectorEndpoint implements IWeatherCollector {
         return Response.status(Response.Status.OK).entity("ready").build();
     }
 
+    /**
+     * Stores the data point before it returns, as {@link #updateWeather(String, String, String, InputStream)} does
+     * with <code>ack=applied</code>.
+     */
+    @Override
+    public Response updateWeather(String iataCode, String pointType, String datapointJson) {
+        if (READ_ONLY) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        Response routed = route(iataCode, "collect/weather/" + iataCode + "/" + pointType, datapointJson);
+        if (routed != null) {
+            return routed;
+        }
+        try {
+            return storeDataPoint(iataCode, pointType, WireDecoder.decodeDataPoint(datapointJson), true);
+        } catch (MalformedPayloadException e) {
+            return malformed("data point for " + iataCode, e);
+        }
+    }
+
+    /**
+     * The http binding of {@link #updateWeather(String, String, String)}, decoding the data point straight from
+     * the request body. The data point is validated before the response, but by default it is stored shortly after;
+     * with <code>ack=applied</code> the response waits until it is visible to queries. A forwarded update is always
+     * acknowledged once applied on its shard.
+     */
     @POST
     @Path("/weather/{iata}/{pointType}")
-    @Override
     public Response updateWeather(@PathParam("iata") String iataCode,
                                   @PathParam("pointType") String pointType,
-                                  String datapointJson) {
+                                  @QueryParam("ack") String ack,
+                                  InputStream body) {
+        if (READ_ONLY) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        if (misrouted(iataCode)) {
+            return wrongShard();
+        }
         try {
-            addDataPoint(iataCode, pointType, gson.fromJson(datapointJson, DataPoint.class));
-        } catch (WeatherException e) {
-            e.printStackTrace(); /*CR: Exception is not managed correctly, should be logged
-                                       and change status Response to ERROR*/
+            String owner = remoteOwner(iataCode);
+            long t = RequestTrace.begin();
+            if (owner != null) {
+                try {
+                    return ShardCluster.get().forward(owner, "collect/weather/" + iataCode + "/" + pointType,
+                            WireDecoder.readString(body));
+                } finally {
+                    RequestTrace.end("forward", t);
+                }
+            }
+            boolean applied = "applied".equals(ack) || ShardCluster.isForwarded(headers);
+            DataPoint dp = WireDecoder.decodeDataPoint(body);
+            RequestTrace.end("decode", t);
+            return storeDataPoint(iataCode, pointType, dp, applied);
+        } catch (MalformedPayloadException | IOException e) {
+            return malformed("data point for " + iataCode, e);
+        }
+    }
+
+    /**
+     * Store a batch of data points in one request, as sent by the client SDK. Every entry is handled as a single
+     * update would be, including forwarding to its shard; <code>ack=applied</code> waits for all of them.
+     *
+     * @param ack <code>applied</code> to answer once the data points are visible to queries
+     * @param updatesJson a json list of {@link WeatherUpdate}
+     * @return a json list with the status of every entry in order: 200, or 400, 404, 409 or 429 as for a single update
+     */
+    @POST
+    @Path("/weather")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response updateWeatherBatch(@QueryParam("ack") String ack, String updatesJson) {
+        if (READ_ONLY) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        WeatherUpdate[] updates;
+        long t = RequestTrace.begin();
+        try {
+            updates = gson.fromJson(updatesJson, WeatherUpdate[].class);
+        } catch (JsonParseException e) {
+            return malformed("weather batch", e);
+        } finally {
+            RequestTrace.end("decode", t);
+        }
+        if (updates == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        int[] statuses = new int[updates.length];
+        long[] tickets = new long[updates.length];
+        for (int i = 0; i < updates.length; i++) {
+            WeatherUpdate u = updates[i];
+            tickets[i] = REJECTED;
+            if (u == null || u.getIata() == null || u.getPointType() == null || u.getDataPoint() == null) {
+                statuses[i] = Response.Status.BAD_REQUEST.getStatusCode();
+            } else if (AdmissionFilter.overIataQuota(u.getIata())) {
+                statuses[i] = 429;
+            } else if (misrouted(u.getIata())) {
+                statuses[i] = Response.Status.CONFLICT.getStatusCode();
+            } else {
+                String owner = remoteOwner(u.getIata());
+                t = RequestTrace.begin();
+                AtmosphericInformation ai = weatherQueryEndpoint.getAtmosphericInformation(u.getIata());
+                RequestTrace.end("lookup", t);
+                if (owner != null) {
+                    t = RequestTrace.begin();
+                    statuses[i] = ShardCluster.get().forward(owner,
+                            "collect/weather/" + u.getIata() + "/" + u.getPointType(), gson.toJson(u.getDataPoint()))
+                            .getStatus();
+                    RequestTrace.end("forward", t);
+                } else if (ai == null) {
+                    statuses[i] = Response.Status.NOT_FOUND.getStatusCode();
+                } else {
+                    t = RequestTrace.begin();
+                    tickets[i] = submit(ai, u.getIata(), u.getPointType(), u.getDataPoint());
+                    RequestTrace.end("submit", t);
+                    statuses[i] = tickets[i] == REJECTED ? Response.Status.BAD_REQUEST.getStatusCode()
+                            : Response.Status.OK.getStatusCode();
+                }
+            }
+        }
+        if ("applied".equals(ack)) {
+            t = RequestTrace.begin();
+            for (long ticket : tickets) {
+                if (ticket != REJECTED) {
+                    pipeline.await(ticket);
+                }
+            }
+            RequestTrace.end("apply", t);
+        }
+        return Response.status(Response.Status.OK).entity(statuses).build();
+    }
+
+    private Response storeDataPoint(String iataCode, String pointType, DataPoint dp, boolean waitApplied) {
+        long t = RequestTrace.begin();
+        AtmosphericInformation ai = weatherQueryEndpoint.getAtmosphericInformation(iataCode);
+        RequestTrace.end("lookup", t);
+        if (ai == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        t = RequestTrace.begin();
+        long ticket = submit(ai, iataCode, pointType, dp);
+        RequestTrace.end("submit", t);
+        if (ticket == REJECTED) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (waitApplied) {
+            t = RequestTrace.begin();
+            pipeline.await(ticket);
+            RequestTrace.end("apply", t);
+        }
+        return Response.status(Response.Status.OK).build();
+    }
+
+    /**
+     * @return a 400 response telling the client what is wrong with its payload
+     */
+    private static Response malformed(String what, Exception e) {
+        LOGGER.log(Level.FINE, "Malformed {0}: {1}", new Object[]{what, e.getMessage()});
+        return Response.status(Response.Status.BAD_REQUEST).type(MediaType.TEXT_PLAIN_TYPE)
+                .entity(e.getMessage()).build();
+    }
+
+    @POST
+    @Path("/observation/{iata}/{pointType}")
+    @Override
+    public Response recordObservations(@PathParam("iata") String iataCode,
+                                       @PathParam("pointType") String pointType,
+                                       String observationsJson) {
+        if (READ_ONLY) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        Response routed = route(iataCode, "collect/observation/" + iataCode + "/" + pointType, observationsJson);
+        if (routed != null) {
+            return routed;
+        }
+        float[] values;
+        long t = RequestTrace.begin();
+        try {
+            values = parseObservations(gson.fromJson(observationsJson, JsonElement.class));
+        } catch (JsonParseException | NumberFormatException | UnsupportedOperationException | IllegalStateException e) {
+            LOGGER.log(Level.FINE, "Malformed observations for " + iataCode, e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        } finally {
+            RequestTrace.end("decode", t);
+        }
+        t = RequestTrace.begin();
+        AtmosphericInformation ai = weatherQueryEndpoint.getAtmosphericInformation(iataCode);
+        RequestTrace.end("lookup", t);
+        if (ai == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        t = RequestTrace.begin();
+        boolean recorded = recordObservations(ai, iataCode, pointType, values);
+        RequestTrace.end("observe", t);
+        if (!recorded) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
         }
         return Response.status(Response.Status.OK).build();
     }
@@ -81,18 +317,52 @@ public class RestWeatherCollectorEndpoint implements IWeatherCollector {
         return Response.status(Response.Status.OK).entity(ad).build();
     }
 
+    @Override
+    public Response addAirport(String iata, String latString, String longString, String airportJson) {
+        if (READ_ONLY) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        try {
+            return storeAirport(iata, latString, longString, WireDecoder.decodeAirport(airportJson));
+        } catch (MalformedPayloadException e) {
+            return malformed("airport " + iata, e);
+        }
+    }
+
+    /**
+     * The http binding of {@link #addAirport(String, String, String, String)}, decoding the airport straight
+     * from the request body.
+     */
     @POST
     @Path("/airport/{iata}/{lat}/{long}")
-    @Override
     public Response addAirport(@PathParam("iata") String iata,
                                @PathParam("lat") String latString,
                                @PathParam("long") String longString,
-                               String airportJson) {
-        
+                               InputStream body) {
+        if (READ_ONLY) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        try {
+            return storeAirport(iata, latString, longString, WireDecoder.decodeAirport(body));
+        } catch (MalformedPayloadException | IOException e) {
+            return malformed("airport " + iata, e);
+        }
+    }
+
+    private Response storeAirport(String iata, String latString, String longString, AirportData airport) {
+        if (airport == null || airport.getIata() == null) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
         try {
-            AirportData ad = weatherQueryEndpoint.addAirport(
-                    gson.fromJson(airportJson, AirportData.class));
+            AirportData ad = weatherQueryEndpoint.addAirport(airport);
+            String airportJson = gson.toJson(ad);
+            log(System.currentTimeMillis(), Change.Op.ADD_AIRPORT, ad.getIata(), null, airportJson);
+            broadcast("POST", "collect/airport/" + iata + "/" + latString + "/" + longString, airportJson);
             return Response.status(Response.Status.OK).entity(ad).build();
+        } catch (MemoryBudgetExceededException ex) {
+            LOGGER.log(Level.WARNING, ex.getMessage());
+            return Response.status(INSUFFICIENT_STORAGE).type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity(ex.getMessage()).build();
         } catch (WeatherException ex) {
             LOGGER.log(Level.SEVERE, null, ex);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).build();
@@ -103,9 +373,15 @@ public class RestWeatherCollectorEndpoint implements IWeatherCollector {
     @Path("/airport/{iata}")
     @Override
     public Response deleteAirport(@PathParam("iata") String iata) {
+        if (READ_ONLY) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
         try {
             AirportData ad = weatherQueryEndpoint.findAirportData(iata);
-            weatherQueryEndpoint.removeAirport(ad);
+            if (weatherQueryEndpoint.removeAirport(ad)) {
+                log(System.currentTimeMillis(), Change.Op.DELETE_AIRPORT, iata, null, null);
+            }
+            broadcast("DELETE", "collect/airport/" + iata, null);
             return Response.status(Response.Status.OK).entity(ad).build();
         } catch (WeatherException ex) {
             LOGGER.log(Level.SEVERE, null, ex);
@@ -117,101 +393,302 @@ public class RestWeatherCollectorEndpoint implements IWeatherCollector {
     // Internal support methods
     //
 
+    /**
+     * Send a collector update on to the shard owning the airport, unless this node owns it or runs alone.
+     *
+     * @param iataCode the airport the update is for
+     * @param path the request path relative to the base url
+     * @param body the request body
+     * @return the owner's response, 409 for an update forwarded to the wrong shard, or null if the update is to be
+     * applied here
+     */
+    private Response route(String iataCode, String path, String body) {
+        if (misrouted(iataCode)) {
+            return wrongShard();
+        }
+        String owner = remoteOwner(iataCode);
+        return owner == null ? null : ShardCluster.get().forward(owner, path, body);
+    }
+
+    /**
+     * @param iataCode the airport an update is for
+     * @return the shard to forward the update to, or null if it is to be applied here
+     */
+    private String remoteOwner(String iataCode) {
+        ShardCluster cluster = ShardCluster.get();
+        if (cluster == null || ShardCluster.isForwarded(headers) || cluster.owns(iataCode)) {
+            return null;
+        }
+        return cluster.owner(iataCode);
+    }
+
+    /**
+     * @param iataCode the airport an update is for
+     * @return true if another node forwarded the update here although this node does not own the airport, as
+     * happens while nodes disagree on the cluster layout; storing it here would put it on the wrong shard
+     */
+    private boolean misrouted(String iataCode) {
+        ShardCluster cluster = ShardCluster.get();
+        return cluster != null && ShardCluster.isForwarded(headers) && !cluster.owns(iataCode);
+    }
+
+    private static Response wrongShard() {
+        return Response.status(Response.Status.CONFLICT).type(MediaType.TEXT_PLAIN_TYPE)
+                .entity("not the shard owning this airport").build();
+    }
+
+    /**
+     * Every node keeps the whole airport catalog, so catalog changes are repeated on all other shards.
+     *
+     * @param method POST or DELETE
+     * @param path the request path relative to the base url
+     * @param body the request body, null for none
+     */
+    private void broadcast(String method, String path, String body) {
+        ShardCluster cluster = ShardCluster.get();
+        if (cluster == null || ShardCluster.isForwarded(headers)) {
+            return;
+        }
+        List<String> failed = cluster.broadcast(method, path, body);
+        if (!failed.isEmpty()) {
+            LOGGER.log(Level.WARNING, "Catalog change {0} {1} not applied on {2}", new Object[]{method, path, failed});
+        }
+    }
+
     /**
      * Update the airports weather data with the collected data.
      *
      * @param iataCode the 3 letter IATA code
-     * @param pointType the point type {@link DataPointType}
+     * @param pointType the point type, see {@link DataPointTypeRegistry}
      * @param dp a datapoint object holding pointType data
      *
-     * @throws WeatherException if the update can not be completed
+     * @return true if the data point was stored, false if the airport or point type is unknown or the data point
+     * is out of range
      */
-    public void addDataPoint(String iataCode, String pointType, DataPoint dp) throws WeatherException {
+    public boolean addDataPoint(String iataCode, String pointType, DataPoint dp) {
         AtmosphericInformation ai = weatherQueryEndpoint.getAtmosphericInformation(iataCode);
-        updateAtmosphericInformation(ai, pointType, dp);
+        return ai != null && updateAtmosphericInformation(ai, iataCode, pointType, dp);
+    }
+
+    /**
+     * @return the ingest pipeline counters, for the query ping
+     */
+    public static Map<String, Object> getIngestStats() {
+        return pipeline.getStats();
     }
 
     /**
-     * update atmospheric information with the given data point for the given point type
+     * update atmospheric information with the given data point for the given point type. Rejected updates are
+     * counted per point type rather than thrown, see {@link DataPointTypeRegistry#getRejectedCounts()}.
      *
      * @param ai the atmospheric information object to update
+     * @param iataCode the airport it belongs to
      * @param pointType the data point type as a string
      * @param dp the actual data point
+     * @return true if the data point was stored
      */
-    public void updateAtmosphericInformation(AtmosphericInformation ai, String pointType, DataPoint dp) throws WeatherException {
-        final DataPointType dptype = DataPointType.valueOf(pointType.toUpperCase());
+    public boolean updateAtmosphericInformation(AtmosphericInformation ai, String iataCode, String pointType,
+                                                DataPoint dp) {
+        long ticket = submit(ai, iataCode, pointType, dp);
+        if (ticket == REJECTED) {
+            return false;
+        }
+        pipeline.await(ticket);
+        return true;
+    }
 
-        if (pointType.equalsIgnoreCase(DataPointType.WIND.name())) {
-            if (dp.getMean() >= 0) {
-                ai.setWind(dp);
-                ai.setLastUpdateTime(System.currentTimeMillis());
-                return;
-            }
+    /**
+     * Validate a data point and queue it for its airport's writer.
+     *
+     * @return the ticket to await the write with, {@link #REJECTED} if the point type is unknown or the data point
+     * out of range
+     */
+    private static long submit(AtmosphericInformation ai, String iataCode, String pointType, DataPoint dp) {
+        Descriptor type = DataPointTypeRegistry.lookup(pointType);
+        if (type == null) {
+            DataPointTypeRegistry.rejectUnknown();
+            return REJECTED;
         }
+        if (!type.accepts(dp)) {
+            type.reject();
+            return REJECTED;
+        }
+        return pipeline.submit(ai, iataCode, type, dp, System.currentTimeMillis());
+    }
 
-        if (pointType.equalsIgnoreCase(DataPointType.TEMPERATURE.name())) {
-            if (dp.getMean() >= -50 && dp.getMean() < 100) {
-                ai.setTemperature(dp);
-                ai.setLastUpdateTime(System.currentTimeMillis());
-                return;
+    /**
+     * Feed raw readings into the sketches of an airport and publish the derived data point when one is due.
+     * Readings outside the range of the point type are dropped and counted as rejected.
+     *
+     * @param ai the atmospheric information of the airport
+     * @param iataCode the airport code
+     * @param pointType the data point type as a string
+     * @param values the readings
+     * @return false if the point type is unknown or no reading was in range
+     */
+    public boolean recordObservations(AtmosphericInformation ai, String iataCode, String pointType, float[] values) {
+        Descriptor type = DataPointTypeRegistry.lookup(pointType);
+        if (type == null) {
+            DataPointTypeRegistry.rejectUnknown();
+            return false;
+        }
+        int accepted = 0;
+        for (float value : values) {
+            if (type.accepts(value)) {
+                values[accepted++] = value;
+            } else {
+                type.reject();
             }
         }
+        if (accepted == 0) {
+            return false;
+        }
+        DataPoint dp = weatherQueryEndpoint.getObservationService()
+                .record(iataCode, type, values, accepted, System.currentTimeMillis());
+        if (dp != null) {
+            pipeline.await(pipeline.submit(ai, iataCode, type, dp, System.currentTimeMillis()));
+        }
+        return true;
+    }
 
-        if (pointType.equalsIgnoreCase(DataPointType.HUMIDTY.name())) {
-            if (dp.getMean() >= 0 && dp.getMean() < 100) {
-                ai.setHumidity(dp);
-                ai.setLastUpdateTime(System.currentTimeMillis());
-                return;
-            }
+    /**
+     * Store a data point the observation service derived from readings it held back, unless the airport was
+     * removed since. Called by its flusher, which does not wait for the write.
+     */
+    static void publishObservation(String iataCode, Descriptor type, DataPoint dp) {
+        AtmosphericInformation ai = weatherQueryEndpoint.getAtmosphericInformation(iataCode);
+        if (ai != null) {
+            pipeline.submit(ai, iataCode, type, dp, System.currentTimeMillis());
         }
+    }
 
-        if (pointType.equalsIgnoreCase(DataPointType.PRESSURE.name())) {
-            if (dp.getMean() >= 650 && dp.getMean() < 800) {
-                ai.setPressure(dp);
-                ai.setLastUpdateTime(System.currentTimeMillis());
-                return;
-            }
+    /**
+     * @param json a single number or an array of numbers
+     * @return the readings
+     */
+    private static float[] parseObservations(JsonElement json) {
+        if (json == null || json.isJsonNull()) {
+            throw new JsonParseException("no observations");
+        }
+        if (!json.isJsonArray()) {
+            return new float[]{json.getAsFloat()};
+        }
+        JsonArray array = json.getAsJsonArray();
+        float[] retval = new float[array.size()];
+        for (int i = 0; i < retval.length; i++) {
+            retval[i] = array.get(i).getAsFloat();
         }
+        return retval;
+    }
 
-        if (pointType.equalsIgnoreCase(DataPointType.CLOUDCOVER.name())) {
-            if (dp.getMean() >= 0 && dp.getMean() < 100) {
-                ai.setCloudCover(dp);
-                ai.setLastUpdateTime(System.currentTimeMillis());
+    /**
+     * Store a validated data point. This is the only write path for data points, called by the writer of the
+     * airport's {@link IngestPipeline} shard, or by the replica follower; the expiry service clears
+     * them under the same lock, so an expiry never overwrites a newer reading. On a primary the point is appended
+     * to the change log under the same lock too, so the log holds the writes to an airport in the order they
+     * were made. The airport moves to the head of the change feed, and the point goes to the grid and the history
+     * if they are kept; the points the pipeline coalesced away go to the history as well. Writes still queued for
+     * an airport that has been removed are dropped, so they can not bring it back to the change feed over its
+     * tombstone, nor to the history, grid or change log.
+     *
+     * @param ai the atmospheric information object to update
+     * @param iataCode the airport it belongs to
+     * @param type the data point type
+     * @param dp the actual data point
+     * @param time the time of the update in milliseconds since UTC epoch
+     */
+    private static void apply(AtmosphericInformation ai, String iataCode, Descriptor type, DataPoint dp, long time) {
+        synchronized (ai) {
+            if (ai.isRemoved()) {
                 return;
             }
+            ai.update(type.getSlot(), dp, time);
+            weatherQueryEndpoint.getExpiryService().scheduleExpiry(ai, iataCode, type);
+            weatherQueryEndpoint.getChangeIndex().touch(iataCode);
+            if (weatherQueryEndpoint.getWeatherGrid() != null) {
+                weatherQueryEndpoint.getWeatherGrid().update(iataCode, type.getSlot(), dp.getMean());
+            }
+            recordHistory(iataCode, type, dp, time);
+            if (weatherQueryEndpoint.getChangeLog() != null) {
+                log(time, Change.Op.WEATHER, iataCode, type.getName(), gson.toJson(dp));
+            }
         }
+    }
 
-        if (pointType.equalsIgnoreCase(DataPointType.PRECIPITATION.name())) {
-            if (dp.getMean() >=0 && dp.getMean() < 100) {
-                ai.setPrecipitation(dp);
-                ai.setLastUpdateTime(System.currentTimeMillis());
-                return;
+    private static void recordHistory(String iataCode, Descriptor type, DataPoint dp, long time) {
+        if (weatherQueryEndpoint.getHistoryStore() != null) {
+            weatherQueryEndpoint.getHistoryStore().record(iataCode, type.getSlot(), time, dp);
+        }
+    }
+
+    private static void log(long time, Change.Op op, String iata, String pointType, String body) {
+        ChangeLog changeLog = weatherQueryEndpoint.getChangeLog();
+        if (changeLog != null) {
+            changeLog.append(time, op, iata, pointType, body);
+        }
+    }
+
+    /**
+     * Apply a change received from the primary. Changes are replayed as they were made, including their time, so
+     * data points age on a replica as they do on the primary.
+     *
+     * @param change a change log or snapshot entry
+     */
+    public void applyChange(Change change) {
+        try {
+            switch (change.getOp()) {
+                case ADD_AIRPORT:
+                    weatherQueryEndpoint.addAirport(WireDecoder.decodeAirport(change.getBody()));
+                    break;
+                case DELETE_AIRPORT:
+                    AirportData ad = weatherQueryEndpoint.findAirportData(change.getIata());
+                    if (ad != null) {
+                        weatherQueryEndpoint.removeAirport(ad);
+                    }
+                    break;
+                case WEATHER:
+                    AtmosphericInformation ai = weatherQueryEndpoint.getAtmosphericInformation(change.getIata());
+                    Descriptor type = DataPointTypeRegistry.lookup(change.getPointType());
+                    if (ai != null && type != null) {
+                        DataPoint dp = WireDecoder.decodeDataPoint(change.getBody());
+                        apply(ai, change.getIata(), type, dp, change.getTime());
+                    }
+                    break;
             }
+        } catch (WeatherException e) {
+            LOGGER.log(Level.SEVERE, "Could not apply change " + change.getSeq(), e);
         }
+    }
 
-        throw new IllegalStateException("couldn't update atmospheric data");
+    /**
+     * Drop the whole store before a replica loads a snapshot of its primary.
+     */
+    void clearForSnapshot() {
+        weatherQueryEndpoint.clear();
     }
 
     /**
-     * A dummy init method that loads hard coded data
+     * Load the airport catalog. The file named by the <code>weather.airports</code> system property is memory
+     * mapped and parsed, in either the airports.dat or the OpenFlights airports.txt layout; without it the
+     * bundled airports.dat is loaded from the class path.
      */
     public void init() {
         weatherQueryEndpoint.clear();
-        InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(AIRPORT_FILE);
-        BufferedReader br = new BufferedReader(new InputStreamReader(is));
-        
+        String airportFile = System.getProperty("weather.airports");
         try {
-            String l = null;
-            while ( (l = br.readLine()) != null) {
-                String[] split = l.split(",");
-                AirportData ad = new AirportData();
-                ad.setIata(split[0]); 
-                ad.setLatitude(Double.valueOf(split[1]));
-                ad.setLongitude(Double.valueOf(split[2]));
-                weatherQueryEndpoint.addAirport(ad);
+            List<AirportData> airports;
+            if (airportFile != null) {
+                airports = AirportFileParser.parse(Paths.get(airportFile));
+            } else {
+                try (InputStream is = Thread.currentThread().getContextClassLoader().getResourceAsStream(AIRPORT_FILE)) {
+                    airports = AirportFileParser.parse(is);
+                }
             }
-        } catch (WeatherException | IOException e) {
-            LOGGER.log(Level.SEVERE, "Error loading airport.dat", e);
+            int added = weatherQueryEndpoint.addAirports(airports);
+            LOGGER.log(Level.INFO, "Loaded {0} airports from {1}",
+                    new Object[]{added, airportFile != null ? airportFile : AIRPORT_FILE});
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error loading " + (airportFile != null ? airportFile : AIRPORT_FILE), e);
         }
     }
 }
@@ -1,23 +1,56 @@
 package com.crossover.trial.weather.service;
 
+import com.crossover.trial.weather.binary.BinaryQueryServer;
+import com.crossover.trial.weather.cluster.ShardCluster;
 import com.crossover.trial.weather.domain.AtmosphericInformation;
 import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.GridWeather;
+import com.crossover.trial.weather.domain.HistoryPoint;
+import com.crossover.trial.weather.domain.PartialSummary;
+import com.crossover.trial.weather.domain.WeatherChanges;
+import com.crossover.trial.weather.domain.WeatherSummary;
+import com.crossover.trial.weather.domain.WeatherTable;
+import com.crossover.trial.weather.exception.MemoryBudgetExceededException;
 import com.crossover.trial.weather.exception.WeatherException;
+import com.crossover.trial.weather.history.HistoryStore;
+import com.crossover.trial.weather.provider.AdmissionFilter;
+import com.crossover.trial.weather.provider.BulkheadHandler;
+import com.crossover.trial.weather.provider.RequestTracer;
+import com.crossover.trial.weather.provider.SmileMessageBodyWriter;
+import com.crossover.trial.weather.replication.Change;
+import com.crossover.trial.weather.replication.ChangeBatch;
+import com.crossover.trial.weather.replication.ChangeLog;
+import com.crossover.trial.weather.util.AirportCodes;
+import com.crossover.trial.weather.util.HeapSize;
+import com.crossover.trial.weather.util.HeavyHitters;
+import com.crossover.trial.weather.util.RequestTrace;
+import com.crossover.trial.weather.util.SingleFlight;
 import com.google.gson.Gson;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The Weather App REST endpoint allows clients to query, update and check health stats. Currently, all data is
- * held in memory. The end point deploys to a single container
+ * held in memory. The end point deploys to a single container, or to several that share the weather state out by
+ * airport, see {@link ShardCluster}.
  *
  * @author code test administrator
  */
@@ -46,18 +79,75 @@ public class RestWeatherQueryEndpoint implements IWeatherQueryEndpoint {
 //     //It is difficult to understand the code, AirportData and AtmosphericInformation should be 
 //     //stored into a Map as HashMap
 //    private final static List<AtmosphericInformation> atmosphericInformation = new LinkedList<>();
-    private final static Map<AirportData, AtmosphericInformation> allAirports = 
-            new HashMap<AirportData, AtmosphericInformation>();
+    private final static Map<AirportData, WeatherTable.Row> allAirports = new ConcurrentHashMap<>();
+
+    /** the rows holding the weather of {@link #allAirports}, off the heap if <code>weather.store.offHeap</code> */
+    private final static WeatherTable weatherTable = WeatherTable.fromSystemProperties();
+
+    /**
+     * Internal performance counter to better understand most requested information. Due to the stateless deployment
+     * architecture we don't want to write this to disk, but will pull it off using a REST request and aggregate with
+     * other performance metrics {@link #ping()}. Counts are approximate and cover the last
+     * <code>weather.frequency.windowMillis</code> (default one hour), in memory fixed whatever the query mix.
+     */
+    private final static HeavyHitters requestFrequency = frequencyCounter();
+
+    /** query radius frequency, by {@value #RADIUS_BUCKET_KM} km bucket */
+    private final static HeavyHitters radiusFreq = frequencyCounter();
+
+    /** width of the radius buckets counted by {@link #radiusFreq} */
+    private static final int RADIUS_BUCKET_KM = 10;
+
+    /** radii from here on are counted in one bucket, it is already half way round the earth */
+    private static final int MAX_RADIUS_KM = 20000;
+
+    /** number of hottest airports and radius buckets reported by the ping */
+    private static final int TOP_N = Integer.getInteger("weather.frequency.topN", 10);
+
+    /** airports per change feed page unless the client asks for fewer */
+    private static final int MAX_CHANGES = Integer.getInteger("weather.changes.maxLimit", 10000);
+
+    /** radius queries from this many km on are streamed */
+    private static final int STREAM_MIN_RADIUS = Integer.getInteger("weather.stream.minRadius", 1000);
+
+    /** airports per weather query page unless the client asks for fewer */
+    private static final int MAX_PAGE = Integer.getInteger("weather.page.maxLimit", 10000);
+
+    /** response header with the cursor of the next page of a paged weather query */
+    public static final String CURSOR = "X-Weather-Cursor";
+
+    /** the airports of this node by their latest change, for the change feed */
+    private final static ChangeIndex changeIndex = new ChangeIndex();
+
+    /** the weather interpolated over the globe, null if <code>weather.grid.cellDegrees</code> is 0 */
+    private final static WeatherGrid weatherGrid = WeatherGrid.fromSystemProperties();
+
+    /** clears data points once they outlive their time to live */
+    private final static WeatherExpiryService expiryService =
+            new WeatherExpiryService(RestWeatherQueryEndpoint::expired);
+
+    /** derives data points from raw readings */
+    private final static ObservationService observationService =
+            new ObservationService(RestWeatherCollectorEndpoint::publishObservation);
+
+    /** the changes published to replicas, null unless this node is a primary */
+    private final static ChangeLog changeLog = ChangeLog.fromSystemProperties();
+
+    /** caps the heap taken by airports */
+    private final static MemoryBudget memoryBudget = new MemoryBudget();
 
     /**
-     * Internal performance counter to better understand most requested information, this map can be improved but
-     * for now provides the basis for future performance optimizations. Due to the stateless deployment architecture
-     * we don't want to write this to disk, but will pull it off using a REST request and aggregate with other
-     * performance metrics {@link #ping()}
+     * joins identical weather queries running at the same time, null if <code>weather.coalesce.waitMillis</code>
+     * is 0
      */
-    private final static Map<AirportData, Integer> requestFrequency = new HashMap<AirportData, Integer>();
+    private final static SingleFlight<String, WeatherAnswer> weatherQueries = singleFlight();
 
-    private final static Map<Double, Integer> radiusFreq = new HashMap<Double, Integer>();
+    /** every data point on disk, null unless <code>weather.history.dir</code> is set */
+    private final static HistoryStore historyStore = HistoryStore.fromSystemProperties();
+
+    /** headers of the current request, null when the endpoint is used directly */
+    @Context
+    private HttpHeaders headers;
 
     /**
      * Retrieve service health including total size of valid data points and request frequency information.
@@ -73,12 +163,7 @@ public class RestWeatherQueryEndpoint implements IWeatherQueryEndpoint {
         int datasize = 0;
         for (AtmosphericInformation ai : allAirports.values()) {
             // we only count recent readings
-            if (ai.getCloudCover() != null
-                || ai.getHumidity() != null
-                || ai.getPressure() != null
-                || ai.getPrecipitation() != null
-                || ai.getTemperature() != null
-                || ai.getWind() != null) {
+            if (ai.hasData()) {
                 // updated in the last day
                 if (ai.getLastUpdateTime() > System.currentTimeMillis() - 86400000) {
                     datasize++;
@@ -87,76 +172,618 @@ public class RestWeatherQueryEndpoint implements IWeatherQueryEndpoint {
         }
         retval.put("datasize", datasize);
 
+        long now = System.currentTimeMillis();
+        long queries = requestFrequency.total(now);
         Map<String, Double> freq = new HashMap<>();
         // fraction of queries
         for (AirportData data : allAirports.keySet()) {
-            double frac = (double)requestFrequency.getOrDefault(data, 0) / requestFrequency.size();
-            freq.put(data.getIata(), frac);
+            freq.put(data.getIata(), fraction(requestFrequency.estimate(data.getIata(), now), queries));
         }
         retval.put("iata_freq", freq);
 
-        int m = radiusFreq.keySet().stream()
-                .max(Double::compare)
-                .orElse(1000.0).intValue() + 1;
+        Map<String, Double> top = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : requestFrequency.top(TOP_N, now).entrySet()) {
+            top.put(e.getKey(), fraction(e.getValue(), queries));
+        }
+        retval.put("iata_top", top);
 
-        int[] hist = new int[m];
-        for (Map.Entry<Double, Integer> e : radiusFreq.entrySet()) {
-            int i = e.getKey().intValue() % 10;
-            hist[i] += e.getValue();
+        Map<String, Double> hist = new LinkedHashMap<>();
+        long radii = radiusFreq.total(now);
+        for (Map.Entry<String, Long> e : radiusFreq.top(TOP_N, now).entrySet()) {
+            hist.put(e.getKey(), fraction(e.getValue(), radii));
         }
         retval.put("radius_freq", hist);
 
+        retval.put("expired", expiryService.getExpiredCounts());
+        retval.put("rejected", DataPointTypeRegistry.getRejectedCounts());
+        retval.put("admission", AdmissionFilter.getStats());
+        retval.put("bulkheads", BulkheadHandler.getStats());
+        retval.put("tracing", RequestTracer.getStats());
+        retval.put("ingest", RestWeatherCollectorEndpoint.getIngestStats());
+        retval.put("memory", getMemoryUsage());
+        if (ShardCluster.get() != null) {
+            retval.put("shard", ShardCluster.get().getSelf());
+        }
+        retval.put("changes", changeIndex.getSequence());
+        if (historyStore != null) {
+            retval.put("history", historyStore.getStats());
+        }
+        if (weatherQueries != null) {
+            Map<String, Long> coalescing = new LinkedHashMap<>();
+            coalescing.put("executions", weatherQueries.getExecutions());
+            coalescing.put("coalesced", weatherQueries.getCoalesced());
+            coalescing.put("behind", weatherQueries.getBehind());
+            coalescing.put("timeouts", weatherQueries.getTimeouts());
+            retval.put("coalescing", coalescing);
+        }
+        if (changeLog != null) {
+            retval.put("replication", Collections.singletonMap("head", changeLog.getHead()));
+        } else if (ReplicaFollower.get() != null) {
+            retval.put("replication", ReplicaFollower.get().getStatus());
+        }
+
         return gson.toJson(retval);
     }
 
     /**
      * Given a query in json format {'iata': CODE, 'radius': km} extracts the requested airport information and
-     * return a list of matching atmosphere information.
+     * return a list of matching atmosphere information, see {@link #get(String, String, String, String)}.
      *
      * @param iata the iataCode
      * @param radiusString the radius in km
      *
      * @return a list of atmospheric information
      */
+    @Override
+    public Response get(String iata, String radiusString) {
+        return get(iata, radiusString, null, null);
+    }
+
+    /**
+     * Return the atmospheric information of an airport and the airports within a radius around it. Identical
+     * queries arriving while one is answered share its answer, serialized once, see {@link WeatherAnswer}. A radius
+     * of <code>weather.stream.minRadius</code> km (default 1000) or more is answered as a {@link WeatherStream}
+     * instead, written while the airports are matched, and is not shared.
+     *
+     * Given a <code>limit</code> or a <code>cursor</code>, a query with a radius is answered a page at a time,
+     * nearest airports first: at most <code>limit</code> airports (at most, and by default,
+     * <code>weather.page.maxLimit</code>, 10000) and, unless it is the last page, the cursor to pass for the next
+     * one in the {@value #CURSOR} header. On a cluster the shards' pages are merged by distance.
+     *
+     * @param iata the iataCode
+     * @param radiusString the radius in km
+     * @param limitString the most airports answered, absent for all of them unless a cursor is given
+     * @param cursorString the cursor returned with the previous page, absent for the first page
+     * @return a list of atmospheric information; 400 for a malformed limit or cursor
+     */
     @GET
     @Path("/weather/{iata}/{radius}")
-    @Produces(MediaType.APPLICATION_JSON)
-    @Override
-    public Response get(@PathParam("iata") String iata, @PathParam("radius") String radiusString) {
+    @Produces({MediaType.APPLICATION_JSON, SmileMessageBodyWriter.APPLICATION_SMILE})
+    public Response get(@PathParam("iata") String iata, @PathParam("radius") String radiusString,
+                        @QueryParam("limit") String limitString, @QueryParam("cursor") String cursorString) {
         double radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.valueOf(radiusString);
-        updateRequestFrequency(iata, radius);
+        String cursor = cursorString == null || cursorString.isEmpty() ? null : cursorString;
+        int limit = 0;
+        if (radius > 0 && (limitString != null || cursor != null)) {
+            try {
+                limit = limitString == null || limitString.isEmpty() ? MAX_PAGE
+                        : Math.min(MAX_PAGE, Integer.parseInt(limitString));
+                if (cursor != null) {
+                    NearestPage.checkCursor(cursor);
+                }
+            } catch (IllegalArgumentException e) {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+            if (limit <= 0) {
+                return Response.status(Response.Status.BAD_REQUEST).build();
+            }
+        }
+        // a query forwarded by another node is only asked for this shard's part, and was counted there
+        boolean forwarded = ShardCluster.isForwarded(headers);
+        if (!forwarded) {
+            long t = RequestTrace.begin();
+            updateRequestFrequency(iata, radius);
+            RequestTrace.end("frequency", t);
+        }
 
+        String key = iata + "/" + radius + (forwarded ? "/local" : "");
+        WeatherAnswer answer;
+        if (limit > 0) {
+            int pageLimit = limit;
+            answer = coalesce(key + "/" + limit + "/" + cursor,
+                    () -> page(iata, radius, radiusString, forwarded, pageLimit, cursor));
+        } else if (headers != null && radius >= STREAM_MIN_RADIUS) {
+            return stream(iata, radius, radiusString, forwarded);
+        } else {
+            answer = coalesce(key, () -> weather(iata, radius, radiusString, forwarded));
+        }
+        return answer.toResponse(headers);
+    }
+
+    private WeatherAnswer coalesce(String key, Supplier<WeatherAnswer> work) {
+        return weatherQueries == null ? work.get() : weatherQueries.execute(key, work);
+    }
+
+    /**
+     * Collect the atmospheric information of a weather query, from the other shards too unless the query was
+     * forwarded by one.
+     */
+    private WeatherAnswer weather(String iata, double radius, String radiusString, boolean forwarded) {
+        ShardCluster cluster = ShardCluster.get();
         List<AtmosphericInformation> answer = new ArrayList<>();
+        Set<String> shards = new LinkedHashSet<>();
+        long t = RequestTrace.begin();
         AirportData airport = findAirportData(iata);
+        RequestTrace.end("lookup", t);
+        t = RequestTrace.begin();
         if (radius == 0) {
             if(airport != null){
-                answer.add(allAirports.get(airport));
+                if (cluster == null || forwarded || cluster.owns(airport.getIata())) {
+                    AtmosphericInformation ai = allAirports.get(airport);
+                    if (ai != null) {
+                        answer.add(ai.copy());
+                    }
+                } else {
+                    shards.add(cluster.owner(airport.getIata()));
+                }
             }
         } else {
-            for (AirportData ad : allAirports.keySet()){
-                if (calculateDistance(airport, ad) <= radius){
-                    AtmosphericInformation ai = allAirports.get(ad);
-                    if (ai.getCloudCover() != null || ai.getHumidity() != null || ai.getPrecipitation() != null
-                       || ai.getPressure() != null || ai.getTemperature() != null || ai.getWind() != null){
-                        answer.add(ai);
-                    }
+            visit(ad -> calculateDistance(airport, ad) <= radius, (ad, ai) -> {
+                if (ai.hasData()) {
+                    answer.add(ai.copy());
+                }
+            }, forwarded ? null : shards);
+        }
+        RequestTrace.end("scan", t);
+        List<String> missing = new ArrayList<>();
+        if (!shards.isEmpty()) {
+            t = RequestTrace.begin();
+            answer.addAll(cluster.gather(shards, "query/weather/" + iata + "/" + radiusString, missing));
+            RequestTrace.end("gather", t);
+        }
+        return new WeatherAnswer(answer, missing);
+    }
+
+
+    /**
+     * One page of a weather query, see {@link NearestPage}. Only the page is kept while the airports are matched;
+     * the atmospheric information is copied once the page is known. A forwarded query answers the airports with
+     * their codes, for the node merging the pages by distance.
+     */
+    private WeatherAnswer page(String iata, double radius, String radiusString, boolean forwarded, int limit,
+                               String cursor) {
+        long t = RequestTrace.begin();
+        AirportData center = findAirportData(iata);
+        RequestTrace.end("lookup", t);
+        if (center == null) {
+            return new WeatherAnswer(Collections.emptyList(), Collections.emptyList());
+        }
+        NearestPage<WeatherChanges.AirportWeather> page = new NearestPage<>(limit, cursor);
+        Set<String> shards = new LinkedHashSet<>();
+        t = RequestTrace.begin();
+        visit(ad -> calculateDistance(center, ad) <= radius, (ad, ai) -> {
+            if (ai.hasData()) {
+                page.offer(calculateDistance(center, ad), ad.getIata(),
+                        new WeatherChanges.AirportWeather(ad.getIata(), ai));
+            }
+        }, forwarded ? null : shards);
+        RequestTrace.end("scan", t);
+        List<String> missing = new ArrayList<>();
+        // a shard filling its page may hold more than it sent
+        boolean shardFull = false;
+        if (!shards.isEmpty()) {
+            t = RequestTrace.begin();
+            String path = "query/weather/" + iata + "/" + radiusString + "?limit=" + limit
+                    + (cursor == null ? "" : "&cursor=" + cursor);
+            Map<String, WeatherChanges.AirportWeather> remote = new HashMap<>();
+            for (WeatherChanges.AirportWeather w : ShardCluster.get().gather(shards, path,
+                    WeatherChanges.AirportWeather[].class, missing)) {
+                remote.put(w.getIata(), w);
+            }
+            shardFull = remote.size() >= limit;
+            for (AirportData ad : allAirports.keySet()) {
+                WeatherChanges.AirportWeather w = remote.get(ad.getIata());
+                if (w != null) {
+                    page.offer(calculateDistance(center, ad), ad.getIata(), w);
                 }
             }
+            RequestTrace.end("gather", t);
+        }
+        if (forwarded) {
+            List<WeatherChanges.AirportWeather> retval = new ArrayList<>();
+            for (WeatherChanges.AirportWeather w : page.getItems()) {
+                retval.add(new WeatherChanges.AirportWeather(w.getIata(), w.getWeather().copy()));
+            }
+            return new WeatherAnswer(retval, missing);
         }
-        return Response.status(Response.Status.OK).entity(answer).build();
+        List<AtmosphericInformation> retval = new ArrayList<>();
+        for (WeatherChanges.AirportWeather w : page.getItems()) {
+            retval.add(w.getWeather().copy());
+        }
+        return new WeatherAnswer(retval, missing, page.isMore() || shardFull ? page.getCursor() : null);
+    }
+
+    /**
+     * Answer a weather query as a {@link WeatherStream}. The other shards' parts are gathered before the response
+     * starts, so that it can name the shards missing; they arrive whole anyway.
+     */
+    private Response stream(String iata, double radius, String radiusString, boolean forwarded) {
+        long t = RequestTrace.begin();
+        AirportData center = findAirportData(iata);
+        RequestTrace.end("lookup", t);
+        Predicate<AirportData> match = ad -> center != null && calculateDistance(center, ad) <= radius;
+        ShardCluster cluster = ShardCluster.get();
+        List<AtmosphericInformation> remote = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        if (cluster != null && !forwarded && center != null) {
+            Set<String> shards = new LinkedHashSet<>();
+            visit(match, (ad, ai) -> { }, shards);
+            if (!shards.isEmpty()) {
+                t = RequestTrace.begin();
+                remote = cluster.gather(shards, "query/weather/" + iata + "/" + radiusString, missing);
+                RequestTrace.end("gather", t);
+            }
+        }
+        List<AtmosphericInformation> others = remote;
+        MediaType type = WeatherAnswer.negotiate(headers);
+        Response.ResponseBuilder response = Response.status(Response.Status.OK).type(type)
+                .entity(new WeatherStream(type, sink -> {
+                    visit(match, (ad, ai) -> {
+                        if (ai.hasData()) {
+                            sink.accept(ai.copy());
+                        }
+                    }, null);
+                    others.forEach(sink);
+                }));
+        if (!missing.isEmpty()) {
+            response.header(ShardCluster.MISSING_SHARDS, String.join(",", missing));
+        }
+        return response.build();
+    }
+
+    /**
+     * Summarize the weather around an airport per point type: count, mean, min, max and quartile estimates over
+     * the airports within the radius, computed on the server.
+     *
+     * @param iata the iataCode of the centre
+     * @param radiusString the radius in km
+     * @return a {@link WeatherSummary}, 404 if the airport is unknown
+     */
+    @GET
+    @Path("/aggregate/{iata}/{radius}")
+    @Produces({MediaType.APPLICATION_JSON, SmileMessageBodyWriter.APPLICATION_SMILE})
+    @Override
+    public Response aggregate(@PathParam("iata") String iata, @PathParam("radius") String radiusString) {
+        double radius = radiusString == null || radiusString.trim().isEmpty() ? 0 : Double.valueOf(radiusString);
+        long t = RequestTrace.begin();
+        AirportData center = findAirportData(iata);
+        RequestTrace.end("lookup", t);
+        if (center == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (!ShardCluster.isForwarded(headers)) {
+            t = RequestTrace.begin();
+            updateRequestFrequency(iata, radius);
+            RequestTrace.end("frequency", t);
+        }
+        return aggregate(ad -> calculateDistance(center, ad) <= radius,
+                "query/aggregate/" + iata + "/" + radiusString);
     }
 
+    /**
+     * Summarize the weather of the airports inside a latitude / longitude box, see
+     * {@link #aggregate(String, String)}. A box with west greater than east crosses the antimeridian.
+     *
+     * @return a {@link WeatherSummary}, 400 if the bounds are not numbers
+     */
+    @GET
+    @Path("/aggregate/box/{south}/{west}/{north}/{east}")
+    @Produces({MediaType.APPLICATION_JSON, SmileMessageBodyWriter.APPLICATION_SMILE})
+    public Response aggregateBox(@PathParam("south") String southString, @PathParam("west") String westString,
+                                 @PathParam("north") String northString, @PathParam("east") String eastString) {
+        double south, west, north, east;
+        try {
+            south = Double.parseDouble(southString);
+            west = Double.parseDouble(westString);
+            north = Double.parseDouble(northString);
+            east = Double.parseDouble(eastString);
+        } catch (NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        return aggregate(ad -> ad.getLatitude() >= south && ad.getLatitude() <= north
+                        && (west <= east
+                            ? ad.getLongitude() >= west && ad.getLongitude() <= east
+                            : ad.getLongitude() >= west || ad.getLongitude() <= east),
+                "query/aggregate/box/" + southString + "/" + westString + "/" + northString + "/" + eastString);
+    }
 
     /**
-     * Records information about how often requests are made
+     * Interpolate the current weather at any point, such as a waypoint, from the airports around it. The answer is
+     * read from the {@link WeatherGrid}, whatever the number of airports. On a cluster every shard keeps the grid
+     * of its own airports; the shards' values are combined by their weights.
+     *
+     * @param latString the latitude in degrees
+     * @param lonString the longitude in degrees
+     * @return the {@link GridWeather}; 400 if the coordinates are not numbers or out of range; 404 if no grid is
+     * kept
+     */
+    @GET
+    @Path("/point/{lat}/{lon}")
+    @Produces({MediaType.APPLICATION_JSON, SmileMessageBodyWriter.APPLICATION_SMILE})
+    public Response point(@PathParam("lat") String latString, @PathParam("lon") String lonString) {
+        double lat, lon;
+        try {
+            lat = Double.parseDouble(latString);
+            lon = Double.parseDouble(lonString);
+        } catch (NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (!(Math.abs(lat) <= 90 && Math.abs(lon) <= 180)) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (weatherGrid == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        GridWeather retval = weatherGrid.lookup(lat, lon);
+        ShardCluster cluster = ShardCluster.get();
+        if (cluster == null || ShardCluster.isForwarded(headers)) {
+            return Response.status(Response.Status.OK).entity(retval).build();
+        }
+        List<String> shards = new ArrayList<>(cluster.getNodes());
+        shards.remove(cluster.getSelf());
+        List<String> missing = new ArrayList<>();
+        for (GridWeather other : cluster.gather(shards, "query/point/" + latString + "/" + lonString,
+                GridWeather[].class, missing)) {
+            retval.merge(other);
+        }
+        Response.ResponseBuilder response = Response.status(Response.Status.OK).entity(retval);
+        if (!missing.isEmpty()) {
+            response.header(ShardCluster.MISSING_SHARDS, String.join(",", missing));
+        }
+        return response.build();
+    }
+
+    /**
+     * Reduce the matching airports as they are visited. Every node holds the whole catalog, so the match count is
+     * local; other shards reduce the airports they hold for the match and send their {@link PartialSummary},
+     * merged here.
+     *
+     * @param match selects the airports
+     * @param path the same query relative to the base url, for the other shards
+     */
+    private Response aggregate(Predicate<AirportData> match, String path) {
+        WeatherAggregator aggregator = new WeatherAggregator();
+        if (ShardCluster.isForwarded(headers)) {
+            // another node is reducing, it only wants this shard's share
+            visit(match, (ad, ai) -> aggregator.add(ai), null);
+            return Response.status(Response.Status.OK).entity(aggregator.getPartial()).build();
+        }
+        Set<String> shards = new LinkedHashSet<>();
+        long t = RequestTrace.begin();
+        int matched = visit(match, (ad, ai) -> aggregator.add(ai), shards);
+        RequestTrace.end("scan", t);
+        List<String> missing = new ArrayList<>();
+        if (!shards.isEmpty()) {
+            t = RequestTrace.begin();
+            for (PartialSummary partial : ShardCluster.get().gather(shards, path, PartialSummary[].class, missing)) {
+                aggregator.merge(partial);
+            }
+            RequestTrace.end("gather", t);
+        }
+        WeatherSummary summary = aggregator.getSummary();
+        summary.setAirports(matched);
+        Response.ResponseBuilder response = Response.status(Response.Status.OK).entity(summary);
+        if (!missing.isEmpty()) {
+            response.header(ShardCluster.MISSING_SHARDS, String.join(",", missing));
+        }
+        return response.build();
+    }
+
+    /**
+     * Poll the airports changed since the last poll, for caches mirroring the weather state. Every change to the
+     * store, a data point written or expired, an airport added or deleted, takes the next number of a sequence
+     * kept by this node; the feed lists each airport changed after <code>since</code> once, with its current
+     * weather, oldest change first. The cost is in the number of airports changed, not the catalog size.
+     *
+     * Start from 0 for every airport, then pass the returned sequence. On a sharded cluster each node lists the
+     * airports it owns under its own sequence, so poll every node.
+     *
+     * @param sinceString the sequence returned by the last poll, 0 or absent for all airports
+     * @param limitString the most airports listed, at most <code>weather.changes.maxLimit</code> (default 10000)
+     * @return the {@link WeatherChanges}; 400 for a malformed number; 410 if the sequence is older than the deletions
+     * remembered or was not handed out by this node, start over from 0 then
+     */
+    @GET
+    @Path("/changes")
+    @Produces({MediaType.APPLICATION_JSON, SmileMessageBodyWriter.APPLICATION_SMILE})
+    public Response changes(@QueryParam("since") String sinceString, @QueryParam("limit") String limitString) {
+        long since;
+        int limit;
+        try {
+            since = sinceString == null || sinceString.isEmpty() ? 0 : Long.parseLong(sinceString);
+            limit = limitString == null || limitString.isEmpty() ? MAX_CHANGES
+                    : Math.min(MAX_CHANGES, Integer.parseInt(limitString));
+        } catch (NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        if (since < 0 || limit <= 0) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        long upTo = changeIndex.getSequence();
+        if (since > upTo || (since > 0 && since < changeIndex.getHorizon())) {
+            return Response.status(Response.Status.GONE).type(MediaType.TEXT_PLAIN_TYPE)
+                    .entity("Sequence " + since + " is not available, start over from 0").build();
+        }
+        List<ChangeIndex.Entry> entries = changeIndex.changes(since, upTo, limit);
+        WeatherChanges retval = new WeatherChanges();
+        for (ChangeIndex.Entry e : entries) {
+            AtmosphericInformation ai = e.isDeleted() ? null : row(e.getIata());
+            if (ai != null) {
+                retval.getUpdated().add(new WeatherChanges.AirportWeather(e.getIata(), ai.copy()));
+            } else {
+                retval.getDeleted().add(e.getIata());
+            }
+        }
+        retval.setMore(entries.size() == limit && entries.get(limit - 1).getSequence() < upTo);
+        retval.setSequence(retval.isMore() ? entries.get(limit - 1).getSequence() : upTo);
+        return Response.status(Response.Status.OK).entity(retval).build();
+    }
+
+    /**
+     * List the data points of one type an airport had over a time range, from the {@link HistoryStore}. Points
+     * older than <code>weather.history.rawRetentionMillis</code> are hourly rollups. On a cluster, a node that does
+     * not own the airport redirects to the owner.
+     *
+     * @param iata the iataCode
+     * @param pointType the data point type
+     * @param fromString the first time wanted in milliseconds since UTC epoch, the last day by default
+     * @param toString the last time wanted, now by default
+     * @return the {@link HistoryPoint}s by time; 400 for a malformed time; 404 if the airport or the point type
+     * is unknown or no history is kept
+     */
+    @GET
+    @Path("/history/{iata}/{pointType}")
+    @Produces({MediaType.APPLICATION_JSON, SmileMessageBodyWriter.APPLICATION_SMILE})
+    public Response history(@PathParam("iata") String iata, @PathParam("pointType") String pointType,
+                            @QueryParam("from") String fromString, @QueryParam("to") String toString) {
+        long from;
+        long to;
+        try {
+            to = toString == null || toString.isEmpty() ? System.currentTimeMillis() : Long.parseLong(toString);
+            from = fromString == null || fromString.isEmpty() ? to - 86400000 : Long.parseLong(fromString);
+        } catch (NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        DataPointTypeRegistry.Descriptor type = DataPointTypeRegistry.lookup(pointType);
+        if (historyStore == null || type == null || row(iata) == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        ShardCluster cluster = ShardCluster.get();
+        if (cluster != null && !cluster.owns(iata)) {
+            return Response.temporaryRedirect(UriBuilder.fromUri(cluster.owner(iata))
+                    .path("query/history/{iata}/{pointType}")
+                    .queryParam("from", from).queryParam("to", to)
+                    .build(iata, pointType)).build();
+        }
+        List<HistoryPoint> retval = historyStore.history(iata, type.getSlot(), from, to);
+        return Response.status(Response.Status.OK).entity(retval).build();
+    }
+
+    /**
+     * @return an airport equal to the known airport with the code, for map lookups without a scan
+     */
+    private static AirportData probe(String iataCode) {
+        AirportData retval = new AirportData();
+        retval.setIata(iataCode);
+        return retval;
+    }
+
+    /**
+     * @return the weather row of the airport with the code, null if the airport is unknown or the code can not be
+     * one
+     */
+    private static WeatherTable.Row row(String iataCode) {
+        if (iataCode == null || iataCode.isEmpty() || iataCode.length() > AirportCodes.MAX_LENGTH) {
+            return null;
+        }
+        try {
+            return allAirports.get(probe(iataCode));
+        } catch (IllegalArgumentException e) {
+            // not an ISO-8859-1 code, so no airport has it
+            return null;
+        }
+    }
+
+    /**
+     * Hand the airport and the airports within the radius held by this node to a consumer, for in-process readers
+     * such as the {@link BinaryQueryServer}. The request is not counted in the request frequencies.
+     *
+     * @param iata the iataCode of the centre
+     * @param radius the radius in km, 0 for the airport alone
+     * @param consumer receives the airports and their atmospheric information
+     * @return false if the airport is unknown
+     */
+    public boolean visitNearby(String iata, double radius, BiConsumer<AirportData, AtmosphericInformation> consumer) {
+        AirportData center = findAirportData(iata);
+        if (center == null) {
+            return false;
+        }
+        if (radius == 0) {
+            ShardCluster cluster = ShardCluster.get();
+            AtmosphericInformation ai = allAirports.get(center);
+            if (ai != null && (cluster == null || cluster.owns(center.getIata()))) {
+                consumer.accept(center, ai);
+            }
+        } else {
+            visit(ad -> calculateDistance(center, ad) <= radius, consumer, null);
+        }
+        return true;
+    }
+
+    /**
+     * Hand the atmospheric information of every matching airport held by this node to a consumer.
+     *
+     * @param match selects the airports
+     * @param local receives the matches this node holds
+     * @param shards collects the other shards holding matches, null to ignore them
+     * @return the number of matching airports, wherever they are held
+     */
+    private int visit(Predicate<AirportData> match, BiConsumer<AirportData, AtmosphericInformation> local,
+                      Set<String> shards) {
+        ShardCluster cluster = ShardCluster.get();
+        int matched = 0;
+        for (Map.Entry<AirportData, WeatherTable.Row> e : allAirports.entrySet()) {
+            AirportData ad = e.getKey();
+            if (match.test(ad)) {
+                matched++;
+                if (cluster == null || cluster.owns(ad.getIata())) {
+                    local.accept(ad, e.getValue());
+                } else if (shards != null) {
+                    shards.add(cluster.owner(ad.getIata()));
+                }
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Records information about how often requests are made. Only queries for known airports are counted.
      *
      * @param iata an iata code
      * @param radius query radius
      */
     public void updateRequestFrequency(String iata, Double radius) {
         AirportData airportData = findAirportData(iata);
-        requestFrequency.put(airportData, requestFrequency.getOrDefault(airportData, 0) + 1);
-        radiusFreq.put(radius, radiusFreq.getOrDefault(radius, 0));
+        if (airportData == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        requestFrequency.add(airportData.getIata(), now);
+        radiusFreq.add(radiusBucket(radius), now);
+    }
+
+    /**
+     * @return the radius bucket label, its lower bound in km with a trailing + for the last one
+     */
+    private static String radiusBucket(double radius) {
+        if (!(radius < MAX_RADIUS_KM)) {
+            return MAX_RADIUS_KM + "+";
+        }
+        return Integer.toString((int) Math.max(0, radius) / RADIUS_BUCKET_KM * RADIUS_BUCKET_KM);
+    }
+
+    private static double fraction(long count, long total) {
+        return total == 0 ? 0 : Math.min(1, (double) count / total);
+    }
+
+    private static SingleFlight<String, WeatherAnswer> singleFlight() {
+        long waitMillis = Long.getLong("weather.coalesce.waitMillis", 1000);
+        return waitMillis > 0 ? new SingleFlight<>(waitMillis) : null;
+    }
+
+    private static HeavyHitters frequencyCounter() {
+        return new HeavyHitters(4, Integer.getInteger("weather.frequency.width", 2048), 64,
+                Long.getLong("weather.frequency.windowMillis", 3600000), 12);
     }
 
     /**
@@ -166,9 +793,8 @@ public class RestWeatherQueryEndpoint implements IWeatherQueryEndpoint {
      * @return airport data or null if not found
      */
      public AirportData findAirportData(String iataCode) {
-        return allAirports.keySet().stream()
-            .filter(ap -> ap.getIata().equals(iataCode))
-            .findFirst().orElse(null);
+        WeatherTable.Row row = row(iataCode);
+        return row == null ? null : row.getAirport();
     }
     /**
      * Haversine distance between two airports.
@@ -206,28 +832,223 @@ public class RestWeatherQueryEndpoint implements IWeatherQueryEndpoint {
      * @param longitude in degrees
      *
      * @return the added airport
+     * @throws MemoryBudgetExceededException if a new airport does not fit into the memory budget
      */
     public AirportData addAirport(AirportData ad) throws WeatherException {
-        AtmosphericInformation ai = new AtmosphericInformation();
+        if (allAirports.containsKey(ad)) {
+            return ad;
+        }
+        if (!memoryBudget.reserve(ad)) {
+            throw new MemoryBudgetExceededException("No memory budget left for airport " + ad.getIata());
+        }
         try{
-            if(!allAirports.containsKey(ad)){
-                allAirports.put(ad, ai);
-            } else{
-                ai = allAirports.get(ad);
-                allAirports.replace(ad, ai);
-            }
+            claim(ad);
         return ad;
         } catch(Exception e){
             LOGGER.log(Level.SEVERE, "Error adding an airport: "+ ad.getIata(), e);
             throw new WeatherException("Error adding an airport: "+ ad.getIata(), e);
         }
     }
+    /**
+     * Add a batch of airports, typically a whole catalog at startup. Airports without an IATA code can not be
+     * queried and are skipped, as are codes already known. Once the memory budget is used up the remaining
+     * airports are refused.
+     *
+     * @param airports the airports to add
+     * @return the number of airports added
+     */
+    public int addAirports(Collection<AirportData> airports) {
+        int added = 0;
+        int refused = 0;
+        for (AirportData ad : airports) {
+            if (ad.getIata() != null && !allAirports.containsKey(ad)) {
+                if (memoryBudget.reserve(ad)) {
+                    if (claim(ad)) {
+                        added++;
+                    }
+                } else {
+                    refused++;
+                }
+            }
+        }
+        if (refused > 0) {
+            LOGGER.log(Level.WARNING, "Memory budget of {0} bytes reached, {1} airports refused",
+                    new Object[]{memoryBudget.getStoreBytes(), refused});
+        }
+        return added;
+    }
+
+    /**
+     * Give a reserved airport its row, unless another request added it meanwhile; the row and the reservation of
+     * the loser are handed back.
+     *
+     * @return true if the airport was added by this call
+     */
+    private boolean claim(AirportData ad) {
+        WeatherTable.Row row = weatherTable.allocate(ad);
+        if (allAirports.putIfAbsent(ad, row) == null) {
+            stamp(ad);
+            return true;
+        }
+        weatherTable.free(row);
+        memoryBudget.release(ad);
+        return false;
+    }
+
+    /**
+     * Put a new airport on the change feed and the weather grid, if this node owns it; the feed of a shard lists
+     * its own airports only, and its grid holds their weather only.
+     */
+    private static void stamp(AirportData ad) {
+        ShardCluster cluster = ShardCluster.get();
+        if (cluster == null || cluster.owns(ad.getIata())) {
+            changeIndex.touch(ad.getIata());
+            if (weatherGrid != null) {
+                weatherGrid.addAirport(ad);
+            }
+        }
+    }
+
+    /**
+     * A data point expired: the airport moves to the head of the change feed and leaves the grid for the type.
+     */
+    private static void expired(String iataCode, int slot) {
+        changeIndex.touch(iataCode);
+        if (weatherGrid != null) {
+            weatherGrid.update(iataCode, slot, Double.NaN);
+        }
+    }
+
+    /**
+     * Estimate the heap taken by each structure of the store, see {@link MemoryBudget}. Walks all airports.
+     *
+     * @return estimated bytes of the airports, their weather, the pending expiry deadlines, the history sketches and
+     * unflushed history, the request statistics, the replication log, the change feed index and the weather grid,
+     * with their total, then the budgets and what they refused or evicted; the weather kept off the heap is listed
+     * after the total
+     */
+    public Map<String, Long> getMemoryUsage() {
+        long airports = 0;
+        for (AirportData ad : allAirports.keySet()) {
+            airports += MemoryBudget.airportBytes(ad);
+        }
+        airports += HeapSize.hashMap(allAirports.size());
+        long weather = allAirports.size() * WeatherTable.handleBytes() + weatherTable.heapBytes();
+        long expiry = expiryService.estimateBytes();
+        long history = observationService.estimateBytes()
+                + (historyStore != null ? historyStore.estimateHeadBytes() : 0);
+        long statistics = requestFrequency.estimateBytes() + radiusFreq.estimateBytes();
+        long replication = changeLog != null ? changeLog.estimateBytes() : 0;
+        long changes = changeIndex.estimateBytes();
+        long grid = weatherGrid != null ? weatherGrid.estimateBytes() : 0;
+
+        Map<String, Long> retval = new LinkedHashMap<>();
+        retval.put("airports", airports);
+        retval.put("weather", weather);
+        retval.put("expiry", expiry);
+        retval.put("history", history);
+        retval.put("statistics", statistics);
+        retval.put("changelog", replication);
+        retval.put("changefeed", changes);
+        retval.put("grid", grid);
+        retval.put("total", airports + weather + expiry + history + statistics + replication + changes + grid);
+        retval.put("weather_offheap", weatherTable.offHeapBytes());
+        retval.put("store_reserved", memoryBudget.getReservedBytes());
+        retval.put("store_budget", memoryBudget.getStoreBytes());
+        retval.put("history_budget", observationService.getHistoryBudget());
+        retval.put("refused_airports", memoryBudget.getRefusedCount());
+        retval.put("evicted_history", observationService.getEvictedCount());
+        return retval;
+    }
+
+    /**
+     * @return the index of the change feed
+     */
+    public ChangeIndex getChangeIndex() {
+        return changeIndex;
+    }
+
+    /**
+     * @return the service expiring stale data points
+     */
+    public WeatherExpiryService getExpiryService() {
+        return expiryService;
+    }
+
+    /**
+     * @return the change log published to replicas, null unless this node is a replication primary
+     */
+    public ChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * @return the weather grid, null if disabled
+     */
+    public WeatherGrid getWeatherGrid() {
+        return weatherGrid;
+    }
+
+    /**
+     * @return the store of past data points, null unless <code>weather.history.dir</code> is set
+     */
+    public HistoryStore getHistoryStore() {
+        return historyStore;
+    }
+
+    /**
+     * @return the service keeping sketches of raw readings
+     */
+    public ObservationService getObservationService() {
+        return observationService;
+    }
+
+    /**
+     * The whole store as change entries, for a replica to start from. The change log head is taken first, so
+     * replaying the log after it on top of the snapshot yields the current state.
+     *
+     * @return the snapshot, or null unless this node is a replication primary
+     */
+    public ChangeBatch snapshot() {
+        if (changeLog == null) {
+            return null;
+        }
+        long head = changeLog.getHead();
+        List<Change> changes = new ArrayList<>();
+        for (Map.Entry<AirportData, WeatherTable.Row> e : allAirports.entrySet()) {
+            String iata = e.getKey().getIata();
+            changes.add(new Change(0, 0, Change.Op.ADD_AIRPORT, iata, null, gson.toJson(e.getKey())));
+            AtmosphericInformation ai = e.getValue();
+            synchronized (ai) {
+                for (DataPointTypeRegistry.Descriptor type : DataPointTypeRegistry.all()) {
+                    DataPoint dp = ai.getDataPoint(type.getSlot());
+                    if (dp != null) {
+                        // each point keeps its own time, so it ages on the replica as it does here
+                        changes.add(new Change(0, ai.getUpdateTime(type.getSlot()), Change.Op.WEATHER, iata,
+                                type.getName(), gson.toJson(dp)));
+                    }
+                }
+            }
+        }
+        return new ChangeBatch(head, changes);
+    }
+
     /**
      * Cleans the memory objects
      */
     public void clear(){
+        for (WeatherTable.Row row : allAirports.values()) {
+            weatherTable.free(row);
+        }
         allAirports.clear();
+        memoryBudget.reset();
+        changeIndex.clear();
+        if (weatherGrid != null) {
+            weatherGrid.clear();
+        }
         requestFrequency.clear();
+        radiusFreq.clear();
+        observationService.clear();
     }
     
     /**
@@ -237,24 +1058,32 @@ public class RestWeatherQueryEndpoint implements IWeatherQueryEndpoint {
      */
     @Override
     public AtmosphericInformation getAtmosphericInformation(String iataCode){
-        AirportData ad = findAirportData(iataCode);
-        AtmosphericInformation ai = null;
-        if(ad != null){
-            ai = allAirports.get(ad);
-        }
-        return ai;
+        return row(iataCode);
     }
     
     /**
      * Remove an airport from the list
-     * @param airport
+     * @param airport the airport, null for an unknown one
      * @return true if it was deleted, false if not
      * @throws WeatherException When ocurrs something while removing an element
      */
     public boolean removeAirport(AirportData airport) throws WeatherException{
+        if (airport == null) {
+            return false;
+        }
         try{
-            if(allAirports.containsKey(airport)){
-                allAirports.remove(airport);
+            WeatherTable.Row row = allAirports.remove(airport);
+            if(row != null){
+                weatherTable.free(row);
+                memoryBudget.release(airport);
+                observationService.remove(airport.getIata());
+                if (weatherGrid != null) {
+                    weatherGrid.removeAirport(airport);
+                }
+                ShardCluster cluster = ShardCluster.get();
+                if (cluster == null || cluster.owns(airport.getIata())) {
+                    changeIndex.delete(airport.getIata());
+                }
                 return true;
             }
         }catch(Exception e){
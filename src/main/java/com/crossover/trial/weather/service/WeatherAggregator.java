@@ -0,0 +1,122 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+import com.crossover.trial.weather.domain.PartialSummary;
+import com.crossover.trial.weather.domain.WeatherSummary;
+import com.crossover.trial.weather.domain.WeatherSummary.PointSummary;
+import com.crossover.trial.weather.util.KllSketch;
+
+import java.util.Map;
+
+/**
+ * Reduces the atmospheric information of matched airports to a {@link WeatherSummary} as they are visited, without
+ * collecting them first. The means of each point type go into a {@link KllSketch}, so memory is bounded by the
+ * number of point types whatever the number of airports. On a cluster each shard aggregates its own airports and
+ * the node answering merges their {@link PartialSummary partial summaries}. Not thread safe, one aggregator per
+ * query.
+ */
+public class WeatherAggregator {
+
+    /** sketch accuracy, exact up to this many airports per point type */
+    private static final int K = 128;
+
+    private final KllSketch[] sketches = new KllSketch[DataPointTypeRegistry.size()];
+
+    private final long[] readings = new long[DataPointTypeRegistry.size()];
+
+    private int airports;
+
+    /**
+     * @param ai the atmospheric information of a matched airport
+     */
+    public void add(AtmosphericInformation ai) {
+        airports++;
+        synchronized (ai) {
+            for (Descriptor type : DataPointTypeRegistry.all()) {
+                DataPoint dp = ai.getDataPoint(type.getSlot());
+                if (dp != null) {
+                    add(type.getSlot(), dp);
+                }
+            }
+        }
+    }
+
+    private void add(int slot, DataPoint dp) {
+        if (sketches[slot] == null) {
+            sketches[slot] = new KllSketch(K);
+        }
+        sketches[slot].update((float) dp.getMean());
+        readings[slot] += dp.getCount();
+    }
+
+    /**
+     * @return this aggregator's state, for a node aggregating over the whole cluster to {@link #merge}
+     */
+    public PartialSummary getPartial() {
+        PartialSummary retval = new PartialSummary();
+        for (Descriptor type : DataPointTypeRegistry.all()) {
+            KllSketch sketch = sketches[type.getSlot()];
+            if (sketch == null) {
+                continue;
+            }
+            PartialSummary.PointSketch point = new PartialSummary.PointSketch();
+            point.setReadings(readings[type.getSlot()]);
+            point.setK(sketch.getK());
+            point.setCount(sketch.getCount());
+            point.setSum(sketch.getSum());
+            point.setMin(sketch.getMin());
+            point.setMax(sketch.getMax());
+            point.setValues(sketch.getValues());
+            point.setLevelSizes(sketch.getLevelSizes());
+            retval.getPoints().put(type.getName(), point);
+        }
+        return retval;
+    }
+
+    /**
+     * Fold in what another shard aggregated over its own airports. Point types not registered here are skipped.
+     *
+     * @param partial as returned by {@link #getPartial()} on the other shard
+     */
+    public void merge(PartialSummary partial) {
+        for (Map.Entry<String, PartialSummary.PointSketch> e : partial.getPoints().entrySet()) {
+            Descriptor type = DataPointTypeRegistry.lookup(e.getKey());
+            PartialSummary.PointSketch point = e.getValue();
+            if (type == null || point.getValues() == null || point.getLevelSizes() == null) {
+                continue;
+            }
+            KllSketch other = KllSketch.restore(point.getK(), point.getCount(), point.getSum(), point.getMin(),
+                    point.getMax(), point.getValues(), point.getLevelSizes());
+            if (sketches[type.getSlot()] == null) {
+                sketches[type.getSlot()] = new KllSketch(K);
+            }
+            sketches[type.getSlot()].merge(other);
+            readings[type.getSlot()] += point.getReadings();
+        }
+    }
+
+    public WeatherSummary getSummary() {
+        WeatherSummary retval = new WeatherSummary();
+        retval.setAirports(airports);
+        for (Descriptor type : DataPointTypeRegistry.all()) {
+            KllSketch sketch = sketches[type.getSlot()];
+            if (sketch == null) {
+                continue;
+            }
+            PointSummary summary = new PointSummary();
+            summary.setCount(sketch.getCount());
+            summary.setReadings(readings[type.getSlot()]);
+            summary.setMean(sketch.getSum() / sketch.getCount());
+            summary.setMin(sketch.getMin());
+            summary.setMax(sketch.getMax());
+            summary.setFirst(sketch.quantile(0.25));
+            summary.setSecond(sketch.quantile(0.5));
+            summary.setThird(sketch.quantile(0.75));
+            retval.getPoints().put(type.getName(), summary);
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,95 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.cluster.ShardCluster;
+import com.crossover.trial.weather.provider.SmileMessageBodyWriter;
+import com.crossover.trial.weather.util.RequestTrace;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The answer to a weather query, shared by the identical queries coalesced into it. It is serialized once per
+ * media type asked for, by the first request wanting it, and the bytes are handed to every other request; the
+ * serialization, not the lookup, is the bulk of the work for a large radius. A page of a paged query carries the
+ * cursor of the next page, if there is one.
+ */
+class WeatherAnswer {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    /** atmospheric information, or the airports and their weather for another shard merging pages */
+    private final List<?> weather;
+
+    /** the shards that failed to answer */
+    private final List<String> missing;
+
+    /** the cursor of the next page, null if there is none or the query is not paged */
+    private final String cursor;
+
+    private final ConcurrentHashMap<MediaType, byte[]> encoded = new ConcurrentHashMap<>(2);
+
+    WeatherAnswer(List<?> weather, List<String> missing) {
+        this(weather, missing, null);
+    }
+
+    WeatherAnswer(List<?> weather, List<String> missing, String cursor) {
+        this.weather = weather;
+        this.missing = missing;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @param headers the headers of the request, null for in-process callers, which get the list itself
+     * @return the response to a request
+     */
+    Response toResponse(HttpHeaders headers) {
+        Response.ResponseBuilder response;
+        if (headers == null) {
+            response = Response.status(Response.Status.OK).entity(weather);
+        } else {
+            MediaType type = negotiate(headers);
+            response = Response.status(Response.Status.OK).type(type)
+                    .entity(encoded.computeIfAbsent(type, this::encode));
+        }
+        if (!missing.isEmpty()) {
+            response.header(ShardCluster.MISSING_SHARDS, String.join(",", missing));
+        }
+        if (cursor != null) {
+            response.header(RestWeatherQueryEndpoint.CURSOR, cursor);
+        }
+        return response.build();
+    }
+
+    /**
+     * JSON unless Smile is preferred, as the resource declares them.
+     */
+    static MediaType negotiate(HttpHeaders headers) {
+        for (MediaType accepted : headers.getAcceptableMediaTypes()) {
+            if (MediaType.APPLICATION_JSON_TYPE.isCompatible(accepted)) {
+                return MediaType.APPLICATION_JSON_TYPE;
+            }
+            if (SmileMessageBodyWriter.APPLICATION_SMILE_TYPE.isCompatible(accepted)) {
+                return SmileMessageBodyWriter.APPLICATION_SMILE_TYPE;
+            }
+        }
+        return MediaType.APPLICATION_JSON_TYPE;
+    }
+
+    private byte[] encode(MediaType type) {
+        long t = RequestTrace.begin();
+        try {
+            return type.equals(SmileMessageBodyWriter.APPLICATION_SMILE_TYPE)
+                    ? SmileMessageBodyWriter.toBytes(weather) : JSON.writeValueAsBytes(weather);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            RequestTrace.end("serialize", t);
+        }
+    }
+}
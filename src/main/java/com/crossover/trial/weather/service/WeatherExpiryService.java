@@ -0,0 +1,248 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+import com.crossover.trial.weather.util.HeapSize;
+import com.crossover.trial.weather.util.HierarchicalTimerWheel;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Clears data points once they are older than the time to live of their point type. Writers register
+ * every accepted data point with {@link #scheduleExpiry}, a single background thread moves the registrations into a
+ * {@link HierarchicalTimerWheel} and expires them as the wheel turns.
+ *
+ * The wheel holds at most one deadline per airport and point type, whatever the write rate: a write to a slot that
+ * already has one leaves it be, and when it comes due the slot's latest write time decides. A slot written since
+ * goes back into the wheel at the deadline of that write; one that was not is cleared.
+ *
+ * The time to live defaults to one day and can be set with the <code>weather.ttl</code> system property, or per
+ * point type with <code>weather.ttl.wind</code>, <code>weather.ttl.temperature</code>, ... (milliseconds), which
+ * includes point types configured in {@link DataPointTypeRegistry}.
+ */
+public class WeatherExpiryService {
+
+    public final static Logger LOGGER = Logger.getLogger(WeatherExpiryService.class.getName());
+
+    /** default time to live, matches the freshness window used by the query ping */
+    public static final long DEFAULT_TTL = 86400000;
+
+    private static final long TICK_MILLIS = Long.getLong("weather.expiry.tickMillis", 1000);
+
+    private final long[] ttl = new long[DataPointTypeRegistry.size()];
+
+    private final AtomicLongArray expired = new AtomicLongArray(DataPointTypeRegistry.size());
+
+    /** registrations from writer threads, drained by the sweeper before every tick */
+    private final Queue<Expiry> pending = new ConcurrentLinkedQueue<>();
+
+    /** the airports with a deadline pending, each entry changed under the lock of its atmospheric information */
+    private final Map<AtmosphericInformation, Tracked> tracked = new ConcurrentHashMap<>();
+
+    /** deadlines in the wheel or on their way to it */
+    private final AtomicInteger scheduled = new AtomicInteger();
+
+    private final HierarchicalTimerWheel<Expiry> wheel;
+
+    private final ScheduledExecutorService sweeper;
+
+    /** told the airport and slot of every data point expired */
+    private final BiConsumer<String, Integer> onExpired;
+
+    public WeatherExpiryService() {
+        this((iataCode, slot) -> { });
+    }
+
+    /**
+     * @param onExpired called with the airport code and the slot whenever one of its data points expires, under
+     * the lock of its atmospheric information
+     */
+    public WeatherExpiryService(BiConsumer<String, Integer> onExpired) {
+        this(onExpired, true);
+    }
+
+    /**
+     * @param sweeping false to leave calling {@link #sweep(long)} to the caller instead of a background thread
+     */
+    WeatherExpiryService(BiConsumer<String, Integer> onExpired, boolean sweeping) {
+        this.onExpired = onExpired;
+        long defaultTtl = Long.getLong("weather.ttl", DEFAULT_TTL);
+        for (Descriptor type : DataPointTypeRegistry.all()) {
+            ttl[type.getSlot()] = Long.getLong("weather.ttl." + type.getName(), defaultTtl);
+        }
+        wheel = new HierarchicalTimerWheel<>(TICK_MILLIS, System.currentTimeMillis());
+        if (!sweeping) {
+            sweeper = null;
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "weather-expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Register a freshly written data point. Called by writers while they still hold the lock of the
+     * atmospheric information.
+     *
+     * @param ai the atmospheric information the point was written to, with its write time
+     * @param iataCode the airport it belongs to
+     * @param type the point type
+     */
+    public void scheduleExpiry(AtmosphericInformation ai, String iataCode, Descriptor type) {
+        Tracked t = tracked.get(ai);
+        if (t == null) {
+            t = tracked.computeIfAbsent(ai, k -> new Tracked(ai, iataCode));
+        }
+        int slot = type.getSlot();
+        if (t.deadlines[slot] == null) {
+            t.deadlines[slot] = new Expiry(t, slot);
+            scheduled.incrementAndGet();
+            pending.add(t.deadlines[slot]);
+        }
+    }
+
+    /**
+     * @return the number of data points expired so far, per point type
+     */
+    public Map<String, Long> getExpiredCounts() {
+        Map<String, Long> retval = new LinkedHashMap<>();
+        for (Descriptor type : DataPointTypeRegistry.all()) {
+            retval.put(type.getName(), expired.get(type.getSlot()));
+        }
+        return retval;
+    }
+
+    /**
+     * @return the number of airport and point type deadlines pending
+     */
+    public int getScheduledCount() {
+        return scheduled.get();
+    }
+
+    /**
+     * @return the estimated heap taken by the pending deadlines
+     */
+    public long estimateBytes() {
+        int airports = tracked.size();
+        return HeapSize.hashMap(airports)
+                + airports * (HeapSize.object(0, 3) + HeapSize.array(ttl.length, HeapSize.REFERENCE))
+                + scheduled.get() * (HeapSize.object(4, 1) + HierarchicalTimerWheel.entryBytes());
+    }
+
+    /**
+     * @param type the point type
+     * @return the configured time to live in milliseconds
+     */
+    public long getTtl(Descriptor type) {
+        return ttl[type.getSlot()];
+    }
+
+    void sweep() {
+        sweep(System.currentTimeMillis());
+    }
+
+    void sweep(long now) {
+        try {
+            Expiry e;
+            while ((e = pending.poll()) != null) {
+                schedule(e, now);
+            }
+            wheel.advance(now, due -> expire(due, now));
+        } catch (RuntimeException ex) {
+            // never let the scheduled task die
+            LOGGER.log(Level.SEVERE, "Error expiring weather data", ex);
+        }
+    }
+
+    /**
+     * Put a deadline into the wheel at the latest write of its slot, or drop it if the slot is empty.
+     */
+    private void schedule(Expiry e, long now) {
+        AtmosphericInformation ai = e.tracked.ai;
+        synchronized (ai) {
+            long written = ai.getUpdateTime(e.slot);
+            if (written == AtmosphericInformation.NO_UPDATE) {
+                drop(e);
+            } else {
+                wheel.schedule(Math.max(written + ttl[e.slot], now), e);
+            }
+        }
+    }
+
+    private void expire(Expiry e, long now) {
+        AtmosphericInformation ai = e.tracked.ai;
+        synchronized (ai) {
+            long written = ai.getUpdateTime(e.slot);
+            if (written != AtmosphericInformation.NO_UPDATE && written + ttl[e.slot] > now) {
+                // written since the deadline was set, come back at the deadline of the latest write
+                pending.add(e);
+                return;
+            }
+            if (written != AtmosphericInformation.NO_UPDATE) {
+                ai.setDataPoint(e.slot, null);
+                expired.incrementAndGet(e.slot);
+                onExpired.accept(e.tracked.iataCode, e.slot);
+            }
+            drop(e);
+        }
+    }
+
+    /**
+     * Forget a deadline, and its airport once it has none left. Called under the lock of the airport's
+     * atmospheric information, as the writers registering deadlines are.
+     */
+    private void drop(Expiry e) {
+        Tracked t = e.tracked;
+        t.deadlines[e.slot] = null;
+        scheduled.decrementAndGet();
+        for (Expiry other : t.deadlines) {
+            if (other != null) {
+                return;
+            }
+        }
+        tracked.remove(t.ai);
+    }
+
+    /**
+     * The deadlines pending for one airport, one slot per point type.
+     */
+    private static final class Tracked {
+        final AtmosphericInformation ai;
+        final String iataCode;
+        final Expiry[] deadlines = new Expiry[DataPointTypeRegistry.size()];
+
+        Tracked(AtmosphericInformation ai, String iataCode) {
+            this.ai = ai;
+            this.iataCode = iataCode;
+        }
+    }
+
+    /**
+     * The deadline of one point type of an airport, reused as long as the slot keeps being written.
+     */
+    private static final class Expiry {
+        final Tracked tracked;
+        final int slot;
+
+        Expiry(Tracked tracked, int slot) {
+            this.tracked = tracked;
+            this.slot = slot;
+        }
+    }
+}
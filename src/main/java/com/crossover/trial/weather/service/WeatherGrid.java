@@ -0,0 +1,367 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+import com.crossover.trial.weather.domain.GridWeather;
+import com.crossover.trial.weather.domain.GridWeather.GridValue;
+import com.crossover.trial.weather.util.AirportCodes;
+import com.crossover.trial.weather.util.HeapSize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A latitude / longitude raster of the current weather, for the weather at points that are not airports. The value
+ * of a point type in a cell is the inverse distance weighted mean of the airports within
+ * <code>weather.grid.radiusKm</code> (default 250) of its centre, weighted by the distance to the power
+ * <code>weather.grid.power</code> (default 2).
+ *
+ * Every cell keeps the weighted sum of the airports' means, the sum of their weights and their number, so a new
+ * data point only updates the cells within reach of its airport, by the difference to the point it replaces; the
+ * cells and weights of an airport are computed once, when it is added. Reading a cell is a lookup by index.
+ *
+ * The cells are <code>weather.grid.cellDegrees</code> (default 1, 0 for no grid) on a side; a raster takes 20
+ * bytes per cell and point type, allocated on the type's first data point. If the rasters of all point types
+ * would take more than <code>weather.grid.maxBytes</code> (default 64MB, 0 for no limit) the cells are made
+ * coarser until they fit.
+ */
+public class WeatherGrid {
+
+    private final static Logger LOGGER = Logger.getLogger(WeatherGrid.class.getName());
+
+    /** airports closer to a cell centre count as this far, so an airport in the middle does not take it over */
+    private static final double MIN_DISTANCE_KM = 1;
+
+    private static final int CELL_BYTES = 8 + 8 + 4;
+
+    private final double cellDegrees;
+
+    private final int rows;
+
+    private final int columns;
+
+    private final double radiusKm;
+
+    private final double power;
+
+    /** the raster of each point type by slot, null until the type's first data point */
+    private final AtomicReferenceArray<Layer> layers = new AtomicReferenceArray<>(DataPointTypeRegistry.size());
+
+    /** the reach of every airport by packed IATA code */
+    private final Map<Integer, Footprint> footprints = new ConcurrentHashMap<>();
+
+    /**
+     * @param cellDegrees the side of a cell in degrees
+     * @param radiusKm the distance up to which an airport counts for a cell
+     * @param power the power of the distance weights
+     */
+    public WeatherGrid(double cellDegrees, double radiusKm, double power) {
+        this.cellDegrees = cellDegrees;
+        this.rows = (int) Math.ceil(180 / cellDegrees);
+        this.columns = (int) Math.ceil(360 / cellDegrees);
+        this.radiusKm = radiusKm;
+        this.power = power;
+    }
+
+    /**
+     * @return the grid configured by the <code>weather.grid.*</code> system properties, null if disabled
+     */
+    public static WeatherGrid fromSystemProperties() {
+        double cellDegrees = Double.parseDouble(System.getProperty("weather.grid.cellDegrees", "1"));
+        if (cellDegrees <= 0) {
+            return null;
+        }
+        long maxBytes = Long.getLong("weather.grid.maxBytes", 64L << 20);
+        double configured = cellDegrees;
+        while (maxBytes > 0 && cellDegrees < 180 && layerBytes(cellDegrees) * DataPointTypeRegistry.size() > maxBytes) {
+            cellDegrees *= 2;
+        }
+        if (cellDegrees != configured) {
+            LOGGER.log(Level.WARNING, "Weather grid of {0} degree cells does not fit into {1} bytes, using {2}",
+                    new Object[]{configured, maxBytes, cellDegrees});
+        }
+        return new WeatherGrid(cellDegrees,
+                Double.parseDouble(System.getProperty("weather.grid.radiusKm", "250")),
+                Double.parseDouble(System.getProperty("weather.grid.power", "2")));
+    }
+
+    private static long layerBytes(double cellDegrees) {
+        return (long) Math.ceil(180 / cellDegrees) * (long) Math.ceil(360 / cellDegrees) * CELL_BYTES;
+    }
+
+    /**
+     * Work out the cells an airport reaches. Only airports added here contribute to the grid.
+     */
+    public void addAirport(AirportData ad) {
+        footprints.computeIfAbsent(ad.getPackedIata(), code -> footprint(ad.getLatitude(), ad.getLongitude()));
+    }
+
+    /**
+     * Take an airport's data points out of the grid and forget it.
+     */
+    public void removeAirport(AirportData ad) {
+        Footprint footprint = footprints.remove(ad.getPackedIata());
+        if (footprint == null) {
+            return;
+        }
+        footprint.removed = true;
+        for (int slot = 0; slot < layers.length(); slot++) {
+            Layer layer = layers.get(slot);
+            if (layer != null) {
+                long stamp = layer.lock.writeLock();
+                try {
+                    footprint.set(layer, slot, Double.NaN);
+                } finally {
+                    layer.lock.unlockWrite(stamp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the mean of a point type reported by an airport, updating the cells it reaches.
+     *
+     * @param iataCode the airport
+     * @param slot the slot of the point type
+     * @param mean the new mean, NaN once the airport no longer reports the point type
+     */
+    public void update(String iataCode, int slot, double mean) {
+        Footprint footprint = footprints.get(AirportCodes.pack(iataCode));
+        if (footprint == null) {
+            return;
+        }
+        Layer layer = layer(slot);
+        long stamp = layer.lock.writeLock();
+        try {
+            // the airport may have been removed since it was looked up, its points are gone then
+            if (!footprint.removed) {
+                footprint.set(layer, slot, mean);
+            }
+        } finally {
+            layer.lock.unlockWrite(stamp);
+        }
+    }
+
+    private Layer layer(int slot) {
+        Layer layer = layers.get(slot);
+        if (layer == null) {
+            layers.compareAndSet(slot, null, new Layer(rows * columns));
+            layer = layers.get(slot);
+        }
+        return layer;
+    }
+
+    /**
+     * @param latitude in degrees
+     * @param longitude in degrees
+     * @return the weather interpolated for the cell holding the point
+     */
+    public GridWeather lookup(double latitude, double longitude) {
+        int row = row(latitude);
+        int column = column(longitude);
+        int cell = row * columns + column;
+        GridWeather retval = new GridWeather();
+        retval.setLatitude(centerLatitude(row));
+        retval.setLongitude(centerLongitude(column));
+        for (Descriptor type : DataPointTypeRegistry.all()) {
+            Layer layer = layers.get(type.getSlot());
+            if (layer == null) {
+                continue;
+            }
+            long stamp = layer.lock.tryOptimisticRead();
+            double sum = layer.sums[cell];
+            double weight = layer.weights[cell];
+            int airports = layer.airports[cell];
+            if (!layer.lock.validate(stamp)) {
+                stamp = layer.lock.readLock();
+                try {
+                    sum = layer.sums[cell];
+                    weight = layer.weights[cell];
+                    airports = layer.airports[cell];
+                } finally {
+                    layer.lock.unlockRead(stamp);
+                }
+            }
+            if (airports > 0) {
+                retval.getPoints().put(type.getName(), new GridValue(sum / weight, weight, airports));
+            }
+        }
+        return retval;
+    }
+
+    private int row(double latitude) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((latitude + 90) / cellDegrees)));
+    }
+
+    private int column(double longitude) {
+        return Math.floorMod((int) Math.floor((longitude + 180) / cellDegrees), columns);
+    }
+
+    private double centerLatitude(int row) {
+        return Math.min(90, -90 + (row + 0.5) * cellDegrees);
+    }
+
+    private double centerLongitude(int column) {
+        return Math.min(180, -180 + (column + 0.5) * cellDegrees);
+    }
+
+    /**
+     * The cells within the radius of a point, always including its own, and their weights.
+     */
+    private Footprint footprint(double latitude, double longitude) {
+        double radiusDegrees = Math.toDegrees(radiusKm / RestWeatherQueryEndpoint.R);
+        int own = row(latitude) * columns + column(longitude);
+        List<Integer> cells = new ArrayList<>();
+        List<Double> weights = new ArrayList<>();
+        for (int row = row(latitude - radiusDegrees); row <= row(latitude + radiusDegrees); row++) {
+            double centerLatitude = centerLatitude(row);
+            // the widest span of longitudes in reach, from the parallel closest to the pole
+            double cos = Math.cos(Math.toRadians(Math.min(90, Math.max(Math.abs(latitude), Math.abs(centerLatitude))
+                    + cellDegrees)));
+            double span = cos <= 0 ? 180 : radiusDegrees / cos + cellDegrees;
+            int from = span >= 180 ? 0 : (int) Math.floor((longitude - span + 180) / cellDegrees);
+            int to = span >= 180 ? columns - 1 : Math.min(from + columns - 1,
+                    (int) Math.floor((longitude + span + 180) / cellDegrees));
+            for (int c = from; c <= to; c++) {
+                int column = Math.floorMod(c, columns);
+                int cell = row * columns + column;
+                double distance = distance(latitude, longitude, centerLatitude, centerLongitude(column));
+                if (distance <= radiusKm || cell == own) {
+                    cells.add(cell);
+                    weights.add(1 / Math.pow(Math.max(MIN_DISTANCE_KM, distance), power));
+                }
+            }
+        }
+        Footprint retval = new Footprint(cells.size(), layers.length());
+        for (int i = 0; i < cells.size(); i++) {
+            retval.cells[i] = cells.get(i);
+            retval.weights[i] = weights.get(i);
+        }
+        return retval;
+    }
+
+    /**
+     * Haversine distance between two points in km.
+     */
+    private static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double deltaLat = Math.toRadians(latitude2 - latitude1);
+        double deltaLon = Math.toRadians(longitude2 - longitude1);
+        double a = Math.pow(Math.sin(deltaLat / 2), 2) + Math.pow(Math.sin(deltaLon / 2), 2)
+                * Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2));
+        return RestWeatherQueryEndpoint.R * 2 * Math.asin(Math.sqrt(Math.min(1, a)));
+    }
+
+    /**
+     * @return the side of a cell in degrees, after fitting the grid into its memory limit
+     */
+    public double getCellDegrees() {
+        return cellDegrees;
+    }
+
+    /**
+     * @return the estimated heap taken by the rasters and the airport footprints, see {@link HeapSize}
+     */
+    public long estimateBytes() {
+        long retval = 0;
+        for (int slot = 0; slot < layers.length(); slot++) {
+            if (layers.get(slot) != null) {
+                retval += HeapSize.object(0, 4) + HeapSize.object(12, 5) + 2 * HeapSize.array(rows * columns, 8)
+                        + HeapSize.array(rows * columns, 4);
+            }
+        }
+        retval += HeapSize.hashMap(footprints.size());
+        for (Footprint footprint : footprints.values()) {
+            retval += HeapSize.object(4, 0) + HeapSize.object(1, 3) + HeapSize.array(footprint.cells.length, 4)
+                    + HeapSize.array(footprint.weights.length, 8) + HeapSize.array(footprint.means.length, 8);
+        }
+        return retval;
+    }
+
+    /**
+     * Forget all airports and data points.
+     */
+    public void clear() {
+        footprints.clear();
+        for (int slot = 0; slot < layers.length(); slot++) {
+            layers.set(slot, null);
+        }
+    }
+
+    /**
+     * The raster of one point type; changed under the write lock, read optimistically.
+     */
+    private static final class Layer {
+
+        final StampedLock lock = new StampedLock();
+
+        final double[] sums;
+
+        final double[] weights;
+
+        final int[] airports;
+
+        Layer(int cells) {
+            sums = new double[cells];
+            weights = new double[cells];
+            airports = new int[cells];
+        }
+    }
+
+    /**
+     * The cells an airport reaches with their weights, and its current means, each guarded by the lock of the
+     * layer of its slot.
+     */
+    private static final class Footprint {
+
+        final int[] cells;
+
+        final double[] weights;
+
+        final double[] means;
+
+        volatile boolean removed;
+
+        Footprint(int size, int slots) {
+            cells = new int[size];
+            weights = new double[size];
+            means = new double[slots];
+            Arrays.fill(means, Double.NaN);
+        }
+
+        void set(Layer layer, int slot, double mean) {
+            double old = means[slot];
+            boolean had = !Double.isNaN(old);
+            boolean has = !Double.isNaN(mean);
+            if (!had && !has) {
+                return;
+            }
+            for (int i = 0; i < cells.length; i++) {
+                int cell = cells[i];
+                double weight = weights[i];
+                if (had && has) {
+                    layer.sums[cell] += weight * (mean - old);
+                } else if (has) {
+                    layer.sums[cell] += weight * mean;
+                    layer.weights[cell] += weight;
+                    layer.airports[cell]++;
+                } else if (--layer.airports[cell] == 0) {
+                    // start over from exact zeros, the sums of the last airports never cancel out exactly
+                    layer.sums[cell] = 0;
+                    layer.weights[cell] = 0;
+                } else {
+                    layer.sums[cell] -= weight * old;
+                    layer.weights[cell] -= weight;
+                }
+            }
+            means[slot] = mean;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.provider.SmileMessageBodyWriter;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * The answer to a large weather query written while the airports are matched: each atmospheric information is
+ * encoded into the response as it is handed over and then dropped, so neither the list nor the document is ever
+ * held whole. The container sends the response chunked once it outgrows its buffer. The document is the same
+ * array a buffered answer holds.
+ */
+class WeatherStream implements StreamingOutput {
+
+    /** no flush per element, the generator and the container buffer the writes */
+    private static final ObjectWriter JSON = new ObjectMapper().writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private static final ObjectWriter SMILE = SmileMessageBodyWriter.writer()
+            .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    /**
+     * Hands the atmospheric information of the answer over, on the thread writing the response.
+     */
+    interface Source {
+
+        void forEach(Consumer<AtmosphericInformation> sink);
+    }
+
+    private final ObjectWriter writer;
+
+    private final Source source;
+
+    /**
+     * @param type JSON or Smile
+     * @param source the atmospheric information to write
+     */
+    WeatherStream(MediaType type, Source source) {
+        this.writer = type.equals(SmileMessageBodyWriter.APPLICATION_SMILE_TYPE) ? SMILE : JSON;
+        this.source = source;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        JsonGenerator generator = writer.getFactory().createGenerator(output);
+        // the container owns the stream
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.writeStartArray();
+        try {
+            source.forEach(ai -> {
+                try {
+                    writer.writeValue(generator, ai);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        generator.writeEndArray();
+        generator.close();
+    }
+}
@@ -0,0 +1,76 @@
+package com.crossover.trial.weather.util;
+
+/**
+ * Packs IATA (3 letter) and ICAO (4 letter) airport codes into a single int, one ISO-8859-1 character per byte,
+ * first character in the lowest byte. A packed code of 0 stands for a missing code.
+ */
+public final class AirportCodes {
+
+    public static final int MAX_LENGTH = 4;
+
+    private AirportCodes() { }
+
+    /**
+     * @param code an airport code of at most four characters, may be null
+     * @return the packed code, 0 for null or empty codes
+     * @throws IllegalArgumentException if the code is too long or holds characters outside ISO-8859-1
+     */
+    public static int pack(String code) {
+        if (code == null) {
+            return 0;
+        }
+        int length = code.length();
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("airport code longer than " + MAX_LENGTH + " characters: " + code);
+        }
+        int packed = 0;
+        for (int i = 0; i < length; i++) {
+            char c = code.charAt(i);
+            if (c == 0 || c > 0xFF) {
+                throw new IllegalArgumentException("invalid character in airport code: " + code);
+            }
+            packed |= c << (8 * i);
+        }
+        return packed;
+    }
+
+    /**
+     * @param packed a code created by {@link #pack(String)}
+     * @return the code as a string, null for 0
+     */
+    public static String unpack(int packed) {
+        if (packed == 0) {
+            return null;
+        }
+        char[] chars = new char[MAX_LENGTH];
+        int length = 0;
+        while (length < MAX_LENGTH && (packed >>> (8 * length)) != 0) {
+            chars[length] = (char) ((packed >>> (8 * length)) & 0xFF);
+            length++;
+        }
+        return new String(chars, 0, length);
+    }
+
+    /**
+     * Compare a packed code with a string without unpacking it.
+     *
+     * @param packed a packed code
+     * @param code the code to compare with, may be null
+     * @return true if both denote the same code
+     */
+    public static boolean matches(int packed, String code) {
+        if (code == null) {
+            return packed == 0;
+        }
+        int length = code.length();
+        if (length > MAX_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (((packed >>> (8 * i)) & 0xFF) != code.charAt(i)) {
+                return false;
+            }
+        }
+        return length == MAX_LENGTH || (packed >>> (8 * length)) == 0;
+    }
+}
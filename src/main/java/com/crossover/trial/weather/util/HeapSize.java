@@ -0,0 +1,80 @@
+package com.crossover.trial.weather.util;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Estimates of the heap taken by objects, from the HotSpot object layout: a header, the fields and 8 byte alignment.
+ * References take 4 bytes with compressed oops, the default below 32 GB of heap, and 8 otherwise. Field packing is
+ * not modelled, so an estimate may be a few bytes off per object but does not drift with the object count.
+ */
+public final class HeapSize {
+
+    private static final boolean COMPRESSED_OOPS = compressedOops();
+
+    /** bytes per reference field or array element */
+    public static final int REFERENCE = COMPRESSED_OOPS ? 4 : 8;
+
+    private static final int OBJECT_HEADER = COMPRESSED_OOPS ? 12 : 16;
+
+    private static final int ARRAY_HEADER = COMPRESSED_OOPS ? 16 : 24;
+
+    /** strings hold a char[] up to Java 8 and a byte[], one byte per latin-1 character, from Java 9 on */
+    private static final int STRING_CHAR = System.getProperty("java.specification.version").startsWith("1.") ? 2 : 1;
+
+    private HeapSize() { }
+
+    /**
+     * @param primitiveBytes the bytes taken by the primitive fields, those of super classes included
+     * @param references the number of reference fields
+     * @return the size of an instance
+     */
+    public static long object(int primitiveBytes, int references) {
+        return align(OBJECT_HEADER + primitiveBytes + (long) references * REFERENCE);
+    }
+
+    /**
+     * @param length the array length
+     * @param elementBytes the size of an element, {@link #REFERENCE} for object arrays
+     * @return the size of the array
+     */
+    public static long array(int length, int elementBytes) {
+        return align(ARRAY_HEADER + (long) length * elementBytes);
+    }
+
+    /**
+     * @return the size of a string and its characters, 0 for null
+     */
+    public static long string(String value) {
+        return value == null ? 0 : object(4, 1) + array(value.length(), STRING_CHAR);
+    }
+
+    /**
+     * @param entries the number of mappings
+     * @return the size of the nodes and the table of a {@link java.util.HashMap} or
+     * {@link java.util.concurrent.ConcurrentHashMap} with the default load factor, keys and values not included
+     */
+    public static long hashMap(int entries) {
+        if (entries == 0) {
+            return object(16, 4);
+        }
+        // the smallest power of two, at least 16, that holds the entries below the load factor
+        int capacity = Math.max(16, Integer.highestOneBit((int) Math.ceil(entries / 0.75) * 2 - 1));
+        return object(16, 4) + array(capacity, REFERENCE) + entries * object(4, 3);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static boolean compressedOops() {
+        try {
+            HotSpotDiagnosticMXBean hotSpot = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return Boolean.parseBoolean(hotSpot.getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException | LinkageError e) {
+            // not HotSpot, assume the default of heaps below 32 GB
+            return Runtime.getRuntime().maxMemory() < (32L << 30);
+        }
+    }
+}
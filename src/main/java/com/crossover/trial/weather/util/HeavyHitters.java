@@ -0,0 +1,255 @@
+package com.crossover.trial.weather.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximate counts of how often keys occur over a sliding window, in memory that does not depend on the number of
+ * distinct keys. The window is cut into a ring of buckets, as in {@link WindowedSketch}; each bucket counts keys in
+ * a count-min sketch and keeps the keys with the highest counts as top-k candidates. A count is the sum of the
+ * estimates of the buckets inside the window, so keys fade out as their buckets are recycled.
+ *
+ * Count-min estimates never undercount and overcount by at most about <code>e / width</code> of the total with
+ * probability <code>1 - exp(-depth)</code>. A key only enters the candidates of a bucket once its estimate beats
+ * the weakest candidate, so a flood of distinct keys can not push the heavy ones out.
+ *
+ * Thread safe; counting is lock free, only admitting a new candidate locks its bucket.
+ */
+public class HeavyHitters {
+
+    private final int depth;
+
+    private final int mask;
+
+    private final int k;
+
+    private final long bucketMillis;
+
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /**
+     * @param depth the number of hash rows
+     * @param width the counters per row, rounded up to a power of two
+     * @param k the candidates kept per bucket
+     * @param windowMillis the window length
+     * @param bucketCount the number of buckets the window is cut into
+     */
+    public HeavyHitters(int depth, int width, int k, long windowMillis, int bucketCount) {
+        this.depth = depth;
+        this.mask = Integer.highestOneBit(Math.max(2, width - 1)) * 2 - 1;
+        this.k = k;
+        this.bucketMillis = Math.max(1, windowMillis / bucketCount);
+        this.buckets = new AtomicReferenceArray<>(bucketCount);
+    }
+
+    /**
+     * Count one occurrence.
+     *
+     * @param key the key
+     * @param timeMillis when it occurred
+     */
+    public void add(String key, long timeMillis) {
+        long epoch = timeMillis / bucketMillis;
+        int slot = (int) (epoch % buckets.length());
+        Bucket bucket = buckets.get(slot);
+        while (bucket == null || bucket.epoch < epoch) {
+            Bucket fresh = new Bucket(epoch);
+            if (buckets.compareAndSet(slot, bucket, fresh)) {
+                bucket = fresh;
+            } else {
+                bucket = buckets.get(slot);
+            }
+        }
+        if (bucket.epoch == epoch) {
+            // else the occurrence is older than the window
+            bucket.add(key);
+        }
+    }
+
+    /**
+     * @param key the key
+     * @param nowMillis the end of the window
+     * @return the estimated occurrences of the key inside the window, never less than the true count
+     */
+    public long estimate(String key, long nowMillis) {
+        long retval = 0;
+        for (Bucket bucket : live(nowMillis)) {
+            retval += bucket.estimate(key);
+        }
+        return retval;
+    }
+
+    /**
+     * @param nowMillis the end of the window
+     * @return all occurrences inside the window
+     */
+    public long total(long nowMillis) {
+        long retval = 0;
+        for (Bucket bucket : live(nowMillis)) {
+            retval += bucket.total.sum();
+        }
+        return retval;
+    }
+
+    /**
+     * @param n the number of keys wanted
+     * @param nowMillis the end of the window
+     * @return up to n of the most frequent keys inside the window with their estimated counts, most frequent first
+     */
+    public Map<String, Long> top(int n, long nowMillis) {
+        List<Bucket> live = live(nowMillis);
+        Set<String> candidates = new HashSet<>();
+        for (Bucket bucket : live) {
+            candidates.addAll(bucket.top.keySet());
+        }
+        List<Map.Entry<String, Long>> counts = new ArrayList<>();
+        for (String key : candidates) {
+            long count = 0;
+            for (Bucket bucket : live) {
+                count += bucket.estimate(key);
+            }
+            counts.add(new AbstractMap.SimpleImmutableEntry<>(key, count));
+        }
+        counts.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> retval = new LinkedHashMap<>();
+        for (int i = 0; i < counts.size() && i < n; i++) {
+            retval.put(counts.get(i).getKey(), counts.get(i).getValue());
+        }
+        return retval;
+    }
+
+    /**
+     * @return the estimated heap taken by the counters and candidates, see {@link HeapSize}
+     */
+    public long estimateBytes() {
+        long retval = HeapSize.object(16, 1) + HeapSize.array(buckets.length(), HeapSize.REFERENCE);
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null) {
+                retval += bucket.estimateBytes();
+            }
+        }
+        return retval;
+    }
+
+    public void clear() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, null);
+        }
+    }
+
+    private List<Bucket> live(long nowMillis) {
+        long current = nowMillis / bucketMillis;
+        List<Bucket> retval = new ArrayList<>(buckets.length());
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && current - bucket.epoch < buckets.length() && bucket.epoch <= current) {
+                retval.add(bucket);
+            }
+        }
+        return retval;
+    }
+
+    private static int hash(int h, int row) {
+        // murmur3 finalizer over the key hash and the row number
+        h ^= row * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private final class Bucket {
+
+        final long epoch;
+
+        final AtomicLongArray counters = new AtomicLongArray(depth * (mask + 1));
+
+        final LongAdder total = new LongAdder();
+
+        /** top-k candidates with their estimate when last seen */
+        final Map<String, AtomicLong> top = new ConcurrentHashMap<>();
+
+        /** the lowest candidate estimate, a key must beat it to become a candidate */
+        volatile long threshold;
+
+        Bucket(long epoch) {
+            this.epoch = epoch;
+        }
+
+        void add(String key) {
+            int h = key.hashCode();
+            long estimate = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                estimate = Math.min(estimate, counters.incrementAndGet(row * (mask + 1) + (hash(h, row) & mask)));
+            }
+            total.increment();
+            AtomicLong candidate = top.get(key);
+            if (candidate != null) {
+                candidate.lazySet(estimate);
+            } else if (estimate > threshold || top.size() < k) {
+                admit(key, estimate);
+            }
+        }
+
+        long estimateBytes() {
+            // counters, adder and the candidates with their keys
+            long retval = HeapSize.object(16, 4) + HeapSize.object(0, 1) + HeapSize.array(counters.length(), 8)
+                    + HeapSize.object(8, 2) + HeapSize.hashMap(top.size());
+            for (String key : top.keySet()) {
+                retval += HeapSize.string(key) + HeapSize.object(8, 0);
+            }
+            return retval;
+        }
+
+        long estimate(String key) {
+            int h = key.hashCode();
+            long retval = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                retval = Math.min(retval, counters.get(row * (mask + 1) + (hash(h, row) & mask)));
+            }
+            return retval;
+        }
+
+        private synchronized void admit(String key, long estimate) {
+            if (top.containsKey(key)) {
+                return;
+            }
+            if (top.size() >= k) {
+                String weakest = null;
+                long min = Long.MAX_VALUE;
+                for (Map.Entry<String, AtomicLong> e : top.entrySet()) {
+                    if (e.getValue().get() < min) {
+                        min = e.getValue().get();
+                        weakest = e.getKey();
+                    }
+                }
+                if (estimate <= min) {
+                    threshold = min;
+                    return;
+                }
+                top.remove(weakest);
+            }
+            top.put(key, new AtomicLong(estimate));
+            if (top.size() >= k) {
+                long min = Long.MAX_VALUE;
+                for (AtomicLong count : top.values()) {
+                    min = Math.min(min, count.get());
+                }
+                threshold = min;
+            }
+        }
+    }
+}
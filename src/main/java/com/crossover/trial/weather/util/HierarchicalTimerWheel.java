@@ -0,0 +1,145 @@
+package com.crossover.trial.weather.util;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel in the style of the Linux kernel timers. Four levels of 64 slots cover 64^4 ticks;
+ * scheduling and expiry are O(1) apart from the occasional cascade of a higher level slot into the lower levels.
+ * Deadlines further out than the wheel span are parked in the top level and re-placed when they come around.
+ *
+ * Not thread safe, the owner is expected to drive it from a single thread.
+ *
+ * @param <T> the payload handed back on expiry
+ */
+public class HierarchicalTimerWheel<T> {
+
+    private static final int WHEEL_BITS = 6;
+
+    private static final int SLOTS = 1 << WHEEL_BITS;
+
+    private static final int MASK = SLOTS - 1;
+
+    private static final int LEVELS = 4;
+
+    /** the furthest relative deadline, in ticks, the wheel can place exactly */
+    private static final long SPAN = 1L << (WHEEL_BITS * LEVELS);
+
+    private final long tickMillis;
+
+    private final Entry<T>[][] wheels;
+
+    /** the last tick that has been fully processed */
+    private long currentTick;
+
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public HierarchicalTimerWheel(long tickMillis, long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tick must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.currentTick = startMillis / tickMillis;
+        this.wheels = (Entry<T>[][]) new Entry<?>[LEVELS][SLOTS];
+    }
+
+    /**
+     * Schedule an item to expire at the given time. Deadlines already in the past expire on the next tick.
+     *
+     * @param deadlineMillis absolute expiry time in milliseconds since UTC epoch
+     * @param item the payload
+     */
+    public void schedule(long deadlineMillis, T item) {
+        // round up so nothing expires before its deadline
+        long deadlineTick = (deadlineMillis + tickMillis - 1) / tickMillis;
+        place(new Entry<>(Math.max(deadlineTick, currentTick + 1), item));
+        size++;
+    }
+
+    /**
+     * Advance the wheel to the given time, handing every item whose deadline has passed to the consumer.
+     *
+     * @param nowMillis the current time in milliseconds since UTC epoch
+     * @param onExpire receives the expired items in deadline order
+     * @return the number of items expired
+     */
+    public int advance(long nowMillis, Consumer<? super T> onExpire) {
+        long targetTick = nowMillis / tickMillis;
+        int expired = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = 1; level < LEVELS; level++) {
+                if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                    break;
+                }
+                cascade(level, (int) ((currentTick >>> (WHEEL_BITS * level)) & MASK));
+            }
+            int slot = (int) (currentTick & MASK);
+            Entry<T> e = wheels[0][slot];
+            wheels[0][slot] = null;
+            while (e != null) {
+                Entry<T> next = e.next;
+                size--;
+                expired++;
+                onExpire.accept(e.item);
+                e = next;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return the size of the entry holding a scheduled item, the item not included
+     */
+    public static long entryBytes() {
+        return HeapSize.object(8, 2);
+    }
+
+    /**
+     * @return the number of items still scheduled
+     */
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level, int slot) {
+        Entry<T> e = wheels[level][slot];
+        wheels[level][slot] = null;
+        while (e != null) {
+            Entry<T> next = e.next;
+            place(e);
+            e = next;
+        }
+    }
+
+    private void place(Entry<T> e) {
+        long delta = e.deadlineTick - currentTick;
+        long placeTick = e.deadlineTick;
+        if (delta <= 0) {
+            // due on the tick being processed right now
+            delta = 0;
+            placeTick = currentTick;
+        } else if (delta >= SPAN) {
+            placeTick = currentTick + SPAN - 1;
+            delta = SPAN - 1;
+        }
+        int level = 0;
+        while (delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) ((placeTick >>> (WHEEL_BITS * level)) & MASK);
+        e.next = wheels[level][slot];
+        wheels[level][slot] = e;
+    }
+
+    private static final class Entry<T> {
+        final long deadlineTick;
+        final T item;
+        Entry<T> next;
+
+        Entry(long deadlineTick, T item) {
+            this.deadlineTick = deadlineTick;
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.crossover.trial.weather.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Deduplicates low cardinality strings such as country, city and DST names so that a large airport catalog holds
+ * a single instance of each. Unlike {@link String#intern()} the table is an ordinary heap object, and it holds its
+ * strings weakly: once no airport refers to a string any more, say because the airports added with a made up city
+ * were removed again, the string and its entry are collected. The table never holds more than the airports do.
+ */
+public final class InternTable {
+
+    /** the canonical instance of each string, keys and values weakly held, guarded by itself */
+    private static final Map<String, WeakReference<String>> TABLE = new WeakHashMap<>();
+
+    private InternTable() { }
+
+    /**
+     * @param value the string to deduplicate, may be null
+     * @return the canonical instance equal to value
+     */
+    public static String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        synchronized (TABLE) {
+            WeakReference<String> ref = TABLE.get(value);
+            String existing = ref == null ? null : ref.get();
+            if (existing != null) {
+                return existing;
+            }
+            TABLE.put(value, new WeakReference<>(value));
+            return value;
+        }
+    }
+
+    /**
+     * @return the number of distinct strings held, including ones collected since the last call that touched the
+     * table
+     */
+    public static int size() {
+        synchronized (TABLE) {
+            return TABLE.size();
+        }
+    }
+}
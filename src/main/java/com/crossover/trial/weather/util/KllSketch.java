@@ -0,0 +1,308 @@
+package com.crossover.trial.weather.util;
+
+import java.util.Arrays;
+
+/**
+ * A KLL quantile sketch (Karnin, Lang, Liberty). Values are kept in a stack of compactors; when the sketch is
+ * full the lowest full compactor is sorted and every other value is promoted to the next level with twice the
+ * weight. Memory is bounded by roughly 3k values whatever the stream length, the rank error is O(1/k), and two
+ * sketches merge into a sketch of the union.
+ *
+ * Not thread safe.
+ */
+public class KllSketch {
+
+    private static final double DECAY = 2.0 / 3.0;
+
+    private final int k;
+
+    private float[][] levels = new float[1][];
+
+    private int[] sizes = new int[1];
+
+    /** compactor capacities, recomputed whenever a level is added */
+    private int[] capacities = new int[1];
+
+    private int totalCapacity;
+
+    private int retained;
+
+    private long count;
+
+    private double sum;
+
+    private float min = Float.NaN;
+
+    private float max = Float.NaN;
+
+    /** xorshift state for the coin flips choosing which half survives a compaction */
+    private long seed = 0x9E3779B97F4A7C15L;
+
+    /**
+     * @param k accuracy parameter, the capacity of the top compactor
+     */
+    public KllSketch(int k) {
+        if (k < 8) {
+            throw new IllegalArgumentException("k must be at least 8: " + k);
+        }
+        this.k = k;
+        this.capacities[0] = k;
+        this.totalCapacity = k;
+        this.levels[0] = new float[k];
+    }
+
+    /**
+     * Rebuild a sketch from the state of another, as read with {@link #getValues()}, {@link #getLevelSizes()} and
+     * the counts and extremes, for instance on the node merging the sketches of other nodes.
+     *
+     * @param k accuracy parameter, that of the sketch the state was read from
+     * @param values the values held, the lowest level first
+     * @param levelSizes the number of values held per level
+     * @throws IllegalArgumentException if the sizes do not add up to the values
+     */
+    public static KllSketch restore(int k, long count, double sum, float min, float max, float[] values,
+                                    int[] levelSizes) {
+        long total = 0;
+        for (int size : levelSizes) {
+            if (size < 0) {
+                throw new IllegalArgumentException("negative level size " + size);
+            }
+            total += size;
+        }
+        if (total != values.length) {
+            throw new IllegalArgumentException("level sizes add up to " + total + ", not " + values.length);
+        }
+        KllSketch retval = new KllSketch(k);
+        int i = 0;
+        for (int h = 0; h < levelSizes.length; h++) {
+            for (int j = 0; j < levelSizes[h]; j++) {
+                retval.append(h, values[i++]);
+            }
+        }
+        retval.count = count;
+        retval.sum = sum;
+        retval.min = min;
+        retval.max = max;
+        retval.compress();
+        return retval;
+    }
+
+    /**
+     * @param value a new observation
+     */
+    public void update(float value) {
+        if (Float.isNaN(value)) {
+            return;
+        }
+        if (count == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        count++;
+        sum += value;
+        append(0, value);
+        if (retained >= totalCapacity) {
+            compress();
+        }
+    }
+
+    /**
+     * Fold another sketch into this one, as if this one had seen its stream too.
+     *
+     * @param other the sketch to merge, left unchanged
+     */
+    public void merge(KllSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+        sum += other.sum;
+        for (int h = 0; h < other.levels.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++) {
+                append(h, other.levels[h][i]);
+            }
+        }
+        compress();
+    }
+
+    /**
+     * @param q the rank, between 0 and 1
+     * @return an estimate of the value at that rank, NaN if the sketch is empty
+     */
+    public float quantile(double q) {
+        if (count == 0) {
+            return Float.NaN;
+        }
+        if (q <= 0) {
+            return min;
+        }
+        if (q >= 1) {
+            return max;
+        }
+        float[] values = new float[retained];
+        long[] weights = new long[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            Arrays.sort(levels[h], 0, sizes[h]);
+        }
+        // merge the sorted levels by walking them together
+        int[] cursor = new int[levels.length];
+        long totalWeight = 0;
+        while (n < retained) {
+            int best = -1;
+            for (int h = 0; h < levels.length; h++) {
+                if (cursor[h] < sizes[h] && (best < 0 || levels[h][cursor[h]] < levels[best][cursor[best]])) {
+                    best = h;
+                }
+            }
+            values[n] = levels[best][cursor[best]++];
+            weights[n] = 1L << best;
+            totalWeight += weights[n];
+            n++;
+        }
+        double target = q * totalWeight;
+        long cumulative = 0;
+        for (int i = 0; i < n; i++) {
+            cumulative += weights[i];
+            if (cumulative >= target) {
+                return values[i];
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public float getMin() {
+        return min;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return the values currently held, the lowest level first, see {@link #getLevelSizes()}
+     */
+    public float[] getValues() {
+        float[] retval = new float[retained];
+        int n = 0;
+        for (int h = 0; h < levels.length; h++) {
+            System.arraycopy(levels[h], 0, retval, n, sizes[h]);
+            n += sizes[h];
+        }
+        return retval;
+    }
+
+    /**
+     * @return the number of values held per level, a value of level h standing for 2^h observations
+     */
+    public int[] getLevelSizes() {
+        return sizes.clone();
+    }
+
+    /**
+     * @return the number of values currently held, bounded by about 3k
+     */
+    public int retained() {
+        return retained;
+    }
+
+    /**
+     * @return the estimated heap taken by the sketch, see {@link HeapSize}
+     */
+    public long estimateBytes() {
+        long retval = HeapSize.object(44, 3) + HeapSize.array(levels.length, HeapSize.REFERENCE)
+                + HeapSize.array(sizes.length, 4) + HeapSize.array(capacities.length, 4);
+        for (float[] level : levels) {
+            retval += HeapSize.array(level.length, 4);
+        }
+        return retval;
+    }
+
+    /**
+     * Forget everything, keeping the allocated compactors.
+     */
+    public void reset() {
+        Arrays.fill(sizes, 0);
+        retained = 0;
+        count = 0;
+        sum = 0;
+        min = Float.NaN;
+        max = Float.NaN;
+    }
+
+    private void append(int level, float value) {
+        while (level >= levels.length) {
+            levels = Arrays.copyOf(levels, levels.length + 1);
+            sizes = Arrays.copyOf(sizes, sizes.length + 1);
+            capacities = new int[levels.length];
+            totalCapacity = 0;
+            for (int h = 0; h < levels.length; h++) {
+                int depth = levels.length - 1 - h;
+                capacities[h] = Math.max(2, (int) Math.ceil(k * Math.pow(DECAY, depth)));
+                totalCapacity += capacities[h];
+            }
+            levels[levels.length - 1] = new float[k];
+        }
+        if (sizes[level] == levels[level].length) {
+            levels[level] = Arrays.copyOf(levels[level], Math.max(4, levels[level].length * 2));
+        }
+        levels[level][sizes[level]++] = value;
+        retained++;
+    }
+
+    /**
+     * Compactors are lazy: they may overflow their own capacity as long as the sketch as a whole fits, which keeps
+     * the amortized update cost low. Once it does not, the lowest overflowing compactor is compacted.
+     */
+    private void compress() {
+        while (retained >= totalCapacity) {
+            for (int h = 0; h < levels.length; h++) {
+                if (sizes[h] >= capacities[h]) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort a compactor and promote one value of every pair to the level above. An odd value out stays.
+     */
+    private void compact(int level) {
+        float[] values = levels[level];
+        int size = sizes[level];
+        Arrays.sort(values, 0, size);
+        int keep = size & 1;
+        seed ^= seed << 13;
+        seed ^= seed >>> 7;
+        seed ^= seed << 17;
+        int offset = (int) (seed & 1);
+        for (int i = keep; i + 1 < size; i += 2) {
+            append(level + 1, values[i + offset]);
+        }
+        retained -= size - keep;
+        sizes[level] = keep;
+    }
+}
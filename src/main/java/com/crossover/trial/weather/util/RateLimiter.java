@@ -0,0 +1,60 @@
+package com.crossover.trial.weather.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket in its generic cell rate algorithm form: instead of a token count it keeps the theoretical
+ * arrival time of the next request, which fits in a single atomic long. A request is admitted if admitting it does
+ * not push that time further than the burst ahead of now; admission is one compare and set, so the limiter is lock
+ * free and never blocks.
+ */
+public class RateLimiter {
+
+    /** nanoseconds between two requests at the sustained rate */
+    private final long interval;
+
+    /** how far the theoretical arrival time may run ahead of now, the burst expressed in time */
+    private final long tolerance;
+
+    private final AtomicLong theoreticalArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param ratePerSecond sustained requests per second, more than 0
+     * @param burst requests admitted at once after a quiet period, at least 1
+     */
+    public RateLimiter(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate must be positive and burst at least 1");
+        }
+        this.interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond));
+        this.tolerance = interval * (burst - 1);
+    }
+
+    /**
+     * @param nowNanos the current {@link System#nanoTime()}
+     * @return 0 if the request is admitted, otherwise the nanoseconds until it would be
+     */
+    public long tryAcquire(long nowNanos) {
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long start = tat == Long.MIN_VALUE || tat - nowNanos < 0 ? nowNanos : tat;
+            long wait = start - nowNanos - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (theoreticalArrival.compareAndSet(tat, start + interval)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * @param nowNanos the current {@link System#nanoTime()}
+     * @return true if the limiter is back at full burst, so it can be dropped and recreated without effect
+     */
+    public boolean isIdle(long nowNanos) {
+        long tat = theoreticalArrival.get();
+        return tat == Long.MIN_VALUE || tat - nowNanos <= 0;
+    }
+}
@@ -0,0 +1,154 @@
+package com.crossover.trial.weather.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates concurrent identical work: the first caller for a key computes, callers arriving with the same key
+ * before it started wait for its result instead of computing it again. A caller finding a computation that began
+ * before it arrived can not take that result, it may miss a write the caller just made; it waits for the
+ * computation to end and then starts or joins the next one, along with the other callers that arrived meanwhile.
+ * Nothing is cached, the key is free again as soon as the result is handed out, so every result was computed
+ * after its callers arrived.
+ *
+ * A waiter never waits longer than the configured time in all: it then computes on its own, as it would without
+ * coalescing, and the slow computation carries on for the callers still waiting. A failed computation fails the
+ * waiters that joined it alike.
+ *
+ * @param <K> the key of identical work, with equals and hashCode
+ * @param <V> the result, shared by all callers so it must not be changed
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    /** numbers the computations in the order they start, and the callers by the last computation started */
+    private final AtomicLong clock = new AtomicLong();
+
+    private final long waitMillis;
+
+    private final LongAdder executions = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final LongAdder behind = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * @param waitMillis the longest a caller waits for other callers' computations
+     */
+    public SingleFlight(long waitMillis) {
+        this.waitMillis = waitMillis;
+    }
+
+    /**
+     * @param key identifies the work
+     * @param work computes the result, run on the calling thread
+     * @return the result, possibly computed for another caller, but begun after this one arrived
+     */
+    public V execute(K key, Supplier<V> work) {
+        long arrival = clock.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+        while (true) {
+            // numbered before it is published, a caller that has seen the number does not join it
+            Flight<V> mine = new Flight<>(clock.incrementAndGet());
+            Flight<V> flight = inFlight.putIfAbsent(key, mine);
+            if (flight == null) {
+                return lead(key, mine, work);
+            }
+            boolean join = flight.number > arrival;
+            if (join) {
+                coalesced.increment();
+            } else {
+                behind.increment();
+            }
+            try {
+                V retval = flight.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (join) {
+                    return retval;
+                }
+            } catch (TimeoutException e) {
+                timeouts.increment();
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                if (!join) {
+                    // not ours to report, the next computation may well succeed
+                    continue;
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        executions.increment();
+        return work.get();
+    }
+
+    private V lead(K key, Flight<V> mine, Supplier<V> work) {
+        executions.increment();
+        V retval;
+        try {
+            retval = work.get();
+        } catch (RuntimeException | Error e) {
+            // free the key before answering, a caller arriving after the answer must not join it
+            inFlight.remove(key, mine);
+            mine.completeExceptionally(e);
+            throw e;
+        }
+        inFlight.remove(key, mine);
+        mine.complete(retval);
+        return retval;
+    }
+
+    /**
+     * @return the number of computations run
+     */
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    /**
+     * @return the number of callers that joined another caller's computation
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * @return the number of times a caller found a computation begun before it arrived and waited for it to end
+     */
+    public long getBehind() {
+        return behind.sum();
+    }
+
+    /**
+     * @return the number of callers that gave up waiting and computed on their own
+     */
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    /** a computation, numbered by the clock */
+    private static final class Flight<V> extends CompletableFuture<V> {
+
+        final long number;
+
+        Flight(long number) {
+            this.number = number;
+        }
+    }
+}
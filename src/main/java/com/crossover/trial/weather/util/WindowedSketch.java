@@ -0,0 +1,90 @@
+package com.crossover.trial.weather.util;
+
+/**
+ * A sliding window of quantile sketches: the window is cut into a ring of equally long buckets, each with its own
+ * {@link KllSketch}. Observations go into the bucket of their time, a bucket is recycled when its time comes round
+ * again, and a snapshot merges the buckets still inside the window. Memory is bounded by the bucket count times
+ * the sketch size.
+ *
+ * Thread safe, writers to one window serialize on it.
+ */
+public class WindowedSketch {
+
+    private final int k;
+
+    private final long bucketMillis;
+
+    private final KllSketch[] buckets;
+
+    /** the bucket number, time / bucketMillis, each slot of the ring currently holds */
+    private final long[] epochs;
+
+    /**
+     * @param k sketch accuracy parameter
+     * @param windowMillis the window length
+     * @param bucketCount the number of buckets the window is cut into
+     */
+    public WindowedSketch(int k, long windowMillis, int bucketCount) {
+        this.k = k;
+        this.bucketMillis = Math.max(1, windowMillis / bucketCount);
+        this.buckets = new KllSketch[bucketCount];
+        this.epochs = new long[bucketCount];
+    }
+
+    /**
+     * @param value an observation
+     * @param timeMillis when it was made
+     */
+    public synchronized void update(float value, long timeMillis) {
+        long epoch = timeMillis / bucketMillis;
+        int slot = (int) (epoch % buckets.length);
+        KllSketch bucket = buckets[slot];
+        if (bucket == null) {
+            bucket = buckets[slot] = new KllSketch(k);
+            epochs[slot] = epoch;
+        } else if (epochs[slot] != epoch) {
+            bucket.reset();
+            epochs[slot] = epoch;
+        }
+        bucket.update(value);
+    }
+
+    /**
+     * Merge the buckets inside the window ending now into the given sketch, for rollups over several windows.
+     *
+     * @param into the sketch to merge into
+     * @param nowMillis the end of the window
+     */
+    public synchronized void mergeInto(KllSketch into, long nowMillis) {
+        long current = nowMillis / bucketMillis;
+        for (int slot = 0; slot < buckets.length; slot++) {
+            if (buckets[slot] != null && current - epochs[slot] < buckets.length && epochs[slot] <= current) {
+                into.merge(buckets[slot]);
+            }
+        }
+    }
+
+    /**
+     * @return the estimated heap taken by the window and its buckets, see {@link HeapSize}
+     */
+    public synchronized long estimateBytes() {
+        long retval = HeapSize.object(12, 2) + HeapSize.array(buckets.length, HeapSize.REFERENCE)
+                + HeapSize.array(epochs.length, 8);
+        for (KllSketch bucket : buckets) {
+            if (bucket != null) {
+                retval += bucket.estimateBytes();
+            }
+        }
+        return retval;
+    }
+
+    /**
+     * @param nowMillis the end of the window
+     * @return a sketch of the observations inside the window
+     */
+    public KllSketch snapshot(long nowMillis) {
+        KllSketch retval = new KllSketch(k);
+        mergeInto(retval, nowMillis);
+        return retval;
+    }
+}
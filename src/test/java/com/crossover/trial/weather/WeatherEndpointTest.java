@@ -6,15 +6,26 @@ import com.crossover.trial.weather.service.IWeatherCollector;
 import com.crossover.trial.weather.service.IWeatherQueryEndpoint;
 import com.crossover.trial.weather.domain.AtmosphericInformation;
 import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.GridWeather;
+import com.crossover.trial.weather.domain.WeatherChanges;
+import com.crossover.trial.weather.domain.WeatherSummary;
+import com.crossover.trial.weather.domain.WeatherUpdate;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.junit.Before;
 import org.junit.Test;
 
+import javax.ws.rs.core.Response;
+import java.util.Collections;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class WeatherEndpointTest {
 
@@ -60,6 +71,131 @@ public class WeatherEndpointTest {
         assertEquals(3, ais.size());
     }
 
+    @Test
+    public void testGetPaged() throws Exception {
+        RestWeatherQueryEndpoint query = (RestWeatherQueryEndpoint) _query;
+        _update.updateWeather("JFK", "wind", _gson.toJson(new DataPoint(10, 20, 1, 30, 5)));
+        _update.updateWeather("LGA", "wind", _gson.toJson(new DataPoint(10, 20, 2, 30, 5)));
+        _update.updateWeather("EWR", "wind", _gson.toJson(new DataPoint(10, 20, 3, 30, 5)));
+
+        // nearest first: JFK, LGA, EWR, then BOS
+        Response first = query.get("JFK", "500", "2", null);
+        List<AtmosphericInformation> ais = (List<AtmosphericInformation>) first.getEntity();
+        assertEquals(2, ais.size());
+        assertEquals(1, ais.get(0).getWind().getMean(), 1e-9);
+        assertEquals(2, ais.get(1).getWind().getMean(), 1e-9);
+        String cursor = first.getHeaderString(RestWeatherQueryEndpoint.CURSOR);
+
+        Response last = query.get("JFK", "500", "2", cursor);
+        ais = (List<AtmosphericInformation>) last.getEntity();
+        assertEquals(2, ais.size());
+        assertEquals(3, ais.get(0).getWind().getMean(), 1e-9);
+        assertEquals(_dp, ais.get(1).getWind());
+        assertEquals(null, last.getHeaderString(RestWeatherQueryEndpoint.CURSOR));
+
+        assertEquals(400, query.get("JFK", "500", "0", null).getStatus());
+        assertEquals(400, query.get("JFK", "500", null, "JFK").getStatus());
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        _update.updateWeather("JFK", "wind", _gson.toJson(new DataPoint(10, 20, 20, 30, 5)));
+        _update.updateWeather("EWR", "wind", _gson.toJson(new DataPoint(10, 20, 40, 30, 5)));
+        _update.updateWeather("LGA", "wind", _gson.toJson(new DataPoint(10, 20, 30, 30, 5)));
+        _update.updateWeather("LGA", "temperature", _gson.toJson(new DataPoint(10, 20, 15, 30, 8)));
+
+        WeatherSummary summary = (WeatherSummary) _query.aggregate("JFK", "200").getEntity();
+        assertEquals(4, summary.getAirports());
+        WeatherSummary.PointSummary wind = summary.getPoints().get("wind");
+        assertEquals(3, wind.getCount());
+        assertEquals(15, wind.getReadings());
+        assertEquals(30, wind.getMean(), 1e-9);
+        assertEquals(20, wind.getMin(), 1e-9);
+        assertEquals(40, wind.getMax(), 1e-9);
+        assertEquals(30, wind.getSecond(), 1e-9);
+        assertEquals(1, summary.getPoints().get("temperature").getCount());
+        assertEquals(404, _query.aggregate("XXX", "200").getStatus());
+    }
+
+    @Test
+    public void testPoint() throws Exception {
+        RestWeatherQueryEndpoint query = (RestWeatherQueryEndpoint) _query;
+        _update.updateWeather("JFK", "temperature", _gson.toJson(new DataPoint(5, 10, 10, 15, 1)));
+        _update.updateWeather("LGA", "temperature", _gson.toJson(new DataPoint(25, 30, 30, 35, 1)));
+
+        GridWeather.GridValue between = ((GridWeather) query.point("40.7", "-73.8").getEntity()).getPoints()
+                .get("temperature");
+        assertEquals(2, between.getAirports());
+        assertTrue(between.getMean() > 10 && between.getMean() < 30);
+
+        // only the cells around the airport change
+        _update.updateWeather("JFK", "temperature", _gson.toJson(new DataPoint(15, 20, 20, 25, 1)));
+        GridWeather.GridValue warmer = ((GridWeather) query.point("40.7", "-73.8").getEntity()).getPoints()
+                .get("temperature");
+        assertTrue(warmer.getMean() > between.getMean());
+        assertFalse(((GridWeather) query.point("0", "0").getEntity()).getPoints().containsKey("temperature"));
+
+        assertEquals(400, query.point("x", "0").getStatus());
+        assertEquals(400, query.point("91", "0").getStatus());
+    }
+
+    @Test
+    public void testChanges() throws Exception {
+        RestWeatherQueryEndpoint query = (RestWeatherQueryEndpoint) _query;
+        WeatherChanges all = (WeatherChanges) query.changes(null, null).getEntity();
+        assertEquals(5, all.getUpdated().size());
+        assertEquals("BOS", all.getUpdated().get(4).getIata());
+
+        _update.updateWeather("JFK", "wind", _gson.toJson(_dp));
+        _update.updateWeather("LGA", "wind", _gson.toJson(_dp));
+        _update.updateWeather("JFK", "temperature", _gson.toJson(new DataPoint(10, 20, 15, 30, 8)));
+        _update.deleteAirport("EWR");
+
+        WeatherChanges page = (WeatherChanges) query.changes(Long.toString(all.getSequence()), "1").getEntity();
+        assertTrue(page.isMore());
+        assertEquals("LGA", page.getUpdated().get(0).getIata());
+        WeatherChanges rest = (WeatherChanges) query.changes(Long.toString(page.getSequence()), null).getEntity();
+        assertFalse(rest.isMore());
+        assertEquals(1, rest.getUpdated().size());
+        assertEquals(15, rest.getUpdated().get(0).getWeather().getTemperature().getMean(), 1e-9);
+        assertEquals(Collections.singletonList("EWR"), rest.getDeleted());
+
+        WeatherChanges none = (WeatherChanges) query.changes(Long.toString(rest.getSequence()), null).getEntity();
+        assertTrue(none.getUpdated().isEmpty() && none.getDeleted().isEmpty());
+        assertEquals(rest.getSequence(), none.getSequence());
+        assertEquals(410, query.changes(Long.toString(rest.getSequence() + 1), null).getStatus());
+        assertEquals(400, query.changes("x", null).getStatus());
+    }
+
+    @Test
+    public void testWriteQueuedForRemovedAirportDropped() throws Exception {
+        RestWeatherQueryEndpoint query = (RestWeatherQueryEndpoint) _query;
+        AtmosphericInformation ai = query.getAtmosphericInformation("EWR");
+        long before = ((WeatherChanges) query.changes(null, null).getEntity()).getSequence();
+        _update.deleteAirport("EWR");
+        long tombstone = query.getChangeIndex().getSequence();
+
+        // a write queued before the delete and applied after it
+        assertTrue(((RestWeatherCollectorEndpoint) _update).updateAtmosphericInformation(ai, "EWR", "wind", _dp));
+        assertEquals(tombstone, query.getChangeIndex().getSequence());
+        assertTrue(query.getChangeIndex().changes(before, tombstone, 10).get(0).isDeleted());
+        assertFalse(ai.hasData());
+    }
+
+    @Test
+    public void testBatchUpdate() throws Exception {
+        WeatherUpdate[] batch = {
+                new WeatherUpdate("JFK", "wind", new DataPoint(10, 20, 20, 30, 5)),
+                new WeatherUpdate("XXX", "wind", _dp),
+                new WeatherUpdate("JFK", "pressure", new DataPoint(10, 20, 5000, 30, 5)),
+                new WeatherUpdate("LGA", "humidity", _dp)};
+        Response response = ((RestWeatherCollectorEndpoint) _update).updateWeatherBatch("applied", _gson.toJson(batch));
+        assertArrayEquals(new int[]{200, 404, 400, 200}, (int[]) response.getEntity());
+        assertEquals(20, _query.getAtmosphericInformation("JFK").getWind().getMean(), 1e-9);
+        assertEquals(_dp, _query.getAtmosphericInformation("LGA").getHumidity());
+        assertEquals(400, ((RestWeatherCollectorEndpoint) _update).updateWeatherBatch(null, "{\"iata\"").getStatus());
+    }
+
     @Test
     public void testUpdate() throws Exception {
 
@@ -81,4 +217,61 @@ public class WeatherEndpointTest {
         assertEquals(ais.get(0).getCloudCover(), cloudCoverDp);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testRejectedUpdates() throws Exception {
+        DataPoint pressureDp = new DataPoint.Builder()
+                .withCount(4).withFirst(10).withMedian(60).withLast(100).withMean(50).build();
+        assertEquals(400, _update.updateWeather("BOS", "pressure", _gson.toJson(pressureDp)).getStatus());
+        assertEquals(400, _update.updateWeather("BOS", "visibility", _gson.toJson(_dp)).getStatus());
+        assertEquals(404, _update.updateWeather("XXX", "wind", _gson.toJson(_dp)).getStatus());
+        assertEquals(200, _update.updateWeather("BOS", "Humidity", _gson.toJson(_dp)).getStatus());
+
+        JsonElement pingResult = new JsonParser().parse(_query.ping());
+        JsonObject rejected = pingResult.getAsJsonObject().get("rejected").getAsJsonObject();
+        assertTrue(rejected.get("pressure").getAsLong() >= 1);
+        assertTrue(rejected.get("unknown").getAsLong() >= 1);
+        assertEquals(_dp, _query.getAtmosphericInformation("BOS").getHumidity());
+    }
+
+    @Test
+    public void testObservations() throws Exception {
+        StringBuilder readings = new StringBuilder("[");
+        for (int i = 1; i < 100; i++) {
+            readings.append(i == 1 ? "" : ",").append(i);
+        }
+        readings.append("]");
+        assertEquals(200, _update.recordObservations("JFK", "temperature", readings.toString()).getStatus());
+        DataPoint temperature = _query.getAtmosphericInformation("JFK").getTemperature();
+        assertEquals(99, temperature.getCount());
+        assertEquals(50.0, temperature.getMean(), 1e-9);
+        assertEquals(50, temperature.getSecond(), 5);
+        assertTrue(temperature.getFirst() < temperature.getSecond() && temperature.getSecond() < temperature.getThird());
+
+        assertEquals(200, _update.recordObservations("JFK", "wind", "12.5").getStatus());
+        assertEquals(400, _update.recordObservations("JFK", "temperature", "[500, 1000]").getStatus());
+        assertEquals(400, _update.recordObservations("JFK", "temperature", "{\"mean\": 3}").getStatus());
+        assertEquals(400, _update.recordObservations("JFK", "visibility", "1").getStatus());
+        assertEquals(404, _update.recordObservations("XXX", "temperature", "1").getStatus());
+    }
+
+    @Test
+    public void testFindAirport() throws Exception {
+        RestWeatherQueryEndpoint query = (RestWeatherQueryEndpoint) _query;
+        assertEquals(42.364347, query.findAirportData("BOS").getLatitude(), 1e-9);
+        assertNull(query.findAirportData("XXX"));
+        assertNull(query.findAirportData("BOSTON"));
+        assertNull(query.findAirportData("B\u0100S"));
+        assertNull(query.findAirportData(null));
+        assertNull(query.getAtmosphericInformation("BOSTON"));
+    }
+
+    @Test
+    public void testDeleteUnknownAirport() throws Exception {
+        RestWeatherQueryEndpoint query = (RestWeatherQueryEndpoint) _query;
+        assertEquals(200, _update.deleteAirport("ZZZZ").getStatus());
+        assertEquals(200, _update.deleteAirport("BOSTON").getStatus());
+        assertFalse(query.removeAirport(null));
+        assertEquals(200, _update.deleteAirport("EWR").getStatus());
+        assertNull(query.findAirportData("EWR"));
+    }
+}
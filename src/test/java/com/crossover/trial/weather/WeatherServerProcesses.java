@@ -0,0 +1,84 @@
+package com.crossover.trial.weather;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs WeatherServer instances in child processes for the multi process integration tests.
+ */
+public class WeatherServerProcesses implements AutoCloseable {
+
+    private final List<Process> processes = new ArrayList<>();
+
+    private final Client client = ClientBuilder.newClient();
+
+    /**
+     * Start a server and wait until it answers.
+     *
+     * @param baseUrl where it listens
+     * @param properties further system properties, as name=value
+     */
+    public void start(String baseUrl, String... properties) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dweather.baseUrl=" + baseUrl);
+        for (String property : Arrays.asList(properties)) {
+            command.add("-D" + property);
+        }
+        command.add(WeatherServer.class.getName());
+        File log = File.createTempFile("weather-server", ".log");
+        log.deleteOnExit();
+        processes.add(new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(log).start());
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (true) {
+            try {
+                if (client.target(baseUrl).path("collect/ping").request().get().getStatus() == 200) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                // not listening yet
+            }
+            assertTrue(baseUrl + " did not start, see " + log, System.currentTimeMillis() < deadline);
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * Stop all servers started so far.
+     */
+    public void stopAll() throws InterruptedException {
+        for (Process p : processes) {
+            p.destroy();
+            p.waitFor();
+        }
+        processes.clear();
+    }
+
+    /**
+     * Stop all servers, without waiting for them to exit if interrupted.
+     */
+    @Override
+    public void close() {
+        try {
+            stopAll();
+        } catch (InterruptedException e) {
+            for (Process p : processes) {
+                p.destroy();
+            }
+            processes.clear();
+            Thread.currentThread().interrupt();
+        } finally {
+            client.close();
+        }
+    }
+}
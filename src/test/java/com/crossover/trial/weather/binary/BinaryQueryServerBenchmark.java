@@ -0,0 +1,130 @@
+package com.crossover.trial.weather.binary;
+
+import com.crossover.trial.weather.WeatherServerProcesses;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compares the latency of a single airport query over http, one request per connection as a plain
+ * {@link HttpURLConnection} makes it, with the same query over the binary protocol, one at a time and pipelined.
+ * It starts a server with both listeners in a child process.
+ * <p>
+ * Not part of the unit test run; run it on its own, e.g.
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.crossover.trial.weather.binary.BinaryQueryServerBenchmark -Dexec.args=20000</code>, the
+ * argument being the number of queries per measurement, each measurement preceded by as many to warm up.
+ */
+public class BinaryQueryServerBenchmark {
+
+    /** requests sent before their answers are read, in the pipelined measurement */
+    private static final int PIPELINE = 500;
+
+    public static void main(String[] args) throws Exception {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int binaryPort = freePort();
+        String baseUrl = "http://localhost:" + freePort() + "/";
+        try (WeatherServerProcesses servers = new WeatherServerProcesses()) {
+            servers.start(baseUrl, "weather.binary.port=" + binaryPort, "weather.limit.source.rate=0",
+                    "weather.limit.iata.rate=0");
+            for (String iata : new String[]{"BOS", "JFK", "EWR"}) {
+                post(baseUrl, iata);
+            }
+
+            long[] latencies = new long[queries];
+            byte[] buffer = new byte[8192];
+            for (int round = 0; round < 2; round++) {
+                for (int i = 0; i < queries; i++) {
+                    long start = System.nanoTime();
+                    HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "query/weather/BOS/0")
+                            .openConnection();
+                    try (InputStream in = connection.getInputStream()) {
+                        while (in.read(buffer) >= 0) {
+                            continue;
+                        }
+                    }
+                    latencies[i] = System.nanoTime() - start;
+                }
+            }
+            report("http", latencies);
+
+            try (BinaryQueryClient client = connect(binaryPort)) {
+                for (int round = 0; round < 2; round++) {
+                    for (int i = 0; i < queries; i++) {
+                        long start = System.nanoTime();
+                        client.query("BOS", 0);
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                }
+                report("binary", latencies);
+
+                long start = System.nanoTime();
+                for (int batch = 0; batch < queries / PIPELINE; batch++) {
+                    for (int i = 0; i < PIPELINE; i++) {
+                        client.send("BOS", 0);
+                    }
+                    client.flush();
+                    for (int i = 0; i < PIPELINE; i++) {
+                        client.receive();
+                    }
+                }
+                System.out.printf("binary pipelined by %d: %,.0f req/s%n", PIPELINE,
+                        queries / PIPELINE * PIPELINE * 1e9 / (System.nanoTime() - start));
+            }
+        }
+    }
+
+    /**
+     * The binary listener starts after the http one, wait for it.
+     */
+    private static BinaryQueryClient connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new BinaryQueryClient("localhost", port);
+            } catch (ConnectException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void post(String baseUrl, String iata) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + "collect/weather/" + iata
+                + "/wind?ack=applied").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write("{\"mean\":22,\"first\":10,\"second\":20,\"third\":30,\"count\":10}"
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        if (connection.getResponseCode() != 200) {
+            throw new IOException("Update of " + iata + " answered " + connection.getResponseCode());
+        }
+    }
+
+    private static void report(String name, long[] latencies) {
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s: p50 %.1f us, p99 %.1f us, %,.0f req/s%n", name, sorted[sorted.length / 2] / 1e3,
+                sorted[(int) (sorted.length * 0.99)] / 1e3, latencies.length * 1e9 / total);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
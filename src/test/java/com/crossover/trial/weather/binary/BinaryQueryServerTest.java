@@ -0,0 +1,124 @@
+package com.crossover.trial.weather.binary;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.service.IWeatherCollector;
+import com.crossover.trial.weather.service.RestWeatherCollectorEndpoint;
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BinaryQueryServerTest {
+
+    private final IWeatherCollector update = new RestWeatherCollectorEndpoint();
+
+    private final Gson gson = new Gson();
+
+    private BinaryQueryServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        update.updateWeather("BOS", "wind", gson.toJson(new DataPoint(10, 20, 22, 30, 10)));
+        update.updateWeather("JFK", "wind", gson.toJson(new DataPoint(10, 20, 40, 30, 10)));
+        update.updateWeather("EWR", "temperature", gson.toJson(new DataPoint(10, 20, 15, 30, 5)));
+        server = new BinaryQueryServer(new InetSocketAddress("localhost", 0));
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        for (String iata : added) {
+            update.deleteAirport(iata);
+        }
+    }
+
+    /** airports added by a test, removed after it */
+    private final List<String> added = new ArrayList<>();
+
+    @Test
+    public void testPipelinedQueries() throws Exception {
+        try (BinaryQueryClient client = new BinaryQueryClient("localhost", server.getPort())) {
+            client.send("BOS", 0);
+            client.send("XXX", 0);
+            client.send("JFK", 200);
+            client.flush();
+
+            List<BinaryQueryClient.Record> bos = client.receive();
+            assertEquals(1, bos.size());
+            assertEquals("BOS", bos.get(0).getIata());
+            assertEquals("wind", bos.get(0).getPointType());
+            assertEquals(22, bos.get(0).getDataPoint().getMean(), 0);
+            assertEquals(10, bos.get(0).getDataPoint().getCount());
+
+            assertNull(client.receive());
+
+            List<BinaryQueryClient.Record> nearby = client.receive();
+            assertEquals(2, nearby.stream().filter(r -> !r.getIata().equals("BOS")).count());
+            assertEquals(15, nearby.stream().filter(r -> r.getIata().equals("EWR"))
+                    .findFirst().get().getDataPoint().getMean(), 0);
+
+            try {
+                client.query("BOS", -1);
+                fail("negative radius accepted");
+            } catch (IOException e) {
+                // expected
+            }
+            // the connection stays usable after a bad request
+            assertEquals(1, client.query("BOS", 0).size());
+        }
+    }
+
+    @Test
+    public void testPointsStampedWithTheirOwnTime() throws Exception {
+        add("QZZ", "42.36");
+        update.updateWeather("QZZ", "wind", gson.toJson(new DataPoint(10, 20, 22, 30, 10)));
+        Thread.sleep(20);
+        update.updateWeather("QZZ", "temperature", gson.toJson(new DataPoint(10, 20, 15, 30, 10)));
+        try (BinaryQueryClient client = new BinaryQueryClient("localhost", server.getPort())) {
+            List<BinaryQueryClient.Record> qzz = client.query("QZZ", 0);
+            assertEquals(2, qzz.size());
+            long wind = qzz.stream().filter(r -> r.getPointType().equals("wind")).findFirst().get()
+                    .getLastUpdateTime();
+            long temperature = qzz.stream().filter(r -> r.getPointType().equals("temperature")).findFirst().get()
+                    .getLastUpdateTime();
+            assertTrue(temperature - wind >= 20);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testPipelinedPastPendingOutput() throws Exception {
+        // 20KB answers, the server stops answering part way and has the rest of the requests read already
+        for (int i = 0; i < 500; i++) {
+            String iata = "Q" + (char) ('A' + i / 26) + (char) ('A' + i % 26);
+            add(iata, String.valueOf(42.36 + i * 0.0001));
+            update.updateWeather(iata, "wind", gson.toJson(new DataPoint(10, 20, 22, 30, 10)));
+        }
+        int requests = 60;
+        try (BinaryQueryClient client = new BinaryQueryClient("localhost", server.getPort())) {
+            for (int i = 0; i < requests; i++) {
+                client.send("BOS", 50);
+            }
+            client.flush();
+            for (int i = 0; i < requests; i++) {
+                assertEquals(501, client.receive().size());
+            }
+        }
+    }
+
+    private void add(String iata, String lat) {
+        update.addAirport(iata, lat, "-71.0", "{\"iata\":\"" + iata + "\",\"latitude\":" + lat
+                + ",\"longitude\":-71.0}");
+        added.add(iata);
+    }
+}
@@ -0,0 +1,143 @@
+package com.crossover.trial.weather.capture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CaptureRoundTripTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRequestsReadBackInOrder() throws Exception {
+        Path file = folder.newFile("capture.bin").toPath();
+        byte[] body = "{\"mean\":22.0,\"first\":10,\"second\":20,\"third\":30,\"count\":100}"
+                .getBytes(StandardCharsets.UTF_8);
+        CaptureWriter writer = new CaptureWriter(file, 1 << 20);
+        try {
+            long start = System.nanoTime();
+            assertTrue(writer.append(start + 5_000_000, "GET", "query/weather/BOS/0", null, new byte[0]));
+            assertTrue(writer.append(start + 7_000_000, "POST", "collect/weather/BOS/wind?ack=applied",
+                    "application/json", body));
+            // arrived ahead of the one before, kept at its time
+            assertTrue(writer.append(start + 6_000_000, "GET", "query/weather/JFK/1000?limit=10",
+                    "application/x-jackson-smile, application/json", new byte[0]));
+            assertFalse(writer.append(start + 8_000_000, "PATCH", "collect/airport/BOS", null, new byte[0]));
+        } finally {
+            writer.close();
+        }
+        assertEquals(3, writer.getCaptured());
+        assertEquals(0, writer.getDropped());
+
+        try (CaptureReader reader = new CaptureReader(file)) {
+            CapturedRequest first = reader.next();
+            assertEquals("GET", first.getMethod());
+            assertEquals("query/weather/BOS/0", first.getUri());
+            assertNull(first.getAccept());
+            assertEquals(0, first.getBody().length);
+            assertEquals("GET query/weather/*/*", first.getEndpoint());
+
+            CapturedRequest second = reader.next();
+            assertEquals("POST", second.getMethod());
+            assertEquals("collect/weather/BOS/wind?ack=applied", second.getUri());
+            assertEquals("application/json", second.getAccept());
+            assertArrayEquals(body, second.getBody());
+            assertEquals("POST collect/weather/*/*", second.getEndpoint());
+            assertTrue(second.getOffsetNanos() - first.getOffsetNanos() >= 1_900_000);
+
+            CapturedRequest third = reader.next();
+            assertEquals("application/x-jackson-smile", third.getAccept());
+            assertEquals(second.getOffsetNanos(), third.getOffsetNanos());
+            assertEquals("GET query/weather/*/*", third.getEndpoint());
+
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testFullCaptureStops() throws Exception {
+        Path file = folder.newFile("capture.bin").toPath();
+        CaptureWriter writer = new CaptureWriter(file, 200);
+        try {
+            for (int i = 0; i < 100; i++) {
+                writer.append(System.nanoTime(), "GET", "query/weather/BOS/0", null, new byte[0]);
+            }
+        } finally {
+            writer.close();
+        }
+        long captured = writer.getCaptured();
+        assertFalse(writer.append(System.nanoTime(), "GET", "query/weather/BOS/0", null, new byte[0]));
+        assertTrue(captured > 0 && captured < 100);
+        assertEquals(captured, count(file));
+    }
+
+    @Test
+    public void testOverflowDropped() throws Exception {
+        Path file = folder.newFile("capture.bin").toPath();
+        byte[] body = new byte[4096];
+        int appended = 0;
+        CaptureWriter writer = new CaptureWriter(file, 1L << 30, 1);
+        try {
+            for (int i = 0; i < 10000; i++) {
+                if (writer.append(System.nanoTime(), "POST", "collect/weather/BOS/wind", null, body)) {
+                    appended++;
+                }
+            }
+        } finally {
+            writer.close();
+        }
+        // the request threads never wait for the writer, what it can not keep up with is dropped and counted
+        assertTrue(writer.getDropped() > 0);
+        assertEquals(10000, appended + writer.getDropped());
+        assertEquals(appended, writer.getCaptured());
+        assertEquals(appended, count(file));
+    }
+
+    @Test
+    public void testCutShortCaptureReadsUpToTheCut() throws Exception {
+        Path file = folder.newFile("capture.bin").toPath();
+        try (CaptureWriter writer = new CaptureWriter(file, 1 << 20)) {
+            for (int i = 0; i < 1000; i++) {
+                writer.append(System.nanoTime(), "GET", "query/weather/A" + i + "/0", null, new byte[0]);
+            }
+        }
+        byte[] whole = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(whole, whole.length * 2 / 3));
+        int read = count(file);
+        assertTrue(read > 0 && read < 1000);
+    }
+
+    @Test(expected = IOException.class)
+    public void testNotACapture() throws Exception {
+        Path file = folder.newFile("capture.bin").toPath();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write("GET query/weather/BOS/0 HTTP/1.1\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+        new CaptureReader(file).close();
+    }
+
+    private static int count(Path file) throws IOException {
+        int retval = 0;
+        try (CaptureReader reader = new CaptureReader(file)) {
+            while (reader.next() != null) {
+                retval++;
+            }
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,94 @@
+package com.crossover.trial.weather.client;
+
+import com.crossover.trial.weather.WeatherServerProcesses;
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares one blocking request per call, as {@link WeatherClient} makes them, with {@link WeatherServiceClient}'s
+ * batched updates and asynchronous queries, against a server it starts in a child process with the rate limits off.
+ * <p>
+ * Not part of the unit test run; run it on its own, e.g.
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.crossover.trial.weather.client.WeatherServiceClientBenchmark -Dexec.args=5000</code>, the
+ * argument being the number of updates per round, a fifth as many queries. The first of two rounds warms up.
+ */
+public class WeatherServiceClientBenchmark {
+
+    private static final String[] AIRPORTS = {"BOS", "EWR", "JFK", "LGA", "MMU"};
+
+    public static void main(String[] args) throws Exception {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        String baseUrl = "http://localhost:" + freePort() + "/";
+        DataPoint dp = new DataPoint(1, 3, 5, 7, 10);
+        try (WeatherServerProcesses servers = new WeatherServerProcesses()) {
+            servers.start(baseUrl, "weather.limit.source.rate=0", "weather.limit.iata.rate=0");
+            Client client = ClientBuilder.newClient();
+            WebTarget collect = client.target(baseUrl).path("collect");
+            WebTarget query = client.target(baseUrl).path("query");
+            try {
+                for (int round = 0; round < 2; round++) {
+                    long start = System.nanoTime();
+                    for (int i = 0; i < updates; i++) {
+                        collect.path("weather").path(AIRPORTS[i % AIRPORTS.length]).path("wind").request()
+                                .post(Entity.entity(dp, MediaType.APPLICATION_JSON)).close();
+                    }
+                    double blockingUpdates = perSecond(updates, start);
+                    start = System.nanoTime();
+                    for (int i = 0; i < updates / 5; i++) {
+                        query.path("weather").path(AIRPORTS[i % AIRPORTS.length]).path("0").request().get()
+                                .readEntity(String.class);
+                    }
+                    double blockingQueries = perSecond(updates / 5, start);
+
+                    try (WeatherServiceClient sdk = WeatherServiceClient.builder(baseUrl).build()) {
+                        start = System.nanoTime();
+                        List<CompletableFuture<Void>> updated = new ArrayList<>();
+                        for (int i = 0; i < updates; i++) {
+                            updated.add(sdk.updateWeather(AIRPORTS[i % AIRPORTS.length], "wind", dp));
+                        }
+                        sdk.flush();
+                        CompletableFuture.allOf(updated.toArray(new CompletableFuture<?>[0])).get();
+                        double batchedUpdates = perSecond(updates, start);
+                        start = System.nanoTime();
+                        List<CompletableFuture<List<AtmosphericInformation>>> answers = new ArrayList<>();
+                        for (int i = 0; i < updates / 5; i++) {
+                            answers.add(sdk.query(AIRPORTS[i % AIRPORTS.length], 0));
+                        }
+                        CompletableFuture.allOf(answers.toArray(new CompletableFuture<?>[0])).get();
+                        double asyncQueries = perSecond(updates / 5, start);
+
+                        System.out.printf("updates/s blocking %,.0f batched %,.0f (x%.1f); "
+                                        + "queries/s blocking %,.0f async %,.0f (x%.1f)%n",
+                                blockingUpdates, batchedUpdates, batchedUpdates / blockingUpdates,
+                                blockingQueries, asyncQueries, asyncQueries / blockingQueries);
+                        System.out.println(sdk.getMetrics().getSnapshot());
+                    }
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static double perSecond(int calls, long start) {
+        return calls * 1e9 / (System.nanoTime() - start);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
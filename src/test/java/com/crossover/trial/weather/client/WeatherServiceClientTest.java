@@ -0,0 +1,285 @@
+package com.crossover.trial.weather.client;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.WeatherUpdate;
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WeatherServiceClientTest {
+
+    private static final Gson gson = new Gson();
+
+    private static final DataPoint WIND = new DataPoint.Builder().withMean(10).withCount(5).build();
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    /** the batches received, in order */
+    private final List<WeatherUpdate[]> batches = new CopyOnWriteArrayList<>();
+
+    /** per batch received, the statuses to answer its entries with; all 200 once used up */
+    private final ConcurrentLinkedQueue<int[]> batchAnswers = new ConcurrentLinkedQueue<>();
+
+    /** per ping received, the status and Retry-After header to answer with; 200 once used up */
+    private final ConcurrentLinkedQueue<String[]> pingAnswers = new ConcurrentLinkedQueue<>();
+
+    /** the client ports pings came from, one per connection */
+    private final Set<Integer> pingConnections = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/collect/weather", this::batch);
+        server.createContext("/query/ping", this::ping);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        baseUrl = "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testBatchedByWindow() throws Exception {
+        try (WeatherServiceClient client = WeatherServiceClient.builder(baseUrl).withBatchWindow(200).build()) {
+            List<CompletableFuture<Void>> results = new ArrayList<>();
+            for (String iata : Arrays.asList("BOS", "JFK", "EWR", "LGA", "MMU")) {
+                results.add(client.updateWeather(iata, "wind", WIND));
+            }
+            for (CompletableFuture<Void> result : results) {
+                result.get(5, TimeUnit.SECONDS);
+            }
+        }
+        assertEquals(1, batches.size());
+        assertEquals(5, batches.get(0).length);
+        assertEquals("BOS", batches.get(0)[0].getIata());
+    }
+
+    @Test
+    public void testBatchedByMaxBatch() throws Exception {
+        try (WeatherServiceClient client = WeatherServiceClient.builder(baseUrl)
+                .withBatchWindow(60000).withMaxBatch(3).build()) {
+            List<CompletableFuture<Void>> results = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                results.add(client.updateWeather("BOS", "wind", WIND));
+            }
+            // both batches are full, neither waits for the window
+            for (CompletableFuture<Void> result : results) {
+                result.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(2, batches.size());
+            assertEquals(3, batches.get(0).length);
+            assertEquals(3, batches.get(1).length);
+        }
+    }
+
+    @Test
+    public void testThrottledEntriesRetried() throws Exception {
+        batchAnswers.add(new int[]{200, 429, 404});
+        try (WeatherServiceClient client = WeatherServiceClient.builder(baseUrl)
+                .withBatchWindow(50).withBackoff(10).build()) {
+            CompletableFuture<Void> bos = client.updateWeather("BOS", "wind", WIND);
+            CompletableFuture<Void> jfk = client.updateWeather("JFK", "wind", WIND);
+            CompletableFuture<Void> xxx = client.updateWeather("XXX", "wind", WIND);
+            bos.get(5, TimeUnit.SECONDS);
+            jfk.get(5, TimeUnit.SECONDS);
+            try {
+                xxx.get(5, TimeUnit.SECONDS);
+                fail("404 is not retried");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("404"));
+            }
+
+            assertEquals(2, batches.size());
+            assertEquals(1, batches.get(1).length);
+            assertEquals("JFK", batches.get(1)[0].getIata());
+
+            Map<String, Object> updates = client.getMetrics().getSnapshot().get("updateWeather");
+            assertEquals(3L, updates.get("calls"));
+            assertEquals(1L, updates.get("errors"));
+            assertEquals(1L, updates.get("retries"));
+        }
+    }
+
+    @Test
+    public void testRetryAfterHonoured() throws Exception {
+        pingAnswers.add(new String[]{"429", "1"});
+        pingAnswers.add(new String[]{"503", null});
+        try (WeatherServiceClient client = WeatherServiceClient.builder(baseUrl).withBackoff(1).build()) {
+            long start = System.nanoTime();
+            assertEquals("ready", client.ping().get(10, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.SECONDS.toNanos(1));
+
+            Map<String, Object> ping = client.getMetrics().getSnapshot().get("ping");
+            assertEquals(1L, ping.get("calls"));
+            assertEquals(0L, ping.get("errors"));
+            assertEquals(2L, ping.get("retries"));
+            assertTrue((Float) ping.get("max_ms") >= 1000);
+        }
+    }
+
+    @Test
+    public void testRetriesGiveUp() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            pingAnswers.add(new String[]{"503", null});
+        }
+        try (WeatherServiceClient client = WeatherServiceClient.builder(baseUrl)
+                .withBackoff(1).withMaxRetries(2).build()) {
+            try {
+                client.ping().get(5, TimeUnit.SECONDS);
+                fail("503 after every retry");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage().contains("503"));
+            }
+            assertEquals(2L, client.getMetrics().getSnapshot().get("ping").get("retries"));
+        }
+    }
+
+    @Test
+    public void testConnectionsPooledPerClient() throws Exception {
+        // answered chunked
+        pingAnswers.add(new String[]{"200", null});
+        try (WeatherServiceClient client = WeatherServiceClient.builder(baseUrl).withMaxConnections(4).build()) {
+            assertEquals("ready", client.ping().get(5, TimeUnit.SECONDS));
+            List<CompletableFuture<String>> pings = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                pings.add(client.ping());
+            }
+            for (CompletableFuture<String> ping : pings) {
+                assertEquals("ready", ping.get(5, TimeUnit.SECONDS));
+            }
+            for (int i = 0; i < 10; i++) {
+                assertEquals("ready", client.ping().get(5, TimeUnit.SECONDS));
+            }
+            assertTrue(requestThreads() > 0);
+        }
+        assertTrue(pingConnections.toString(), pingConnections.size() <= 4);
+        assertNull(System.getProperty("http.maxConnections"));
+        // the client leaves no threads behind
+        long deadline = System.currentTimeMillis() + 5000;
+        while (requestThreads() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, requestThreads());
+    }
+
+    private static long requestThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("weather-client-request")).count();
+    }
+
+    @Test
+    public void testUpdateAfterCloseFails() throws Exception {
+        WeatherServiceClient client = WeatherServiceClient.builder(baseUrl).build();
+        client.close();
+        try {
+            client.updateWeather("BOS", "wind", WIND).get(5, TimeUnit.SECONDS);
+            fail("closed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @Test
+    public void testRetryAfterCloseFails() throws Exception {
+        // throttled however early the retry comes
+        for (int i = 0; i < 4; i++) {
+            batchAnswers.add(new int[]{429});
+        }
+        WeatherServiceClient client = WeatherServiceClient.builder(baseUrl).withBatchWindow(1).withBackoff(500)
+                .build();
+        CompletableFuture<Void> result = client.updateWeather("BOS", "wind", WIND);
+        while (batches.isEmpty()) {
+            Thread.sleep(5);
+        }
+        client.close();
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            fail("closed before the retry");
+        } catch (ExecutionException e) {
+            // the retry came due after the close
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    private void batch(HttpExchange exchange) throws IOException {
+        WeatherUpdate[] batch = gson.fromJson(new String(readFully(exchange.getRequestBody()),
+                StandardCharsets.UTF_8), WeatherUpdate[].class);
+        batches.add(batch);
+        int[] statuses = batchAnswers.poll();
+        if (statuses == null) {
+            statuses = new int[batch.length];
+            Arrays.fill(statuses, 200);
+        }
+        respond(exchange, 200, gson.toJson(statuses));
+    }
+
+    private void ping(HttpExchange exchange) throws IOException {
+        pingConnections.add(exchange.getRemoteAddress().getPort());
+        String[] answer = pingAnswers.poll();
+        if (answer == null) {
+            respond(exchange, 200, "ready");
+            return;
+        } else if (answer[0].equals("200")) {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("ready".getBytes(StandardCharsets.UTF_8));
+            }
+            return;
+        }
+        if (answer[1] != null) {
+            exchange.getResponseHeaders().add("Retry-After", answer[1]);
+        }
+        respond(exchange, Integer.parseInt(answer[0]), "");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream retval = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            retval.write(chunk, 0, n);
+        }
+        return retval.toByteArray();
+    }
+}
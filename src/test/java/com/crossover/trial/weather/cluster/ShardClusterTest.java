@@ -0,0 +1,36 @@
+package com.crossover.trial.weather.cluster;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardClusterTest {
+
+    private static final List<String> NODES = Arrays.asList("http://127.0.0.1:8080/", "http://127.0.0.1:8081/");
+
+    @Test
+    public void testForwardedTrustedFromNodesOnly() {
+        ShardCluster cluster = new ShardCluster(NODES, NODES.get(0), 250);
+        assertTrue(cluster.trusts(NODES.get(1), "127.0.0.1"));
+        assertFalse(cluster.trusts(NODES.get(1), "10.1.2.3"));
+        assertFalse(cluster.trusts(NODES.get(1), null));
+    }
+
+    @Test
+    public void testForwardedTrustedWithSecretOnly() {
+        ShardCluster cluster = new ShardCluster(NODES, NODES.get(0), 250, "s3cret");
+        assertTrue(cluster.trusts("s3cret", "10.1.2.3"));
+        assertFalse(cluster.trusts(NODES.get(1), "127.0.0.1"));
+        assertFalse(cluster.trusts("s3cre", "127.0.0.1"));
+    }
+
+    @Test
+    public void testNothingTrustedWhenAlone() {
+        // no weather.cluster.nodes in the tests
+        assertFalse(ShardCluster.isTrusted("http://127.0.0.1:8081/", "127.0.0.1"));
+    }
+}
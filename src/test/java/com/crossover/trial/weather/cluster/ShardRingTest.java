@@ -0,0 +1,45 @@
+package com.crossover.trial.weather.cluster;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ShardRingTest {
+
+    private static String code(int i) {
+        return "" + (char) ('A' + i % 26) + (char) ('A' + i / 26 % 26) + (char) ('A' + i / 676 % 26);
+    }
+
+    @Test
+    public void testSpreadsEvenly() throws Exception {
+        ShardRing ring = new ShardRing(Arrays.asList("http://a:8080/", "http://b:8080/", "http://c:8080/"));
+        int[] owned = new int[3];
+        for (int i = 0; i < 17576; i++) {
+            owned[ring.ownerIndex(code(i))]++;
+        }
+        for (int n : owned) {
+            assertTrue(Arrays.toString(owned), Math.abs(n - 17576 / 3) < 17576 / 3 / 5);
+        }
+    }
+
+    @Test
+    public void testAddingANodeOnlyMovesItsShare() throws Exception {
+        List<String> three = Arrays.asList("http://a:8080/", "http://b:8080/", "http://c:8080/");
+        ShardRing before = new ShardRing(three);
+        ShardRing after = new ShardRing(Arrays.asList("http://a:8080/", "http://b:8080/", "http://c:8080/",
+                "http://d:8080/"));
+        int moved = 0;
+        for (int i = 0; i < 17576; i++) {
+            String owner = after.owner(code(i));
+            if (!owner.equals(before.owner(code(i)))) {
+                assertEquals("http://d:8080/", owner);
+                moved++;
+            }
+        }
+        assertTrue("moved " + moved, moved > 17576 / 4 * 0.7 && moved < 17576 / 4 * 1.3);
+    }
+}
@@ -0,0 +1,148 @@
+package com.crossover.trial.weather.cluster;
+
+import com.crossover.trial.weather.WeatherServerProcesses;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Starts local WeatherServer processes as a sharded cluster and drives collector writes at them. Not part of the
+ * unit test run; run it on its own, e.g. <code>mvn -Dtest=ShardedClusterIT test</code>. Write throughput only
+ * scales with the node count when the machine has a core or two to spare per node.
+ */
+public class ShardedClusterIT {
+
+    private static final int AIRPORTS = 2000;
+
+    private static final long WRITE_MILLIS = 5000;
+
+    private final WeatherServerProcesses servers = new WeatherServerProcesses();
+
+    private final Client client = ClientBuilder.newClient();
+
+    /** airports a data point was stored for */
+    private final Set<String> written = ConcurrentHashMap.newKeySet();
+
+    @After
+    public void tearDown() throws Exception {
+        servers.close();
+        client.close();
+    }
+
+    @Test
+    public void testWriteScaling() throws Exception {
+        Path catalog = writeCatalog();
+        double single = writeThroughput(startCluster(catalog, 1, 18080));
+        servers.stopAll();
+        written.clear();
+        List<String> nodes = startCluster(catalog, 3, 18180);
+        double sharded = writeThroughput(nodes);
+        System.out.printf("writes/s: 1 node %.0f, 3 nodes %.0f, speedup %.2f%n", single, sharded, sharded / single);
+
+        // a wide radius query from any node finds the readings held by every shard
+        Response response = client.target(nodes.get(0)).path("query/weather/AAA/100000").request().get();
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeaderString(ShardCluster.MISSING_SHARDS));
+        String body = response.readEntity(String.class);
+        assertEquals(written.size(), body.split("\"wind\"").length - 1);
+
+        // so does an aggregate, from the summaries the shards send
+        response = client.target(nodes.get(0)).path("query/aggregate/AAA/100000").request().get();
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeaderString(ShardCluster.MISSING_SHARDS));
+        JsonObject wind = new JsonParser().parse(response.readEntity(String.class)).getAsJsonObject()
+                .getAsJsonObject("points").getAsJsonObject("wind");
+        assertEquals(written.size(), wind.get("count").getAsInt());
+        assertEquals(5.5, wind.get("mean").getAsDouble(), 1e-6);
+
+        if (Runtime.getRuntime().availableProcessors() >= 6) {
+            assertTrue("speedup " + sharded / single, sharded / single > 2);
+        }
+    }
+
+    private static String code(int i) {
+        return "" + (char) ('A' + i / 676 % 26) + (char) ('A' + i / 26 % 26) + (char) ('A' + i % 26);
+    }
+
+    private static Path writeCatalog() throws IOException {
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < AIRPORTS; i++) {
+            sb.append(code(i)).append(',').append(40 + random.nextDouble()).append(',')
+                    .append(-74 + random.nextDouble()).append('\n');
+        }
+        Path catalog = Files.createTempFile("airports", ".dat");
+        catalog.toFile().deleteOnExit();
+        Files.write(catalog, sb.toString().getBytes(StandardCharsets.UTF_8));
+        return catalog;
+    }
+
+    private List<String> startCluster(Path catalog, int size, int basePort) throws Exception {
+        List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            nodes.add("http://localhost:" + (basePort + i) + "/");
+        }
+        for (String node : nodes) {
+            servers.start(node, "weather.cluster.nodes=" + String.join(",", nodes), "weather.airports=" + catalog,
+                    "weather.cluster.budgetMillis=2000", "weather.limit.source.rate=0", "weather.limit.iata.rate=0");
+        }
+        return nodes;
+    }
+
+    /**
+     * Post data points from a few writers per node for a while, each straight to the airport's shard.
+     *
+     * @return data points stored per second
+     */
+    private double writeThroughput(List<String> nodes) throws Exception {
+        ShardRing ring = new ShardRing(nodes);
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder stored = new LongAdder();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4 * nodes.size(); w++) {
+            final int seed = w;
+            Thread t = new Thread(() -> {
+                Random random = new Random(seed);
+                while (running.get()) {
+                    String iata = code(random.nextInt(AIRPORTS));
+                    Response response = client.target(ring.owner(iata)).path("collect/weather/" + iata + "/wind")
+                            .request().post(Entity.json("{\"mean\":5.5,\"first\":1,\"second\":3,\"third\":7,\"count\":10}"));
+                    response.close();
+                    if (response.getStatus() == 200) {
+                        written.add(iata);
+                        stored.increment();
+                    }
+                }
+            });
+            t.start();
+            writers.add(t);
+        }
+        Thread.sleep(WRITE_MILLIS);
+        running.set(false);
+        for (Thread t : writers) {
+            t.join();
+        }
+        return stored.sum() * 1000.0 / WRITE_MILLIS;
+    }
+}
@@ -0,0 +1,72 @@
+package com.crossover.trial.weather.codec;
+
+import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.exception.MalformedPayloadException;
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class WireDecoderTest {
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void testDataPointMatchesGson() throws Exception {
+        String[] documents = {
+                "{\"mean\":22.5,\"first\":10,\"second\":20,\"third\":30,\"count\":10}",
+                " { \"count\" : 3 , \"mean\" : -1.25e1, \"extra\": {\"a\": [1, \"x\", null, true]}, \"first\": null }\n",
+                "{\"mean\":\"4\",\"first\":\"1\",\"third\":7.0,\"second\":3}",
+                "{}",
+                "{\"mean\":0.12345678901234567890}",
+        };
+        for (String json : documents) {
+            DataPoint expected = gson.fromJson(json, DataPoint.class);
+            assertEquals(json, expected, WireDecoder.decodeDataPoint(json));
+            ByteArrayInputStream in = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+            assertEquals(json, expected, WireDecoder.decodeDataPoint(in));
+        }
+        assertNull(WireDecoder.decodeDataPoint(" null "));
+    }
+
+    @Test
+    public void testAirportMatchesGson() throws Exception {
+        String json = "{\"iata\":\"BOG\",\"icao\":\"SKBO\",\"name\":\"Aeropuerto \\\"El Dorado\\\"\\u00e9\\n\","
+                + "\"city\":\"Bogot\u00e1\",\"country\":\"Colombia\",\"latitude\":4.701594,\"longitude\":-74.146947,"
+                + "\"feet\":8361,\"timezone\":-5,\"dst\":\"U\"}";
+        AirportData decoded = WireDecoder.decodeAirport(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(gson.fromJson(json, AirportData.class).toString(), decoded.toString());
+        assertEquals("Aeropuerto \"El Dorado\"\u00e9\n", decoded.getName());
+        assertEquals("Bogot\u00e1", decoded.getCity());
+    }
+
+    @Test
+    public void testRejectsMalformedInput() throws Exception {
+        assertMalformed("", "empty payload at offset 0");
+        assertMalformed("{\"mean\" 1}", "expected ':' after field name at offset 8");
+        assertMalformed("{\"mean\":1,}", "expected a field name at offset 10");
+        assertMalformed("{\"mean\":1 \"first\":2}", "expected ',' or '}' at offset 10");
+        assertMalformed("{\"count\":1.5}", "expected an integer at offset 9");
+        assertMalformed("{\"mean\":abc}", "expected a number at offset 8");
+        assertMalformed("{\"mean\":1}x", "unexpected data after the document at offset 10");
+        assertMalformed("{\"mean\":1", "unterminated object at offset 9");
+        assertMalformed("{\"x\":\"a\\q\"}", "invalid escape '\\q' at offset 7");
+        assertMalformed("[1]", "expected '{' at offset 0");
+    }
+
+    private static void assertMalformed(String json, String message) {
+        try {
+            WireDecoder.decodeDataPoint(json);
+            fail("accepted " + json);
+        } catch (MalformedPayloadException e) {
+            assertEquals(json, message, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.crossover.trial.weather.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherTableTest {
+
+    private static final int WIND = DataPointTypeRegistry.get(DataPointType.WIND).getSlot();
+
+    private static final int PRESSURE = DataPointTypeRegistry.get(DataPointType.PRESSURE).getSlot();
+
+    @Test
+    public void testPointsReadBackOnBothBackends() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            WeatherTable table = new WeatherTable(offHeap);
+            List<WeatherTable.Row> rows = new ArrayList<>();
+            // past the first chunk
+            for (int i = 0; i < WeatherTable.CHUNK_ROWS + 10; i++) {
+                rows.add(table.allocate(new AirportData()));
+            }
+            WeatherTable.Row last = rows.get(rows.size() - 1);
+            DataPoint wind = new DataPoint(-5, 20, 0, Integer.MAX_VALUE, 7);
+            wind.setMean(-12.25);
+            last.update(WIND, wind, 1000);
+            last.update(PRESSURE, new DataPoint.Builder().withMean(1013).withCount(1).build(), 2000);
+
+            DataPoint read = last.getDataPoint(WIND);
+            assertEquals(-5, read.getFirst());
+            assertEquals(20, read.getSecond());
+            assertEquals(Integer.MAX_VALUE, read.getThird());
+            assertEquals(7, read.getCount());
+            assertEquals(-12.25, read.getMean(), 0);
+            assertEquals(1000, last.getUpdateTime(WIND));
+            assertEquals(2000, last.getUpdateTime(PRESSURE));
+            assertEquals(2000, last.getLastUpdateTime());
+            assertTrue(last.hasData());
+
+            // the rows share chunks, but not slots
+            assertNull(rows.get(rows.size() - 2).getDataPoint(WIND));
+            assertFalse(rows.get(0).hasData());
+            assertEquals(offHeap, table.isOffHeap());
+            assertEquals(offHeap ? 2 * WeatherTable.CHUNK_ROWS * WeatherTable.rowBytes() : 0,
+                    table.offHeapBytes());
+
+            last.setDataPoint(WIND, null);
+            assertNull(last.getDataPoint(WIND));
+            assertEquals(AtmosphericInformation.NO_UPDATE, last.getUpdateTime(WIND));
+        }
+    }
+
+    @Test
+    public void testFreedRowsReusedBeforeGrowing() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            WeatherTable table = new WeatherTable(offHeap);
+            List<WeatherTable.Row> rows = new ArrayList<>();
+            for (int i = 0; i < WeatherTable.CHUNK_ROWS; i++) {
+                rows.add(table.allocate(new AirportData()));
+            }
+            WeatherTable.Row removed = rows.get(10);
+            removed.update(WIND, new DataPoint.Builder().withMean(30).withCount(1).build(), 1000);
+            long full = table.heapBytes();
+
+            table.free(removed);
+            // freeing twice gives the row back once
+            table.free(removed);
+            WeatherTable.Row reused = table.allocate(new AirportData());
+            assertEquals(full, table.heapBytes());
+            assertFalse(reused.hasData());
+            assertNull(reused.getDataPoint(WIND));
+            assertEquals(0, reused.getLastUpdateTime());
+
+            table.allocate(new AirportData());
+            assertTrue(table.heapBytes() > full);
+        }
+    }
+
+    @Test
+    public void testWritesToFreedRowIgnored() {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            WeatherTable table = new WeatherTable(offHeap);
+            WeatherTable.Row removed = table.allocate(new AirportData());
+            removed.update(WIND, new DataPoint.Builder().withMean(30).withCount(1).build(), 1000);
+            table.free(removed);
+            assertNull(removed.getDataPoint(WIND));
+            assertFalse(removed.hasData());
+
+            WeatherTable.Row reused = table.allocate(new AirportData());
+            // a write still queued for the removed airport
+            removed.update(WIND, new DataPoint.Builder().withMean(40).withCount(1).build(), 2000);
+            removed.setDataPoint(PRESSURE, new DataPoint.Builder().withMean(1013).withCount(1).build());
+            assertNull(removed.getDataPoint(WIND));
+            assertEquals(AtmosphericInformation.NO_UPDATE, removed.getUpdateTime(WIND));
+            assertFalse(reused.hasData());
+            assertNull(reused.getDataPoint(WIND));
+            assertNull(reused.getDataPoint(PRESSURE));
+        }
+    }
+}
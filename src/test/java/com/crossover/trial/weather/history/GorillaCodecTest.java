@@ -0,0 +1,66 @@
+package com.crossover.trial.weather.history;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GorillaCodecTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(7);
+        long[] times = new long[2000];
+        double[][] values = new double[times.length][GorillaEncoder.COLUMNS];
+        GorillaEncoder encoder = new GorillaEncoder();
+        long time = 1_500_000_000_000L;
+        for (int i = 0; i < times.length; i++) {
+            // regular steps with jitter of every size, going backwards now and then
+            switch (i % 7) {
+                case 0: time += 300_000; break;
+                case 1: time += 300_000 + random.nextInt(100) - 50; break;
+                case 2: time += random.nextInt(4000); break;
+                case 3: time -= random.nextInt(1_000_000); break;
+                default: time += 300_000;
+            }
+            times[i] = time;
+            double[] row = values[i];
+            row[0] = i % 3 == 0 ? 21.5 : random.nextGaussian() * 10;
+            row[1] = i % 5 == 0 ? Double.NaN : Math.floor(row[0]);
+            row[2] = i % 11 == 0 ? -0.0 : row[0];
+            row[3] = i % 13 == 0 ? Double.MAX_VALUE : Double.MIN_VALUE;
+            row[4] = i;
+            encoder.append(time, row[0], row[1], row[2], row[3], row[4]);
+        }
+        assertEquals(times.length, encoder.getCount());
+
+        GorillaDecoder decoder = new GorillaDecoder(encoder.toByteArray(), encoder.getCount());
+        for (int i = 0; i < times.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals(times[i], decoder.getTime());
+            for (int column = 0; column < GorillaEncoder.COLUMNS; column++) {
+                assertEquals(Double.doubleToRawLongBits(values[i][column]),
+                        Double.doubleToRawLongBits(decoder.value(column)));
+            }
+        }
+        assertFalse(decoder.next());
+    }
+
+    @Test
+    public void testRegularSeriesIsSmall() throws Exception {
+        GorillaEncoder encoder = new GorillaEncoder();
+        for (int i = 0; i < 1000; i++) {
+            encoder.append(i * 60_000L, new DataPoint(10, 20, 15, 30, 4));
+        }
+        // a bit for the time and each column per point after the first
+        assertTrue(encoder.toByteArray().length < 1000 * 6 / 8 + 64);
+
+        GorillaDecoder decoder = new GorillaDecoder(encoder.toByteArray(), encoder.getCount());
+        decoder.next();
+        assertEquals(new DataPoint(10, 20, 15, 30, 4), decoder.getDataPoint());
+    }
+}
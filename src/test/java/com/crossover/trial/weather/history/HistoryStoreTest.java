@@ -0,0 +1,195 @@
+package com.crossover.trial.weather.history;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.HistoryPoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HistoryStoreTest {
+
+    private static final long HOUR = 3_600_000;
+
+    private static final long DAY = 24 * HOUR;
+
+    private Path dir;
+
+    private HistoryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("weather-history");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private static DataPoint point(int mean) {
+        return new DataPoint(mean - 5, mean, mean, mean + 5, 1);
+    }
+
+    @Test
+    public void testQueryAcrossSegmentsAndHead() throws Exception {
+        store = new HistoryStore(dir, 0, 365 * DAY, 30 * DAY, HOUR, 4);
+        for (int i = 0; i < 10; i++) {
+            store.record("BOS", 0, i * 1000, point(i));
+            store.record("JFK", 0, i * 1000, point(100 + i));
+        }
+        store.flush();
+        for (int i = 10; i < 15; i++) {
+            store.record("BOS", 0, i * 1000, point(i));
+        }
+        store.record("BOS", 1, 0, point(50));
+
+        List<HistoryPoint> history = store.history("BOS", 0, 3000, 12000);
+        assertEquals(10, history.size());
+        for (int i = 0; i < history.size(); i++) {
+            assertEquals((i + 3) * 1000, history.get(i).getTime());
+            assertEquals(point(i + 3), history.get(i).getDataPoint());
+        }
+        assertEquals(1, store.history("BOS", 1, 0, Long.MAX_VALUE).size());
+        assertEquals(0, store.history("LGA", 0, 0, Long.MAX_VALUE).size());
+
+        // segments and flushed heads are read back on restart
+        store.close();
+        store = new HistoryStore(dir, 0, 365 * DAY, 30 * DAY, HOUR, 4);
+        assertEquals(15, store.history("BOS", 0, 0, Long.MAX_VALUE).size());
+        assertEquals(10, store.history("JFK", 0, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        store = new HistoryStore(dir, 0, 365 * DAY, 30 * DAY, HOUR, 2);
+        long now = 100 * DAY;
+        for (int flush = 0; flush < 4; flush++) {
+            for (int i = 0; i < 5; i++) {
+                store.record("BOS", 0, now + flush * 5000 + i * 1000, point(flush * 5 + i));
+            }
+            store.flush();
+        }
+        Path leftover = Files.list(dir).sorted().findFirst().get();
+        byte[] copy = Files.readAllBytes(leftover);
+        store.maintain(now);
+
+        Map<String, Object> stats = store.getStats();
+        assertEquals(1, stats.get("segments"));
+        assertEquals(3L, stats.get("compactions"));
+        assertEquals(20L, stats.get("points"));
+        List<HistoryPoint> history = store.history("BOS", 0, 0, Long.MAX_VALUE);
+        assertEquals(20, history.size());
+        for (int i = 0; i < history.size(); i++) {
+            assertEquals(point(i), history.get(i).getDataPoint());
+        }
+
+        // a segment a compaction cut short left behind is dropped on restart
+        store.close();
+        Files.write(leftover, copy);
+        store = new HistoryStore(dir, 0, 365 * DAY, 30 * DAY, HOUR, 2);
+        assertEquals(20, store.history("BOS", 0, 0, Long.MAX_VALUE).size());
+        assertEquals(1, Files.list(dir).count());
+    }
+
+    @Test
+    public void testRollupAndRetention() throws Exception {
+        store = new HistoryStore(dir, 0, 10 * DAY, DAY, HOUR, 4);
+        long now = 100 * DAY;
+        // a reading every ten minutes over twelve days, flushed daily
+        for (long time = now - 12 * DAY; time < now; time += 10 * 60_000) {
+            store.record("BOS", 0, time, point((int) (time / 60_000 % 60)));
+            if (time % DAY == 0) {
+                store.flush();
+            }
+        }
+        store.maintain(now);
+
+        List<HistoryPoint> history = store.history("BOS", 0, 0, Long.MAX_VALUE);
+        assertEquals(now - 10 * DAY, history.get(0).getTime());
+        // hourly rollups of six readings each, then the raw readings of the last day
+        assertEquals(9 * 24 + 6 * 24, history.size());
+        HistoryPoint rollup = history.get(0);
+        assertEquals(25, rollup.getDataPoint().getMean(), 1e-9);
+        assertEquals(20, rollup.getDataPoint().getFirst());
+        assertEquals(6, rollup.getDataPoint().getCount());
+        assertEquals(now - DAY, history.get(9 * 24).getTime());
+        assertEquals(point(0), history.get(9 * 24).getDataPoint());
+
+        // rolling up again changes nothing
+        store.maintain(now);
+        assertEquals(history.size(), store.history("BOS", 0, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testCompactionCappedBySize() throws Exception {
+        long now = 100 * DAY;
+        store = new HistoryStore(dir, 0, 365 * DAY, 30 * DAY, HOUR, 2);
+        flushes(4, now);
+        store.close();
+        long segmentBytes = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                segmentBytes = Math.max(segmentBytes, Files.size(file));
+            }
+        }
+
+        // two segments of level 0 fit, two of level 1 would not
+        store = new HistoryStore(dir, 0, 365 * DAY, 30 * DAY, HOUR, 2, 2 * segmentBytes);
+        store.maintain(now);
+        Map<String, Object> stats = store.getStats();
+        assertEquals(2L, stats.get("compactions"));
+        assertEquals(2, stats.get("segments"));
+        assertEquals(20, store.history("BOS", 0, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void testFailedCompactionDoesNotStopRollup() throws Exception {
+        long now = 100 * DAY;
+        store = new HistoryStore(dir, 0, 365 * DAY, DAY, HOUR, 2);
+        // old enough to be rolled up
+        flushes(2, now - 2 * DAY);
+        // where the compaction writes its segment
+        Path blocked = dir.resolve("seg-1-000000000001-000000000002.whs.tmp");
+        Files.createDirectory(blocked);
+        Files.createFile(blocked.resolve("in-the-way"));
+        try {
+            store.maintain(now);
+            fail("the compaction can not write its segment");
+        } catch (IOException e) {
+            // expected
+        }
+        Map<String, Object> stats = store.getStats();
+        assertEquals(0L, stats.get("compactions"));
+        assertEquals(2L, stats.get("rollups"));
+        assertTrue(store.history("BOS", 0, 0, Long.MAX_VALUE).size() < 20);
+    }
+
+    /**
+     * Flush five readings a second apart as many times, to make as many segments of level 0.
+     */
+    private void flushes(int count, long start) throws IOException {
+        for (int flush = 0; flush < count; flush++) {
+            for (int i = 0; i < 5; i++) {
+                store.record("BOS", 0, start + flush * 5000 + i * 1000, point(flush * 5 + i));
+            }
+            store.flush();
+        }
+    }
+}
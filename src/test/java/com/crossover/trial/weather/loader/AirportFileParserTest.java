@@ -0,0 +1,80 @@
+package com.crossover.trial.weather.loader;
+
+import com.crossover.trial.weather.domain.AirportData;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AirportFileParserTest {
+
+    @Test
+    public void testOpenFlightsLayout() throws Exception {
+        InputStream is = getClass().getClassLoader().getResourceAsStream("airports.txt");
+        List<AirportData> airports = AirportFileParser.parse(is);
+        assertEquals(10, airports.size());
+
+        AirportData bos = airports.get(0);
+        assertEquals("BOS", bos.getIata());
+        assertEquals("KBOS", bos.getIcao());
+        assertEquals("General Edward Lawrence Logan Intl", bos.getName());
+        assertEquals("Boston", bos.getCity());
+        assertEquals("United States", bos.getCountry());
+        assertEquals(42.364347, bos.getLatitude(), 0);
+        assertEquals(-71.005181, bos.getLongitude(), 0);
+        assertEquals(19, bos.getFeet());
+        assertEquals(-5, bos.getTimezone(), 0);
+        assertEquals("A", bos.getDst());
+    }
+
+    @Test
+    public void testQuotedCommasAndMissingValues() throws Exception {
+        String data = "9,\"Aeropuerto \"\"El Dorado\"\", Bogota\",\"Bogota, D.C.\",\"Colombia\",\"BOG\",\"SKBO\","
+                + "4.701594,-74.146947,8361,-5,\"U\"\r\n"
+                + "10,\"Private strip\",\"Nowhere\",\"Canada\",\\N,\"CXX1\",50.5,-100.25,1200,-6.5,\\N\n";
+        List<AirportData> airports = AirportFileParser.parse(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(2, airports.size());
+        assertEquals("Aeropuerto \"El Dorado\", Bogota", airports.get(0).getName());
+        assertEquals("Bogota, D.C.", airports.get(0).getCity());
+        assertEquals("BOG", airports.get(0).getIata());
+        assertEquals(8361, airports.get(0).getFeet());
+        assertNull(airports.get(1).getIata());
+        assertNull(airports.get(1).getDst());
+        assertEquals(-6.5, airports.get(1).getTimezone(), 0);
+    }
+
+    @Test
+    public void testShortLayout() throws Exception {
+        InputStream is = getClass().getClassLoader().getResourceAsStream("airports.dat");
+        List<AirportData> airports = AirportFileParser.parse(is);
+        assertEquals(5, airports.size());
+        assertEquals("EWR", airports.get(1).getIata());
+        assertEquals(40.6925, airports.get(1).getLatitude(), 0);
+        assertEquals(-74.168667, airports.get(1).getLongitude(), 0);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            String code = "" + (char) ('A' + i % 26) + (char) ('A' + i / 26 % 26) + (char) ('A' + i / 676 % 26);
+            sb.append(i).append(",\"Airport ").append(i).append("\",\"City, ").append(i % 100).append("\",\"Country\",\"")
+                    .append(code).append("\",\"K").append(code).append("\",").append(i / 1000.0).append(',')
+                    .append(-i / 3000.0).append(",").append(i % 5000).append(",-5,\"A\"\n");
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        List<AirportData> sequential = AirportFileParser.parse(ByteBuffer.wrap(bytes), Integer.MAX_VALUE);
+        List<AirportData> parallel = AirportFileParser.parse(ByteBuffer.wrap(bytes), 1024);
+        assertEquals(20000, sequential.size());
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i).toString(), parallel.get(i).toString());
+        }
+        assertEquals(19.999, sequential.get(19999).getLatitude(), 0);
+    }
+}
@@ -0,0 +1,57 @@
+package com.crossover.trial.weather.provider;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AdmissionFilterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testSettingsNoLimiterAcceptsRefused() {
+        for (double[] settings : new double[][]{{10, 0}, {10, -1}, {-1, 10}, {Double.NaN, 10}}) {
+            try {
+                new AdmissionFilter.Limiters("weather.limit.iata", settings[0], (int) settings[1], 10);
+                fail("accepted " + settings[0] + "/" + settings[1]);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("weather.limit.iata.burst"));
+            }
+        }
+        // a rate of 0 turns the limit off, whatever the burst
+        AdmissionFilter.Limiters off = new AdmissionFilter.Limiters("weather.limit.iata", 0, 0, 10);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, off.acquire("BOS", 0));
+        }
+        assertEquals(0, off.size());
+    }
+
+    @Test
+    public void testFullMapSweptAtMostOncePerSecond() {
+        AdmissionFilter.Limiters limiters = new AdmissionFilter.Limiters("weather.limit.source", 1, 1, 3);
+        long now = System.nanoTime() + SECOND;
+        for (String key : new String[]{"a", "b", "c"}) {
+            assertEquals(0, limiters.acquire(key, now));
+        }
+        assertEquals(3, limiters.size());
+
+        // none idle yet: the newcomers share the overflow limiter, one request between them
+        assertEquals(0, limiters.acquire("d", now));
+        assertTrue(limiters.acquire("e", now) > 0);
+        assertEquals(3, limiters.size());
+
+        // idle by now, but the last sweep was less than a second ago
+        now += SECOND / 2;
+        assertTrue(limiters.acquire("f", now) > 0);
+        assertEquals(3, limiters.size());
+
+        now += SECOND;
+        assertEquals(0, limiters.acquire("g", now));
+        assertEquals(1, limiters.size());
+        assertTrue(limiters.acquire("g", now) > 0);
+    }
+}
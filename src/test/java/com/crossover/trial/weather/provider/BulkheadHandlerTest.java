@@ -0,0 +1,144 @@
+package com.crossover.trial.weather.provider;
+
+import org.glassfish.grizzly.http.server.HttpHandler;
+import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.Request;
+import org.glassfish.grizzly.http.server.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkheadHandlerTest {
+
+    /** the thread each path was served on */
+    private final Map<String, String> threads = new ConcurrentHashMap<>();
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+
+    private final BulkheadHandler.Bulkhead collect = new BulkheadHandler.Bulkhead(BulkheadHandler.COLLECT, 1, 1);
+
+    private HttpServer server;
+
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        HttpHandler resources = new HttpHandler() {
+            @Override
+            public void service(Request request, Response response) throws Exception {
+                threads.put(request.getRequestURI(), Thread.currentThread().getName());
+                if (request.getRequestURI().endsWith("/slow")) {
+                    started.countDown();
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                response.setStatus(200);
+            }
+        };
+        int port;
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        server = HttpServer.createSimpleServer(null, "localhost", port);
+        server.getServerConfiguration().addHttpHandler(new BulkheadHandler(resources, "/",
+                new BulkheadHandler.Bulkhead(BulkheadHandler.QUERY, 1, 4),
+                collect,
+                new BulkheadHandler.Bulkhead(BulkheadHandler.REPLICATION, 1, 0)), "/");
+        server.start();
+        baseUrl = "http://localhost:" + port;
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        clients.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void testRoutedByPath() {
+        assertEquals(BulkheadHandler.QUERY, BulkheadHandler.bulkhead("query/weather/BOS/0"));
+        assertEquals(BulkheadHandler.QUERY, BulkheadHandler.bulkhead("/query"));
+        assertEquals(BulkheadHandler.COLLECT, BulkheadHandler.bulkhead("queryx"));
+        assertEquals(BulkheadHandler.COLLECT, BulkheadHandler.bulkhead("collect/weather/BOS/wind"));
+        assertEquals(BulkheadHandler.REPLICATION, BulkheadHandler.bulkhead("replication/log"));
+        assertEquals(BulkheadHandler.COLLECT, BulkheadHandler.bulkhead("admin/memory"));
+    }
+
+    @Test
+    public void testServedOnTheirPool() throws Exception {
+        for (String path : new String[]{"/query/ping", "/collect/ping", "/replication/log", "/admin/memory"}) {
+            assertEquals(200, get(path));
+        }
+        assertEquals("weather-query-1", threads.get("/query/ping"));
+        assertEquals("weather-collect-1", threads.get("/collect/ping"));
+        assertEquals("weather-replication-1", threads.get("/replication/log"));
+        assertEquals("weather-collect-1", threads.get("/admin/memory"));
+    }
+
+    @Test
+    public void testLongPollLeavesCollectorsAlone() throws Exception {
+        Future<Integer> poll = clients.submit(() -> get("/replication/slow"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(200, get("/collect/ping"));
+        // no queue, a second poll is turned away while the first holds the only thread
+        assertEquals(503, get("/replication/log"));
+        release.countDown();
+        assertEquals(200, (int) poll.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFullQueueAnswered503() throws Exception {
+        Future<Integer> running = clients.submit(() -> get("/collect/slow"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Integer> queued = clients.submit(() -> get("/collect/queued"));
+        while ((Integer) collect.getStats().get("queued") < 1) {
+            Thread.sleep(5);
+        }
+        assertEquals(503, get("/collect/shed"));
+        assertEquals(1L, collect.getStats().get("rejected"));
+        // the other side is not affected
+        assertEquals(200, get("/query/ping"));
+        release.countDown();
+        assertEquals(200, (int) running.get(5, TimeUnit.SECONDS));
+        assertEquals(200, (int) queued.get(5, TimeUnit.SECONDS));
+        assertFalse(threads.containsKey("/collect/shed"));
+    }
+
+    private int get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        try {
+            int status = connection.getResponseCode();
+            InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (body != null) {
+                while (body.read() >= 0) {
+                    // drain for keep-alive
+                }
+                body.close();
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
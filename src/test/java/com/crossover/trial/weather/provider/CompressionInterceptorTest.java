@@ -0,0 +1,107 @@
+package com.crossover.trial.weather.provider;
+
+import org.junit.Test;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class CompressionInterceptorTest {
+
+    @Test
+    public void testSelectEncoding() {
+        assertNull(CompressionInterceptor.selectEncoding(null));
+        assertNull(CompressionInterceptor.selectEncoding("identity"));
+        assertEquals("gzip", CompressionInterceptor.selectEncoding("gzip, deflate"));
+        assertEquals("gzip", CompressionInterceptor.selectEncoding("deflate, gzip"));
+        assertEquals("gzip", CompressionInterceptor.selectEncoding("x-gzip"));
+        assertEquals("deflate", CompressionInterceptor.selectEncoding("gzip;q=0.5, deflate"));
+        assertEquals("deflate", CompressionInterceptor.selectEncoding("gzip;q=0, deflate;q=0.1"));
+        assertNull(CompressionInterceptor.selectEncoding("gzip;q=0"));
+        assertNull(CompressionInterceptor.selectEncoding("gzip;q=oops"));
+        assertEquals("gzip", CompressionInterceptor.selectEncoding("*"));
+        assertEquals("deflate", CompressionInterceptor.selectEncoding("deflate, *;q=0.5"));
+    }
+
+    @Test
+    public void testBelowThresholdIsSentAsIs() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        CompressionInterceptor.ThresholdOutputStream out =
+                new CompressionInterceptor.ThresholdOutputStream(target, headers, "gzip", 1024);
+        byte[] entity = entity(1023);
+        out.write(entity);
+        assertEquals(0, target.size());
+        out.finish();
+
+        assertFalse(headers.containsKey(HttpHeaders.CONTENT_ENCODING));
+        assertArrayEquals(entity, target.toByteArray());
+    }
+
+    @Test
+    public void testPastThresholdIsCompressed() throws IOException {
+        for (String encoding : Arrays.asList("gzip", "deflate")) {
+            ByteArrayOutputStream target = new ByteArrayOutputStream();
+            MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+            headers.putSingle(HttpHeaders.CONTENT_LENGTH, 5000);
+            CompressionInterceptor.ThresholdOutputStream out =
+                    new CompressionInterceptor.ThresholdOutputStream(target, headers, encoding, 1024);
+            byte[] entity = entity(5000);
+            out.write(entity, 0, 1000);
+            out.write(entity, 1000, 4000);
+            out.finish();
+
+            assertEquals(encoding, headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+            assertFalse(headers.containsKey(HttpHeaders.CONTENT_LENGTH));
+            InputStream in = new ByteArrayInputStream(target.toByteArray());
+            assertArrayEquals(entity, readFully("gzip".equals(encoding) ? new GZIPInputStream(in)
+                    : new InflaterInputStream(in)));
+        }
+    }
+
+    @Test
+    public void testAbortWritesNothingMore() throws IOException {
+        ByteArrayOutputStream target = new ByteArrayOutputStream();
+        CompressionInterceptor.ThresholdOutputStream out = new CompressionInterceptor.ThresholdOutputStream(target,
+                new MultivaluedHashMap<>(), "gzip", 16);
+        out.write(entity(10));
+        out.abort();
+        assertEquals(0, target.size());
+
+        out = new CompressionInterceptor.ThresholdOutputStream(target, new MultivaluedHashMap<>(), "gzip", 16);
+        out.write(entity(100));
+        int written = target.size();
+        out.abort();
+        assertEquals(written, target.size());
+    }
+
+    private static byte[] entity(int size) {
+        byte[] retval = new byte[size];
+        for (int i = 0; i < size; i++) {
+            retval[i] = (byte) ('a' + i % 7);
+        }
+        return retval;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream retval = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        int n;
+        while ((n = in.read(chunk)) > 0) {
+            retval.write(chunk, 0, n);
+        }
+        return retval.toByteArray();
+    }
+}
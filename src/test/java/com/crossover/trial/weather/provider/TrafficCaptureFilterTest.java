@@ -0,0 +1,29 @@
+package com.crossover.trial.weather.provider;
+
+import com.crossover.trial.weather.codec.WireDecoder;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrafficCaptureFilterTest {
+
+    @Test
+    public void testBodyBufferedUpToLimit() throws IOException {
+        byte[] small = new byte[1000];
+        assertEquals(10, TrafficCaptureFilter.readAtMost(new ByteArrayInputStream(small), 10).length);
+        assertEquals(1000, TrafficCaptureFilter.readAtMost(new ByteArrayInputStream(small), 5000).length);
+        assertEquals(0, TrafficCaptureFilter.readAtMost(new ByteArrayInputStream(new byte[0]), 5000).length);
+    }
+
+    @Test
+    public void testOversizedBodyLeftUnread() throws IOException {
+        int limit = WireDecoder.MAX_PAYLOAD + 1;
+        InputStream in = new ByteArrayInputStream(new byte[10 * WireDecoder.MAX_PAYLOAD]);
+        assertEquals(limit, TrafficCaptureFilter.readAtMost(in, limit).length);
+        assertEquals(10 * WireDecoder.MAX_PAYLOAD - limit, in.available());
+    }
+}
@@ -0,0 +1,46 @@
+package com.crossover.trial.weather.replication;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeLogTest {
+
+    @Test
+    public void testReadsInOrderAndForgetsOldEntries() throws Exception {
+        ChangeLog log = new ChangeLog(8);
+        for (int i = 0; i < 20; i++) {
+            log.append(i, Change.Op.WEATHER, "BOS", "wind", "{}");
+        }
+        assertEquals(20, log.getHead());
+        List<Change> changes = log.read(13, 100, 0);
+        assertEquals(8, changes.size());
+        for (int i = 0; i < changes.size(); i++) {
+            assertEquals(13 + i, changes.get(i).getSeq());
+        }
+        assertEquals(3, log.read(15, 3, 0).size());
+        assertNull(log.read(12, 100, 0));
+    }
+
+    @Test
+    public void testReadWaitsForNewEntries() throws Exception {
+        ChangeLog log = new ChangeLog(8);
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                return;
+            }
+            log.append(1, Change.Op.DELETE_AIRPORT, "BOS", null, null);
+        }).start();
+        long start = System.currentTimeMillis();
+        List<Change> changes = log.read(1, 10, 5000);
+        assertEquals(1, changes.size());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(log.read(2, 10, 50).isEmpty());
+    }
+}
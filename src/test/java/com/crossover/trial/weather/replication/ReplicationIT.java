@@ -0,0 +1,91 @@
+package com.crossover.trial.weather.replication;
+
+import com.crossover.trial.weather.WeatherServerProcesses;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a primary and two replica processes, one of which joins late and starts from a snapshot, and checks both
+ * converge on the primary's state. Not part of the unit test run; run it on its own, e.g.
+ * <code>mvn -Dtest=ReplicationIT test</code>.
+ */
+public class ReplicationIT {
+
+    private static final String PRIMARY = "http://localhost:18280/";
+
+    private static final String[] REPLICAS = {"http://localhost:18281/", "http://localhost:18282/"};
+
+    private final WeatherServerProcesses servers = new WeatherServerProcesses();
+
+    private final Client client = ClientBuilder.newClient();
+
+    @After
+    public void tearDown() throws Exception {
+        servers.close();
+        client.close();
+    }
+
+    @Test
+    public void testReplicasConverge() throws Exception {
+        servers.start(PRIMARY, "weather.replication.role=primary", "weather.limit.iata.rate=0");
+        servers.start(REPLICAS[0], "weather.replication.role=replica", "weather.replication.primary=" + PRIMARY);
+
+        for (int i = 0; i < 200; i++) {
+            post("collect/weather/BOS/wind", "{\"mean\":" + i + ",\"first\":1,\"second\":3,\"third\":7,\"count\":10}");
+        }
+        post("collect/airport/SYD/-33.9/151.2", "{\"iata\":\"SYD\",\"latitude\":-33.9,\"longitude\":151.2}");
+        post("collect/weather/SYD/temperature", "{\"mean\":21.5,\"first\":18,\"second\":21,\"third\":24,\"count\":40}");
+        assertEquals(200, client.target(PRIMARY).path("collect/airport/MMU").request().delete().getStatus());
+
+        // the late replica starts from a snapshot and tails the log from there
+        servers.start(REPLICAS[1], "weather.replication.role=replica", "weather.replication.primary=" + PRIMARY);
+        post("collect/weather/JFK/humidity", "{\"mean\":55,\"first\":40,\"second\":55,\"third\":70,\"count\":12}");
+
+        long head = ping(PRIMARY).getAsJsonObject("replication").get("head").getAsLong();
+        for (String replica : REPLICAS) {
+            awaitApplied(replica, head);
+            for (String iata : new String[]{"BOS", "SYD", "JFK", "MMU"}) {
+                assertEquals(iata, query(PRIMARY, iata), query(replica, iata));
+            }
+            assertEquals(403, client.target(replica).path("collect/weather/BOS/wind").request()
+                    .post(Entity.json("{\"mean\":1}")).getStatus());
+        }
+        assertEquals(1, ping(REPLICAS[1]).getAsJsonObject("replication").get("snapshots").getAsLong());
+    }
+
+    private void post(String path, String json) {
+        assertEquals(200, client.target(PRIMARY).path(path).queryParam("ack", "applied").request()
+                .post(Entity.json(json)).getStatus());
+    }
+
+    private String query(String node, String iata) {
+        return client.target(node).path("query/weather/" + iata + "/0").request().get(String.class);
+    }
+
+    private JsonObject ping(String node) {
+        return new JsonParser().parse(client.target(node).path("query/ping").request().get(String.class))
+                .getAsJsonObject();
+    }
+
+    private void awaitApplied(String replica, long head) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true) {
+            JsonObject status = ping(replica).getAsJsonObject("replication");
+            if (status.get("applied").getAsLong() >= head) {
+                assertEquals(0, status.get("lag").getAsLong());
+                return;
+            }
+            assertTrue(replica + " stuck at " + status, System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+}
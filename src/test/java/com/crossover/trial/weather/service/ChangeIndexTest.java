@@ -0,0 +1,47 @@
+package com.crossover.trial.weather.service;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChangeIndexTest {
+
+    @Test
+    public void testLatestChangeOnly() throws Exception {
+        ChangeIndex index = new ChangeIndex(10);
+        index.touch("BOS");
+        long since = index.touch("JFK");
+        index.touch("LGA");
+        index.touch("BOS");
+        index.touch("LGA");
+
+        List<ChangeIndex.Entry> changes = index.changes(since, index.getSequence(), 10);
+        assertEquals(2, changes.size());
+        assertEquals("BOS", changes.get(0).getIata());
+        assertEquals("LGA", changes.get(1).getIata());
+        assertEquals(5, changes.get(1).getSequence());
+        assertEquals(3, index.changes(0, index.getSequence(), 10).size());
+    }
+
+    @Test
+    public void testTombstonesMoveTheHorizon() throws Exception {
+        ChangeIndex index = new ChangeIndex(2);
+        index.touch("BOS");
+        long first = index.delete("A1");
+        index.delete("A2");
+        assertEquals(0, index.getHorizon());
+        index.delete("A3");
+        assertEquals(first, index.getHorizon());
+        assertEquals(3, index.changes(0, index.getSequence(), 10).size());
+
+        // deleting and adding again leaves the airport once, no longer a tombstone
+        index.touch("A2");
+        index.delete("A4");
+        assertEquals(first, index.getHorizon());
+        assertTrue(index.changes(0, index.getSequence(), 10).stream().anyMatch(e -> e.getIata().equals("A2")
+                && !e.isDeleted()));
+    }
+}
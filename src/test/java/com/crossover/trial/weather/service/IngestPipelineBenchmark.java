@@ -0,0 +1,132 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the throughput and latency of {@link IngestPipeline#submit} with a minimal store as the sink, for a few
+ * producers writing to a few hot airports:
+ *
+ * <ul>
+ * <li>direct: no writer threads, each update applied on the producer thread</li>
+ * <li>async: one writer, the producer returns once the update is queued</li>
+ * <li>sync: one writer, the producer waits until its update is applied, as <code>ack=applied</code> does</li>
+ * <li>idle: one producer waiting for each update, with pauses long enough for the writer to park; its worst case
+ * shows whether every wakeup reaches the writer</li>
+ * </ul>
+ *
+ * Not part of the unit test run; run it on its own, e.g.
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.crossover.trial.weather.service.IngestPipelineBenchmark</code>. Each mode runs twice, the
+ * first round warms up.
+ */
+public class IngestPipelineBenchmark {
+
+    private static final int PRODUCERS = 8;
+
+    private static final int AIRPORTS = 8;
+
+    private static final long RUN_MILLIS = 2000;
+
+    /** latencies kept per producer */
+    private static final int SAMPLES = 200000;
+
+    private static final Descriptor WIND = DataPointTypeRegistry.lookup("wind");
+
+    public static void main(String[] args) throws Exception {
+        AtmosphericInformation[] airports = new AtmosphericInformation[AIRPORTS];
+        for (int i = 0; i < airports.length; i++) {
+            airports[i] = new AtmosphericInformation();
+        }
+        IngestPipeline.Sink sink = (ai, iata, type, dp, time) -> {
+            synchronized (ai) {
+                ai.update(type.getSlot(), dp, time);
+            }
+        };
+        for (int round = 0; round < 2; round++) {
+            for (String mode : new String[]{"direct", "async", "sync", "idle"}) {
+                IngestPipeline pipeline = new IngestPipeline(mode.equals("direct") ? 0 : 1, 4096, sink);
+                if (mode.equals("idle")) {
+                    idle(pipeline, airports[0]);
+                } else {
+                    run(mode, pipeline, airports);
+                }
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void run(String mode, IngestPipeline pipeline, AtmosphericInformation[] airports)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder updates = new LongAdder();
+        long[][] latencies = new long[PRODUCERS][SAMPLES];
+        int[] samples = new int[PRODUCERS];
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int id = p;
+            Thread t = new Thread(() -> {
+                Random random = new Random(id);
+                DataPoint dp = new DataPoint(1, 2, 3, 4, 5);
+                while (running.get()) {
+                    int airport = random.nextInt(airports.length);
+                    long start = System.nanoTime();
+                    long ticket = pipeline.submit(airports[airport], "A" + airport, WIND, dp, start);
+                    if (mode.equals("sync")) {
+                        pipeline.await(ticket);
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    if (samples[id] < SAMPLES) {
+                        latencies[id][samples[id]++] = elapsed;
+                    }
+                    updates.increment();
+                }
+            });
+            t.start();
+            producers.add(t);
+        }
+        Thread.sleep(RUN_MILLIS);
+        running.set(false);
+        for (Thread t : producers) {
+            t.join();
+        }
+        long[] all = new long[0];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int from = all.length;
+            all = Arrays.copyOf(all, from + samples[p]);
+            System.arraycopy(latencies[p], 0, all, from, samples[p]);
+        }
+        report(mode, updates.sum() * 1000.0 / RUN_MILLIS, all, pipeline);
+    }
+
+    private static void idle(IngestPipeline pipeline, AtmosphericInformation ai) {
+        DataPoint dp = new DataPoint(1, 2, 3, 4, 5);
+        long[] latencies = new long[200];
+        long begin = System.nanoTime();
+        for (int i = 0; i < latencies.length; i++) {
+            // long enough for the writer to spin out and park
+            LockSupport.parkNanos(5000000);
+            long start = System.nanoTime();
+            pipeline.await(pipeline.submit(ai, "A0", WIND, dp, start));
+            latencies[i] = System.nanoTime() - start;
+        }
+        report("idle", latencies.length * 1e9 / (System.nanoTime() - begin), latencies, pipeline);
+    }
+
+    private static void report(String mode, double perSecond, long[] latencies, IngestPipeline pipeline) {
+        Arrays.sort(latencies);
+        System.out.printf("%-6s %,12.0f/s  p50 %,9d ns  p99 %,11d ns  max %,11d ns  %s%n", mode, perSecond,
+                latencies[latencies.length / 2], latencies[(int) (latencies.length * 0.99)],
+                latencies[latencies.length - 1], pipeline.getStats());
+    }
+}
@@ -0,0 +1,127 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IngestPipelineTest {
+
+    private final Descriptor wind = DataPointTypeRegistry.lookup("wind");
+
+    @Test
+    public void testCoalescesPendingUpdates() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger applied = new AtomicInteger();
+        IngestPipeline pipeline = new IngestPipeline(1, 1024, (ai, iata, type, dp, time) -> {
+            if (applied.getAndIncrement() == 0) {
+                blocked.countDown();
+                await(release);
+            }
+            ai.setDataPoint(type.getSlot(), dp);
+        });
+        AtmosphericInformation ai = new AtmosphericInformation();
+        pipeline.submit(ai, "BOS", wind, point(0), 0);
+        blocked.await();
+
+        // queued behind the blocked write, only the last of them is applied
+        long ticket = 0;
+        for (int i = 1; i <= 100; i++) {
+            ticket = pipeline.submit(ai, "BOS", wind, point(i), i);
+        }
+        release.countDown();
+        pipeline.await(ticket);
+        assertEquals(100, ai.getDataPoint(wind.getSlot()).getMean(), 0);
+        assertEquals(2, applied.get());
+        assertEquals(99L, pipeline.getStats().get("coalesced"));
+    }
+
+    @Test
+    public void testSupersededHandedOverInOrder() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Long> seen = new ArrayList<>();
+        IngestPipeline pipeline = new IngestPipeline(1, 1024, new IngestPipeline.Sink() {
+            @Override
+            public void apply(AtmosphericInformation ai, String iata, Descriptor type, DataPoint dp, long time) {
+                if (seen.isEmpty()) {
+                    blocked.countDown();
+                    IngestPipelineTest.await(release);
+                }
+                seen.add(time);
+            }
+
+            @Override
+            public void superseded(AtmosphericInformation ai, String iata, Descriptor type, DataPoint dp,
+                                   long time) {
+                seen.add(-time);
+            }
+        });
+        AtmosphericInformation ai = new AtmosphericInformation();
+        pipeline.submit(ai, "BOS", wind, point(0), 0);
+        blocked.await();
+
+        long ticket = 0;
+        for (int i = 1; i <= 5; i++) {
+            ticket = pipeline.submit(ai, "BOS", wind, point(i), i);
+        }
+        release.countDown();
+        pipeline.await(ticket);
+        // every update reaches the sink once, the coalesced ones ahead of the one applied
+        assertEquals(Arrays.asList(0L, -1L, -2L, -3L, -4L, 5L), seen);
+    }
+
+    @Test
+    public void testConcurrentWritersKeepOrderPerAirport() throws Exception {
+        IngestPipeline pipeline = new IngestPipeline(2, 16,
+                (ai, iata, type, dp, time) -> ai.setDataPoint(type.getSlot(), dp));
+        List<AtmosphericInformation> airports = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            AtmosphericInformation ai = new AtmosphericInformation();
+            airports.add(ai);
+            String iata = "A" + t;
+            // a ring of 16 keeps the producers waiting on the writers most of the time
+            Thread thread = new Thread(() -> {
+                long ticket = 0;
+                for (int i = 1; i <= 10000; i++) {
+                    ticket = pipeline.submit(ai, iata, wind, point(i), i);
+                }
+                pipeline.await(ticket);
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (AtmosphericInformation ai : airports) {
+            assertEquals(10000, ai.getDataPoint(wind.getSlot()).getMean(), 0);
+        }
+        assertTrue((Long) pipeline.getStats().get("batches") > 0);
+        assertEquals(0L, pipeline.getStats().get("queued"));
+    }
+
+    private static DataPoint point(int mean) {
+        return new DataPoint(0, mean, mean, mean, 1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
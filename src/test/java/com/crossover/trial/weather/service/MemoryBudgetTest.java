@@ -0,0 +1,403 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+import com.crossover.trial.weather.util.HeapSize;
+import com.sun.management.HotSpotDiagnosticMXBean;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryBudgetTest {
+
+    private final RestWeatherQueryEndpoint query = new RestWeatherQueryEndpoint();
+
+    @After
+    public void tearDown() {
+        // the next test reloads the catalog
+        query.clear();
+    }
+
+    @Test
+    public void testEstimateMatchesHeapDump() throws Exception {
+        new RestWeatherCollectorEndpoint();
+        List<AirportData> airports = airports(20000);
+        assertEquals(airports.size(), query.addAirports(airports));
+        Descriptor wind = DataPointTypeRegistry.lookup("wind");
+        Descriptor temperature = DataPointTypeRegistry.lookup("temperature");
+        for (int i = 0; i < airports.size(); i += 2) {
+            query.getAtmosphericInformation(airports.get(i).getIata())
+                    .setDataPoint(wind.getSlot(), new DataPoint(1, 2, 3, 4, 5));
+            query.getAtmosphericInformation(airports.get(i).getIata())
+                    .setDataPoint(temperature.getSlot(), new DataPoint(1, 2, 3, 4, 5));
+        }
+        Map<String, Long> usage = query.getMemoryUsage();
+        long estimate = usage.get("airports") + usage.get("weather");
+
+        Path dir = Files.createTempDirectory("weather-heap");
+        Path dump = dir.resolve("store.hprof");
+        try {
+            ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class).dumpHeap(dump.toString(), true);
+            long measured = new HeapDump(dump, RestWeatherQueryEndpoint.class.getName(), "allAirports")
+                    .reachableBytes();
+            assertEquals("estimate " + estimate + " against " + measured + " in the heap dump",
+                    1.0, (double) estimate / measured, 0.05);
+        } finally {
+            Files.deleteIfExists(dump);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testRefusesAirportsOverBudget() throws Exception {
+        List<AirportData> airports = airports(100);
+        MemoryBudget budget = new MemoryBudget(10 * MemoryBudget.reservation(airports.get(0)));
+        int reserved = 0;
+        for (AirportData ad : airports) {
+            if (budget.reserve(ad)) {
+                reserved++;
+            }
+        }
+        assertEquals(10, reserved);
+        assertEquals(90, budget.getRefusedCount());
+        budget.release(airports.get(0));
+        assertTrue(budget.reserve(airports.get(0)));
+        assertFalse(budget.reserve(airports.get(1)));
+    }
+
+    @Test
+    public void testConcurrentLoadsAddEachAirportOnce() throws Exception {
+        query.clear();
+        List<AirportData> airports = airports(5000);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> loads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                loads.add(pool.submit(() -> query.addAirports(airports)));
+            }
+            int added = 0;
+            for (Future<Integer> load : loads) {
+                added += load.get();
+            }
+            assertEquals(airports.size(), added);
+        } finally {
+            pool.shutdown();
+        }
+        // the losers of a race handed their reservations back
+        long reserved = 0;
+        for (AirportData ad : airports) {
+            reserved += MemoryBudget.reservation(ad);
+        }
+        assertEquals(reserved, (long) query.getMemoryUsage().get("store_reserved"));
+    }
+
+    @Test
+    public void testEvictsColdestHistory() throws Exception {
+        Descriptor wind = DataPointTypeRegistry.lookup("wind");
+        float[] readings = new float[200];
+        for (int i = 0; i < readings.length; i++) {
+            readings[i] = i % 50;
+        }
+        ObservationService observations = new ObservationService(Long.MAX_VALUE, 0);
+        observations.record("A0", wind, readings, readings.length, 0);
+        long perAirport = observations.estimateBytes();
+
+        long limit = 10 * perAirport;
+        observations = new ObservationService(limit, 0);
+        for (int i = 0; i < 50; i++) {
+            observations.record("A" + i, wind, readings, readings.length, i);
+        }
+        assertTrue(observations.estimateBytes() <= limit);
+        assertTrue(observations.getEvictedCount() >= 40);
+        assertEquals(0, observations.rollup(Collections.singleton("A0"), wind, 50).getCount());
+        assertEquals(readings.length, observations.rollup(Collections.singleton("A49"), wind, 50).getCount());
+    }
+
+    private static List<AirportData> airports(int count) {
+        List<AirportData> retval = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            char[] code = new char[4];
+            for (int c = 0, n = i; c < code.length; c++, n /= 26) {
+                code[c] = (char) ('a' + n % 26);
+            }
+            AirportData ad = new AirportData();
+            ad.setIata(new String(code));
+            ad.setName("Airport " + i);
+            ad.setLatitude(i % 90);
+            ad.setLongitude(i % 180);
+            retval.add(ad);
+        }
+        return retval;
+    }
+
+    /**
+     * Just enough of the HPROF format to add up the objects reachable from a static field. Object sizes follow
+     * the same layout rules as {@link HeapSize}; what the dump checks is which objects and arrays of which length
+     * the store really holds.
+     */
+    private static final class HeapDump {
+
+        private static final int OBJECT = 2;
+
+        private final Path file;
+
+        private int idSize;
+
+        /** instance field types per class, with the super class id first */
+        private final Map<Long, long[]> classes = new HashMap<>();
+
+        private long root;
+
+        HeapDump(Path file, String className, String field) throws IOException {
+            this.file = file;
+            String internalName = className.replace('.', '/');
+            Map<String, Long> names = new HashMap<>();
+            long[] classId = {0};
+            scan((tag, in, length) -> {
+                if (tag == 0x01) {
+                    long id = readId(in);
+                    byte[] bytes = new byte[(int) length - idSize];
+                    in.readFully(bytes);
+                    String name = new String(bytes, StandardCharsets.UTF_8);
+                    if (name.equals(internalName) || name.equals(field)) {
+                        names.put(name, id);
+                    }
+                    return true;
+                } else if (tag == 0x02) {
+                    in.readInt();
+                    long id = readId(in);
+                    in.readInt();
+                    long name = readId(in);
+                    if (names.containsKey(internalName) && name == names.get(internalName)) {
+                        classId[0] = id;
+                    }
+                    return true;
+                }
+                return false;
+            }, (sub, b, id) -> {
+                if (sub == 0x20) {
+                    classDump(b, classId[0], names.get(field));
+                }
+            });
+        }
+
+        long reachableBytes() throws IOException {
+            Set<Long> visited = new HashSet<>(Collections.singleton(root));
+            Set<Long> frontier = new HashSet<>(visited);
+            long[] total = {0};
+            while (!frontier.isEmpty()) {
+                Set<Long> current = frontier;
+                Set<Long> next = new HashSet<>();
+                scan((tag, in, length) -> false, (sub, b, id) -> {
+                    if (sub == 0x20 || !current.contains(id)) {
+                        return;
+                    }
+                    if (sub == 0x21) {
+                        long type = readId(b);
+                        b.getInt();
+                        int primitive = 0, references = 0;
+                        for (long c = type; classes.containsKey(c); c = classes.get(c)[0]) {
+                            long[] fields = classes.get(c);
+                            for (int f = 1; f < fields.length; f++) {
+                                if (fields[f] == OBJECT) {
+                                    references++;
+                                    reach(readId(b), visited, next);
+                                } else {
+                                    primitive += size((int) fields[f]);
+                                    b.position(b.position() + size((int) fields[f]));
+                                }
+                            }
+                        }
+                        total[0] += HeapSize.object(primitive, references);
+                    } else if (sub == 0x22) {
+                        int length = b.getInt();
+                        readId(b);
+                        for (int i = 0; i < length; i++) {
+                            reach(readId(b), visited, next);
+                        }
+                        total[0] += HeapSize.array(length, HeapSize.REFERENCE);
+                    } else if (sub == 0x23) {
+                        total[0] += HeapSize.array(b.getInt(), size(b.get()));
+                    }
+                });
+                frontier = next;
+            }
+            return total[0];
+        }
+
+        private static void reach(long id, Set<Long> visited, Set<Long> next) {
+            if (id != 0 && visited.add(id)) {
+                next.add(id);
+            }
+        }
+
+        private void classDump(ByteBuffer b, long target, Long field) {
+            long id = readId(b);
+            b.getInt();
+            long superId = readId(b);
+            b.position(b.position() + 5 * idSize + 4);
+            for (int i = 0, n = b.getShort() & 0xFFFF; i < n; i++) {
+                b.getShort();
+                skipValue(b, b.get());
+            }
+            for (int i = 0, n = b.getShort() & 0xFFFF; i < n; i++) {
+                long name = readId(b);
+                int type = b.get();
+                if (id == target && field != null && name == field && type == OBJECT) {
+                    root = readId(b);
+                } else {
+                    skipValue(b, type);
+                }
+            }
+            int n = b.getShort() & 0xFFFF;
+            long[] fields = new long[n + 1];
+            fields[0] = superId;
+            for (int i = 1; i <= n; i++) {
+                readId(b);
+                fields[i] = b.get();
+            }
+            classes.put(id, fields);
+        }
+
+        /**
+         * Walk the records, handing top level records to the first visitor and heap dump sub records, positioned
+         * after their object id and stack serial, to the second. A sub record the visitor does not consume fully is
+         * skipped.
+         */
+        private void scan(RecordVisitor records, SubRecordVisitor objects) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+                while (in.readByte() != 0) {
+                    // format name
+                }
+                idSize = in.readInt();
+                in.readLong();
+                int tag;
+                while ((tag = in.read()) >= 0) {
+                    in.readInt();
+                    long length = in.readInt() & 0xFFFFFFFFL;
+                    if (tag == 0x0C || tag == 0x1C) {
+                        byte[] data = new byte[(int) length];
+                        in.readFully(data);
+                        heap(ByteBuffer.wrap(data), objects);
+                    } else if (!records.visit(tag, in, length)) {
+                        in.skipBytes((int) length);
+                    }
+                }
+            }
+        }
+
+        private void heap(ByteBuffer b, SubRecordVisitor objects) {
+            while (b.hasRemaining()) {
+                int sub = b.get() & 0xFF;
+                switch (sub) {
+                    case 0xFF: case 0x05: case 0x07:
+                        skip(b, idSize);
+                        break;
+                    case 0x01:
+                        skip(b, 2 * idSize);
+                        break;
+                    case 0x02: case 0x03: case 0x08:
+                        skip(b, idSize + 8);
+                        break;
+                    case 0x04: case 0x06:
+                        skip(b, idSize + 4);
+                        break;
+                    case 0x20: {
+                        int start = b.position();
+                        objects.visit(sub, b, 0);
+                        if (b.position() == start) {
+                            classDump(b, 0, null);
+                        }
+                        break;
+                    }
+                    case 0x21: case 0x22: case 0x23: {
+                        long id = readId(b);
+                        b.getInt();
+                        int start = b.position();
+                        objects.visit(sub, b, id);
+                        b.position(start);
+                        skipObject(b, sub);
+                        break;
+                    }
+                    default:
+                        throw new IllegalStateException("unknown heap dump record " + sub);
+                }
+            }
+        }
+
+        private void skipObject(ByteBuffer b, int sub) {
+            if (sub == 0x21) {
+                readId(b);
+                skip(b, b.getInt());
+            } else if (sub == 0x22) {
+                int length = b.getInt();
+                skip(b, idSize + length * idSize);
+            } else {
+                int length = b.getInt();
+                skip(b, length * size(b.get()));
+            }
+        }
+
+        private long readId(ByteBuffer b) {
+            return idSize == 4 ? b.getInt() & 0xFFFFFFFFL : b.getLong();
+        }
+
+        private long readId(DataInputStream in) throws IOException {
+            return idSize == 4 ? in.readInt() & 0xFFFFFFFFL : in.readLong();
+        }
+
+        private void skipValue(ByteBuffer b, int type) {
+            skip(b, type == OBJECT ? idSize : size(type));
+        }
+
+        private static void skip(ByteBuffer b, int bytes) {
+            b.position(b.position() + bytes);
+        }
+
+        /**
+         * @return the heap size of a field or array element of a basic type
+         */
+        private static int size(int type) {
+            switch (type) {
+                case OBJECT: return HeapSize.REFERENCE;
+                case 4: case 8: return 1;
+                case 5: case 9: return 2;
+                case 6: case 10: return 4;
+                case 7: case 11: return 8;
+                default: throw new IllegalStateException("unknown basic type " + type);
+            }
+        }
+
+        private interface RecordVisitor {
+            boolean visit(int tag, DataInputStream in, long length) throws IOException;
+        }
+
+        private interface SubRecordVisitor {
+            void visit(int sub, ByteBuffer b, long id);
+        }
+    }
+}
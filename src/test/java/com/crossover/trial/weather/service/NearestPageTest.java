@@ -0,0 +1,51 @@
+package com.crossover.trial.weather.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NearestPageTest {
+
+    @Test
+    public void testPagesFollowTheCursor() {
+        String[] codes = {"A_B", "A_C", "BOS", "B_", "JFK"};
+        double[] distances = {10, 10, 5, 20, 10};
+        NearestPage<String> first = page(2, null, codes, distances);
+        assertEquals(Arrays.asList("BOS", "A_B"), first.getItems());
+        assertTrue(first.isMore());
+        assertEquals("10.0_A_B", first.getCursor());
+
+        NearestPage<String> second = page(2, first.getCursor(), codes, distances);
+        assertEquals(Arrays.asList("A_C", "JFK"), second.getItems());
+
+        NearestPage<String> last = page(2, second.getCursor(), codes, distances);
+        assertEquals(Arrays.asList("B_"), last.getItems());
+        assertFalse(last.isMore());
+    }
+
+    @Test
+    public void testMalformedCursors() {
+        NearestPage.checkCursor("1.5_BOS");
+        for (String cursor : new String[]{"BOS", "_BOS", "1.5_", "x_BOS", "-1_BOS", "NaN_BOS"}) {
+            try {
+                NearestPage.checkCursor(cursor);
+                fail("accepted " + cursor);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    private static NearestPage<String> page(int limit, String cursor, String[] codes, double[] distances) {
+        NearestPage<String> retval = new NearestPage<>(limit, cursor);
+        for (int i = 0; i < codes.length; i++) {
+            retval.offer(distances[i], codes[i], codes[i]);
+        }
+        return retval;
+    }
+}
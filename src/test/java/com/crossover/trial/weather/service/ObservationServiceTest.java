@@ -0,0 +1,84 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry.Descriptor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ObservationServiceTest {
+
+    private static final Descriptor WIND = DataPointTypeRegistry.lookup("wind");
+
+    private static final Descriptor PRESSURE = DataPointTypeRegistry.lookup("pressure");
+
+    private static final long T = 1000000;
+
+    /** the data points the flusher published, as airport/type/count */
+    private final List<String> published = new ArrayList<>();
+
+    private final ObservationService observations = new ObservationService(0, 0,
+            (iataCode, type, dp) -> published.add(iataCode + "/" + type.getName() + "/" + dp.getCount()), false);
+
+    @Test
+    public void testTrailingReadingsPublishedOnceDue() {
+        DataPoint first = observations.record("BOS", WIND, new float[]{10}, 1, T);
+        assertNotNull(first);
+        assertEquals(1, first.getCount());
+        // within publishMillis of the first, held back
+        assertNull(observations.record("BOS", WIND, new float[]{20, 30}, 2, T + 100));
+
+        assertEquals(0, observations.flush(T + 999));
+        assertEquals(1, observations.flush(T + 1000));
+        assertEquals("[BOS/wind/3]", published.toString());
+        // nothing new since
+        assertEquals(0, observations.flush(T + 5000));
+    }
+
+    @Test
+    public void testPublishedByWriterNotFlushedAgain() {
+        observations.record("BOS", WIND, new float[]{10}, 1, T);
+        assertNull(observations.record("BOS", WIND, new float[]{20}, 1, T + 500));
+        // the next reading comes after publishMillis and takes the held back one along
+        DataPoint dp = observations.record("BOS", WIND, new float[]{30}, 1, T + 1000);
+        assertEquals(3, dp.getCount());
+        assertEquals(0, observations.flush(T + 2000));
+        assertEquals(0, published.size());
+    }
+
+    @Test
+    public void testFlushedPerPointType() {
+        observations.record("BOS", WIND, new float[]{10}, 1, T);
+        observations.record("BOS", PRESSURE, new float[]{700}, 1, T + 600);
+        observations.record("BOS", WIND, new float[]{20}, 1, T + 700);
+        observations.record("BOS", PRESSURE, new float[]{710}, 1, T + 700);
+
+        // wind is due, pressure is not yet
+        assertEquals(1, observations.flush(T + 1000));
+        assertEquals("[BOS/wind/2]", published.toString());
+        assertEquals(1, observations.flush(T + 1600));
+        assertEquals("[BOS/wind/2, BOS/pressure/2]", published.toString());
+    }
+
+    @Test
+    public void testRemovedAirportNotFlushed() {
+        observations.record("BOS", WIND, new float[]{10}, 1, T);
+        observations.record("BOS", WIND, new float[]{20}, 1, T + 100);
+        observations.remove("BOS");
+        assertEquals(0, observations.flush(T + 1000));
+    }
+
+    @Test
+    public void testNothingHeldBackWithoutPublisher() {
+        ObservationService unflushed = new ObservationService(0, 0);
+        unflushed.record("BOS", WIND, new float[]{10}, 1, T);
+        assertNull(unflushed.record("BOS", WIND, new float[]{20}, 1, T + 100));
+        assertEquals(0, unflushed.flush(T + 1000));
+    }
+}
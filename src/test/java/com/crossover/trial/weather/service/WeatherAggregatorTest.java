@@ -0,0 +1,56 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointType;
+import com.crossover.trial.weather.domain.PartialSummary;
+import com.crossover.trial.weather.domain.WeatherSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherAggregatorTest {
+
+    private final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+
+    @Test
+    public void testShardsMergeAsOne() throws Exception {
+        WeatherAggregator whole = new WeatherAggregator();
+        WeatherAggregator local = new WeatherAggregator();
+        WeatherAggregator[] shards = {new WeatherAggregator(), new WeatherAggregator()};
+        for (int i = 0; i < 10000; i++) {
+            AtmosphericInformation ai = airport(i);
+            whole.add(ai);
+            (i % 3 == 0 ? local : shards[i % 2]).add(ai);
+        }
+        for (WeatherAggregator shard : shards) {
+            byte[] sent = smile.writeValueAsBytes(shard.getPartial());
+            // bounded by the sketch, not by the thousands of airports behind it
+            assertTrue(sent.length + " bytes", sent.length < 8 * 1024);
+            local.merge(smile.readValue(sent, PartialSummary.class));
+        }
+
+        WeatherSummary.PointSummary expected = whole.getSummary().getPoints().get("wind");
+        WeatherSummary.PointSummary merged = local.getSummary().getPoints().get("wind");
+        assertEquals(10000, merged.getCount());
+        assertEquals(expected.getReadings(), merged.getReadings());
+        assertEquals(expected.getMean(), merged.getMean(), 1e-9);
+        assertEquals(0, merged.getMin(), 0);
+        assertEquals(9999, merged.getMax(), 0);
+        assertEquals(5000, merged.getSecond(), 300);
+        assertEquals(2500, merged.getFirst(), 300);
+        assertEquals(5000, local.getSummary().getPoints().get("temperature").getCount());
+    }
+
+    private static AtmosphericInformation airport(int i) {
+        AtmosphericInformation retval = new AtmosphericInformation();
+        retval.setDataPoint(DataPointType.WIND.ordinal(), new DataPoint(0, i, i, i, 1 + i % 5));
+        if (i % 2 == 0) {
+            retval.setDataPoint(DataPointType.TEMPERATURE.ordinal(), new DataPoint(0, 20, 20, 20, 1));
+        }
+        return retval;
+    }
+}
@@ -0,0 +1,78 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.AtmosphericInformation;
+import com.crossover.trial.weather.domain.DataPoint;
+import com.crossover.trial.weather.domain.DataPointType;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.WeatherTable;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class WeatherExpiryServiceTest {
+
+    private static final DataPointTypeRegistry.Descriptor WIND = DataPointTypeRegistry.get(DataPointType.WIND);
+
+    @Test
+    public void testOneDeadlinePerSlotWhateverTheWrites() throws Exception {
+        for (AtmosphericInformation ai : new AtmosphericInformation[]{new AtmosphericInformation(),
+                new WeatherTable(false).allocate(new AirportData())}) {
+            List<String> expired = new ArrayList<>();
+            WeatherExpiryService service = service(expired);
+            long t0 = System.currentTimeMillis();
+            for (int i = 0; i < 1000; i++) {
+                write(service, ai, t0);
+            }
+            assertEquals(1, service.getScheduledCount());
+            service.sweep(t0);
+
+            // written again halfway, the deadline finds the newer write and waits for it
+            write(service, ai, t0 + 5000);
+            assertEquals(1, service.getScheduledCount());
+            service.sweep(t0 + 11000);
+            assertNotNull(ai.getDataPoint(WIND.getSlot()));
+            assertEquals(1, service.getScheduledCount());
+
+            service.sweep(t0 + 16000);
+            service.sweep(t0 + 17000);
+            assertNull(ai.getDataPoint(WIND.getSlot()));
+            assertEquals(0, service.getScheduledCount());
+            assertEquals(1L, (long) service.getExpiredCounts().get("wind"));
+            assertEquals(1, expired.size());
+        }
+    }
+
+    @Test
+    public void testClearedSlotIsForgotten() throws Exception {
+        WeatherExpiryService service = service(new ArrayList<>());
+        AtmosphericInformation ai = new WeatherTable(false).allocate(new AirportData());
+        long t0 = System.currentTimeMillis();
+        write(service, ai, t0);
+        ai.setDataPoint(WIND.getSlot(), null);
+        service.sweep(t0);
+        assertEquals(0, service.getScheduledCount());
+        assertEquals(0L, (long) service.getExpiredCounts().get("wind"));
+    }
+
+    private static WeatherExpiryService service(List<String> expired) {
+        System.setProperty("weather.ttl", "10000");
+        try {
+            return new WeatherExpiryService((iata, slot) -> expired.add(iata), false);
+        } finally {
+            System.clearProperty("weather.ttl");
+        }
+    }
+
+    private static void write(WeatherExpiryService service, AtmosphericInformation ai, long time) {
+        synchronized (ai) {
+            ai.update(WIND.getSlot(), new DataPoint.Builder().withMean(10).withCount(5).build(), time);
+            service.scheduleExpiry(ai, "BOS", WIND);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.crossover.trial.weather.service;
+
+import com.crossover.trial.weather.domain.AirportData;
+import com.crossover.trial.weather.domain.DataPointTypeRegistry;
+import com.crossover.trial.weather.domain.GridWeather;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WeatherGridTest {
+
+    private static final int TEMPERATURE = DataPointTypeRegistry.lookup("temperature").getSlot();
+
+    private static AirportData airport(String iata, double latitude, double longitude) {
+        AirportData retval = new AirportData();
+        retval.setIata(iata);
+        retval.setLatitude(latitude);
+        retval.setLongitude(longitude);
+        return retval;
+    }
+
+    private static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double a = Math.pow(Math.sin(Math.toRadians(lat2 - lat1) / 2), 2) + Math.pow(Math.sin(Math.toRadians(lon2
+                - lon1) / 2), 2) * Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2));
+        return RestWeatherQueryEndpoint.R * 2 * Math.asin(Math.sqrt(a));
+    }
+
+    @Test
+    public void testInverseDistanceWeighting() throws Exception {
+        WeatherGrid grid = new WeatherGrid(1, 300, 2);
+        grid.addAirport(airport("AAA", 40.2, -73.9));
+        grid.addAirport(airport("BBB", 41.7, -72.4));
+        grid.addAirport(airport("CCC", 10, 10));
+        grid.update("AAA", TEMPERATURE, 10);
+        grid.update("BBB", TEMPERATURE, 40);
+        grid.update("BBB", TEMPERATURE, 20);
+        grid.update("CCC", TEMPERATURE, 99);
+        grid.update("XXX", TEMPERATURE, 99);
+
+        GridWeather weather = grid.lookup(40.9, -73.1);
+        assertEquals(40.5, weather.getLatitude(), 1e-9);
+        assertEquals(-73.5, weather.getLongitude(), 1e-9);
+        double wa = 1 / Math.pow(distance(40.2, -73.9, 40.5, -73.5), 2);
+        double wb = 1 / Math.pow(distance(41.7, -72.4, 40.5, -73.5), 2);
+        GridWeather.GridValue value = weather.getPoints().get("temperature");
+        assertEquals(2, value.getAirports());
+        assertEquals((10 * wa + 20 * wb) / (wa + wb), value.getMean(), 1e-9);
+        assertEquals(wa + wb, value.getWeight(), 1e-12);
+
+        // an expired point or a removed airport leaves the cells it reached
+        grid.update("AAA", TEMPERATURE, Double.NaN);
+        assertEquals(20, grid.lookup(40.9, -73.1).getPoints().get("temperature").getMean(), 1e-9);
+        grid.removeAirport(airport("BBB", 41.7, -72.4));
+        assertNull(grid.lookup(40.9, -73.1).getPoints().get("temperature"));
+        assertEquals(99, grid.lookup(10, 10).getPoints().get("temperature").getMean(), 1e-9);
+    }
+
+    @Test
+    public void testWrapsAroundTheGlobe() throws Exception {
+        WeatherGrid grid = new WeatherGrid(2, 200, 2);
+        grid.addAirport(airport("DAT", -17.8, 179.9));
+        grid.addAirport(airport("POL", 89.5, 0));
+        grid.update("DAT", TEMPERATURE, 25);
+        grid.update("POL", TEMPERATURE, -30);
+
+        assertEquals(25, grid.lookup(-17.5, -179.9).getPoints().get("temperature").getMean(), 1e-9);
+        assertEquals(25, grid.lookup(-17.5, 180).getPoints().get("temperature").getMean(), 1e-9);
+        // every cell around the pole is within reach
+        assertEquals(-30, grid.lookup(89, 135).getPoints().get("temperature").getMean(), 1e-9);
+        assertEquals(-30, grid.lookup(90, -180).getPoints().get("temperature").getMean(), 1e-9);
+    }
+}
@@ -0,0 +1,54 @@
+package com.crossover.trial.weather.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeavyHittersTest {
+
+    @Test
+    public void testHotKeysSurviveAFloodOfDistinctKeys() throws Exception {
+        HeavyHitters hitters = new HeavyHitters(4, 1024, 16, 60000, 6);
+        long now = 1000000;
+        for (int i = 0; i < 100000; i++) {
+            hitters.add("K" + i, now);
+            if (i % 10 == 0) {
+                hitters.add("BOS", now);
+            }
+            if (i % 20 == 0) {
+                hitters.add("JFK", now);
+            }
+            if (i % 50 == 0) {
+                hitters.add("LGA", now);
+            }
+        }
+        List<String> top = new ArrayList<>(hitters.top(3, now).keySet());
+        assertEquals("BOS", top.get(0));
+        assertEquals("JFK", top.get(1));
+        assertEquals("LGA", top.get(2));
+
+        long total = hitters.total(now);
+        assertEquals(100000 + 10000 + 5000 + 2000, total);
+        long bos = hitters.estimate("BOS", now);
+        assertTrue(bos >= 10000 && bos < 10000 + total * 3 / 1024);
+    }
+
+    @Test
+    public void testCountsLeaveTheWindow() throws Exception {
+        HeavyHitters hitters = new HeavyHitters(4, 256, 4, 60000, 6);
+        hitters.add("BOS", 0);
+        hitters.add("BOS", 30000);
+        hitters.add("JFK", 30000);
+        assertEquals(2, hitters.estimate("BOS", 59999));
+        assertEquals(1, hitters.estimate("BOS", 60000));
+        Map<String, Long> top = hitters.top(10, 60000);
+        assertEquals(2, top.size());
+        assertEquals(0, hitters.total(90000));
+        assertTrue(hitters.top(10, 90000).isEmpty());
+    }
+}
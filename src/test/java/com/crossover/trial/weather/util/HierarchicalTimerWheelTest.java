@@ -0,0 +1,53 @@
+package com.crossover.trial.weather.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalTimerWheelTest {
+
+    @Test
+    public void testExpiresInDeadlineOrder() throws Exception {
+        HierarchicalTimerWheel<Long> wheel = new HierarchicalTimerWheel<>(10, 0);
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            // spread over all four levels
+            long deadline = (long) (random.nextDouble() * 10 * 64 * 64 * 64 * 2);
+            wheel.schedule(deadline, deadline);
+        }
+        assertEquals(5000, wheel.size());
+
+        List<Long> expired = new ArrayList<>();
+        long now = 0;
+        while (wheel.size() > 0) {
+            now += 997;
+            final long at = now;
+            wheel.advance(now, deadline -> {
+                assertTrue("expired early", deadline <= at);
+                assertTrue("expired late", deadline > at - 997 - 10);
+                expired.add(deadline);
+            });
+        }
+        assertEquals(5000, expired.size());
+    }
+
+    @Test
+    public void testBeyondSpanAndOverdue() throws Exception {
+        HierarchicalTimerWheel<String> wheel = new HierarchicalTimerWheel<>(1, 1000);
+        wheel.schedule(500, "overdue");
+        wheel.schedule(1000 + (1L << 25), "far");
+
+        List<String> expired = new ArrayList<>();
+        assertEquals(1, wheel.advance(1001, expired::add));
+        assertEquals("overdue", expired.get(0));
+
+        assertEquals(0, wheel.advance(1000 + (1L << 25) - 1, expired::add));
+        assertEquals(1, wheel.advance(1000 + (1L << 25), expired::add));
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,41 @@
+package com.crossover.trial.weather.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InternTableTest {
+
+    @Test
+    public void testEqualStringsShareOneInstance() {
+        String first = InternTable.intern(new String("Boston"));
+        String second = InternTable.intern(new String("Boston"));
+        assertSame(first, second);
+        assertEquals("Boston", second);
+        assertNull(InternTable.intern(null));
+    }
+
+    @Test
+    public void testUnreferencedStringsCollected() throws InterruptedException {
+        int before = InternTable.size();
+        List<String> held = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            held.add(InternTable.intern("made up city " + i));
+        }
+        assertTrue(InternTable.size() >= before + 10000);
+
+        held = null;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (InternTable.size() >= before + 10000 && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(InternTable.size() < before + 10000);
+    }
+}
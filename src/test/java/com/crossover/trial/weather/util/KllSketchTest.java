@@ -0,0 +1,82 @@
+package com.crossover.trial.weather.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KllSketchTest {
+
+    @Test
+    public void testQuantilesWithinRankError() throws Exception {
+        KllSketch sketch = new KllSketch(200);
+        Random random = new Random(7);
+        int n = 1000000;
+        for (int i = 0; i < n; i++) {
+            sketch.update(random.nextInt(n));
+        }
+        assertEquals(n, sketch.getCount());
+        assertTrue("retained " + sketch.retained(), sketch.retained() < 3 * 200 + 64);
+        for (double q : new double[]{0.01, 0.25, 0.5, 0.75, 0.99}) {
+            assertEquals(q * n, sketch.quantile(q), 0.02 * n);
+        }
+    }
+
+    @Test
+    public void testMergeMatchesUnion() throws Exception {
+        KllSketch low = new KllSketch(128);
+        KllSketch high = new KllSketch(128);
+        for (int i = 0; i < 50000; i++) {
+            low.update(i);
+            high.update(50000 + i);
+        }
+        low.merge(high);
+        assertEquals(100000, low.getCount());
+        assertEquals(0, low.getMin(), 0);
+        assertEquals(99999, low.getMax(), 0);
+        assertEquals(99999L * 100000 / 2.0, low.getSum(), 0);
+        assertEquals(50000, low.quantile(0.5), 2000);
+        assertEquals(25000, low.quantile(0.25), 2000);
+    }
+
+    @Test
+    public void testRestoredFromItsState() throws Exception {
+        KllSketch sketch = new KllSketch(128);
+        Random random = new Random(11);
+        for (int i = 0; i < 100000; i++) {
+            sketch.update(random.nextInt(100000));
+        }
+        KllSketch restored = KllSketch.restore(sketch.getK(), sketch.getCount(), sketch.getSum(), sketch.getMin(),
+                sketch.getMax(), sketch.getValues(), sketch.getLevelSizes());
+        assertEquals(sketch.getCount(), restored.getCount());
+        assertEquals(sketch.getSum(), restored.getSum(), 0);
+        assertEquals(sketch.getMin(), restored.getMin(), 0);
+        assertEquals(sketch.getMax(), restored.getMax(), 0);
+        assertEquals(sketch.retained(), restored.retained());
+        for (double q : new double[]{0.1, 0.5, 0.9}) {
+            assertEquals(sketch.quantile(q), restored.quantile(q), 0);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRestoreRejectsSizesNotMatchingTheValues() throws Exception {
+        KllSketch.restore(128, 3, 6, 1, 3, new float[]{1, 2, 3}, new int[]{1, 1});
+    }
+
+    @Test
+    public void testWindowForgetsOldBuckets() throws Exception {
+        WindowedSketch window = new WindowedSketch(64, 1000, 10);
+        for (int t = 0; t < 1000; t++) {
+            window.update(1, t);
+        }
+        for (int t = 1000; t < 1500; t++) {
+            window.update(2, t);
+        }
+        KllSketch snapshot = window.snapshot(1499);
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1500, snapshot.getSum(), 0);
+        assertEquals(0, window.snapshot(3000).getCount());
+    }
+}
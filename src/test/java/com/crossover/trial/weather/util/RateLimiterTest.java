@@ -0,0 +1,58 @@
+package com.crossover.trial.weather.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstThenSustainedRate() throws Exception {
+        RateLimiter limiter = new RateLimiter(10, 5);
+        long now = 1000 * SECOND;
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, limiter.tryAcquire(now));
+        }
+        long wait = limiter.tryAcquire(now);
+        assertEquals(SECOND / 10, wait);
+        assertEquals(0, limiter.tryAcquire(now + wait));
+        assertTrue(limiter.tryAcquire(now + wait) > 0);
+
+        // a quiet second refills the burst, but no more than the burst
+        now += 2 * SECOND;
+        assertTrue(limiter.isIdle(now));
+        int admitted = 0;
+        while (limiter.tryAcquire(now) == 0) {
+            admitted++;
+        }
+        assertEquals(5, admitted);
+    }
+
+    @Test
+    public void testConcurrentAcquiresNeverExceedBurst() throws Exception {
+        RateLimiter limiter = new RateLimiter(1, 100);
+        long now = System.nanoTime();
+        AtomicInteger admitted = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    if (limiter.tryAcquire(now) == 0) {
+                        admitted.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(100, admitted.get());
+    }
+}
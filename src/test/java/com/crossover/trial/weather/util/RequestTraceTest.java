@@ -0,0 +1,42 @@
+package com.crossover.trial.weather.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RequestTraceTest {
+
+    @Test
+    public void testUnboundThreadIsNotTraced() {
+        assertEquals(0, RequestTrace.begin());
+        // no trace to add to, nothing happens
+        RequestTrace.end("lookup", 0);
+    }
+
+    @Test
+    public void testPhasesAddUpInOrder() throws Exception {
+        RequestTrace trace = new RequestTrace();
+        trace.bind();
+        try {
+            long t = RequestTrace.begin();
+            Thread.sleep(5);
+            RequestTrace.end("lookup", t);
+            t = RequestTrace.begin();
+            RequestTrace.end("scan", t);
+            t = RequestTrace.begin();
+            Thread.sleep(5);
+            RequestTrace.end("lookup", t);
+        } finally {
+            trace.unbind();
+        }
+        assertEquals(0, RequestTrace.begin());
+
+        Map<String, Double> phases = trace.getPhases();
+        assertEquals(Arrays.asList("lookup", "scan"), Arrays.asList(phases.keySet().toArray()));
+        assertTrue(phases.get("lookup") >= 10);
+    }
+}
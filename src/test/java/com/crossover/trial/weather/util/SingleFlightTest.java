@@ -0,0 +1,170 @@
+package com.crossover.trial.weather.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+
+    @Test
+    public void testConcurrentCallersShareOneComputation() throws Exception {
+        SingleFlight<String, Object> flight = new SingleFlight<>(5000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch releaseNext = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            Future<Object> first = pool.submit(() -> flight.execute("JFK/200", () -> {
+                started.countDown();
+                await(release);
+                return new Object();
+            }));
+            started.await();
+            // arriving while the first runs, they may have written since it began and wait for the next one
+            List<Future<Object>> results = new ArrayList<>();
+            for (int i = 0; i < 7; i++) {
+                results.add(pool.submit(() -> flight.execute("JFK/200", () -> {
+                    runs.incrementAndGet();
+                    await(releaseNext);
+                    return new Object();
+                })));
+            }
+            while (flight.getBehind() < 7) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            while (flight.getCoalesced() < 6) {
+                Thread.sleep(1);
+            }
+            releaseNext.countDown();
+            for (Future<Object> result : results) {
+                assertSame(results.get(0).get(), result.get());
+            }
+            assertNotSame(first.get(), results.get(0).get());
+            assertEquals(1, runs.get());
+            assertEquals(2, flight.getExecutions());
+
+            // the key is free once answered, a later caller computes afresh
+            Object later = flight.execute("JFK/200", Object::new);
+            assertEquals(3, flight.getExecutions());
+            assertNotSame(results.get(0).get(), later);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCallerNeverGetsAComputationBegunBeforeIt() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(5000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> stale = pool.submit(() -> flight.execute("BOS/0", () -> {
+                started.countDown();
+                await(release);
+                return "before the write";
+            }));
+            started.await();
+            pool.submit(() -> {
+                while (flight.getBehind() < 1) {
+                    Thread.yield();
+                }
+                release.countDown();
+            });
+            assertEquals("after the write", flight.execute("BOS/0", () -> "after the write"));
+            assertEquals("before the write", stale.get(5, TimeUnit.SECONDS));
+            assertEquals(0, flight.getCoalesced());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWaiterTimesOutAndComputes() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(20);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slow = pool.submit(() -> flight.execute("BOS/0", () -> {
+                started.countDown();
+                await(release);
+                return "slow";
+            }));
+            started.await();
+            assertEquals("own", flight.execute("BOS/0", () -> "own"));
+            assertEquals(1, flight.getTimeouts());
+            release.countDown();
+            assertEquals("slow", slow.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailureReachesWaiters() throws Exception {
+        SingleFlight<String, String> flight = new SingleFlight<>(5000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch releaseNext = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            pool.submit(() -> flight.execute("BOS/0", () -> {
+                started.countDown();
+                await(release);
+                throw new IllegalStateException("not theirs");
+            }));
+            started.await();
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                results.add(pool.submit(() -> flight.execute("BOS/0", () -> {
+                    await(releaseNext);
+                    throw new IllegalStateException("boom");
+                })));
+            }
+            while (flight.getBehind() < 2) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            while (flight.getCoalesced() < 1) {
+                Thread.sleep(1);
+            }
+            releaseNext.countDown();
+            for (Future<String> result : results) {
+                try {
+                    result.get(5, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertEquals("boom", e.getCause().getMessage());
+                }
+            }
+            // a failure is not remembered
+            assertEquals("fresh", flight.execute("BOS/0", () -> "fresh"));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}